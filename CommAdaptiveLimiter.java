@@ -0,0 +1,261 @@
+package webservice;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * CommAdaptiveLimiter limits running tasks per host, and adjusts the limit by AIMD from observed calls.
+ *
+ * 1. Task over the limit of its host waits in a FIFO queue of the host, and starts when a running task ends.
+ * 2. Each call ending received as CommRequestEventListener is a sample. Time to first byte is compared with
+ *    baseline, a slowly rising minimum of the host.
+ * 3. If call fails by connection or server error, or time to first byte is over baseline by tolerance ratio,
+ *    limit is multiplied by backoff ratio. (Multiplicative decrease, at most once per limit samples)
+ * 4. Otherwise limit increases by 1 / limit. (Additive increase, about 1 per limit samples)
+ *
+ * Set it to requests by CommBaseRequest.setConcurrencyLimiter(), or to all requests of a chain by
+ * CommChainManager.setConcurrencyLimiter().
+ */
+public class CommAdaptiveLimiter extends CommRequestEventListener {
+
+	/**
+	 * Default initial limit per host.
+	 */
+	public static final int DEFAULT_INITIAL_LIMIT = 4;
+	/**
+	 * Default ratio of time to first byte over baseline that is treated as congestion.
+	 */
+	public static final double DEFAULT_TOLERANCE = 2.0;
+	/**
+	 * Default ratio of limit after congestion.
+	 */
+	public static final double DEFAULT_BACKOFF_RATIO = 0.75;
+
+	/**
+	 * Weight of a sample above baseline, so baseline rises slowly when network becomes slower.
+	 */
+	private static final double BASELINE_RISE_WEIGHT = 0.01;
+
+	private final int _initial_limit;
+	private final int _min_limit;
+	private final int _max_limit;
+	private double _tolerance = DEFAULT_TOLERANCE;
+	private double _backoff_ratio = DEFAULT_BACKOFF_RATIO;
+	private final Map<String, HostState> _hosts = new HashMap<>();
+
+	/**
+	 * Limit state of a host.
+	 */
+	private class HostState {
+		double _limit = _initial_limit;
+		int _running_count = 0;
+		final ArrayDeque<LimitedRunnable> _queue = new ArrayDeque<>();
+		/**
+		 * Baseline of time to first byte. (nanosecond, 0 if no sample)
+		 */
+		double _baseline = 0;
+		/**
+		 * Samples since last decrease.
+		 */
+		int _samples_since_decrease = 0;
+	}
+
+	/**
+	 * Constructor with default initial limit.
+	 * @param min_limit Minimum limit per host. (at least 1)
+	 * @param max_limit Maximum limit per host.
+	 */
+	public CommAdaptiveLimiter(int min_limit, int max_limit) {
+		this(DEFAULT_INITIAL_LIMIT, min_limit, max_limit);
+	}
+
+	/**
+	 * Constructor.
+	 * @param initial_limit Initial limit per host.
+	 * @param min_limit Minimum limit per host. (at least 1)
+	 * @param max_limit Maximum limit per host.
+	 */
+	public CommAdaptiveLimiter(int initial_limit, int min_limit, int max_limit) {
+		_min_limit = Math.max(min_limit, 1);
+		_max_limit = Math.max(max_limit, _min_limit);
+		_initial_limit = Math.min(Math.max(initial_limit, _min_limit), _max_limit);
+	}
+
+	/**
+	 * Set ratio of time to first byte over baseline that is treated as congestion. (Default is DEFAULT_TOLERANCE)
+	 * @param tolerance Ratio. (greater than 1)
+	 */
+	public synchronized void setTolerance(double tolerance) {
+		_tolerance = Math.max(tolerance, 1.0);
+	}
+
+	/**
+	 * Set ratio of limit after congestion. (Default is DEFAULT_BACKOFF_RATIO)
+	 * @param backoff_ratio Ratio. (0 to 1)
+	 */
+	public synchronized void setBackoffRatio(double backoff_ratio) {
+		_backoff_ratio = Math.min(Math.max(backoff_ratio, 0.1), 1.0);
+	}
+
+	/**
+	 * Get executor that starts tasks of host within limit.
+	 * @param host Host string. (Like CommCallTiming.parseHost())
+	 * @param executor Executor that runs started tasks.
+	 * @return Executor object.
+	 */
+	public Executor wrap(final String host, final Executor executor) {
+		return new Executor() {
+			@Override
+			public void execute(Runnable runnable) {
+				submit(host, executor, runnable);
+			}
+		};
+	}
+
+	/**
+	 * @return Hosts that have state.
+	 */
+	public synchronized List<String> getHosts() {
+		return new ArrayList<>(_hosts.keySet());
+	}
+
+	/**
+	 * @param host Host string.
+	 * @return Current limit of host.
+	 */
+	public synchronized int getLimit(String host) {
+		HostState state = _hosts.get(host);
+		return (null == state) ? _initial_limit : (int) state._limit;
+	}
+
+	/**
+	 * @param host Host string.
+	 * @return Running task count of host.
+	 */
+	public synchronized int getRunningCount(String host) {
+		HostState state = _hosts.get(host);
+		return (null == state) ? 0 : state._running_count;
+	}
+
+	/**
+	 * @param host Host string.
+	 * @return Count of tasks waiting for limit of host.
+	 */
+	public synchronized int getQueueDepth(String host) {
+		HostState state = _hosts.get(host);
+		return (null == state) ? 0 : state._queue.size();
+	}
+
+	/**
+	 * Take a sample of call. It is called in main thread.
+	 * @param timing Timing of call.
+	 */
+	@Override
+	public void onCallEnd(CommCallTiming timing) {
+		if (timing._is_cached) {
+			return;	// Not a network sample.
+		}
+		boolean is_error = !timing._is_success
+				&& (timing._status_code < 0 || timing._status_code >= 500 || 429 == timing._status_code);
+		onSample(timing._host, timing._first_byte_time, is_error);
+	}
+
+	/**
+	 * Adjust limit of host by a sample.
+	 * @param host Host string.
+	 * @param latency Time to first byte. (nanosecond, negative if unknown)
+	 * @param is_error True if call fails by connection or server error.
+	 */
+	public synchronized void onSample(String host, long latency, boolean is_error) {
+		HostState state = getState(host);
+		++state._samples_since_decrease;
+
+		boolean is_congested = is_error;
+		if (latency > 0) {
+			if (0 == state._baseline || latency < state._baseline) {
+				state._baseline = latency;
+			} else {
+				state._baseline += (latency - state._baseline) * BASELINE_RISE_WEIGHT;
+			}
+			is_congested |= latency > state._baseline * _tolerance;
+		}
+
+		if (is_congested) {
+			// Decrease once per round of in-flight calls, as samples of the same round report the same congestion.
+			if (state._samples_since_decrease >= state._limit) {
+				state._limit = Math.max(state._limit * _backoff_ratio, _min_limit);
+				state._samples_since_decrease = 0;
+			}
+		} else {
+			state._limit = Math.min(state._limit + 1.0 / state._limit, _max_limit);
+			startQueued(state);
+		}
+	}
+
+	private synchronized void submit(String host, Executor executor, Runnable runnable) {
+		HostState state = getState(host);
+		state._queue.addLast(new LimitedRunnable(state, executor, runnable));
+		startQueued(state);
+	}
+
+	private synchronized void onTaskFinished(HostState state) {
+		--state._running_count;
+		startQueued(state);
+	}
+
+	/**
+	 * Start queued tasks within limit. Must be called with lock.
+	 * @param state Host state.
+	 */
+	private void startQueued(HostState state) {
+		while (!state._queue.isEmpty() && state._running_count < (int) state._limit) {
+			LimitedRunnable runnable = state._queue.removeFirst();
+			++state._running_count;
+			try {
+				runnable._executor.execute(runnable);
+			} catch (RuntimeException e) {
+				--state._running_count;
+				throw e;
+			}
+		}
+	}
+
+	private HostState getState(String host) {
+		String key = (null == host) ? "" : host;
+		HostState state = _hosts.get(key);
+		if (null == state) {
+			state = new HostState();
+			_hosts.put(key, state);
+		}
+		return state;
+	}
+
+	/**
+	 * Task that releases running count of host when it ends.
+	 */
+	private class LimitedRunnable implements Runnable {
+		private final HostState _state;
+		private final Executor _executor;
+		private final Runnable _runnable;
+
+		LimitedRunnable(HostState state, Executor executor, Runnable runnable) {
+			_state = state;
+			_executor = executor;
+			_runnable = runnable;
+		}
+
+		@Override
+		public void run() {
+			try {
+				_runnable.run();
+			} finally {
+				onTaskFinished(_state);
+			}
+		}
+	}
+
+}
@@ -1,10 +1,15 @@
 
 package webservice;
 
+import android.os.AsyncTask;
 import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import webservice.task.CommHttpTransport;
 
 
 /**
@@ -23,6 +28,62 @@ public abstract class CommBaseRequest {
      * A notification for CommChainManger class.
      */
     private IRequestComplete _req_chain_notify;
+    /**
+     * Executor that runs the request task. (null is getDefaultExecutor(), resolved when task starts,
+     * so request objects can be created on a JVM without Android)
+     */
+    private Executor _executor = null;
+    /**
+     * A flag if cancel() is called.
+     */
+    private boolean _is_cancelled = false;
+    /**
+     * Maximum time from runRequest() to completion. (millisecond, 0 is no limit)
+     */
+    private long _timeout = 0;
+    /**
+     * Timing event listeners of this request. (null if no listener)
+     */
+    private List<CommRequestEventListener> _event_listeners = null;
+    /**
+     * Priority of the request task when executor is CommPriorityScheduler.
+     */
+    private Priority _priority = Priority.VISIBLE;
+    /**
+     * Queued task of CommPriorityScheduler. (null if not scheduled, and cleared when task starts or request
+     * completes)
+     */
+    private CommPriorityScheduler.Ticket _ticket = null;
+    /**
+     * Per host limiter of running tasks. (null if no limit)
+     */
+    private CommAdaptiveLimiter _limiter = null;
+    /**
+     * Per host circuit breaker. (null if not used)
+     */
+    private CommCircuitBreaker _circuit_breaker = null;
+
+    /**
+     * Request priority levels, from highest to lowest.
+     */
+    public enum Priority {
+        /**
+         * User is waiting for the result. Started at once without running limit.
+         */
+        IMMEDIATE,
+        /**
+         * Result is shown on screen. (Default)
+         */
+        VISIBLE,
+        /**
+         * Result may be shown soon.
+         */
+        PREFETCH,
+        /**
+         * Result is not shown to user.
+         */
+        BACKGROUND
+    }
 
     /**
      * A notification interface.
@@ -42,6 +103,94 @@ public abstract class CommBaseRequest {
      */
     public abstract void runRequest();
 
+    /**
+     * Run the request by runRequest(), and get its completion as future. (Main thread only)
+     * The future is completed in main thread with the value passed to completion notifications.
+     * Android 7.0 (API 24) or later is required.
+     *
+     * @return Future of success flag.
+     */
+    public CompletableFuture<Boolean> runRequestAsync() {
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        addCompleteNotify(new IRequestComplete() {
+            @Override
+            public void onRequestComplete(boolean is_success) {
+                _final_action_list.remove(this);
+                future.complete(is_success);
+            }
+        });
+        runRequest();
+        return future;
+    }
+
+    /**
+     * Set maximum time from runRequest() to completion. Connection timeouts are limited by remaining time.
+     * CommChainManager sets it from the chain deadline.
+     *
+     * @param timeout Timeout (millisecond, 0 is no limit).
+     */
+    public void setTimeout(long timeout) {
+        _timeout = Math.max(timeout, 0);
+    }
+
+    /**
+     * Get maximum time from runRequest() to completion.
+     *
+     * @return Timeout (millisecond, 0 is no limit).
+     */
+    public long getTimeout() {
+        return _timeout;
+    }
+
+    /**
+     * Calculate deadline from now by timeout. Inheritance class calls it in runRequest() and passes it to task.
+     *
+     * @return Deadline of CommHttpTransport.currentTime() clock, or 0 if no timeout.
+     */
+    protected long calculateDeadline() {
+        return (0 == _timeout) ? 0 : CommHttpTransport.currentTime() + _timeout;
+    }
+
+    /**
+     * Cancel the running request. User callback of the request is not called, and the completion
+     * notifications are called with failure if the request is running. Running connection is disconnected
+     * immediately, unless other requests share the same connection.
+     * Cancelled request cannot be run again. runRequest() of cancelled request calls only the completion
+     * notifications with failure, so chain and runRequestAsync() still complete.
+     */
+    public void cancel() {
+        if (_is_cancelled) {
+            return;
+        }
+        _is_cancelled = true;
+        boolean is_detached = onCancel();
+        if (null != _ticket) {
+            _ticket.removeIfCancelled();    // Task aborted by onCancel() does not wait for a running slot.
+            _ticket = null;
+        }
+        if (is_detached) {
+            runCompleteAction(false);
+        }
+    }
+
+    /**
+     * Check if cancel() is called.
+     *
+     * @return True if the request is cancelled.
+     */
+    public boolean isCancelled() {
+        return _is_cancelled;
+    }
+
+    /**
+     * Called by cancel(). Inheritance class detaches itself from the running task.
+     *
+     * @return True if the request is running and detached, false if nothing to cancel.
+     */
+    protected boolean onCancel() {
+        return false;
+    }
+
     /**
      * Add notification object to completion notification list.
      *
@@ -54,6 +203,30 @@ public abstract class CommBaseRequest {
         _final_action_list.add(notify);
     }
 
+    /**
+     * Add timing event listener of this request. Global listeners are registered by CommRequestEvents.
+     *
+     * @param listener Listener object.
+     */
+    public void addEventListener(CommRequestEventListener listener) {
+        if (null == listener) {
+            return;
+        }
+        if (null == _event_listeners) {
+            _event_listeners = new ArrayList<>();
+        }
+        _event_listeners.add(listener);
+    }
+
+    /**
+     * Get timing event listeners of this request. Inheritance class passes them to task.
+     *
+     * @return Listener list, or null if no listener.
+     */
+    protected List<CommRequestEventListener> getEventListeners() {
+        return _event_listeners;
+    }
+
     /**
      * Clear all completed notifications.
      */
@@ -61,6 +234,176 @@ public abstract class CommBaseRequest {
         _final_action_list.clear();
     }
 
+    /**
+     * Set executor that runs the request task.
+     *
+     * @param executor Executor object. Null resets to default executor of the request.
+     */
+    public void setExecutor(Executor executor) {
+        _executor = executor;
+    }
+
+    /**
+     * Get executor that runs the request task.
+     *
+     * @return Executor object.
+     */
+    public Executor getExecutor() {
+        return (null == _executor) ? getDefaultExecutor() : _executor;
+    }
+
+    /**
+     * Get executor used when setExecutor() is not called. Inheritance class overrides it if serial execution
+     * does not fit, like a long download.
+     *
+     * @return AsyncTask serial executor.
+     */
+    protected Executor getDefaultExecutor() {
+        return AsyncTask.SERIAL_EXECUTOR;
+    }
+
+    /**
+     * Set priority of the request. It takes effect when executor is CommPriorityScheduler.
+     * If the task of the request is queued and not started, it is moved to new priority.
+     *
+     * @param priority Priority level.
+     */
+    public void setPriority(Priority priority) {
+        _priority = (null == priority) ? Priority.VISIBLE : priority;
+        if (null != _ticket && _ticket.isStarted()) {
+            _ticket = null;
+        }
+        if (null != _ticket) {
+            _ticket.setPriority(_priority);
+        }
+    }
+
+    /**
+     * Get priority of the request.
+     *
+     * @return Priority level.
+     */
+    public Priority getPriority() {
+        return _priority;
+    }
+
+    /**
+     * Set per host limiter of running tasks. The limiter also receives timing events of this request
+     * to adjust the limit.
+     *
+     * @param limiter Limiter object. (null if no limit)
+     */
+    public void setConcurrencyLimiter(CommAdaptiveLimiter limiter) {
+        if (limiter == _limiter) {
+            return;
+        }
+        if (null != _event_listeners && null != _limiter) {
+            _event_listeners.remove(_limiter);
+        }
+        _limiter = limiter;
+        addEventListener(limiter);
+    }
+
+    /**
+     * Get per host limiter of running tasks.
+     *
+     * @return Limiter object, or null if no limit.
+     */
+    public CommAdaptiveLimiter getConcurrencyLimiter() {
+        return _limiter;
+    }
+
+    /**
+     * Set per host circuit breaker. The breaker also receives timing events of this request.
+     * While breaker of URL host is open, the request fails immediately.
+     *
+     * @param breaker Circuit breaker object. (null if not used)
+     */
+    public void setCircuitBreaker(CommCircuitBreaker breaker) {
+        if (breaker == _circuit_breaker) {
+            return;
+        }
+        if (null != _event_listeners && null != _circuit_breaker) {
+            _event_listeners.remove(_circuit_breaker);
+        }
+        _circuit_breaker = breaker;
+        addEventListener(breaker);
+    }
+
+    /**
+     * Get per host circuit breaker.
+     *
+     * @return Circuit breaker object, or null if not used.
+     */
+    public CommCircuitBreaker getCircuitBreaker() {
+        return _circuit_breaker;
+    }
+
+    /**
+     * Complete the request as failure without running it. The user callback is called with failure message,
+     * and then the completion notifications. CommChainManager calls it for a request skipped by failed
+     * prerequisite. Inheritance class overrides it to call its failure callback. (Default calls only the
+     * completion notifications)
+     *
+     * @param fail_msg Failure message.
+     */
+    protected void failRequest(String fail_msg) {
+        runCompleteAction(false);
+    }
+
+    /**
+     * Check circuit breaker before starting task. Inheritance class calls it in runRequest(), and fails the
+     * request by failRequest() if it returns false.
+     *
+     * @param url Request URL string.
+     * @return True if request can run.
+     */
+    protected boolean isCallPermitted(String url) {
+        return null == _circuit_breaker || _circuit_breaker.tryAcquire(CommCallTiming.parseHost(url));
+    }
+
+    /**
+     * Get executor passed to the task in runRequest(). If executor is CommPriorityScheduler, task is
+     * queued with priority of this request, and the key is used to find the queued task by
+     * attachScheduledTask(). If concurrency limiter is set, task waits for limit of URL host first.
+     *
+     * @param key Key of the task, like coalescing key. (nullable)
+     * @param url Request URL string.
+     * @return Executor object.
+     */
+    protected Executor getTaskExecutor(final String key, String url) {
+        Executor executor = getExecutor();
+        if (_executor instanceof CommPriorityScheduler) {
+            final CommPriorityScheduler scheduler = (CommPriorityScheduler) _executor;
+            executor = new Executor() {
+                @Override
+                public void execute(Runnable runnable) {
+                    _ticket = scheduler.execute(runnable, _priority, key);
+                }
+            };
+        }
+        if (null != _limiter) {
+            executor = _limiter.wrap(CommCallTiming.parseHost(url), executor);
+        }
+        return executor;
+    }
+
+    /**
+     * Called when the request shares a running task of other request. If the task is queued in
+     * CommPriorityScheduler, its priority is raised to priority of this request.
+     *
+     * @param key Key passed to getTaskExecutor() by the request that starts the task.
+     */
+    protected void attachScheduledTask(String key) {
+        if (!(_executor instanceof CommPriorityScheduler)) {
+            return;
+        }
+        _ticket = ((CommPriorityScheduler) _executor).findQueued(key);
+        if (null != _ticket && _priority.ordinal() < _ticket.getPriority().ordinal()) {
+            _ticket.setPriority(_priority);
+        }
+    }
+
     /**
      * Set a completed notification for request chain.
      *
@@ -78,7 +421,9 @@ public abstract class CommBaseRequest {
      */
     protected void runCompleteAction(boolean is_success) {
         Log.i(getClass().getName(), "Run Complete Action");
-        for (IRequestComplete notify : _final_action_list) {
+        _ticket = null;
+        // Copy the list, notify may remove itself.
+        for (IRequestComplete notify : new ArrayList<>(_final_action_list)) {
             if (null != notify) {
                 notify.onRequestComplete(is_success);
             }
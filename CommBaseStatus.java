@@ -1,5 +1,8 @@
 package webservice;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
 /**
  * CommBaseStatus is abstract base class that defined some method that will be called on CommRequestMessageTask.
  * we can override some methods and custom sending format for different
@@ -8,6 +11,11 @@ public abstract class CommBaseStatus {
 
 	private String _url = "";
 	private CommType _comm_type = CommType.HttpPost;
+	private CommHttpCache _response_cache = null;
+	private CachePolicy _cache_policy = CachePolicy.NO_CACHE;
+	private int _gzip_post_threshold = -1;
+	private CommRetryPolicy _retry_policy = null;
+	private CommCodec _codec = null;
 
 	/**
 	 * Http sending mode.
@@ -23,12 +31,40 @@ public abstract class CommBaseStatus {
 		HttpGet
 	}
 
+	/**
+	 * Response cache mode of Http/Get.
+	 */
+	public enum CachePolicy {
+		/**
+		 * Always download response. (Default)
+		 */
+		NO_CACHE,
+		/**
+		 * Use stored response while it is fresh by Cache-Control max-age, and revalidate it when stale.
+		 */
+		USE_HEADERS,
+		/**
+		 * Always revalidate stored response by If-None-Match / If-Modified-Since.
+		 */
+		ALWAYS_REVALIDATE
+	}
+
 	/**
 	 * Get URL string. If connection type is Http/Get, this string includes data string.
 	 * @return Sending URL string.
 	 */
 	public String getRequestURL() {
-		return getOriginalURL();
+		CommParamEncoder params = new CommParamEncoder();
+		addQueryParams(params);
+		return params.appendTo(getOriginalURL());
+	}
+
+	/**
+	 * Add query parameters of default getRequestURL(). Subclass overrides it instead of concatenating query
+	 * string by hand. (Default adds nothing)
+	 * @param params Parameter encoder.
+	 */
+	protected void addQueryParams(CommParamEncoder params) {
 	}
 
 	/**
@@ -39,6 +75,108 @@ public abstract class CommBaseStatus {
 		return "";
 	}
 
+	/**
+	 * Get Http/Post data object encoded by codec. Subclass overrides it to send data by codec instead of
+	 * getPostString().
+	 * @return Data object, or null if getPostString() is sent.
+	 */
+	public Object getPostData() {
+		return null;
+	}
+
+	/**
+	 * Get Http/Post body. It is body written by getBodyWriter() if it returns writer, data object encoded by codec
+	 * if getPostData() returns object, or UTF-8 data string. Request task and CommWriteBehindQueue stream body
+	 * writer without this method.
+	 * @return Http/Post body.
+	 * @throws IOException Encoding error.
+	 */
+	public byte[] getPostBody() throws IOException {
+		CommBodyWriter writer = getBodyWriter();
+		if (null != writer) {
+			ByteArrayOutputStream byte_stream = new ByteArrayOutputStream(
+					Math.max((int) Math.min(writer.getContentLength(), 1 << 20), 64));
+			writer.writeTo(byte_stream);
+			return byte_stream.toByteArray();
+		}
+		Object data = getPostData();
+		if (null == data) {
+			return getPostString().getBytes("UTF-8");
+		}
+		return ((null == _codec) ? CommJsonCodec.INSTANCE : _codec).encode(data);
+	}
+
+	/**
+	 * Get Content-Type of Http/Post body. It is content type of body writer if it has one, or content type of codec.
+	 * @return Content-Type, or null if not specified.
+	 */
+	public String getPostContentType() {
+		return getPostContentType(getBodyWriter());
+	}
+
+	/**
+	 * Get Content-Type of Http/Post body for caller that already has body writer, so writer is not created again.
+	 * @param writer Body writer returned by getBodyWriter(). (nullable)
+	 * @return Content-Type, or null if not specified.
+	 */
+	public String getPostContentType(CommBodyWriter writer) {
+		String content_type = (null == writer) ? null : writer.getContentType();
+		if (null == content_type && null != _codec) {
+			content_type = _codec.getContentType();
+		}
+		return content_type;
+	}
+
+	/**
+	 * Get Http/Post body writer. Subclass overrides it to write large body directly to connection stream instead of
+	 * building it in memory, and it has priority over getPostData() and getPostString(). Use
+	 * CommParamEncoder.toBodyWriter() for form body.
+	 * @return Body writer, or null if getPostData() or getPostString() is sent. (Default is null)
+	 */
+	public CommBodyWriter getBodyWriter() {
+		return null;
+	}
+
+	/**
+	 * Set codec of request body and response. Request sends Content-Type and Accept of codec, and response is
+	 * decoded by codec of its Content-Type. (Default is null, no header is sent and response is JSON)
+	 * @param codec Codec object.
+	 */
+	public void setCodec(CommCodec codec) {
+		_codec = codec;
+	}
+
+	/**
+	 * Get codec of request body and response.
+	 * @return Codec object, or null if not set.
+	 */
+	public CommCodec getCodec() {
+		return _codec;
+	}
+
+	/**
+	 * Get key to share one in-flight connection between identical requests.
+	 * Default key of Http/Get is request URL with Accept of codec, response cache with its policy, and retry
+	 * policy, so only requests that send and handle the same request share it. Http/Post is never shared. (null)
+	 * @return Key string, or null if request must not be shared.
+	 */
+	public String getCoalesceKey() {
+		if (!isHttpGet()) {
+			return null;
+		}
+		StringBuilder key = new StringBuilder(getRequestURL());
+		key.append('|').append((null == _codec) ? "" : _codec.getAcceptString());
+		CommHttpCache cache = getResponseCache();
+		if (null != cache) {
+			key.append("|cache@").append(Integer.toHexString(System.identityHashCode(cache))).append(':')
+					.append(_cache_policy);
+		}
+		if (null != _retry_policy) {
+			key.append("|retry@").append(Integer.toHexString(System.identityHashCode(_retry_policy)));
+		}
+		return key.toString();
+	}
+
 	/**
 	 * Get data string that will be sent.
 	 * @return Data string.
@@ -47,6 +185,38 @@ public abstract class CommBaseStatus {
 //		return _data_str;
 //	}
 
+	/**
+	 * Set minimum Http/Post data size (byte) to compress data by gzip. Server must accept gzip request body.
+	 * @param threshold Minimum data size. (negative is never, default)
+	 */
+	public void setGzipPostThreshold(int threshold) {
+		_gzip_post_threshold = threshold;
+	}
+
+	/**
+	 * Get minimum Http/Post data size (byte) to compress data by gzip.
+	 * @return Minimum data size. (negative is never)
+	 */
+	public int getGzipPostThreshold() {
+		return _gzip_post_threshold;
+	}
+
+	/**
+	 * Set retry policy. (Default is null, one attempt only)
+	 * @param policy Retry policy object.
+	 */
+	public void setRetryPolicy(CommRetryPolicy policy) {
+		_retry_policy = policy;
+	}
+
+	/**
+	 * Get retry policy.
+	 * @return Retry policy object, or null if request is not retried.
+	 */
+	public CommRetryPolicy getRetryPolicy() {
+		return _retry_policy;
+	}
+
 	/**
 	 * Set connection mode as Http/Post or Http/Get.
 	 * @param type Connection mode.
@@ -71,6 +241,32 @@ public abstract class CommBaseStatus {
 		return CommType.HttpGet == this._comm_type;
 	}
 
+	/**
+	 * Set response cache of Http/Get. Subclass can call this method in constructor to set its cache policy.
+	 * @param cache Cache object. (null if no cache)
+	 * @param policy Cache policy.
+	 */
+	public void setResponseCache(CommHttpCache cache, CachePolicy policy) {
+		_response_cache = cache;
+		_cache_policy = (null == policy) ? CachePolicy.NO_CACHE : policy;
+	}
+
+	/**
+	 * Get response cache. Cache is used only for Http/Get.
+	 * @return Cache object, or null if response is not cached.
+	 */
+	public CommHttpCache getResponseCache() {
+		return (CachePolicy.NO_CACHE == getCachePolicy()) ? null : _response_cache;
+	}
+
+	/**
+	 * Get response cache policy.
+	 * @return Cache policy.
+	 */
+	public CachePolicy getCachePolicy() {
+		return _cache_policy;
+	}
+
 	/**
 	 * Set original URL string.
 	 * @param url URL string.
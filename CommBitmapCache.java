@@ -0,0 +1,201 @@
+package webservice;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.io.File;
+
+/**
+ * CommBitmapCache is a two-tier cache for CommRequestGetUrlBitmap.
+ *
+ * 1. Memory tier keeps decoded Bitmap objects, bounded by total bitmap byte size.
+ * 2. Disk tier (optional) keeps encoded image data by CommDiskLruCache, bounded by total file size.
+ *
+ * Memory tier can be used in main thread. Disk tier methods do file I/O and are called in worker thread.
+ *
+ * A bitmap returned by this cache may still be in memory tier and returned again later, so it must not be put
+ * to CommBitmapPool, nor recycled, until it is removed from memory tier, like by clearMemory().
+ */
+public class CommBitmapCache {
+
+    private final LruCache<String, Bitmap> _memory_cache;
+    private final CommDiskLruCache _disk_cache;
+
+    /**
+     * Constructor of memory only cache.
+     *
+     * @param memory_max_size Maximum total byte size of bitmaps in memory.
+     */
+    public CommBitmapCache(int memory_max_size) {
+        this(memory_max_size, null, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memory_max_size Maximum total byte size of bitmaps in memory.
+     * @param disk_directory Directory of disk cache. (null if disk tier is not used)
+     * @param disk_max_size Maximum total byte size of files in disk.
+     */
+    public CommBitmapCache(int memory_max_size, File disk_directory, long disk_max_size) {
+        _memory_cache = new LruCache<String, Bitmap>(memory_max_size) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        _disk_cache = (null == disk_directory) ? null : new CommDiskLruCache(disk_directory, disk_max_size);
+    }
+
+    /**
+     * Get memory tier key of URL and decoding option. Bitmaps of different target size or config have
+     * different keys, and the key is also used to share running decoding task.
+     *
+     * @param url Image URL string.
+     * @param target_width Target width. (0 if image is decoded at full size)
+     * @param target_height Target height. (0 if image is decoded at full size)
+     * @param config Decoding config. (null is ARGB_8888)
+     * @return Cache key.
+     */
+    public static String getMemoryKey(String url, int target_width, int target_height, Bitmap.Config config) {
+        boolean is_sampling = target_width > 0 && target_height > 0;
+        boolean is_default_config = null == config || Bitmap.Config.ARGB_8888 == config;
+        if (!is_sampling && is_default_config) {
+            return url;
+        }
+        StringBuilder key = new StringBuilder(url.length() + 24).append(url);
+        if (is_sampling) {
+            key.append('#').append(target_width).append('x').append(target_height);
+        }
+        if (!is_default_config) {
+            key.append('@').append(config.name());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Get bitmap from memory tier.
+     *
+     * @param key Cache key.
+     * @return Bitmap object, or null if not found.
+     */
+    public Bitmap getBitmap(String key) {
+        return _memory_cache.get(key);
+    }
+
+    /**
+     * Put bitmap to memory tier.
+     *
+     * @param key Cache key.
+     * @param bitmap Bitmap object.
+     */
+    public void putBitmap(String key, Bitmap bitmap) {
+        if (null == key || null == bitmap) {
+            return;
+        }
+        _memory_cache.put(key, bitmap);
+    }
+
+    /**
+     * Get encoded image data from disk tier.
+     *
+     * @param url Image URL string.
+     * @return Encoded data, or null if not found or disk tier is not used.
+     */
+    public byte[] getEncoded(String url) {
+        return (null == _disk_cache) ? null : _disk_cache.get(url);
+    }
+
+    /**
+     * Put encoded image data to disk tier.
+     *
+     * @param url Image URL string.
+     * @param data Encoded data.
+     */
+    public void putEncoded(String url, byte[] data) {
+        if (null != _disk_cache) {
+            _disk_cache.put(url, data);
+        }
+    }
+
+    /**
+     * Check if encoded image data is in disk tier without reading it.
+     *
+     * @param url Image URL string.
+     * @return True if found.
+     */
+    public boolean hasEncoded(String url) {
+        return null != _disk_cache && _disk_cache.contains(url);
+    }
+
+    /**
+     * @return True if disk tier is used.
+     */
+    public boolean hasDiskCache() {
+        return null != _disk_cache;
+    }
+
+    /**
+     * Remove all bitmaps in memory tier.
+     */
+    public void clearMemory() {
+        _memory_cache.evictAll();
+    }
+
+    /**
+     * @return Count of getBitmap() that returns bitmap.
+     */
+    public int getMemoryHitCount() {
+        return _memory_cache.hitCount();
+    }
+
+    /**
+     * @return Count of getBitmap() that returns null.
+     */
+    public int getMemoryMissCount() {
+        return _memory_cache.missCount();
+    }
+
+    /**
+     * @return Count of bitmaps removed from memory tier by size limit.
+     */
+    public int getMemoryEvictionCount() {
+        return _memory_cache.evictionCount();
+    }
+
+    /**
+     * @return Total byte size of bitmaps in memory.
+     */
+    public int getMemorySize() {
+        return _memory_cache.size();
+    }
+
+    /**
+     * @return Count of getEncoded() that returns data. (0 if disk tier is not used)
+     */
+    public int getDiskHitCount() {
+        return (null == _disk_cache) ? 0 : _disk_cache.getHitCount();
+    }
+
+    /**
+     * @return Count of getEncoded() that returns null. (0 if disk tier is not used)
+     */
+    public int getDiskMissCount() {
+        return (null == _disk_cache) ? 0 : _disk_cache.getMissCount();
+    }
+
+    /**
+     * @return Count of files deleted from disk tier by size limit. (0 if disk tier is not used)
+     */
+    public int getDiskEvictionCount() {
+        return (null == _disk_cache) ? 0 : _disk_cache.getEvictionCount();
+    }
+
+    /**
+     * @return Total byte size of files in disk.
+     */
+    public long getDiskSize() {
+        return (null == _disk_cache) ? 0 : _disk_cache.getSize();
+    }
+
+}
@@ -0,0 +1,135 @@
+package webservice;
+
+import android.graphics.Bitmap;
+
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * CommBitmapPool keeps unused mutable bitmaps by byte size bucket, so CommRequestBitmapTask can
+ * reuse their memory by BitmapFactory.Options.inBitmap instead of allocating new bitmaps.
+ *
+ * Users put bitmaps that are no longer displayed back to pool. Reusing bitmap of different size
+ * needs Android 4.4 (API 19) or later. Bitmap still held by memory tier of CommBitmapCache must not be put,
+ * because decoding into it would change the image of the cached entry.
+ */
+public class CommBitmapPool {
+
+    /**
+     * Bitmap larger than requested size by this multiple is not reused.
+     */
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final TreeMap<Integer, LinkedList<Bitmap>> _buckets = new TreeMap<>();
+    private final long _max_size;
+    private long _size = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param max_size Maximum total byte size of pooled bitmaps.
+     */
+    public CommBitmapPool(long max_size) {
+        _max_size = max_size;
+    }
+
+    /**
+     * Get a reusable bitmap that can hold an image of specified size.
+     *
+     * @param width Image width.
+     * @param height Image height.
+     * @param config Image config.
+     * @return Reusable bitmap, or null if no suitable bitmap in pool.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int required_size = width * height * getBytesPerPixel(config);
+        if (required_size <= 0) {
+            return null;
+        }
+
+        Map.Entry<Integer, LinkedList<Bitmap>> entry = _buckets.ceilingEntry(required_size);
+        if (null == entry || entry.getKey() > required_size * MAX_SIZE_MULTIPLE) {
+            return null;
+        }
+
+        Bitmap bitmap = entry.getValue().removeFirst();
+        if (entry.getValue().isEmpty()) {
+            _buckets.remove(entry.getKey());
+        }
+        _size -= entry.getKey();
+        return bitmap;
+    }
+
+    /**
+     * Put an unused bitmap to pool. Immutable or recycled bitmap is ignored.
+     * The largest bitmaps are recycled when pool size exceeds the limit.
+     *
+     * @param bitmap Unused bitmap.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (null == bitmap || !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+
+        int size = bitmap.getAllocationByteCount();
+        if (size > _max_size) {
+            bitmap.recycle();
+            return;
+        }
+
+        LinkedList<Bitmap> bucket = _buckets.get(size);
+        if (null == bucket) {
+            bucket = new LinkedList<>();
+            _buckets.put(size, bucket);
+        }
+        bucket.addLast(bitmap);
+        _size += size;
+
+        while (_size > _max_size) {
+            Map.Entry<Integer, LinkedList<Bitmap>> largest = _buckets.lastEntry();
+            largest.getValue().removeFirst().recycle();
+            if (largest.getValue().isEmpty()) {
+                _buckets.remove(largest.getKey());
+            }
+            _size -= largest.getKey();
+        }
+    }
+
+    /**
+     * Recycle all pooled bitmaps.
+     */
+    public synchronized void clear() {
+        for (LinkedList<Bitmap> bucket : _buckets.values()) {
+            for (Bitmap bitmap : bucket) {
+                bitmap.recycle();
+            }
+        }
+        _buckets.clear();
+        _size = 0;
+    }
+
+    /**
+     * @return Total byte size of pooled bitmaps.
+     */
+    public synchronized long getSize() {
+        return _size;
+    }
+
+    /**
+     * Get byte count of one pixel.
+     *
+     * @param config Image config.
+     * @return Byte count.
+     */
+    public static int getBytesPerPixel(Bitmap.Config config) {
+        if (Bitmap.Config.ALPHA_8 == config) {
+            return 1;
+        }
+        if (Bitmap.Config.RGB_565 == config || Bitmap.Config.ARGB_4444 == config) {
+            return 2;
+        }
+        return 4;
+    }
+
+}
@@ -0,0 +1,189 @@
+package webservice;
+
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import webservice.task.CommRequestBitmapTask;
+
+/**
+ * CommBitmapPrefetcher downloads encoded images to disk tier of CommBitmapCache before they are shown.
+ * Images are not decoded, so prefetching costs no bitmap memory.
+ *
+ * 1. Prefetch tasks run with PREFETCH priority when executor is CommPriorityScheduler.
+ * 2. Prefetches are grouped by tag, and cancel(tag) drops the ones not finished. (Like rows scrolled away)
+ * 3. CommRequestGetUrlBitmap of a prefetching URL with the same cache waits for the prefetch and decodes
+ *    its data instead of downloading again. Such prefetch is not disconnected by cancel(tag).
+ *
+ * All methods must be called in main thread.
+ */
+public class CommBitmapPrefetcher {
+
+    /**
+     * Default maximum number of running prefetch tasks of default scheduler.
+     */
+    public static final int DEFAULT_MAX_RUNNING = 2;
+
+    private final CommBitmapCache _cache;
+    private Executor _executor = new CommPriorityScheduler(AsyncTask.THREAD_POOL_EXECUTOR, DEFAULT_MAX_RUNNING);
+    private final Map<Object, List<Prefetch>> _tag_prefetches = new HashMap<>();
+    private int _request_count = 0;
+    private int _skip_count = 0;
+
+    /**
+     * A running prefetch.
+     */
+    private class Prefetch implements CommRequestBitmapTask.ActionComplete {
+        private final Object _tag;
+        private final CommRequestBitmapTask _task;
+
+        Prefetch(Object tag, CommRequestBitmapTask task) {
+            _tag = tag;
+            _task = task;
+        }
+
+        @Override
+        public void onGetBitmapComplete(boolean is_success, Bitmap bmp, String msg) {
+            List<Prefetch> prefetches = _tag_prefetches.get(_tag);
+            if (null != prefetches) {
+                prefetches.remove(this);
+                if (prefetches.isEmpty()) {
+                    _tag_prefetches.remove(_tag);
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param cache Bitmap cache with disk tier.
+     */
+    public CommBitmapPrefetcher(CommBitmapCache cache) {
+        if (null == cache || !cache.hasDiskCache()) {
+            throw new IllegalArgumentException("Prefetch needs bitmap cache with disk tier");
+        }
+        _cache = cache;
+    }
+
+    /**
+     * Set executor of prefetch tasks. Share a CommPriorityScheduler with CommRequestGetUrlBitmap, so
+     * visible requests run before prefetches and raise priority of prefetches they wait for.
+     * (Default is a CommPriorityScheduler running at most DEFAULT_MAX_RUNNING tasks)
+     *
+     * @param executor Executor object.
+     */
+    public void setExecutor(Executor executor) {
+        if (null != executor) {
+            _executor = executor;
+        }
+    }
+
+    /**
+     * Get key of prefetch task registered as running task.
+     *
+     * @param url Image URL string.
+     * @return Task key.
+     */
+    public static String getPrefetchKey(String url) {
+        return "prefetch|" + url;
+    }
+
+    /**
+     * Prefetch images. URLs already in disk tier or prefetching are skipped.
+     *
+     * @param urls Image URL strings.
+     * @param tag Tag to cancel prefetches. (Not null)
+     */
+    public void prefetch(List<String> urls, Object tag) {
+        for (String url : urls) {
+            ++_request_count;
+            String key = getPrefetchKey(url);
+            if (null != CommRequestBitmapTask.findInFlight(key) || _cache.hasEncoded(url)) {
+                ++_skip_count;
+                continue;
+            }
+
+            CommRequestBitmapTask task = new CommRequestBitmapTask();
+            task.setCache(_cache);
+            task.setEncodedOnly(true);
+            Prefetch prefetch = new Prefetch(tag, task);
+            task.addCompleteNotify(prefetch);
+            task.registerInFlight(key);
+
+            List<Prefetch> prefetches = _tag_prefetches.get(tag);
+            if (null == prefetches) {
+                prefetches = new ArrayList<>();
+                _tag_prefetches.put(tag, prefetches);
+            }
+            prefetches.add(prefetch);
+            task.executeOnExecutor(getTaskExecutor(key), url);
+        }
+    }
+
+    /**
+     * Cancel prefetches of tag not finished. A prefetch task is aborted and disconnected only if no
+     * CommRequestGetUrlBitmap waits for it. A waited task keeps running for the request, and stays in flight,
+     * so prefetch() of the same URL with another tag is skipped until it finishes. Tag of the cancelled
+     * prefetches is forgotten either way.
+     *
+     * @param tag Tag passed to prefetch().
+     */
+    public void cancel(Object tag) {
+        List<Prefetch> prefetches = _tag_prefetches.remove(tag);
+        if (null == prefetches) {
+            return;
+        }
+        for (Prefetch prefetch : prefetches) {
+            prefetch._task.removeCompleteNotify(prefetch);    // Aborts task if no request waits for it.
+        }
+    }
+
+    /**
+     * Cancel all prefetches not finished.
+     */
+    public void cancelAll() {
+        for (Object tag : new ArrayList<>(_tag_prefetches.keySet())) {
+            cancel(tag);
+        }
+    }
+
+    /**
+     * @return Number of URLs passed to prefetch().
+     */
+    public int getRequestCount() {
+        return _request_count;
+    }
+
+    /**
+     * @return Number of URLs skipped because they are cached or prefetching.
+     */
+    public int getSkipCount() {
+        return _skip_count;
+    }
+
+    /**
+     * Get executor that queues prefetch task with PREFETCH priority.
+     *
+     * @param key Task key.
+     * @return Executor object.
+     */
+    private Executor getTaskExecutor(final String key) {
+        if (!(_executor instanceof CommPriorityScheduler)) {
+            return _executor;
+        }
+        final CommPriorityScheduler scheduler = (CommPriorityScheduler) _executor;
+        return new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                scheduler.execute(runnable, CommBaseRequest.Priority.PREFETCH, key);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,73 @@
+package webservice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * CommBodyWriter writes Http/Post body directly to connection stream, so large body like log bundle is never
+ * held in memory. Return it from CommBaseStatus.getBodyWriter().
+ *
+ * If content length is known, body is sent in fixed-length streaming mode, otherwise in chunked mode.
+ * writeTo() is called again for each retried attempt, so it must be able to write the same body again.
+ */
+public abstract class CommBodyWriter {
+
+	/**
+	 * Write whole body. Stream is closed by caller.
+	 * @param output_stream Connection stream.
+	 * @throws IOException Writing error.
+	 */
+	public abstract void writeTo(OutputStream output_stream) throws IOException;
+
+	/**
+	 * @return Byte count of body, or -1 if unknown. (Default is -1, chunked mode)
+	 */
+	public long getContentLength() {
+		return -1;
+	}
+
+	/**
+	 * @return Content-Type of body, or null to use codec of CommBaseStatus.
+	 */
+	public String getContentType() {
+		return null;
+	}
+
+	/**
+	 * Create writer that sends file content.
+	 * @param file File object.
+	 * @param content_type Content-Type of file. (nullable)
+	 * @return Writer object.
+	 */
+	public static CommBodyWriter fromFile(final File file, final String content_type) {
+		return new CommBodyWriter() {
+			@Override
+			public void writeTo(OutputStream output_stream) throws IOException {
+				InputStream input_stream = new FileInputStream(file);
+				try {
+					byte[] buffer = new byte[64 * 1024];
+					int count;
+					while ((count = input_stream.read(buffer)) >= 0) {
+						output_stream.write(buffer, 0, count);
+					}
+				} finally {
+					input_stream.close();
+				}
+			}
+
+			@Override
+			public long getContentLength() {
+				return file.length();
+			}
+
+			@Override
+			public String getContentType() {
+				return content_type;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,121 @@
+package webservice;
+
+/**
+ * CommCallTiming records phases of one connection made by a task. Times are in nanoseconds, and
+ * phase time is -1 if the phase did not happen (e.g. no connection for cached response).
+ */
+public class CommCallTiming {
+
+	/**
+	 * Call kind.
+	 */
+	public enum Kind {
+		/**
+		 * Call of CommRequestMessageTask.
+		 */
+		MESSAGE,
+		/**
+		 * Call of CommRequestBitmapTask.
+		 */
+		BITMAP
+	}
+
+	/**
+	 * Call kind.
+	 */
+	public Kind _kind;
+	/**
+	 * Request URL without query string.
+	 */
+	public String _endpoint;
+	/**
+	 * Host of request URL.
+	 */
+	public String _host;
+	/**
+	 * Flag if call is successful.
+	 */
+	public boolean _is_success;
+	/**
+	 * Http status code, or -1 if no response.
+	 */
+	public int _status_code = -1;
+	/**
+	 * Number of attempts by retry policy.
+	 */
+	public int _attempt_count = 1;
+	/**
+	 * Flag if response is served from cache without connection.
+	 */
+	public boolean _is_cached;
+
+	/**
+	 * Time from task execution to worker thread start.
+	 */
+	public long _queue_time = -1;
+	/**
+	 * Time to connect server.
+	 */
+	public long _connect_time = -1;
+	/**
+	 * Time to write request body.
+	 */
+	public long _write_time = -1;
+	/**
+	 * Time from request sent to response status received.
+	 */
+	public long _first_byte_time = -1;
+	/**
+	 * Time to read response body into memory.
+	 */
+	public long _read_time = -1;
+	/**
+	 * Time to decode or parse response. (Includes reading if response is decoded from stream)
+	 */
+	public long _decode_time = -1;
+	/**
+	 * Time of completion callbacks in main thread.
+	 */
+	public long _callback_time = -1;
+	/**
+	 * Total time from task execution to callbacks end.
+	 */
+	public long _total_time = -1;
+
+	/**
+	 * Request body bytes sent.
+	 */
+	public long _bytes_sent = 0;
+	/**
+	 * Response body bytes received. (After gzip decoding)
+	 */
+	public long _bytes_received = 0;
+
+	/**
+	 * Constructor.
+	 * @param kind Call kind.
+	 * @param url Request URL string.
+	 */
+	public CommCallTiming(Kind kind, String url) {
+		_kind = kind;
+		int query_index = url.indexOf('?');
+		_endpoint = (query_index < 0) ? url : url.substring(0, query_index);
+		_host = parseHost(url);
+	}
+
+	/**
+	 * Get host of URL.
+	 * @param url URL string.
+	 * @return Host string, or empty string if URL has no host.
+	 */
+	public static String parseHost(String url) {
+		int start = url.indexOf("://");
+		start = (start < 0) ? 0 : start + 3;
+		int end = start;
+		while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+			++end;
+		}
+		return url.substring(start, end);
+	}
+
+}
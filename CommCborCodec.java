@@ -0,0 +1,427 @@
+package webservice;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * CommCborCodec encodes and decodes CBOR (RFC 8949) by converting data object to Gson JsonElement tree, so
+ * the same Gson type adapters and field names of CommGson are used as JSON.
+ *
+ * 1. Integral numbers are encoded as CBOR integers of the smallest size, or bignums (tag 2 and 3) if they are
+ *    over 64 bits, other numbers as float32 if the value is exact, or float64.
+ * 2. Keys and strings are UTF-8 text strings, arrays and objects are definite length arrays and maps.
+ * 3. Decoder also accepts indefinite length items, byte strings (as array of numbers), half floats and tags.
+ *    Bignums are decoded as BigInteger, and other tags are ignored.
+ */
+public class CommCborCodec extends CommCodec {
+
+	/**
+	 * Shared codec object.
+	 */
+	public static final CommCborCodec INSTANCE = new CommCborCodec();
+
+	private static final int MAJOR_UNSIGNED = 0;
+	private static final int MAJOR_NEGATIVE = 1;
+	private static final int MAJOR_BYTES = 2;
+	private static final int MAJOR_TEXT = 3;
+	private static final int MAJOR_ARRAY = 4;
+	private static final int MAJOR_MAP = 5;
+	private static final int MAJOR_TAG = 6;
+	private static final int TAG_UNSIGNED_BIGNUM = 2;
+	private static final int TAG_NEGATIVE_BIGNUM = 3;
+
+	private static final int FALSE = 0xf4;
+	private static final int TRUE = 0xf5;
+	private static final int NULL = 0xf6;
+	private static final int FLOAT32 = 0xfa;
+	private static final int FLOAT64 = 0xfb;
+	private static final int BREAK = 0xff;
+	private static final int INDEFINITE = 31;
+
+	/**
+	 * Maximum nesting of arrays and maps in decoded data.
+	 */
+	private static final int MAX_DEPTH = 256;
+	/**
+	 * Maximum string size allocated before data is read.
+	 */
+	private static final int MAX_PRESIZE = 64 * 1024;
+	/**
+	 * Doubles below this magnitude with no fraction are encoded as integers without losing precision. (2^53)
+	 */
+	private static final double MAX_EXACT_INTEGER = 9007199254740992.0;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Override
+	public String getContentType() {
+		return "application/cbor";
+	}
+
+	/**
+	 * Media types with "+cbor" suffix are also CBOR.
+	 */
+	@Override
+	public boolean isContentType(String content_type) {
+		String media_type = getMediaType(content_type);
+		return getContentType().equals(media_type) || media_type.endsWith("+cbor");
+	}
+
+	@Override
+	public byte[] encode(Object data) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream(256);
+		writeElement(output, CommGson.getGson().toJsonTree(data));
+		return output.toByteArray();
+	}
+
+	@Override
+	public <T> T decode(InputStream input_stream, TypeToken<T> type_token) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(input_stream));
+		JsonElement tree = readElement(input, input.readUnsignedByte(), 0);
+		return CommGson.getAdapter(type_token).fromJsonTree(tree);
+	}
+
+	private static void writeElement(ByteArrayOutputStream output, JsonElement element) {
+		if (null == element || element.isJsonNull()) {
+			output.write(NULL);
+		} else if (element.isJsonPrimitive()) {
+			writePrimitive(output, element.getAsJsonPrimitive());
+		} else if (element.isJsonArray()) {
+			JsonArray array = element.getAsJsonArray();
+			writeHead(output, MAJOR_ARRAY, array.size());
+			for (JsonElement item : array) {
+				writeElement(output, item);
+			}
+		} else {
+			JsonObject object = element.getAsJsonObject();
+			writeHead(output, MAJOR_MAP, object.size());
+			for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+				writeText(output, entry.getKey());
+				writeElement(output, entry.getValue());
+			}
+		}
+	}
+
+	private static void writePrimitive(ByteArrayOutputStream output, JsonPrimitive primitive) {
+		if (primitive.isBoolean()) {
+			output.write(primitive.getAsBoolean() ? TRUE : FALSE);
+		} else if (primitive.isString()) {
+			writeText(output, primitive.getAsString());
+		} else {
+			writeNumber(output, primitive.getAsNumber());
+		}
+	}
+
+	private static void writeNumber(ByteArrayOutputStream output, Number number) {
+		if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+			writeInteger(output, number.longValue());
+			return;
+		}
+		if (number instanceof BigInteger) {
+			writeBigInteger(output, (BigInteger) number);
+			return;
+		}
+		if (!(number instanceof Double || number instanceof Float || number instanceof BigDecimal)) {
+			// Number parsed lazily from text, like LazilyParsedNumber.
+			String text = number.toString();
+			try {
+				writeInteger(output, Long.parseLong(text));
+				return;
+			} catch (NumberFormatException e) {
+				// Not a long, try integer of any size.
+			}
+			try {
+				writeBigInteger(output, new BigInteger(text));
+				return;
+			} catch (NumberFormatException e) {
+				// Not an integer, encode as float.
+			}
+		}
+
+		double value = number.doubleValue();
+		if (value == Math.rint(value) && Math.abs(value) < MAX_EXACT_INTEGER) {
+			writeInteger(output, (long) value);
+		} else if ((float) value == value || Double.isNaN(value)) {
+			output.write(FLOAT32);
+			writeBytes(output, Float.floatToIntBits((float) value), 4);
+		} else {
+			output.write(FLOAT64);
+			writeBytes(output, Double.doubleToLongBits(value), 8);
+		}
+	}
+
+	private static void writeInteger(ByteArrayOutputStream output, long value) {
+		if (value >= 0) {
+			writeHead(output, MAJOR_UNSIGNED, value);
+		} else {
+			writeHead(output, MAJOR_NEGATIVE, -1 - value);
+		}
+	}
+
+	/**
+	 * Write integer of any size. Integer of 64 bits argument is major type 0 or 1, and larger one is bignum of
+	 * tag 2 or 3, so no digit is lost.
+	 */
+	private static void writeBigInteger(ByteArrayOutputStream output, BigInteger value) {
+		boolean is_negative = value.signum() < 0;
+		BigInteger argument = is_negative ? value.not() : value;	// -1 - value
+		if (argument.bitLength() <= 64) {
+			writeHead(output, is_negative ? MAJOR_NEGATIVE : MAJOR_UNSIGNED, argument.longValue());
+			return;
+		}
+		writeHead(output, MAJOR_TAG, is_negative ? TAG_NEGATIVE_BIGNUM : TAG_UNSIGNED_BIGNUM);
+		byte[] data = argument.toByteArray();
+		int offset = (0 == data[0]) ? 1 : 0;	// Sign byte.
+		writeHead(output, MAJOR_BYTES, data.length - offset);
+		output.write(data, offset, data.length - offset);
+	}
+
+	private static void writeText(ByteArrayOutputStream output, String text) {
+		byte[] data = text.getBytes(UTF_8);
+		writeHead(output, MAJOR_TEXT, data.length);
+		output.write(data, 0, data.length);
+	}
+
+	/**
+	 * Write initial byte and argument of the smallest size.
+	 * @param output Output stream.
+	 * @param major Major type.
+	 * @param value Argument. (unsigned, negative is over Long.MAX_VALUE)
+	 */
+	private static void writeHead(ByteArrayOutputStream output, int major, long value) {
+		int type = major << 5;
+		if (value < 0) {
+			output.write(type | 27);
+			writeBytes(output, value, 8);
+		} else if (value < 24) {
+			output.write(type | (int) value);
+		} else if (value < 0x100) {
+			output.write(type | 24);
+			writeBytes(output, value, 1);
+		} else if (value < 0x10000) {
+			output.write(type | 25);
+			writeBytes(output, value, 2);
+		} else if (value < 0x100000000L) {
+			output.write(type | 26);
+			writeBytes(output, value, 4);
+		} else {
+			output.write(type | 27);
+			writeBytes(output, value, 8);
+		}
+	}
+
+	/**
+	 * Write value in big endian.
+	 */
+	private static void writeBytes(ByteArrayOutputStream output, long value, int size) {
+		for (int shift = (size - 1) * 8; shift >= 0; shift -= 8) {
+			output.write((int) (value >>> shift) & 0xff);
+		}
+	}
+
+	/**
+	 * Read a data item.
+	 * @param input Input stream.
+	 * @param initial Initial byte of item, already read.
+	 * @param depth Nesting depth of item.
+	 * @return Item as JsonElement.
+	 * @throws IOException Reading error or invalid data.
+	 */
+	private static JsonElement readElement(DataInputStream input, int initial, int depth) throws IOException {
+		if (depth > MAX_DEPTH) {
+			throw new IOException("CBOR nesting is too deep");
+		}
+		int major = initial >>> 5;
+		int info = initial & 0x1f;
+		switch (major) {
+			case MAJOR_UNSIGNED: {
+				long value = readArgument(input, info);
+				return new JsonPrimitive((value >= 0) ? (Number) value : toUnsigned(value));
+			}
+			case MAJOR_NEGATIVE: {
+				long value = readArgument(input, info);
+				return new JsonPrimitive((value >= 0) ? (Number) (-1 - value)
+						: BigInteger.ONE.negate().subtract(toUnsigned(value)));
+			}
+			case MAJOR_BYTES: {
+				JsonArray array = new JsonArray();
+				for (byte value : readString(input, MAJOR_BYTES, info)) {
+					array.add(new JsonPrimitive(value));
+				}
+				return array;
+			}
+			case MAJOR_TEXT:
+				return new JsonPrimitive(new String(readString(input, MAJOR_TEXT, info), UTF_8));
+			case MAJOR_ARRAY: {
+				JsonArray array = new JsonArray();
+				long count = (INDEFINITE == info) ? -1 : readLength(input, info);
+				for (long i = 0; count < 0 || i < count; ++i) {
+					int item_initial = input.readUnsignedByte();
+					if (count < 0 && BREAK == item_initial) {
+						break;
+					}
+					array.add(readElement(input, item_initial, depth + 1));
+				}
+				return array;
+			}
+			case MAJOR_MAP: {
+				JsonObject object = new JsonObject();
+				long count = (INDEFINITE == info) ? -1 : readLength(input, info);
+				for (long i = 0; count < 0 || i < count; ++i) {
+					int key_initial = input.readUnsignedByte();
+					if (count < 0 && BREAK == key_initial) {
+						break;
+					}
+					JsonElement key = readElement(input, key_initial, depth + 1);
+					String name = key.isJsonPrimitive() ? key.getAsString() : key.toString();
+					object.add(name, readElement(input, input.readUnsignedByte(), depth + 1));
+				}
+				return object;
+			}
+			case MAJOR_TAG: {
+				long tag = readArgument(input, info);
+				int item_initial = input.readUnsignedByte();
+				if ((TAG_UNSIGNED_BIGNUM == tag || TAG_NEGATIVE_BIGNUM == tag) && MAJOR_BYTES == item_initial >>> 5) {
+					BigInteger value = new BigInteger(1, readString(input, MAJOR_BYTES, item_initial & 0x1f));
+					return new JsonPrimitive((TAG_NEGATIVE_BIGNUM == tag) ? value.not() : value);
+				}
+				return readElement(input, item_initial, depth + 1);	// Other tags are ignored.
+			}
+			default:
+				return readSimple(input, info);
+		}
+	}
+
+	/**
+	 * Read simple value or float of major type 7.
+	 */
+	private static JsonElement readSimple(DataInputStream input, int info) throws IOException {
+		switch (info) {
+			case 20:
+				return new JsonPrimitive(false);
+			case 21:
+				return new JsonPrimitive(true);
+			case 24:
+				input.readUnsignedByte();	// Unassigned simple value.
+				return JsonNull.INSTANCE;
+			case 25:
+				return new JsonPrimitive(halfToFloat(input.readUnsignedShort()));
+			case 26:
+				return new JsonPrimitive(Float.intBitsToFloat(input.readInt()));
+			case 27:
+				return new JsonPrimitive(Double.longBitsToDouble(input.readLong()));
+			case 28:
+			case 29:
+			case 30:
+			case INDEFINITE:
+				throw new IOException("Invalid CBOR simple value: " + info);
+			default:
+				return JsonNull.INSTANCE;	// null, undefined and unassigned values.
+		}
+	}
+
+	/**
+	 * Read argument of initial byte.
+	 * @return Argument. (negative if it is over Long.MAX_VALUE as unsigned)
+	 */
+	private static long readArgument(DataInputStream input, int info) throws IOException {
+		if (info < 24) {
+			return info;
+		}
+		switch (info) {
+			case 24:
+				return input.readUnsignedByte();
+			case 25:
+				return input.readUnsignedShort();
+			case 26:
+				return input.readInt() & 0xffffffffL;
+			case 27:
+				return input.readLong();
+			default:
+				throw new IOException("Invalid CBOR argument: " + info);
+		}
+	}
+
+	private static int readLength(DataInputStream input, int info) throws IOException {
+		long length = readArgument(input, info);
+		if (length < 0 || length > Integer.MAX_VALUE) {
+			throw new IOException("CBOR length is too large: " + length);
+		}
+		return (int) length;
+	}
+
+	/**
+	 * Read byte string or text string. Indefinite string is joined from its chunks.
+	 */
+	private static byte[] readString(DataInputStream input, int major, int info) throws IOException {
+		if (INDEFINITE != info) {
+			return readFully(input, readLength(input, info));
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		while (true) {
+			int initial = input.readUnsignedByte();
+			if (BREAK == initial) {
+				return output.toByteArray();
+			}
+			if (major != initial >>> 5 || INDEFINITE == (initial & 0x1f)) {
+				throw new IOException("Invalid CBOR string chunk");
+			}
+			byte[] chunk = readFully(input, readLength(input, initial & 0x1f));
+			output.write(chunk, 0, chunk.length);
+		}
+	}
+
+	/**
+	 * Read data of length. Large length is read in chunks, so broken length does not allocate memory at once.
+	 */
+	private static byte[] readFully(DataInputStream input, int length) throws IOException {
+		if (length <= MAX_PRESIZE) {
+			byte[] data = new byte[length];
+			input.readFully(data);
+			return data;
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream(MAX_PRESIZE);
+		byte[] buffer = new byte[MAX_PRESIZE];
+		int remaining = length;
+		while (remaining > 0) {
+			int size = Math.min(remaining, buffer.length);
+			input.readFully(buffer, 0, size);
+			output.write(buffer, 0, size);
+			remaining -= size;
+		}
+		return output.toByteArray();
+	}
+
+	private static BigInteger toUnsigned(long value) {
+		return BigInteger.valueOf(value & Long.MAX_VALUE).setBit(63);
+	}
+
+	private static float halfToFloat(int half) {
+		int exponent = (half >>> 10) & 0x1f;
+		int mantissa = half & 0x3ff;
+		float value;
+		if (0 == exponent) {
+			value = mantissa * (float) Math.pow(2, -24);
+		} else if (31 == exponent) {
+			value = (0 == mantissa) ? Float.POSITIVE_INFINITY : Float.NaN;
+		} else {
+			value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+		}
+		return (0 == (half & 0x8000)) ? value : -value;
+	}
+
+}
@@ -1,20 +1,65 @@
 package webservice;
 
 
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import webservice.task.CommHttpTransport;
+
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * A management class for request objects. We can add request object into class
- * and set three different running modes (Sequence, Sequence_Continue, and Overall)
+ * and set four different running modes (Sequence, Sequence_Continue, Overall and DAG)
  * to control the request running behavior. Finally, the completion notify will be
  * executed when running task is completed or stopped.
+ *
+ * The chain can be cancelled by cancel(), or by deadline set by setTimeout(). The remaining time is
+ * split across requests not started in sequence modes, and applied to connections of each request.
  */
 public class CommChainManager {
 
 	private List<CommBaseRequest> _request_list = new ArrayList<>();
 	private List<OnRequestChainComplete> _chain_complete_notify_list = new ArrayList<>();
 	private OnRequestChainActionState _action_state = new SequenceState();
+	private Executor _executor = AsyncTask.THREAD_POOL_EXECUTOR;
+	private int _max_in_flight = DEFAULT_MAX_IN_FLIGHT;
+	private Map<CommBaseRequest, List<Dependency>> _dependency_map = new HashMap<>();
+	private List<RequestCompleteNotify> _request_notify_list = new ArrayList<>();
+	private HashSet<CommBaseRequest> _running_requests = new HashSet<>();
+	private boolean _is_running = false;
+	private boolean _is_cancelled = false;
+	private long _timeout = 0;
+	private long _deadline = 0;
+	private Handler _handler = null;
+	private List<CommRequestEventListener> _event_listeners = new ArrayList<>();
+	private CommAdaptiveLimiter _limiter = null;
+	private CommCircuitBreaker _circuit_breaker = null;
+	private long _chain_start_time = 0;
+
+	/**
+	 * Cancel the chain when deadline is exceeded.
+	 */
+	private final Runnable _deadline_action = new Runnable() {
+		@Override
+		public void run() {
+			Log.w(CommChainManager.class.getName(), "Request chain deadline exceeded");
+			cancel();
+		}
+	};
+
+	/**
+	 * Default maximum number of requests running at the same time in OVERALL and DAG modes.
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 6;
 
 	/**
 	 * Run request mode. (Default is OVERALL)
@@ -29,9 +74,42 @@ public class CommChainManager {
 		 */
 		SEQUENCE_CONTINUE,
 		/**
-		 * Run all requests in list at the same time.
+		 * Run all requests in list at the same time. (At most setMaxInFlight() requests are running)
+		 */
+		OVERALL,
+		/**
+		 * Run each request as soon as all its prerequisites set by addDependency() complete.
+		 * (At most setMaxInFlight() requests are running)
 		 */
-		OVERALL
+		DAG
+	}
+
+	/**
+	 * Dependency policy in DAG mode.
+	 */
+	public enum EdgePolicy {
+		/**
+		 * Request runs only if prerequisite is successful. Otherwise it is skipped, and its failure callback and
+		 * completion notifications are called without connection.
+		 */
+		REQUIRE_SUCCESS,
+		/**
+		 * Request runs after prerequisite completes, whether prerequisite is successful or not.
+		 */
+		REQUIRE_COMPLETE
+	}
+
+	/**
+	 * A dependency of request.
+	 */
+	private static class Dependency {
+		private final CommBaseRequest _prerequisite;
+		private final EdgePolicy _policy;
+
+		Dependency(CommBaseRequest prerequisite, EdgePolicy policy) {
+			_prerequisite = prerequisite;
+			_policy = policy;
+		}
 	}
 
 	/**
@@ -48,10 +126,11 @@ public class CommChainManager {
 		 * When one request completes, this method will be called to
 		 * decide next action.
 		 *
+		 * @param complete_index Index of completed request.
 		 * @param next_index Index that will be run in next time.
 		 * @param is_success Flag if running previous request successfully.
 		 */
-		void onRunSingleRequestComplete(int next_index, boolean is_success);
+		void onRunSingleRequestComplete(int complete_index, int next_index, boolean is_success);
 	}
 
 	/**
@@ -73,18 +152,18 @@ public class CommChainManager {
 
 		@Override
 		public void onStartRunRequestChain(List<CommBaseRequest> list) {
-			list.get(0).runRequest();
+			startRequest(0, false);
 		}
 
 		@Override
-		public void onRunSingleRequestComplete(int next_index, boolean is_success) {
+		public void onRunSingleRequestComplete(int complete_index, int next_index, boolean is_success) {
 			if (!is_success) {
 				runRequestChainCompleteNotify(is_success);
 				return;
 			}
 			
 			if (next_index < _request_list.size()) {
-				_request_list.get(next_index).runRequest();
+				startRequest(next_index, false);
 			} 
 		}
 	}
@@ -96,13 +175,13 @@ public class CommChainManager {
 		
 		@Override
 		public void onStartRunRequestChain(List<CommBaseRequest> list) {
-			list.get(0).runRequest();
+			startRequest(0, false);
 		}
 		
 		@Override
-		public void onRunSingleRequestComplete(int next_index, boolean is_success) {
+		public void onRunSingleRequestComplete(int complete_index, int next_index, boolean is_success) {
 			if (next_index < _request_list.size()) {
-				_request_list.get(next_index).runRequest();
+				startRequest(next_index, false);
 			}
 		}
 	}
@@ -112,20 +191,200 @@ public class CommChainManager {
 	 */
 	private class OverallState implements OnRequestChainActionState {
 
+		/**
+		 * The index of request will be started.
+		 */
+		private int _start_index = 0;
+		private int _running_count = 0;
+		/**
+		 * Flag if runWaitingRequests() is starting requests. A request completed inside startRequest() does not
+		 * start next request by recursion; the running loop starts it.
+		 */
+		private boolean _is_starting = false;
+
 		@Override
 		public void onStartRunRequestChain(List<CommBaseRequest> list) {
-			for (CommBaseRequest request : _request_list) request.runRequest();
+			_start_index = 0;
+			_running_count = 0;
+			runWaitingRequests();
 		}
 		
 		@Override
-		public void onRunSingleRequestComplete(int next_index, boolean is_success) {
+		public void onRunSingleRequestComplete(int complete_index, int next_index, boolean is_success) {
+			--_running_count;
+			runWaitingRequests();
+		}
+
+		/**
+		 * Start waiting requests on executor of this chain up to maximum running count.
+		 */
+		private void runWaitingRequests() {
+			if (_is_starting) {
+				return;
+			}
+			_is_starting = true;
+			try {
+				while (!_is_cancelled && _start_index < _request_list.size() && _running_count < _max_in_flight) {
+					++_running_count;
+					startRequest(_start_index++, true);
+				}
+			} finally {
+				_is_starting = false;
+			}
+		}
+	}
+
+	/**
+	 * Running Mode - DAG State.
+	 */
+	private class DagState implements OnRequestChainActionState {
+
+		/**
+		 * Indexes of requests that depend on each request.
+		 */
+		private List<List<Integer>> _dependent_list;
+		/**
+		 * Count of prerequisites not completed.
+		 */
+		private int[] _waiting_count;
+		/**
+		 * Flag if request must be skipped because REQUIRE_SUCCESS prerequisite failed.
+		 */
+		private boolean[] _is_blocked;
+		private boolean[] _is_started;
+		private ArrayDeque<Integer> _ready_queue = new ArrayDeque<>();
+		private int _running_count = 0;
+		/**
+		 * Flag if runReadyRequests() is starting requests, so completion inside it does not recurse.
+		 */
+		private boolean _is_starting = false;
+
+		@Override
+		public void onStartRunRequestChain(List<CommBaseRequest> list) {
+			_ready_queue.clear();
+			_running_count = 0;
+			_is_starting = false;
+			_is_started = new boolean[list.size()];
+			_is_blocked = new boolean[list.size()];
+			for (int i = 0; i < list.size(); ++i) {
+				if (0 == _waiting_count[i]) {
+					_ready_queue.add(i);
+				}
+			}
+			runReadyRequests();
+		}
+
+		@Override
+		public void onRunSingleRequestComplete(int complete_index, int next_index, boolean is_success) {
+			if (_is_started[complete_index]) {
+				--_running_count;
+			}
+
+			for (int dependent_index : _dependent_list.get(complete_index)) {
+				if (!is_success && EdgePolicy.REQUIRE_SUCCESS == getEdgePolicy(dependent_index, complete_index)) {
+					_is_blocked[dependent_index] = true;
+				}
+				if (0 == --_waiting_count[dependent_index]) {
+					_ready_queue.add(dependent_index);
+				}
+			}
+			runReadyRequests();
+		}
+
+		/**
+		 * Build dependency graph and check cycles. It must be called before onStartRunRequestChain().
+		 */
+		void buildGraph() {
+			int size = _request_list.size();
+			Map<CommBaseRequest, Integer> index_map = new HashMap<>();
+			for (int i = 0; i < size; ++i) {
+				index_map.put(_request_list.get(i), i);
+			}
+
+			_dependent_list = new ArrayList<>(size);
+			_waiting_count = new int[size];
+			for (int i = 0; i < size; ++i) {
+				_dependent_list.add(new ArrayList<Integer>());
+			}
+			for (int i = 0; i < size; ++i) {
+				for (Dependency dependency : getDependencies(_request_list.get(i))) {
+					Integer prerequisite_index = index_map.get(dependency._prerequisite);
+					if (null == prerequisite_index) {
+						throw new IllegalStateException("Prerequisite request is not added to chain");
+					}
+					_dependent_list.get(prerequisite_index).add(i);
+					++_waiting_count[i];
+				}
+			}
+
+			// Kahn's algorithm: all requests are visited only if graph has no cycle.
+			int[] waiting_count = _waiting_count.clone();
+			ArrayDeque<Integer> queue = new ArrayDeque<>();
+			for (int i = 0; i < size; ++i) {
+				if (0 == waiting_count[i]) {
+					queue.add(i);
+				}
+			}
+			int visit_count = 0;
+			while (!queue.isEmpty()) {
+				int index = queue.poll();
+				++visit_count;
+				for (int dependent_index : _dependent_list.get(index)) {
+					if (0 == --waiting_count[dependent_index]) {
+						queue.add(dependent_index);
+					}
+				}
+			}
+			if (visit_count != size) {
+				throw new IllegalStateException("Request dependencies contain a cycle");
+			}
+		}
+
+		/**
+		 * Start ready requests up to maximum running count. Blocked requests fail by failRequest() without running.
+		 */
+		private void runReadyRequests() {
+			if (_is_starting) {
+				return;
+			}
+			_is_starting = true;
+			try {
+				while (!_is_cancelled && !_ready_queue.isEmpty()) {
+					int index = _ready_queue.peek();
+					if (_is_blocked[index]) {
+						_ready_queue.poll();
+						_request_list.get(index).failRequest("Prerequisite request failed");
+						continue;
+					}
+					if (_running_count >= _max_in_flight) {
+						return;
+					}
+
+					_ready_queue.poll();
+					_is_started[index] = true;
+					++_running_count;
+					startRequest(index, true);
+				}
+			} finally {
+				_is_starting = false;
+			}
+		}
+
+		private EdgePolicy getEdgePolicy(int index, int prerequisite_index) {
+			CommBaseRequest prerequisite = _request_list.get(prerequisite_index);
+			for (Dependency dependency : getDependencies(_request_list.get(index))) {
+				if (dependency._prerequisite == prerequisite && EdgePolicy.REQUIRE_SUCCESS == dependency._policy) {
+					return EdgePolicy.REQUIRE_SUCCESS;
+				}
+			}
+			return EdgePolicy.REQUIRE_COMPLETE;
 		}
 	}
 
 	/**
-	 * Callback to decide action when a request complete.
+	 * Completion state of running chain.
 	 */
-	private class IRequestComplete implements CommBaseRequest.IRequestComplete {
+	private class IRequestComplete {
 
 		/**
 		 * Flag for all request run is success.
@@ -137,8 +396,16 @@ public class CommChainManager {
 		 */
 		private int _run_index = 0;
 
-		@Override
-		public void onRequestComplete(boolean is_success) {
+		/**
+		 * Callback to decide action when a request complete.
+		 * @param complete_index Index of completed request.
+		 * @param is_success Flag if request is successful.
+		 */
+		public void onRequestComplete(int complete_index, boolean is_success) {
+
+			if (_is_cancelled) {
+				return;
+			}
 
 			_is_all_success = _is_all_success && is_success;
 			++_run_index;
@@ -148,7 +415,27 @@ public class CommChainManager {
 				return;
 			}
 			
-			_action_state.onRunSingleRequestComplete(_run_index, is_success);
+			_action_state.onRunSingleRequestComplete(complete_index, _run_index, is_success);
+		}
+	}
+
+	/**
+	 * Completion notify of one request in chain.
+	 */
+	private class RequestCompleteNotify implements CommBaseRequest.IRequestComplete {
+
+		private final IRequestComplete _final_notify;
+		private final int _index;
+
+		RequestCompleteNotify(IRequestComplete final_notify, int index) {
+			_final_notify = final_notify;
+			_index = index;
+		}
+
+		@Override
+		public void onRequestComplete(boolean is_success) {
+			_running_requests.remove(_request_list.get(_index));
+			_final_notify.onRequestComplete(_index, is_success);
 		}
 	}
 
@@ -172,7 +459,165 @@ public class CommChainManager {
 		case OVERALL:
 			_action_state = new OverallState();
 			break;
+		case DAG:
+			_action_state = new DagState();
+			break;
+		}
+	}
+
+	/**
+	 * Add dependency used in DAG mode. Request runs only after prerequisite is successful.
+	 * @param request Dependent request.
+	 * @param prerequisite Prerequisite request.
+	 */
+	public void addDependency(CommBaseRequest request, CommBaseRequest prerequisite) {
+		addDependency(request, prerequisite, EdgePolicy.REQUIRE_SUCCESS);
+	}
+
+	/**
+	 * Add dependency used in DAG mode. Both requests must be added by addRequest().
+	 * @param request Dependent request.
+	 * @param prerequisite Prerequisite request.
+	 * @param policy Dependency policy when prerequisite fails.
+	 */
+	public void addDependency(CommBaseRequest request, CommBaseRequest prerequisite, EdgePolicy policy) {
+		if (null == request || null == prerequisite) {
+			return;
+		}
+		List<Dependency> dependencies = _dependency_map.get(request);
+		if (null == dependencies) {
+			dependencies = new ArrayList<>();
+			_dependency_map.put(request, dependencies);
+		}
+		dependencies.add(new Dependency(prerequisite, (null == policy) ? EdgePolicy.REQUIRE_SUCCESS : policy));
+	}
+
+	/**
+	 * Get dependencies of request.
+	 * @param request Request object.
+	 * @return Dependency list.
+	 */
+	private List<Dependency> getDependencies(CommBaseRequest request) {
+		List<Dependency> dependencies = _dependency_map.get(request);
+		return (null == dependencies) ? new ArrayList<Dependency>() : dependencies;
+	}
+
+	/**
+	 * Set executor used by requests in OVERALL and DAG modes. (Default is AsyncTask thread pool executor)
+	 * @param executor Executor object.
+	 */
+	public void setExecutor(Executor executor) {
+		_executor = (null == executor) ? AsyncTask.THREAD_POOL_EXECUTOR : executor;
+	}
+
+	/**
+	 * Set maximum number of requests running at the same time in OVERALL and DAG modes.
+	 * @param max_in_flight Maximum running requests. (Must be greater than 0)
+	 */
+	public void setMaxInFlight(int max_in_flight) {
+		if (max_in_flight <= 0) {
+			throw new IllegalArgumentException("max_in_flight must be greater than 0");
+		}
+		_max_in_flight = max_in_flight;
+	}
+
+	/**
+	 * Get maximum number of requests running at the same time in OVERALL and DAG modes.
+	 * @return Maximum running requests.
+	 */
+	public int getMaxInFlight() {
+		return _max_in_flight;
+	}
+
+	/**
+	 * Add timing event listener of chain. Listener receives chain start and end events.
+	 * @param listener Event listener.
+	 */
+	public void addEventListener(CommRequestEventListener listener) {
+		if (null == listener) {
+			return;
+		}
+		_event_listeners.add(listener);
+	}
+
+	/**
+	 * Set per host limiter of running tasks to all requests of chain when they start. (Default is null, no limit)
+	 * @param limiter Limiter object.
+	 */
+	public void setConcurrencyLimiter(CommAdaptiveLimiter limiter) {
+		_limiter = limiter;
+	}
+
+	/**
+	 * Set per host circuit breaker to all requests of chain when they start. (Default is null, not used)
+	 * @param breaker Circuit breaker object.
+	 */
+	public void setCircuitBreaker(CommCircuitBreaker breaker) {
+		_circuit_breaker = breaker;
+	}
+
+	/**
+	 * Set maximum running time of chain. When it is exceeded, the chain is cancelled. (Default is 0, no limit)
+	 * @param timeout Timeout (millisecond, 0 is no limit).
+	 */
+	public void setTimeout(long timeout) {
+		_timeout = Math.max(timeout, 0);
+	}
+
+	/**
+	 * Cancel running chain. Requests not started are never started, running requests are cancelled and
+	 * their connections are disconnected, and completion notify is called with failure immediately.
+	 */
+	public void cancel() {
+		if (!_is_running || _is_cancelled) {
+			return;
+		}
+		_is_cancelled = true;
+
+		List<CommBaseRequest> running_list = new ArrayList<>(_running_requests);
+		_running_requests.clear();
+		for (CommBaseRequest request : running_list) {
+			request.cancel();
 		}
+		runRequestChainCompleteNotify(false);
+	}
+
+	/**
+	 * Check if chain is cancelled by cancel() or deadline.
+	 * @return True if chain is cancelled.
+	 */
+	public boolean isCancelled() {
+		return _is_cancelled;
+	}
+
+	/**
+	 * Start request. Request timeout is set from remaining time of chain deadline.
+	 * @param index Request index.
+	 * @param is_parallel True if request runs in parallel mode with chain executor.
+	 */
+	private void startRequest(int index, boolean is_parallel) {
+		if (_is_cancelled) {
+			return;
+		}
+
+		CommBaseRequest request = _request_list.get(index);
+		if (is_parallel) {
+			request.setExecutor(_executor);
+		}
+		if (null != _limiter) {
+			request.setConcurrencyLimiter(_limiter);
+		}
+		if (null != _circuit_breaker) {
+			request.setCircuitBreaker(_circuit_breaker);
+		}
+		if (_deadline > 0) {
+			// Sequence modes split remaining time across requests not started.
+			long remaining_time = _deadline - CommHttpTransport.currentTime();
+			long step_count = is_parallel ? 1 : _request_list.size() - index;
+			request.setTimeout(Math.max(remaining_time / step_count, 1));
+		}
+		_running_requests.add(request);
+		request.runRequest();
 	}
 
 	/**
@@ -191,6 +636,11 @@ public class CommChainManager {
 	 * @param is_success True if all requests are successful, or false if one of requests is failure.
 	 */
 	private void runRequestChainCompleteNotify(boolean is_success) {
+		_is_running = false;
+		if (null != _handler) {
+			_handler.removeCallbacks(_deadline_action);
+		}
+		CommRequestEvents.dispatchChainEnd(this, is_success, System.nanoTime() - _chain_start_time, _event_listeners);
 		for (OnRequestChainComplete action : _chain_complete_notify_list) {
 			action.onRequestChainComplete(is_success);
 		}
@@ -212,9 +662,31 @@ public class CommChainManager {
 	 */
 	public void runRequestChain() {
 
+		if (_action_state instanceof DagState) {
+			((DagState) _action_state).buildGraph();	// Throw before any request runs if graph is invalid.
+		}
+
+		_is_cancelled = false;
+		_is_running = true;
+		_running_requests.clear();
+		_deadline = 0;
+		if (_timeout > 0) {
+			_deadline = CommHttpTransport.currentTime() + _timeout;
+			if (null == _handler) {
+				_handler = new Handler(Looper.getMainLooper());
+			}
+			_handler.postDelayed(_deadline_action, _timeout);
+		}
+
+		_chain_start_time = System.nanoTime();
+		CommRequestEvents.dispatchChainStart(this, _request_list.size(), _event_listeners);
+
 		IRequestComplete final_notify = new IRequestComplete();
-		for (CommBaseRequest action : _request_list) {
-			action.setRequestChainFinalNotify(final_notify);
+		_request_notify_list.clear();
+		for (int i = 0; i < _request_list.size(); ++i) {
+			RequestCompleteNotify notify = new RequestCompleteNotify(final_notify, i);
+			_request_notify_list.add(notify);
+			_request_list.get(i).setRequestChainFinalNotify(notify);
 		}
 		_action_state.onStartRunRequestChain(_request_list);
 	}
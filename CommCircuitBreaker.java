@@ -0,0 +1,247 @@
+package webservice;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import webservice.task.CommHttpTransport;
+
+/**
+ * CommCircuitBreaker rejects requests to a host immediately while the host keeps failing, so they do not
+ * wait for connection timeouts and occupy worker threads.
+ *
+ * 1. CLOSED: requests run. Results of the last window calls are kept. If failure rate or slow call rate
+ *    reaches its threshold with at least minimum calls, breaker becomes OPEN.
+ * 2. OPEN: requests are rejected. After open duration, breaker becomes HALF_OPEN.
+ * 3. HALF_OPEN: only probe count requests run. If all probes succeed, breaker becomes CLOSED,
+ *    otherwise OPEN again.
+ *
+ * Failure is a connection error or server error. (5xx or 429) Client error responses are not failures.
+ * Results are received as CommRequestEventListener.
+ *
+ * Set it to requests by CommBaseRequest.setCircuitBreaker(), or to all requests of a chain by
+ * CommChainManager.setCircuitBreaker().
+ */
+public class CommCircuitBreaker extends CommRequestEventListener {
+
+	/**
+	 * Breaker states.
+	 */
+	public enum State {
+		/**
+		 * Requests run and their results are counted in window.
+		 */
+		CLOSED,
+		/**
+		 * Requests are rejected until open duration passes.
+		 */
+		OPEN,
+		/**
+		 * Only probe count requests run. Their results decide CLOSED or OPEN.
+		 */
+		HALF_OPEN
+	}
+
+	private int _window_size = 20;
+	private int _min_calls = 10;
+	private double _failure_rate_threshold = 0.5;
+	private double _slow_call_rate_threshold = 1.0;
+	private long _slow_call_time = 5000;
+	private long _open_duration = 30000;
+	private int _probe_count = 3;
+	private final Map<String, HostState> _hosts = new HashMap<>();
+
+	/**
+	 * Breaker state of a host.
+	 */
+	private class HostState {
+		State _state = State.CLOSED;
+		boolean[] _failures = new boolean[_window_size];
+		boolean[] _slow_calls = new boolean[_window_size];
+		int _position = 0;
+		int _call_count = 0;
+		/**
+		 * Time state changes to OPEN or HALF_OPEN, of CommHttpTransport.currentTime() clock.
+		 */
+		long _state_time = 0;
+		int _probe_started = 0;
+		int _probe_succeeded = 0;
+	}
+
+	/**
+	 * Set sliding window of calls. (Default is 20 calls, rate is checked after 10 calls)
+	 * @param window_size Count of recent calls to calculate rates.
+	 * @param min_calls Minimum count of calls before rates are checked.
+	 */
+	public synchronized void setWindow(int window_size, int min_calls) {
+		_window_size = Math.max(window_size, 1);
+		_min_calls = Math.min(Math.max(min_calls, 1), _window_size);
+		_hosts.clear();
+	}
+
+	/**
+	 * Set failure rate to open breaker. (Default is 0.5)
+	 * @param threshold Rate. (0 to 1)
+	 */
+	public synchronized void setFailureRateThreshold(double threshold) {
+		_failure_rate_threshold = threshold;
+	}
+
+	/**
+	 * Set slow call rate to open breaker. (Default is 1.0, all calls in window are slow)
+	 * @param threshold Rate. (0 to 1)
+	 * @param slow_call_time Call time over which a call is slow. (millisecond)
+	 */
+	public synchronized void setSlowCallRateThreshold(double threshold, long slow_call_time) {
+		_slow_call_rate_threshold = threshold;
+		_slow_call_time = slow_call_time;
+	}
+
+	/**
+	 * Set time breaker keeps OPEN before probing. (Default is 30 seconds)
+	 * @param open_duration Duration. (millisecond)
+	 */
+	public synchronized void setOpenDuration(long open_duration) {
+		_open_duration = Math.max(open_duration, 0);
+	}
+
+	/**
+	 * Set count of probe requests in HALF_OPEN state. (Default is 3)
+	 * @param probe_count Request count. (at least 1)
+	 */
+	public synchronized void setProbeCount(int probe_count) {
+		_probe_count = Math.max(probe_count, 1);
+	}
+
+	/**
+	 * Get state of host.
+	 * @param host Host string.
+	 * @return Breaker state.
+	 */
+	public synchronized State getState(String host) {
+		HostState state = _hosts.get(host);
+		return (null == state) ? State.CLOSED : state._state;
+	}
+
+	/**
+	 * Check if request to host can run. In HALF_OPEN state, a permitted request is counted as probe.
+	 * @param host Host string.
+	 * @return True if request can run, or false if it must be rejected.
+	 */
+	@SuppressWarnings("fallthrough")
+	public synchronized boolean tryAcquire(String host) {
+		HostState state = getHostState(host);
+		long now = CommHttpTransport.currentTime();
+		switch (state._state) {
+			case OPEN:
+				if (now - state._state_time < _open_duration) {
+					return false;
+				}
+				changeState(host, state, State.HALF_OPEN, now);
+				// Fall through to take a probe.
+			case HALF_OPEN:
+				if (now - state._state_time >= _open_duration) {
+					// Probes are lost, like cancelled requests. Allow new probes.
+					changeState(host, state, State.HALF_OPEN, now);
+				}
+				if (state._probe_started >= _probe_count) {
+					return false;
+				}
+				++state._probe_started;
+				return true;
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * Record call result. It is called in main thread.
+	 * @param timing Timing of call.
+	 */
+	@Override
+	public void onCallEnd(CommCallTiming timing) {
+		if (timing._is_cached) {
+			return;	// Host is not used.
+		}
+		boolean is_failure = !timing._is_success
+				&& (timing._status_code < 0 || timing._status_code >= 500 || 429 == timing._status_code);
+		long call_time = Math.max(timing._connect_time, 0) + Math.max(timing._write_time, 0)
+				+ Math.max(timing._first_byte_time, 0);
+		onResult(timing._host, is_failure, call_time / 1000000);
+	}
+
+	/**
+	 * Record call result.
+	 * @param host Host string.
+	 * @param is_failure True if call fails by connection or server error.
+	 * @param call_time Time to first byte of response. (millisecond)
+	 */
+	public synchronized void onResult(String host, boolean is_failure, long call_time) {
+		HostState state = getHostState(host);
+		long now = CommHttpTransport.currentTime();
+		boolean is_slow = call_time >= _slow_call_time;
+
+		if (State.HALF_OPEN == state._state) {
+			if (is_failure || is_slow) {
+				changeState(host, state, State.OPEN, now);
+			} else if (++state._probe_succeeded >= _probe_count) {
+				changeState(host, state, State.CLOSED, now);
+			}
+			return;
+		}
+		if (State.OPEN == state._state) {
+			return;	// Result of request started before opening.
+		}
+
+		state._failures[state._position] = is_failure;
+		state._slow_calls[state._position] = is_slow;
+		state._position = (state._position + 1) % _window_size;
+		state._call_count = Math.min(state._call_count + 1, _window_size);
+		if (state._call_count < _min_calls) {
+			return;
+		}
+
+		int failure_count = 0;
+		int slow_count = 0;
+		for (int i = 0; i < state._call_count; ++i) {
+			failure_count += state._failures[i] ? 1 : 0;
+			slow_count += state._slow_calls[i] ? 1 : 0;
+		}
+		if (failure_count >= _failure_rate_threshold * state._call_count
+				|| slow_count >= _slow_call_rate_threshold * state._call_count) {
+			changeState(host, state, State.OPEN, now);
+		}
+	}
+
+	/**
+	 * Must be called with lock.
+	 */
+	private void changeState(String host, HostState state, State new_state, long now) {
+		if (state._state != new_state) {
+			Log.i(getClass().getName(), "Host " + host + " : " + state._state + " -> " + new_state);
+		}
+		state._state = new_state;
+		state._state_time = now;
+		state._probe_started = 0;
+		state._probe_succeeded = 0;
+		if (State.CLOSED == new_state) {
+			state._position = 0;
+			state._call_count = 0;
+		}
+	}
+
+	/**
+	 * Must be called with lock.
+	 */
+	private HostState getHostState(String host) {
+		String key = (null == host) ? "" : host;
+		HostState state = _hosts.get(key);
+		if (null == state) {
+			state = new HostState();
+			_hosts.put(key, state);
+		}
+		return state;
+	}
+
+}
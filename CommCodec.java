@@ -0,0 +1,115 @@
+package webservice;
+
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * CommCodec encodes request data object to body and decodes response body to data object by a media type.
+ *
+ * Set codec to CommBaseStatus by setCodec(). The request sends Content-Type and Accept of the codec, and
+ * response is decoded by the registered codec of response Content-Type, so server can answer by another
+ * format it supports. CommJsonCodec and CommCborCodec are registered by default.
+ */
+public abstract class CommCodec {
+
+	/**
+	 * Registered codecs. Holder is initialized by first use, not with CommCodec, because CommCodec is initialized
+	 * before INSTANCE of the subclass that is used first is set.
+	 */
+	private static final class Registry {
+		static final List<CommCodec> _codecs = new CopyOnWriteArrayList<>(
+				Arrays.<CommCodec>asList(CommJsonCodec.INSTANCE, CommCborCodec.INSTANCE));
+	}
+
+	/**
+	 * @return Media type of encoded data, like "application/json".
+	 */
+	public abstract String getContentType();
+
+	/**
+	 * Encode data object to body.
+	 * @param data Data object.
+	 * @return Encoded body.
+	 * @throws IOException Encoding error.
+	 */
+	public abstract byte[] encode(Object data) throws IOException;
+
+	/**
+	 * Decode body to data object. Stream is not closed.
+	 * @param input_stream Body stream.
+	 * @param type_token Gson TypeToken object of data type.
+	 * @param <T> Data type.
+	 * @return Data object.
+	 * @throws IOException Decoding error.
+	 */
+	public abstract <T> T decode(InputStream input_stream, TypeToken<T> type_token) throws IOException;
+
+	/**
+	 * Check if codec decodes media type. Parameters like charset are ignored.
+	 * @param content_type Content-Type string. (nullable)
+	 * @return True if codec decodes the type.
+	 */
+	public boolean isContentType(String content_type) {
+		return getContentType().equals(getMediaType(content_type));
+	}
+
+	/**
+	 * Get Accept string of request. JSON is accepted with lower preference, so server without the format
+	 * can answer by JSON.
+	 * @return Accept string.
+	 */
+	public String getAcceptString() {
+		String json_type = CommJsonCodec.INSTANCE.getContentType();
+		return json_type.equals(getContentType()) ? json_type : getContentType() + ", " + json_type + ";q=0.5";
+	}
+
+	/**
+	 * Register codec, so responses of its media type can be decoded. Later codec has priority.
+	 * @param codec Codec object.
+	 */
+	public static void register(CommCodec codec) {
+		if (null != codec) {
+			Registry._codecs.add(0, codec);
+		}
+	}
+
+	/**
+	 * Find codec of response Content-Type.
+	 * @param content_type Content-Type string. (nullable)
+	 * @param default_codec Codec returned if no registered codec decodes the type. (nullable)
+	 * @return Codec object, or default_codec.
+	 */
+	public static CommCodec find(String content_type, CommCodec default_codec) {
+		if (null != default_codec && default_codec.isContentType(content_type)) {
+			return default_codec;
+		}
+		if (null != content_type) {
+			for (CommCodec codec : Registry._codecs) {
+				if (codec.isContentType(content_type)) {
+					return codec;
+				}
+			}
+		}
+		return default_codec;
+	}
+
+	/**
+	 * Get media type without parameters in lower case.
+	 * @param content_type Content-Type string. (nullable)
+	 * @return Media type, or empty string.
+	 */
+	protected static String getMediaType(String content_type) {
+		if (null == content_type) {
+			return "";
+		}
+		int end = content_type.indexOf(';');
+		return ((end < 0) ? content_type : content_type.substring(0, end)).trim().toLowerCase(Locale.US);
+	}
+
+}
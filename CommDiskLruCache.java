@@ -0,0 +1,289 @@
+package webservice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * CommDiskLruCache stores byte data as files in a directory with a total size limit.
+ * When the limit is exceeded, the least recently used entries are deleted.
+ * File name is MD5 string of key, and entry order is restored from file modified time.
+ *
+ * Methods do file I/O, so they should be called in worker thread.
+ */
+public class CommDiskLruCache {
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final File _directory;
+    private final long _max_size;
+    private long _size = 0;
+    /**
+     * File name to file length map in access order.
+     */
+    private final LinkedHashMap<String, Long> _entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int _hit_count = 0;
+    private int _miss_count = 0;
+    private int _eviction_count = 0;
+
+    /**
+     * Constructor. Existing files in directory are loaded as cache entries.
+     *
+     * @param directory Cache directory.
+     * @param max_size Maximum total size of entries (byte).
+     */
+    public CommDiskLruCache(File directory, long max_size) {
+        if (max_size <= 0) {
+            throw new IllegalArgumentException("max_size must be greater than 0");
+        }
+        _directory = directory;
+        _max_size = max_size;
+        loadEntries();
+    }
+
+    /**
+     * Get data of key.
+     *
+     * @param key Entry key.
+     * @return Data bytes, or null if entry does not exist.
+     */
+    public byte[] get(String key) {
+        String name = toFileName(key);
+        synchronized (this) {
+            if (null == _entries.get(name)) {
+                ++_miss_count;
+                return null;
+            }
+        }
+
+        File file = new File(_directory, name);
+        try {
+            byte[] data = readFile(file);
+            file.setLastModified(System.currentTimeMillis());
+            synchronized (this) {
+                ++_hit_count;
+            }
+            return data;
+        } catch (IOException e) {
+            // Entry is evicted or broken while reading.
+            synchronized (this) {
+                removeEntry(name);
+                ++_miss_count;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Put data of key. Old data is replaced.
+     *
+     * @param key Entry key.
+     * @param data Data bytes.
+     * @return True if data is stored.
+     */
+    public boolean put(String key, byte[] data) {
+        if (null == data || data.length > _max_size) {
+            return false;
+        }
+
+        String name = toFileName(key);
+        File temp_file = new File(_directory, name + "." + Thread.currentThread().getId() + TEMP_FILE_SUFFIX);
+        try {
+            writeFile(temp_file, data);
+        } catch (IOException e) {
+            temp_file.delete();
+            return false;
+        }
+
+        synchronized (this) {
+            removeEntry(name);
+            if (!temp_file.renameTo(new File(_directory, name))) {
+                temp_file.delete();
+                return false;
+            }
+            _entries.put(name, (long) data.length);
+            _size += data.length;
+            trimToSize();
+        }
+        return true;
+    }
+
+    /**
+     * Remove entry of key.
+     *
+     * @param key Entry key.
+     */
+    public synchronized void remove(String key) {
+        removeEntry(toFileName(key));
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public synchronized void clear() {
+        for (String name : _entries.keySet()) {
+            new File(_directory, name).delete();
+        }
+        _entries.clear();
+        _size = 0;
+    }
+
+    /**
+     * Check if entry of key exists.
+     *
+     * @param key Entry key.
+     * @return True if entry exists.
+     */
+    public synchronized boolean contains(String key) {
+        return _entries.containsKey(toFileName(key));
+    }
+
+    /**
+     * @return Total size of entries (byte).
+     */
+    public synchronized long getSize() {
+        return _size;
+    }
+
+    /**
+     * @return Maximum total size of entries (byte).
+     */
+    public long getMaxSize() {
+        return _max_size;
+    }
+
+    /**
+     * @return Count of get() that returns data.
+     */
+    public synchronized int getHitCount() {
+        return _hit_count;
+    }
+
+    /**
+     * @return Count of get() that returns null.
+     */
+    public synchronized int getMissCount() {
+        return _miss_count;
+    }
+
+    /**
+     * @return Count of entries deleted by size limit.
+     */
+    public synchronized int getEvictionCount() {
+        return _eviction_count;
+    }
+
+    /**
+     * Load existing files ordered by modified time.
+     */
+    private synchronized void loadEntries() {
+        if (!_directory.exists() && !_directory.mkdirs()) {
+            return;
+        }
+
+        File[] files = _directory.listFiles();
+        if (null == files) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhs_time = lhs.lastModified();
+                long rhs_time = rhs.lastModified();
+                return (lhs_time < rhs_time) ? -1 : ((lhs_time == rhs_time) ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            if (file.isFile()) {
+                _entries.put(file.getName(), file.length());
+                _size += file.length();
+            }
+        }
+        trimToSize();
+    }
+
+    /**
+     * Delete least recently used entries until total size is under the limit.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = _entries.entrySet().iterator();
+        while (_size > _max_size && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            new File(_directory, entry.getKey()).delete();
+            _size -= entry.getValue();
+            iterator.remove();
+            ++_eviction_count;
+        }
+    }
+
+    private void removeEntry(String name) {
+        Long length = _entries.remove(name);
+        if (null != length) {
+            _size -= length;
+            new File(_directory, name).delete();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream input_stream = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream output_stream = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input_stream.read(buffer)) != -1) {
+                output_stream.write(buffer, 0, count);
+            }
+            return output_stream.toByteArray();
+        } finally {
+            input_stream.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        OutputStream output_stream = new FileOutputStream(file);
+        try {
+            output_stream.write(data);
+        } finally {
+            output_stream.close();
+        }
+    }
+
+    /**
+     * Convert key to MD5 hex string.
+     *
+     * @param key Entry key.
+     * @return File name.
+     */
+    private static String toFileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return String.valueOf(key.hashCode());
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package webservice;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CommGson holds one shared Gson object for all requests and caches TypeAdapter objects by TypeToken,
+ * so responses are decoded without creating Gson object and looking up adapter for every request.
+ * Shared Gson object has CommJsonAdapterFactory, so classes annotated by CommJsonModel are decoded by
+ * build-time generated adapters, and other classes by reflection.
+ */
+public final class CommGson {
+
+	private static volatile Gson _gson = new GsonBuilder()
+			.registerTypeAdapterFactory(CommJsonAdapterFactory.INSTANCE)
+			.create();
+	private static final ConcurrentHashMap<TypeToken<?>, TypeAdapter<?>> _adapter_cache = new ConcurrentHashMap<>();
+
+	private CommGson() {}
+
+	/**
+	 * Get shared Gson object.
+	 * @return Gson object.
+	 */
+	public static Gson getGson() {
+		return _gson;
+	}
+
+	/**
+	 * Replace shared Gson object. (e.g. Gson object with custom type adapters)
+	 * CommJsonAdapterFactory is added after its own factories, and cached adapters are cleared.
+	 * @param gson Gson object.
+	 */
+	public static void setGson(Gson gson) {
+		if (null == gson) {
+			return;
+		}
+		_gson = gson.newBuilder().registerTypeAdapterFactory(CommJsonAdapterFactory.INSTANCE).create();
+		_adapter_cache.clear();
+	}
+
+	/**
+	 * Get cached TypeAdapter object of specified type.
+	 * @param type_token Gson TypeToken object.
+	 * @param <T> Adapter type.
+	 * @return TypeAdapter object.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> TypeAdapter<T> getAdapter(TypeToken<T> type_token) {
+		TypeAdapter<?> adapter = _adapter_cache.get(type_token);
+		if (null == adapter) {
+			adapter = _gson.getAdapter(type_token);
+			TypeAdapter<?> exist_adapter = _adapter_cache.putIfAbsent(type_token, adapter);
+			if (null != exist_adapter) {
+				adapter = exist_adapter;
+			}
+		}
+		return (TypeAdapter<T>) adapter;
+	}
+
+}
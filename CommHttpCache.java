@@ -0,0 +1,269 @@
+package webservice;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * CommHttpCache stores Http/Get response bodies with their validators (ETag, Last-Modified)
+ * and Cache-Control max-age in CommDiskLruCache. CommRequestMessageTask uses cache entries to
+ * serve fresh responses without connection, or to send conditional request when entry is stale.
+ *
+ * Methods do file I/O, so they should be called in worker thread.
+ */
+public class CommHttpCache {
+
+	private static final int ENTRY_VERSION = 2;
+
+	private final CommDiskLruCache _disk_cache;
+	private int _hit_count = 0;
+	private int _conditional_hit_count = 0;
+	private int _miss_count = 0;
+
+	/**
+	 * Cache entry.
+	 */
+	public static class Entry {
+		/**
+		 * ETag header value. (null if not exists)
+		 */
+		public String _etag;
+		/**
+		 * Last-Modified header value. (null if not exists)
+		 */
+		public String _last_modified;
+		/**
+		 * Time (millisecond) when entry becomes stale.
+		 */
+		public long _expire_time;
+		/**
+		 * Content-Type header value, so replayed body is decoded by the same codec. (null if not exists)
+		 */
+		public String _content_type;
+		/**
+		 * Response body.
+		 */
+		public byte[] _body;
+
+		/**
+		 * @return True if entry can be used without revalidation.
+		 */
+		public boolean isFresh() {
+			return System.currentTimeMillis() < _expire_time;
+		}
+
+		/**
+		 * @return True if entry has ETag or Last-Modified validator.
+		 */
+		public boolean hasValidator() {
+			return null != _etag || null != _last_modified;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * @param directory Cache directory.
+	 * @param max_size Maximum total size of cache files (byte).
+	 */
+	public CommHttpCache(File directory, long max_size) {
+		_disk_cache = new CommDiskLruCache(directory, max_size);
+	}
+
+	/**
+	 * Get entry of URL.
+	 * @param url Request URL string.
+	 * @return Cache entry, or null if not found.
+	 */
+	public Entry get(String url) {
+		byte[] data = _disk_cache.get(url);
+		if (null == data) {
+			return null;
+		}
+
+		try {
+			DataInputStream input_stream = new DataInputStream(new ByteArrayInputStream(data));
+			if (ENTRY_VERSION != input_stream.readInt()) {
+				_disk_cache.remove(url);
+				return null;
+			}
+			Entry entry = new Entry();
+			entry._etag = readNullableString(input_stream);
+			entry._last_modified = readNullableString(input_stream);
+			entry._expire_time = input_stream.readLong();
+			entry._content_type = readNullableString(input_stream);
+			entry._body = new byte[input_stream.readInt()];
+			input_stream.readFully(entry._body);
+			return entry;
+		} catch (IOException e) {
+			_disk_cache.remove(url);
+			return null;
+		}
+	}
+
+	/**
+	 * Put entry of URL.
+	 * @param url Request URL string.
+	 * @param entry Cache entry.
+	 */
+	public void put(String url, Entry entry) {
+		try {
+			ByteArrayOutputStream byte_stream = new ByteArrayOutputStream(entry._body.length + 256);
+			DataOutputStream output_stream = new DataOutputStream(byte_stream);
+			output_stream.writeInt(ENTRY_VERSION);
+			writeNullableString(output_stream, entry._etag);
+			writeNullableString(output_stream, entry._last_modified);
+			output_stream.writeLong(entry._expire_time);
+			writeNullableString(output_stream, entry._content_type);
+			output_stream.writeInt(entry._body.length);
+			output_stream.write(entry._body);
+			output_stream.flush();
+			_disk_cache.put(url, byte_stream.toByteArray());
+		} catch (IOException e) {
+			_disk_cache.remove(url);
+		}
+	}
+
+	/**
+	 * Remove entry of URL.
+	 * @param url Request URL string.
+	 */
+	public void remove(String url) {
+		_disk_cache.remove(url);
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public void clear() {
+		_disk_cache.clear();
+	}
+
+	/**
+	 * Create cache entry from response headers.
+	 * @param conn Connection object after response is received.
+	 * @param body Response body.
+	 * @return Cache entry, or null if response must not be stored.
+	 */
+	public static Entry createEntry(HttpURLConnection conn, byte[] body) {
+		Entry entry = new Entry();
+		entry._etag = conn.getHeaderField("ETag");
+		entry._last_modified = conn.getHeaderField("Last-Modified");
+		entry._content_type = conn.getContentType();
+		entry._body = body;
+
+		long max_age = parseMaxAge(conn.getHeaderField("Cache-Control"));
+		if (max_age < -1) {
+			return null; // no-store
+		}
+		entry._expire_time = System.currentTimeMillis() + Math.max(max_age, 0) * 1000;
+
+		if (max_age <= 0 && !entry.hasValidator()) {
+			return null; // Entry can be neither used nor revalidated.
+		}
+		return entry;
+	}
+
+	/**
+	 * Update expire time and validators of entry by 304 Not Modified response.
+	 * @param entry Stored cache entry.
+	 * @param conn Connection object after response is received.
+	 */
+	public static void updateEntry(Entry entry, HttpURLConnection conn) {
+		String etag = conn.getHeaderField("ETag");
+		if (null != etag) {
+			entry._etag = etag;
+		}
+		String last_modified = conn.getHeaderField("Last-Modified");
+		if (null != last_modified) {
+			entry._last_modified = last_modified;
+		}
+		long max_age = parseMaxAge(conn.getHeaderField("Cache-Control"));
+		entry._expire_time = System.currentTimeMillis() + Math.max(max_age, 0) * 1000;
+	}
+
+	/**
+	 * Parse Cache-Control header.
+	 * @param cache_control Header value.
+	 * @return max-age seconds, 0 for no-cache, -1 if not specified, and -2 for no-store.
+	 */
+	static long parseMaxAge(String cache_control) {
+		if (null == cache_control) {
+			return -1;
+		}
+
+		long max_age = -1;
+		for (String directive : cache_control.split(",")) {
+			String value = directive.trim().toLowerCase();
+			if (value.equals("no-store")) {
+				return -2;
+			} else if (value.equals("no-cache")) {
+				max_age = 0;
+			} else if (value.startsWith("max-age=") && max_age != 0) {
+				try {
+					max_age = Long.parseLong(value.substring("max-age=".length()).trim());
+				} catch (NumberFormatException e) {
+					max_age = 0;
+				}
+			}
+		}
+		return max_age;
+	}
+
+	/**
+	 * Count response served from fresh entry. (Called by CommRequestMessageTask)
+	 */
+	public synchronized void recordHit() {
+		++_hit_count;
+	}
+
+	/**
+	 * Count response served by 304 Not Modified. (Called by CommRequestMessageTask)
+	 */
+	public synchronized void recordConditionalHit() {
+		++_conditional_hit_count;
+	}
+
+	/**
+	 * Count response downloaded from server. (Called by CommRequestMessageTask)
+	 */
+	public synchronized void recordMiss() {
+		++_miss_count;
+	}
+
+	/**
+	 * @return Count of responses served from fresh entry without connection.
+	 */
+	public synchronized int getHitCount() {
+		return _hit_count;
+	}
+
+	/**
+	 * @return Count of responses served from stale entry by 304 Not Modified.
+	 */
+	public synchronized int getConditionalHitCount() {
+		return _conditional_hit_count;
+	}
+
+	/**
+	 * @return Count of responses downloaded from server.
+	 */
+	public synchronized int getMissCount() {
+		return _miss_count;
+	}
+
+	private static String readNullableString(DataInputStream input_stream) throws IOException {
+		return input_stream.readBoolean() ? input_stream.readUTF() : null;
+	}
+
+	private static void writeNullableString(DataOutputStream output_stream, String value) throws IOException {
+		output_stream.writeBoolean(null != value);
+		if (null != value) {
+			output_stream.writeUTF(value);
+		}
+	}
+
+}
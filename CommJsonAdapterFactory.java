@@ -0,0 +1,70 @@
+package webservice;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * CommJsonAdapterFactory creates TypeAdapter objects generated for classes annotated by CommJsonModel.
+ * Shared Gson object of CommGson has it. Adapter of other types is created by next factory of Gson,
+ * which is reflective adapter for plain classes.
+ *
+ * Generated adapters use field names or @SerializedName as is, so they are not used if Gson has another
+ * field naming policy.
+ */
+public final class CommJsonAdapterFactory implements TypeAdapterFactory {
+
+	/**
+	 * Shared factory object.
+	 */
+	public static final CommJsonAdapterFactory INSTANCE = new CommJsonAdapterFactory();
+
+	/**
+	 * Suffix of generated adapter class name.
+	 */
+	public static final String ADAPTER_SUFFIX = "_CommJsonAdapter";
+
+	private CommJsonAdapterFactory() {}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+		Class<? super T> raw_type = type.getRawType();
+		if (!(type.getType() instanceof Class) || !raw_type.isAnnotationPresent(CommJsonModel.class)
+				|| FieldNamingPolicy.IDENTITY != gson.fieldNamingStrategy()) {
+			return null;
+		}
+		try {
+			Class<?> adapter_class = Class.forName(getAdapterName(raw_type), true, raw_type.getClassLoader());
+			return (TypeAdapter<T>) adapter_class.getConstructor(Gson.class).newInstance(gson);
+		} catch (ClassNotFoundException e) {
+			return null;	// Not generated, use reflection.
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot create generated adapter of " + raw_type.getName(), e);
+		}
+	}
+
+	/**
+	 * Get generated adapter class name. Nested class names are joined by '_'.
+	 * (e.g. "com.example.Outer$Data" -> "com.example.Outer_Data_CommJsonAdapter")
+	 * @param type Annotated class.
+	 * @return Binary name of adapter class.
+	 */
+	public static String getAdapterName(Class<?> type) {
+		return getAdapterName(type.getName());
+	}
+
+	/**
+	 * Get generated adapter class name from binary name of annotated class.
+	 * @param binary_name Binary name of annotated class.
+	 * @return Binary name of adapter class.
+	 */
+	public static String getAdapterName(String binary_name) {
+		int package_end = binary_name.lastIndexOf('.') + 1;
+		return binary_name.substring(0, package_end) + binary_name.substring(package_end).replace('$', '_')
+				+ ADAPTER_SUFFIX;
+	}
+
+}
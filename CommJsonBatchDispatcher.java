@@ -0,0 +1,429 @@
+package webservice;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonReader;
+import webservice.task.CommRequestMessageTask;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * CommJsonBatchDispatcher merges Http/Post CommRequestJsonMsg requests to the same URL into one connection.
+ *
+ * Requests set by CommRequestJsonMsg.setBatchDispatcher() are collected for a time window or up to
+ * a maximum count. Only requests with the same request URL, retry policy, concurrency limiter, circuit breaker,
+ * priority and gzip threshold are batched together. The batched connection has the earliest deadline of its
+ * requests, and timing events are sent to event listeners of every request. If all requests of a sent batch are
+ * cancelled, its connection is disconnected. Their post strings are merged by IBatchEnvelope into one Http/Post,
+ * and the batched response is split back in worker thread and decoded by the return type of each request. Every
+ * request then runs its own callback and runCompleteAction() as if it was sent alone. Circuit breaker is checked
+ * once per batch, and every request of the batch fails if it is open.
+ *
+ * Methods are called in main thread.
+ */
+public class CommJsonBatchDispatcher {
+
+	private final Handler _handler = new Handler(Looper.getMainLooper());
+	private final Map<BatchKey, Batch> _pending_batches = new HashMap<>();
+	/**
+	 * Batch of each request, pending or sent.
+	 */
+	private final Map<CommRequestJsonMsg<?>, Batch> _request_batches = new IdentityHashMap<>();
+	private final IBatchEnvelope _envelope;
+	private long _window_time = 20;
+	private int _max_count = 20;
+	private Executor _executor = AsyncTask.THREAD_POOL_EXECUTOR;
+
+	/**
+	 * Batch request and response format.
+	 */
+	public interface IBatchEnvelope {
+		/**
+		 * Merge post strings of requests into one post string.
+		 * @param post_strings Post strings in request order.
+		 * @return Batched post string.
+		 */
+		String buildRequest(List<String> post_strings);
+
+		/**
+		 * Split batched response. This method is called in worker thread.
+		 * @param reader Reader of batched response.
+		 * @param count Request count.
+		 * @return Response element of each request in request order.
+		 * @throws Exception Response format error.
+		 */
+		List<JsonElement> splitResponse(JsonReader reader, int count) throws Exception;
+	}
+
+	/**
+	 * Default envelope. Request is JSON array of post data, and response is JSON array of responses in the same order.
+	 */
+	public static class JsonArrayEnvelope implements IBatchEnvelope {
+
+		@Override
+		public String buildRequest(List<String> post_strings) {
+			StringBuilder builder = new StringBuilder();
+			builder.append('[');
+			for (int i = 0; i < post_strings.size(); ++i) {
+				if (i > 0) {
+					builder.append(',');
+				}
+				String post_str = post_strings.get(i);
+				builder.append(post_str.isEmpty() ? "null" : post_str);
+			}
+			builder.append(']');
+			return builder.toString();
+		}
+
+		@Override
+		public List<JsonElement> splitResponse(JsonReader reader, int count) throws Exception {
+			JsonElement response = CommGson.getGson().getAdapter(JsonElement.class).read(reader);
+			if (!response.isJsonArray() || response.getAsJsonArray().size() != count) {
+				throw new IllegalStateException("Batch response is not an array of " + count + " elements");
+			}
+			JsonArray array = response.getAsJsonArray();
+			List<JsonElement> elements = new ArrayList<>(count);
+			for (int i = 0; i < count; ++i) {
+				elements.add(array.get(i));
+			}
+			return elements;
+		}
+	}
+
+	/**
+	 * Decoded result of one request.
+	 */
+	static class BatchItemResult {
+		Object _data;
+		String _error_msg;
+	}
+
+	/**
+	 * Key of requests that can share one connection. Policy objects are compared by identity.
+	 */
+	private static class BatchKey {
+
+		private final String _url;
+		private final CommRetryPolicy _retry_policy;
+		private final CommAdaptiveLimiter _limiter;
+		private final CommCircuitBreaker _circuit_breaker;
+		private final CommBaseRequest.Priority _priority;
+		private final int _gzip_threshold;
+
+		BatchKey(CommRequestJsonMsg<?> request) {
+			CommBaseStatus status = request.getStatus();
+			_url = status.getRequestURL();
+			_retry_policy = status.getRetryPolicy();
+			_limiter = request.getConcurrencyLimiter();
+			_circuit_breaker = request.getCircuitBreaker();
+			_priority = request.getPriority();
+			_gzip_threshold = status.getGzipPostThreshold();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof BatchKey)) {
+				return false;
+			}
+			BatchKey key = (BatchKey) obj;
+			return _url.equals(key._url) && _retry_policy == key._retry_policy && _limiter == key._limiter
+					&& _circuit_breaker == key._circuit_breaker && _priority == key._priority
+					&& _gzip_threshold == key._gzip_threshold;
+		}
+
+		@Override
+		public int hashCode() {
+			return _url.hashCode() * 31 + _priority.hashCode();
+		}
+	}
+
+	/**
+	 * Requests collected for one key. Runnable flushes the batch when time window ends.
+	 */
+	private class Batch implements Runnable {
+
+		private final BatchKey _key;
+		private final List<CommRequestJsonMsg<?>> _requests = new ArrayList<>();
+		/**
+		 * Deadline of each request. (0 is no deadline)
+		 */
+		private final List<Long> _deadlines = new ArrayList<>();
+		/**
+		 * Running task after batch is sent.
+		 */
+		private CommRequestMessageTask _task = null;
+		/**
+		 * Count of sent requests not cancelled yet.
+		 */
+		private int _active_count = 0;
+
+		Batch(BatchKey key) {
+			_key = key;
+		}
+
+		@Override
+		public void run() {
+			flush(this);
+		}
+	}
+
+	/**
+	 * Connection setting of batched request.
+	 */
+	private static class BatchStatus extends CommBaseStatus {
+
+		private final String _post_str;
+
+		BatchStatus(BatchKey key, String post_str) {
+			_post_str = post_str;
+			setOriginalURL(key._url);
+			setHttpType(CommType.HttpPost);
+			setGzipPostThreshold(key._gzip_threshold);
+			setRetryPolicy(key._retry_policy);
+		}
+
+		@Override
+		public String getPostString() {
+			return _post_str;
+		}
+	}
+
+	/**
+	 * Split and decode batched response in worker thread.
+	 */
+	private class BatchResponseHandler implements CommRequestMessageTask.IResponseHandler {
+
+		private final List<CommRequestJsonMsg<?>> _requests;
+
+		BatchResponseHandler(List<CommRequestJsonMsg<?>> requests) {
+			_requests = requests;
+		}
+
+		@Override
+		public Object onResponse(InputStream input_stream) throws Exception {
+			JsonReader reader = new JsonReader(new InputStreamReader(input_stream, "UTF-8"));
+			List<JsonElement> elements = _envelope.splitResponse(reader, _requests.size());
+			List<BatchItemResult> results = new ArrayList<>(elements.size());
+			for (int i = 0; i < _requests.size(); ++i) {
+				BatchItemResult result = new BatchItemResult();
+				try {
+					result._data = CommGson.getAdapter(_requests.get(i).getReturnTypeToken()).fromJsonTree(elements.get(i));
+				} catch (Exception e) {
+					Log.w(this.getClass().getName(), "Exception: " + e.toString());
+					result._error_msg = e.toString();
+				}
+				results.add(result);
+			}
+			return results;
+		}
+	}
+
+	/**
+	 * Deliver split results to each request.
+	 */
+	private class BatchCompleteAction implements CommRequestMessageTask.IResponseCompleteAction {
+
+		private final Batch _batch;
+
+		BatchCompleteAction(Batch batch) {
+			_batch = batch;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void onResponseComplete(boolean isSuccess, Object data, String msg) {
+			List<BatchItemResult> results = isSuccess ? (List<BatchItemResult>) data : null;
+			List<CommRequestJsonMsg<?>> requests = _batch._requests;
+			for (int i = 0; i < requests.size(); ++i) {
+				CommRequestJsonMsg<?> request = requests.get(i);
+				if (_request_batches.get(request) == _batch) {
+					_request_batches.remove(request);
+				}
+				if (request.isCancelled()) {
+					continue;
+				}
+				if (null == results) {
+					request.onBatchComplete(false, null, msg);
+				} else {
+					BatchItemResult result = results.get(i);
+					request.onBatchComplete(null == result._error_msg, result._data, result._error_msg);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Constructor with JsonArrayEnvelope.
+	 */
+	public CommJsonBatchDispatcher() {
+		this(new JsonArrayEnvelope());
+	}
+
+	/**
+	 * Constructor.
+	 * @param envelope Batch request and response format.
+	 */
+	public CommJsonBatchDispatcher(IBatchEnvelope envelope) {
+		_envelope = envelope;
+	}
+
+	/**
+	 * Set time window to collect requests. (Default is 20 ms)
+	 * @param window_time Window time (millisecond).
+	 */
+	public void setWindowTime(long window_time) {
+		_window_time = window_time;
+	}
+
+	/**
+	 * Set maximum request count of one batch. Batch is sent immediately when it is full. (Default is 20)
+	 * @param max_count Maximum request count.
+	 */
+	public void setMaxCount(int max_count) {
+		if (max_count <= 0) {
+			throw new IllegalArgumentException("max_count must be greater than 0");
+		}
+		_max_count = max_count;
+	}
+
+	/**
+	 * Set executor of batched connection. If executor is CommPriorityScheduler, batch is queued with priority of
+	 * its requests. (Default is AsyncTask thread pool executor)
+	 * @param executor Executor object.
+	 */
+	public void setExecutor(Executor executor) {
+		_executor = (null == executor) ? AsyncTask.THREAD_POOL_EXECUTOR : executor;
+	}
+
+	/**
+	 * Add request to the batch of its key.
+	 * @param request Request object.
+	 */
+	void enqueue(CommRequestJsonMsg<?> request) {
+		BatchKey key = new BatchKey(request);
+		Batch batch = _pending_batches.get(key);
+		if (null == batch) {
+			batch = new Batch(key);
+			_pending_batches.put(key, batch);
+			_handler.postDelayed(batch, _window_time);
+		}
+
+		batch._requests.add(request);
+		batch._deadlines.add(request.calculateDeadline());
+		_request_batches.put(request, batch);
+		if (batch._requests.size() >= _max_count) {
+			_handler.removeCallbacks(batch);
+			flush(batch);
+		}
+	}
+
+	/**
+	 * Remove cancelled request. If the batch is not sent yet, the request is removed from it. If all requests of
+	 * sent batch are removed, its connection is disconnected.
+	 * @param request Request object.
+	 */
+	void remove(CommRequestJsonMsg<?> request) {
+		Batch batch = _request_batches.remove(request);
+		if (null == batch) {
+			return;
+		}
+		if (null != batch._task) {
+			if (--batch._active_count <= 0) {
+				batch._task.abort();
+			}
+			return;
+		}
+		int index = batch._requests.indexOf(request);
+		batch._requests.remove(index);
+		batch._deadlines.remove(index);
+		if (batch._requests.isEmpty()) {
+			_handler.removeCallbacks(batch);
+			_pending_batches.remove(batch._key);
+		}
+	}
+
+	/**
+	 * Send collected requests.
+	 * @param batch Batch object.
+	 */
+	private void flush(Batch batch) {
+		if (_pending_batches.get(batch._key) == batch) {
+			_pending_batches.remove(batch._key);
+		}
+
+		List<CommRequestJsonMsg<?>> requests = batch._requests;
+		if (requests.isEmpty()) {
+			return;
+		}
+		// The batch is one call of host, so it takes one permit and the breaker receives one result.
+		CommCircuitBreaker breaker = batch._key._circuit_breaker;
+		if (null != breaker && !breaker.tryAcquire(CommCallTiming.parseHost(batch._key._url))) {
+			for (CommRequestJsonMsg<?> request : new ArrayList<>(requests)) {
+				_request_batches.remove(request);
+				request.onBatchComplete(false, null, "Circuit breaker is open");
+			}
+			return;
+		}
+		if (1 == requests.size()) {
+			_request_batches.remove(requests.get(0));
+			requests.get(0).runUnbatched();
+			return;
+		}
+
+		List<String> post_strings = new ArrayList<>(requests.size());
+		long deadline = 0;
+		CommRequestMessageTask task = new CommRequestMessageTask();
+		for (int i = 0; i < requests.size(); ++i) {
+			CommRequestJsonMsg<?> request = requests.get(i);
+			post_strings.add(request.getStatus().getPostString());
+			long request_deadline = batch._deadlines.get(i);
+			if (0 != request_deadline && (0 == deadline || request_deadline < deadline)) {
+				deadline = request_deadline;
+			}
+			task.addEventListeners(request.getEventListeners());
+		}
+		CommBaseStatus status = new BatchStatus(batch._key, _envelope.buildRequest(post_strings));
+
+		task.setResponseHandler(new BatchResponseHandler(requests));
+		task.addResponseNotify(new BatchCompleteAction(batch));
+		task.setDeadline(deadline);
+		batch._task = task;
+		batch._active_count = requests.size();
+		task.executeOnExecutor(getTaskExecutor(batch._key), status);
+	}
+
+	/**
+	 * Get executor of batched connection with priority and concurrency limiter of the key.
+	 * @param key Batch key.
+	 * @return Executor object.
+	 */
+	private Executor getTaskExecutor(final BatchKey key) {
+		Executor executor = _executor;
+		if (_executor instanceof CommPriorityScheduler) {
+			final CommPriorityScheduler scheduler = (CommPriorityScheduler) _executor;
+			executor = new Executor() {
+				@Override
+				public void execute(Runnable runnable) {
+					scheduler.execute(runnable, key._priority, null);
+				}
+			};
+		}
+		if (null != key._limiter) {
+			executor = key._limiter.wrap(CommCallTiming.parseHost(key._url), executor);
+		}
+		return executor;
+	}
+
+}
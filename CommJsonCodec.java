@@ -0,0 +1,45 @@
+package webservice;
+
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * CommJsonCodec encodes and decodes UTF-8 JSON text by shared Gson object of CommGson.
+ */
+public class CommJsonCodec extends CommCodec {
+
+	/**
+	 * Shared codec object.
+	 */
+	public static final CommJsonCodec INSTANCE = new CommJsonCodec();
+
+	@Override
+	public String getContentType() {
+		return "application/json";
+	}
+
+	/**
+	 * Media types with "+json" suffix are also JSON.
+	 */
+	@Override
+	public boolean isContentType(String content_type) {
+		String media_type = getMediaType(content_type);
+		return getContentType().equals(media_type) || media_type.endsWith("+json");
+	}
+
+	@Override
+	public byte[] encode(Object data) throws IOException {
+		return CommGson.getGson().toJson(data).getBytes("UTF-8");
+	}
+
+	@Override
+	public <T> T decode(InputStream input_stream, TypeToken<T> type_token) throws IOException {
+		JsonReader reader = new JsonReader(new InputStreamReader(input_stream, "UTF-8"));
+		return CommGson.getAdapter(type_token).read(reader);
+	}
+
+}
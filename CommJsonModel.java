@@ -0,0 +1,22 @@
+package webservice;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * CommJsonModel marks a response class whose Gson TypeAdapter is generated at build time by
+ * webservice.processor.CommJsonModelProcessor, so it is decoded without reflection on its fields.
+ *
+ * The class must be non-generic, non-private, and static if nested, with a non-private no-argument
+ * constructor. Its serialized fields must not be private. @SerializedName is supported.
+ * CommJsonAdapterFactory finds generated adapter by class name, and reflective adapter of Gson is used
+ * if it is not generated. Keep "*_CommJsonAdapter" classes when code is shrunk.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface CommJsonModel {
+}
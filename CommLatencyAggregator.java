@@ -0,0 +1,132 @@
+package webservice;
+
+import com.google.gson.JsonObject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * CommLatencyAggregator is a built-in CommRequestEventListener that keeps CommLatencyHistogram of each
+ * call phase per endpoint. Times are recorded in microseconds. Snapshot can be exported as JSON string.
+ *
+ * Usage: CommRequestEvents.addGlobalListener(aggregator), and call exportJson() to get p50/p90/p99 values.
+ */
+public class CommLatencyAggregator extends CommRequestEventListener {
+
+	/**
+	 * Phase names in exported JSON.
+	 */
+	public static final String[] PHASE_NAMES = {
+			"total", "queue", "connect", "write", "first_byte", "read", "decode", "callback"
+	};
+
+	private final Map<String, EndpointStats> _endpoint_map = new HashMap<>();
+
+	/**
+	 * Statistics of one endpoint.
+	 */
+	private static class EndpointStats {
+		final CommLatencyHistogram[] _histograms = new CommLatencyHistogram[PHASE_NAMES.length];
+		long _call_count = 0;
+		long _error_count = 0;
+		long _bytes_sent = 0;
+		long _bytes_received = 0;
+
+		EndpointStats() {
+			for (int i = 0; i < _histograms.length; ++i) {
+				_histograms[i] = new CommLatencyHistogram();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void onCallEnd(CommCallTiming timing) {
+		EndpointStats stats = _endpoint_map.get(timing._endpoint);
+		if (null == stats) {
+			stats = new EndpointStats();
+			_endpoint_map.put(timing._endpoint, stats);
+		}
+
+		++stats._call_count;
+		if (!timing._is_success) {
+			++stats._error_count;
+		}
+		stats._bytes_sent += timing._bytes_sent;
+		stats._bytes_received += timing._bytes_received;
+
+		long[] phase_times = {
+				timing._total_time, timing._queue_time, timing._connect_time, timing._write_time,
+				timing._first_byte_time, timing._read_time, timing._decode_time, timing._callback_time
+		};
+		for (int i = 0; i < phase_times.length; ++i) {
+			if (phase_times[i] >= 0) {
+				stats._histograms[i].record(phase_times[i] / 1000);
+			}
+		}
+	}
+
+	/**
+	 * Get histogram of endpoint and phase.
+	 * @param endpoint Request URL without query string.
+	 * @param phase Phase name in PHASE_NAMES.
+	 * @return Histogram object, or null if not found.
+	 */
+	public synchronized CommLatencyHistogram getHistogram(String endpoint, String phase) {
+		EndpointStats stats = _endpoint_map.get(endpoint);
+		if (null == stats) {
+			return null;
+		}
+		for (int i = 0; i < PHASE_NAMES.length; ++i) {
+			if (PHASE_NAMES[i].equals(phase)) {
+				return stats._histograms[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Export snapshot of all endpoints as JSON string.
+	 * Format: {endpoint: {calls, errors, bytes_sent, bytes_received, phases: {phase: {count, mean, p50, p90, p99, max}}}}
+	 * @return JSON string. (Times are microseconds)
+	 */
+	public synchronized String exportJson() {
+		Map<String, EndpointStats> sorted_map = new TreeMap<>(_endpoint_map);
+		JsonObject root = new JsonObject();
+		for (Map.Entry<String, EndpointStats> entry : sorted_map.entrySet()) {
+			EndpointStats stats = entry.getValue();
+			JsonObject endpoint = new JsonObject();
+			endpoint.addProperty("calls", stats._call_count);
+			endpoint.addProperty("errors", stats._error_count);
+			endpoint.addProperty("bytes_sent", stats._bytes_sent);
+			endpoint.addProperty("bytes_received", stats._bytes_received);
+
+			JsonObject phases = new JsonObject();
+			for (int i = 0; i < PHASE_NAMES.length; ++i) {
+				CommLatencyHistogram histogram = stats._histograms[i];
+				if (0 == histogram.getCount()) {
+					continue;
+				}
+				JsonObject phase = new JsonObject();
+				phase.addProperty("count", histogram.getCount());
+				phase.addProperty("mean", histogram.getMean());
+				phase.addProperty("p50", histogram.getPercentile(50));
+				phase.addProperty("p90", histogram.getPercentile(90));
+				phase.addProperty("p99", histogram.getPercentile(99));
+				phase.addProperty("max", histogram.getMax());
+				phases.add(PHASE_NAMES[i], phase);
+			}
+			endpoint.add("phases", phases);
+			root.add(entry.getKey(), endpoint);
+		}
+		return CommGson.getGson().toJson(root);
+	}
+
+	/**
+	 * Remove all statistics.
+	 */
+	public synchronized void reset() {
+		_endpoint_map.clear();
+	}
+
+}
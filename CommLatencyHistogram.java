@@ -0,0 +1,112 @@
+package webservice;
+
+import java.util.Arrays;
+
+/**
+ * CommLatencyHistogram is a log-linear histogram like HdrHistogram. Each power of 2 range is divided into
+ * 16 linear buckets, so recorded values keep about 6% precision with fixed memory.
+ * Values are non-negative numbers, usually microseconds.
+ */
+public class CommLatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	/**
+	 * Largest power of 2 range. Larger values are recorded in the last bucket.
+	 */
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+	private final int[] _counts = new int[BUCKET_COUNT];
+	private long _total_count = 0;
+	private long _total_value = 0;
+	private long _max_value = 0;
+
+	/**
+	 * Record a value.
+	 * @param value Value. Negative value is ignored.
+	 */
+	public synchronized void record(long value) {
+		if (value < 0) {
+			return;
+		}
+		++_counts[getBucketIndex(value)];
+		++_total_count;
+		_total_value += value;
+		_max_value = Math.max(_max_value, value);
+	}
+
+	/**
+	 * @return Count of recorded values.
+	 */
+	public synchronized long getCount() {
+		return _total_count;
+	}
+
+	/**
+	 * @return Mean of recorded values, or 0 if no value.
+	 */
+	public synchronized double getMean() {
+		return (0 == _total_count) ? 0 : (double) _total_value / _total_count;
+	}
+
+	/**
+	 * @return Maximum recorded value.
+	 */
+	public synchronized long getMax() {
+		return _max_value;
+	}
+
+	/**
+	 * Get value at percentile. The result is the upper bound of the bucket, and not larger than maximum value.
+	 * @param percentile Percentile from 0 to 100.
+	 * @return Value at percentile, or 0 if no value.
+	 */
+	public synchronized long getPercentile(double percentile) {
+		if (0 == _total_count) {
+			return 0;
+		}
+		long target_count = Math.max(1, (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * _total_count));
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; ++i) {
+			count += _counts[i];
+			if (count >= target_count) {
+				return Math.min(getBucketUpperValue(i), _max_value);
+			}
+		}
+		return _max_value;
+	}
+
+	/**
+	 * Remove all recorded values.
+	 */
+	public synchronized void reset() {
+		Arrays.fill(_counts, 0);
+		_total_count = 0;
+		_total_value = 0;
+		_max_value = 0;
+	}
+
+	static int getBucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKET_COUNT - 1;
+		}
+		int sub_bucket = (int) (value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + sub_bucket;
+	}
+
+	static long getBucketUpperValue(int index) {
+		int bucket = index / SUB_BUCKET_COUNT;
+		int sub_bucket = index % SUB_BUCKET_COUNT;
+		if (0 == bucket) {
+			return sub_bucket;
+		}
+		int shift = bucket - 1;
+		return ((long) (SUB_BUCKET_COUNT + sub_bucket + 1) << shift) - 1;
+	}
+
+}
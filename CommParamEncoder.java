@@ -0,0 +1,215 @@
+package webservice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * CommParamEncoder builds application/x-www-form-urlencoded string of query or form parameters.
+ * Names and values are percent-encoded in UTF-8 directly into one buffer, without URLEncoder and temporary
+ * strings, and the buffer is not allocated if no parameter is added.
+ *
+ * Use it for URL by CommBaseStatus.addQueryParams(), or for Http/Post body by toBodyWriter().
+ */
+public final class CommParamEncoder {
+
+	/**
+	 * Content-Type of form body.
+	 */
+	public static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	private final int _capacity;
+	private StringBuilder _builder = null;
+
+	/**
+	 * Constructor.
+	 */
+	public CommParamEncoder() {
+		this(64);
+	}
+
+	/**
+	 * Constructor.
+	 * @param capacity Initial buffer size of encoded string.
+	 */
+	public CommParamEncoder(int capacity) {
+		_capacity = Math.max(capacity, 16);
+	}
+
+	/**
+	 * Add string parameter.
+	 * @param name Parameter name.
+	 * @param value Parameter value. (Parameter is skipped if null)
+	 * @return This object.
+	 */
+	public CommParamEncoder add(String name, CharSequence value) {
+		if (null == value) {
+			return this;
+		}
+		appendName(name);
+		encode(value, _builder);
+		return this;
+	}
+
+	/**
+	 * Add integer parameter.
+	 * @param name Parameter name.
+	 * @param value Parameter value.
+	 * @return This object.
+	 */
+	public CommParamEncoder add(String name, long value) {
+		appendName(name);
+		_builder.append(value);
+		return this;
+	}
+
+	/**
+	 * Add boolean parameter as "true" or "false".
+	 * @param name Parameter name.
+	 * @param value Parameter value.
+	 * @return This object.
+	 */
+	public CommParamEncoder add(String name, boolean value) {
+		appendName(name);
+		_builder.append(value);
+		return this;
+	}
+
+	/**
+	 * Add floating point parameter.
+	 * @param name Parameter name.
+	 * @param value Parameter value.
+	 * @return This object.
+	 */
+	public CommParamEncoder add(String name, double value) {
+		appendName(name);
+		_builder.append(value);
+		return this;
+	}
+
+	/**
+	 * @return True if no parameter is added.
+	 */
+	public boolean isEmpty() {
+		return null == _builder || 0 == _builder.length();
+	}
+
+	/**
+	 * Remove all parameters. Buffer is kept for reuse.
+	 */
+	public void clear() {
+		if (null != _builder) {
+			_builder.setLength(0);
+		}
+	}
+
+	/**
+	 * Append parameters to URL as query string.
+	 * @param url URL string. (May have query string already)
+	 * @return URL with parameters, or url itself if no parameter.
+	 */
+	public String appendTo(String url) {
+		if (isEmpty()) {
+			return url;
+		}
+		StringBuilder builder = new StringBuilder(url.length() + 1 + _builder.length());
+		builder.append(url).append((url.indexOf('?') < 0) ? '?' : '&').append(_builder);
+		return builder.toString();
+	}
+
+	/**
+	 * Create writer that sends parameters as form body.
+	 * @return Writer object. Parameters added later are not sent.
+	 */
+	public CommBodyWriter toBodyWriter() {
+		final byte[] body = toBytes();
+		return new CommBodyWriter() {
+			@Override
+			public void writeTo(OutputStream output_stream) throws IOException {
+				output_stream.write(body);
+			}
+
+			@Override
+			public long getContentLength() {
+				return body.length;
+			}
+
+			@Override
+			public String getContentType() {
+				return FORM_CONTENT_TYPE;
+			}
+		};
+	}
+
+	/**
+	 * @return Encoded parameters as ASCII bytes.
+	 */
+	public byte[] toBytes() {
+		int length = (null == _builder) ? 0 : _builder.length();
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; ++i) {
+			data[i] = (byte) _builder.charAt(i);	// Encoded string is ASCII only.
+		}
+		return data;
+	}
+
+	/**
+	 * @return Encoded parameters, like "name=value&name2=value2".
+	 */
+	@Override
+	public String toString() {
+		return (null == _builder) ? "" : _builder.toString();
+	}
+
+	private void appendName(String name) {
+		if (null == _builder) {
+			_builder = new StringBuilder(_capacity);
+		} else if (_builder.length() > 0) {
+			_builder.append('&');
+		}
+		encode(name, _builder);
+		_builder.append('=');
+	}
+
+	/**
+	 * Percent-encode string in UTF-8 like URLEncoder. Space is encoded as '+', and letters, digits and
+	 * ".-*_" are not encoded. Unpaired surrogate is encoded as '?'.
+	 * @param value String to encode.
+	 * @param builder Output buffer.
+	 */
+	public static void encode(CharSequence value, StringBuilder builder) {
+		int length = value.length();
+		for (int i = 0; i < length; ++i) {
+			char c = value.charAt(i);
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+					|| '.' == c || '-' == c || '*' == c || '_' == c) {
+				builder.append(c);
+			} else if (' ' == c) {
+				builder.append('+');
+			} else if (c < 0x80) {
+				appendByte(builder, c);
+			} else if (c < 0x800) {
+				appendByte(builder, 0xc0 | (c >> 6));
+				appendByte(builder, 0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int code_point = Character.toCodePoint(c, value.charAt(++i));
+				appendByte(builder, 0xf0 | (code_point >> 18));
+				appendByte(builder, 0x80 | ((code_point >> 12) & 0x3f));
+				appendByte(builder, 0x80 | ((code_point >> 6) & 0x3f));
+				appendByte(builder, 0x80 | (code_point & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				appendByte(builder, '?');
+			} else {
+				appendByte(builder, 0xe0 | (c >> 12));
+				appendByte(builder, 0x80 | ((c >> 6) & 0x3f));
+				appendByte(builder, 0x80 | (c & 0x3f));
+			}
+		}
+	}
+
+	private static void appendByte(StringBuilder builder, int value) {
+		builder.append('%').append(HEX_DIGITS[(value >> 4) & 0xf]).append(HEX_DIGITS[value & 0xf]);
+	}
+
+}
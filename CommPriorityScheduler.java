@@ -0,0 +1,297 @@
+package webservice;
+
+import android.os.AsyncTask;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import webservice.task.CommHttpTransport;
+
+/**
+ * CommPriorityScheduler is an executor that queues tasks by CommBaseRequest.Priority and dispatches them to
+ * a backing executor, at most max running tasks at the same time. Set it to a request by
+ * CommBaseRequest.setExecutor(), and the task of the request is queued with priority of the request.
+ *
+ * 1. Higher priority task runs first, and tasks of same priority run in FIFO order.
+ * 2. IMMEDIATE task is dispatched at once even if max running tasks are running.
+ * 3. Priority of a queued task can be changed by CommBaseRequest.setPriority(), and a queued task aborted by
+ *    CommBaseRequest.cancel() is removed from queue.
+ * 4. A waiting task is treated one level higher for each aging time, so low priority work is never starved.
+ */
+public class CommPriorityScheduler implements Executor {
+
+	/**
+	 * Default maximum number of running tasks.
+	 */
+	public static final int DEFAULT_MAX_RUNNING = 4;
+	/**
+	 * Default aging time. (millisecond)
+	 */
+	public static final long DEFAULT_AGING_TIME = 2000;
+
+	private final Executor _executor;
+	private final int _max_running;
+	private final List<LinkedList<Ticket>> _queues = new ArrayList<>();
+	private final Map<String, Ticket> _keyed_tickets = new HashMap<>();
+	private long _aging_time = DEFAULT_AGING_TIME;
+	private int _running_count = 0;
+	private long _sequence = 0;
+
+	/**
+	 * Queued task handle.
+	 */
+	public final class Ticket {
+		private final Runnable _runnable;
+		private final String _key;
+		private final long _sequence;
+		private final long _enqueue_time;
+		private CommBaseRequest.Priority _priority;
+		private boolean _is_started = false;
+		private boolean _is_removed = false;
+
+		private Ticket(Runnable runnable, CommBaseRequest.Priority priority, String key, long sequence) {
+			_runnable = runnable;
+			_priority = priority;
+			_key = key;
+			_sequence = sequence;
+			_enqueue_time = CommHttpTransport.currentTime();
+		}
+
+		/**
+		 * Change priority of task. Nothing happens if task is started.
+		 * @param priority New priority.
+		 */
+		public void setPriority(CommBaseRequest.Priority priority) {
+			reprioritize(this, priority);
+		}
+
+		/**
+		 * Remove task from queue if it is not started and its runnable is a cancelled Future, like AsyncTask
+		 * cancelled before start. Task still used by other requests is not cancelled, so it stays queued.
+		 * @return True if task is removed.
+		 */
+		public boolean removeIfCancelled() {
+			return removeCancelled(this);
+		}
+
+		/**
+		 * @return Priority of task.
+		 */
+		public CommBaseRequest.Priority getPriority() {
+			synchronized (CommPriorityScheduler.this) {
+				return _priority;
+			}
+		}
+
+		/**
+		 * @return True if task is dispatched to backing executor.
+		 */
+		public boolean isStarted() {
+			synchronized (CommPriorityScheduler.this) {
+				return _is_started;
+			}
+		}
+	}
+
+	/**
+	 * Constructor with AsyncTask thread pool executor and default maximum running tasks.
+	 */
+	public CommPriorityScheduler() {
+		this(AsyncTask.THREAD_POOL_EXECUTOR, DEFAULT_MAX_RUNNING);
+	}
+
+	/**
+	 * Constructor.
+	 * @param executor Backing executor that runs dispatched tasks.
+	 * @param max_running Maximum number of running tasks. (at least 1)
+	 */
+	public CommPriorityScheduler(Executor executor, int max_running) {
+		_executor = executor;
+		_max_running = Math.max(max_running, 1);
+		for (int i = 0; i < CommBaseRequest.Priority.values().length; ++i) {
+			_queues.add(new LinkedList<Ticket>());
+		}
+	}
+
+	/**
+	 * Set time a queued task waits before it is treated one level higher. 0 disables aging.
+	 * @param aging_time Aging time. (millisecond)
+	 */
+	public synchronized void setAgingTime(long aging_time) {
+		_aging_time = Math.max(aging_time, 0);
+	}
+
+	/**
+	 * Queue task with VISIBLE priority.
+	 * @param runnable Task.
+	 */
+	@Override
+	public void execute(Runnable runnable) {
+		execute(runnable, CommBaseRequest.Priority.VISIBLE, null);
+	}
+
+	/**
+	 * Queue task.
+	 * @param runnable Task.
+	 * @param priority Priority of task.
+	 * @param key Key to find queued task by findQueued(). (nullable)
+	 * @return Ticket of task.
+	 */
+	public synchronized Ticket execute(Runnable runnable, CommBaseRequest.Priority priority, String key) {
+		if (null == runnable) {
+			throw new NullPointerException("runnable is null");
+		}
+		Ticket ticket = new Ticket(runnable, priority, key, _sequence++);
+		_queues.get(priority.ordinal()).addLast(ticket);
+		if (null != key) {
+			_keyed_tickets.put(key, ticket);
+		}
+		scheduleNext();
+		return ticket;
+	}
+
+	/**
+	 * Find queued task that is not started.
+	 * @param key Key passed to execute().
+	 * @return Ticket, or null if not found.
+	 */
+	public synchronized Ticket findQueued(String key) {
+		return (null == key) ? null : _keyed_tickets.get(key);
+	}
+
+	/**
+	 * @return Number of queued tasks not started.
+	 */
+	public synchronized int getQueuedCount() {
+		int count = 0;
+		for (LinkedList<Ticket> queue : _queues) {
+			count += queue.size();
+		}
+		return count;
+	}
+
+	/**
+	 * @return Number of running tasks.
+	 */
+	public synchronized int getRunningCount() {
+		return _running_count;
+	}
+
+	private synchronized boolean removeCancelled(Ticket ticket) {
+		if (ticket._is_started || ticket._is_removed || !(ticket._runnable instanceof Future)
+				|| !((Future<?>) ticket._runnable).isCancelled()) {
+			return false;
+		}
+		ticket._is_removed = true;
+		_queues.get(ticket._priority.ordinal()).remove(ticket);
+		if (null != ticket._key && ticket == _keyed_tickets.get(ticket._key)) {
+			_keyed_tickets.remove(ticket._key);
+		}
+		return true;
+	}
+
+	private synchronized void reprioritize(Ticket ticket, CommBaseRequest.Priority priority) {
+		if (ticket._is_started || ticket._is_removed || ticket._priority == priority) {
+			return;
+		}
+		_queues.get(ticket._priority.ordinal()).remove(ticket);
+		ticket._priority = priority;
+
+		// Keep FIFO order of queue by sequence.
+		ListIterator<Ticket> iterator = _queues.get(priority.ordinal()).listIterator();
+		while (iterator.hasNext()) {
+			if (iterator.next()._sequence > ticket._sequence) {
+				iterator.previous();
+				break;
+			}
+		}
+		iterator.add(ticket);
+		scheduleNext();
+	}
+
+	private synchronized void onTaskFinished() {
+		--_running_count;
+		scheduleNext();
+	}
+
+	/**
+	 * Dispatch queued tasks while running count is under limit. Must be called with lock.
+	 */
+	private void scheduleNext() {
+		LinkedList<Ticket> immediate_queue = _queues.get(CommBaseRequest.Priority.IMMEDIATE.ordinal());
+		while (!immediate_queue.isEmpty()) {
+			dispatch(immediate_queue.removeFirst());
+		}
+
+		while (_running_count < _max_running) {
+			Ticket ticket = pollNext();
+			if (null == ticket) {
+				return;
+			}
+			dispatch(ticket);
+		}
+	}
+
+	/**
+	 * Remove queued task with highest priority after aging. Must be called with lock.
+	 * @return Ticket, or null if queue is empty.
+	 */
+	private Ticket pollNext() {
+		long now = CommHttpTransport.currentTime();
+		LinkedList<Ticket> best_queue = null;
+		long best_level = Long.MAX_VALUE;
+		long best_sequence = Long.MAX_VALUE;
+		for (int i = 0; i < _queues.size(); ++i) {
+			LinkedList<Ticket> queue = _queues.get(i);
+			if (queue.isEmpty()) {
+				continue;
+			}
+			// Head is the oldest task of the level, so it is the only candidate of the level.
+			Ticket head = queue.getFirst();
+			long level = i;
+			if (_aging_time > 0) {
+				level = Math.max(i - (now - head._enqueue_time) / _aging_time, 0);
+			}
+			if (level < best_level || (level == best_level && head._sequence < best_sequence)) {
+				best_queue = queue;
+				best_level = level;
+				best_sequence = head._sequence;
+			}
+		}
+		return (null == best_queue) ? null : best_queue.removeFirst();
+	}
+
+	/**
+	 * Pass task to backing executor. Must be called with lock.
+	 * @param ticket Ticket of task.
+	 */
+	private void dispatch(final Ticket ticket) {
+		ticket._is_started = true;
+		if (null != ticket._key && ticket == _keyed_tickets.get(ticket._key)) {
+			_keyed_tickets.remove(ticket._key);
+		}
+		++_running_count;
+		try {
+			_executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						ticket._runnable.run();
+					} finally {
+						onTaskFinished();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			--_running_count;
+			throw e;
+		}
+	}
+
+}
@@ -0,0 +1,153 @@
+package webservice;
+
+import webservice.task.CommDownloadFileTask;
+import webservice.task.CommExecutors;
+import webservice.task.CommFileDownload;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+/**
+ * Download URL to file. We use CommDownloadFileTask to stream response body to file without holding it in
+ * memory, so it is used for large files like asset bundles.
+ *
+ * Interrupted or cancelled download resumes from partial data when the same URL is downloaded to the same
+ * file again, if server supports Range. Call setSegmentCount() to download large file by parallel connections.
+ */
+public class CommRequestDownloadFile extends CommBaseRequest {
+
+	private String _url_str;
+	private File _file;
+	private IRequestDownloadFileAction _complete_action;
+	private int _segment_count = 1;
+	private long _min_segment_size = CommFileDownload.DEFAULT_MIN_SEGMENT_SIZE;
+	private CommDownloadFileTask _running_task = null;
+	private TaskActionComplete _running_notify = null;
+
+	/**
+	 * Callback interface.
+	 */
+	public interface IRequestDownloadFileAction {
+		/**
+		 * Called in main thread while downloading.
+		 * @param downloaded_length Downloaded byte count, including resumed data.
+		 * @param total_length Total byte count. (negative if unknown)
+		 */
+		void onProgress(long downloaded_length, long total_length);
+
+		/**
+		 * @param file Downloaded file.
+		 */
+		void onSuccess(File file);
+
+		/**
+		 * @param msg Error message.
+		 */
+		void onFailure(String msg);
+	}
+
+	/**
+	 * Callback object of task.
+	 */
+	class TaskActionComplete implements CommDownloadFileTask.ActionComplete {
+
+		@Override
+		public void onDownloadProgress(long downloaded_length, long total_length) {
+			_complete_action.onProgress(downloaded_length, total_length);
+		}
+
+		@Override
+		public void onDownloadComplete(boolean is_success, File file, String msg) {
+			_running_task = null;
+			_running_notify = null;
+
+			if (is_success) {
+				_complete_action.onSuccess(file);
+			} else {
+				_complete_action.onFailure(msg);
+			}
+
+			runCompleteAction(is_success);	// must be called finally
+		}
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param url_str Download URL string.
+	 * @param file Destination file. "file.part" and "file.meta" are kept next to it until download completes.
+	 * @param action Call back object.
+	 */
+	public CommRequestDownloadFile(String url_str, File file, IRequestDownloadFileAction action) {
+		this._url_str = url_str;
+		this._file = file;
+		this._complete_action = action;
+	}
+
+	/**
+	 * Set maximum count of parallel connections. File is split only if server supports Range and each segment
+	 * is at least min_segment_size. (Default is 1, one connection)
+	 *
+	 * @param segment_count Connection count.
+	 * @param min_segment_size Minimum byte count of a segment. (CommFileDownload.DEFAULT_MIN_SEGMENT_SIZE)
+	 */
+	public void setSegmentCount(int segment_count, long min_segment_size) {
+		_segment_count = segment_count;
+		_min_segment_size = min_segment_size;
+	}
+
+	/**
+	 * Run request. If circuit breaker of host is open, request fails immediately.
+	 */
+	@Override
+	public void runRequest() {
+		if (isCancelled()) {
+			runCompleteAction(false);	// Cancelled before start, user callback is not called.
+			return;
+		}
+		if (!isCallPermitted(_url_str)) {
+			failRequest("Circuit breaker is open");
+			return;
+		}
+		TaskActionComplete notify = new TaskActionComplete();
+
+		CommFileDownload download = new CommFileDownload(_url_str, _file);
+		download.setSegmentCount(_segment_count, _min_segment_size);
+		download.setDeadline(calculateDeadline());
+		CommDownloadFileTask task = new CommDownloadFileTask(download);
+		task.addCompleteNotify(notify);
+		task.executeOnExecutor(getTaskExecutor(null, _url_str));
+		_running_task = task;
+		_running_notify = notify;
+	}
+
+	/**
+	 * Download runs on parallel default executor of CommExecutors unless executor is set, so a long download
+	 * does not block other requests on AsyncTask serial executor.
+	 * @return Default executor.
+	 */
+	@Override
+	protected Executor getDefaultExecutor() {
+		return CommExecutors.getDefaultExecutor();
+	}
+
+	@Override
+	protected void failRequest(String fail_msg) {
+		new TaskActionComplete().onDownloadComplete(false, null, fail_msg);
+	}
+
+	/**
+	 * Partial data is kept, so the download resumes when it runs again by a new request.
+	 */
+	@Override
+	protected boolean onCancel() {
+		if (null == _running_task) {
+			return false;
+		}
+		_running_task.removeCompleteNotify(_running_notify);
+		_running_task = null;
+		_running_notify = null;
+		return true;
+	}
+
+}
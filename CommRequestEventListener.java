@@ -0,0 +1,34 @@
+package webservice;
+
+/**
+ * CommRequestEventListener receives timing events of requests and chains. Listener is registered globally by
+ * CommRequestEvents, or for one request by CommBaseRequest.addEventListener(), or for one chain by
+ * CommChainManager.addEventListener(). All methods are called in main thread and do nothing by default.
+ */
+public abstract class CommRequestEventListener {
+
+	/**
+	 * Called when a task call completes, after all completion callbacks.
+	 * @param timing Timing of the call.
+	 */
+	public void onCallEnd(CommCallTiming timing) {
+	}
+
+	/**
+	 * Called when a chain starts.
+	 * @param chain Chain object.
+	 * @param request_count Request count of the chain.
+	 */
+	public void onChainStart(CommChainManager chain, int request_count) {
+	}
+
+	/**
+	 * Called when a chain completes, fails or is cancelled.
+	 * @param chain Chain object.
+	 * @param is_success Flag if chain is successful.
+	 * @param duration Chain time (nanosecond).
+	 */
+	public void onChainEnd(CommChainManager chain, boolean is_success, long duration) {
+	}
+
+}
@@ -0,0 +1,125 @@
+package webservice;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * CommRequestEvents keeps global CommRequestEventListener objects and dispatches events.
+ * Tasks always record call timing, because coalesced requests may add listeners while the task is running,
+ * and check isEnabled() when the call ends to skip dispatching if no listener is registered.
+ */
+public final class CommRequestEvents {
+
+	private static final CopyOnWriteArrayList<CommRequestEventListener> _global_listeners = new CopyOnWriteArrayList<>();
+	private static volatile boolean _has_global_listener = false;
+
+	private CommRequestEvents() {}
+
+	/**
+	 * Register global listener of all requests and chains.
+	 * @param listener Listener object.
+	 */
+	public static void addGlobalListener(CommRequestEventListener listener) {
+		if (null == listener) {
+			return;
+		}
+		_global_listeners.addIfAbsent(listener);
+		_has_global_listener = true;
+	}
+
+	/**
+	 * Unregister global listener.
+	 * @param listener Listener object.
+	 */
+	public static void removeGlobalListener(CommRequestEventListener listener) {
+		_global_listeners.remove(listener);
+		_has_global_listener = !_global_listeners.isEmpty();
+	}
+
+	/**
+	 * Check if events must be recorded.
+	 * @param local_listeners Listeners of request or chain. (nullable)
+	 * @return True if any global or local listener exists.
+	 */
+	public static boolean isEnabled(List<CommRequestEventListener> local_listeners) {
+		return _has_global_listener || (null != local_listeners && !local_listeners.isEmpty());
+	}
+
+	/**
+	 * Add listeners not in list yet, compared by identity. Coalesced requests often share the same limiter or
+	 * circuit breaker object, which must receive one event per connection.
+	 * @param list Listener list of task.
+	 * @param listeners Listeners to add. (nullable)
+	 */
+	public static void addAbsent(List<CommRequestEventListener> list, List<CommRequestEventListener> listeners) {
+		if (null == listeners) {
+			return;
+		}
+		for (CommRequestEventListener listener : listeners) {
+			boolean is_found = false;
+			for (CommRequestEventListener added : list) {
+				if (added == listener) {
+					is_found = true;
+					break;
+				}
+			}
+			if (!is_found) {
+				list.add(listener);
+			}
+		}
+	}
+
+	/**
+	 * Dispatch call event to global and local listeners.
+	 * @param timing Timing of the call.
+	 * @param local_listeners Listeners of request. (nullable)
+	 */
+	public static void dispatchCallEnd(CommCallTiming timing, List<CommRequestEventListener> local_listeners) {
+		for (CommRequestEventListener listener : _global_listeners) {
+			listener.onCallEnd(timing);
+		}
+		if (null != local_listeners) {
+			for (CommRequestEventListener listener : local_listeners) {
+				listener.onCallEnd(timing);
+			}
+		}
+	}
+
+	/**
+	 * Dispatch chain start event to global and local listeners.
+	 * @param chain Chain object.
+	 * @param request_count Request count of the chain.
+	 * @param local_listeners Listeners of chain. (nullable)
+	 */
+	static void dispatchChainStart(CommChainManager chain, int request_count,
+			List<CommRequestEventListener> local_listeners) {
+		for (CommRequestEventListener listener : _global_listeners) {
+			listener.onChainStart(chain, request_count);
+		}
+		if (null != local_listeners) {
+			for (CommRequestEventListener listener : local_listeners) {
+				listener.onChainStart(chain, request_count);
+			}
+		}
+	}
+
+	/**
+	 * Dispatch chain end event to global and local listeners.
+	 * @param chain Chain object.
+	 * @param is_success Flag if chain is successful.
+	 * @param duration Chain time (nanosecond).
+	 * @param local_listeners Listeners of chain. (nullable)
+	 */
+	static void dispatchChainEnd(CommChainManager chain, boolean is_success, long duration,
+			List<CommRequestEventListener> local_listeners) {
+		for (CommRequestEventListener listener : _global_listeners) {
+			listener.onChainEnd(chain, is_success, duration);
+		}
+		if (null != local_listeners) {
+			for (CommRequestEventListener listener : local_listeners) {
+				listener.onChainEnd(chain, is_success, duration);
+			}
+		}
+	}
+
+}
@@ -6,11 +6,19 @@ import webservice.task.CommRequestBitmapTask;
 
 /**
  * Get Image object from URL. We use CommRequestBitmapTask to get Bitmap object.
+ * If CommBitmapCache is set, bitmap in memory tier is returned synchronously in runRequest().
  */
 public class CommRequestGetUrlBitmap extends CommBaseRequest {
 
     private String _url_str = "";
     private IRequestGetUrlBitmapAction _complete_action = null;
+    private CommBitmapCache _cache = null;
+    private CommBitmapPool _bitmap_pool = null;
+    private int _target_width = 0;
+    private int _target_height = 0;
+    private Bitmap.Config _decode_config = null;
+    private CommRequestBitmapTask _running_task = null;
+    private CommRequestBitmapTask.ActionComplete _running_notify = null;
 
     /**
      * Callback interface.
@@ -27,6 +35,8 @@ public class CommRequestGetUrlBitmap extends CommBaseRequest {
 
         @Override
         public void onGetBitmapComplete(boolean is_success, Bitmap bmp, String msg) {
+            _running_task = null;
+            _running_notify = null;
 
             if (is_success) {
                 _complete_action.onSuccess(bmp);
@@ -38,6 +48,20 @@ public class CommRequestGetUrlBitmap extends CommBaseRequest {
         }
     }
 
+    /**
+     * Wait for prefetch of the same URL, and decode its data by a new task.
+     */
+    class PrefetchActionComplete implements CommRequestBitmapTask.ActionComplete {
+
+        @Override
+        public void onGetBitmapComplete(boolean is_success, Bitmap bmp, String msg) {
+            _running_task = null;
+            _running_notify = null;
+            // Data is in disk tier if prefetch is successful, otherwise the new task downloads it again.
+            startTask();
+        }
+    }
+
     /**
      * Constructor.
      *
@@ -49,10 +73,121 @@ public class CommRequestGetUrlBitmap extends CommBaseRequest {
         this._complete_action = action;
     }
 
+    /**
+     * Constructor with decoding target size. Image is downsampled to the smallest size not less than target size.
+     *
+     * @param url_str Destination URL string.
+     * @param target_width Target width in pixel.
+     * @param target_height Target height in pixel.
+     * @param config Decoding config. (null is ARGB_8888)
+     * @param action Call back object.
+     */
+    public CommRequestGetUrlBitmap(String url_str, int target_width, int target_height, Bitmap.Config config,
+                                   IRequestGetUrlBitmapAction action) {
+        this(url_str, action);
+        this._target_width = target_width;
+        this._target_height = target_height;
+        this._decode_config = config;
+    }
+
+    /**
+     * Set bitmap pool to reuse bitmap memory when decoding. (Default is null, no pool)
+     *
+     * @param pool Bitmap pool.
+     */
+    public void setBitmapPool(CommBitmapPool pool) {
+        _bitmap_pool = pool;
+    }
+
+    /**
+     * Set bitmap cache. (Default is null, no cache)
+     *
+     * @param cache Cache object.
+     */
+    public void setCache(CommBitmapCache cache) {
+        _cache = cache;
+    }
+
+    /**
+     * Run request. If the same URL with the same decoding option is downloading,
+     * this request waits for its result instead of sending another connection.
+     * If the URL is prefetching by CommBitmapPrefetcher with the same cache, this request waits for
+     * the prefetch and decodes its data. If circuit breaker of host is open, request fails immediately
+     * unless bitmap is in memory tier.
+     */
     @Override
     public void runRequest() {
-        CommRequestBitmapTask task = new CommRequestBitmapTask();
-        task.addCompleteNotify(new TaskActionComplete());
-        task.execute(_url_str);
+        if (isCancelled()) {
+            runCompleteAction(false);   // Cancelled before start, user callback is not called.
+            return;
+        }
+        String memory_key = CommBitmapCache.getMemoryKey(_url_str, _target_width, _target_height, _decode_config);
+        if (null != _cache) {
+            Bitmap bitmap = _cache.getBitmap(memory_key);
+            if (null != bitmap) {
+                _complete_action.onSuccess(bitmap);
+                runCompleteAction(true);
+                return;
+            }
+        }
+
+        if (!isCallPermitted(_url_str)) {
+            failRequest("Circuit breaker is open");
+            return;
+        }
+
+        String prefetch_key = CommBitmapPrefetcher.getPrefetchKey(_url_str);
+        CommRequestBitmapTask prefetch_task = CommRequestBitmapTask.findInFlight(prefetch_key);
+        if (null != prefetch_task && null != _cache && _cache == prefetch_task.getCache()) {
+            PrefetchActionComplete notify = new PrefetchActionComplete();
+            prefetch_task.addCompleteNotify(notify);
+            attachScheduledTask(prefetch_key);
+            _running_task = prefetch_task;
+            _running_notify = notify;
+            return;
+        }
+        startTask();
+    }
+
+    @Override
+    protected void failRequest(String fail_msg) {
+        new TaskActionComplete().onGetBitmapComplete(false, null, fail_msg);
+    }
+
+    /**
+     * Start decoding task, or attach to running task of the same URL and decoding option.
+     */
+    private void startTask() {
+        String key = CommBitmapCache.getMemoryKey(_url_str, _target_width, _target_height, _decode_config);
+        TaskActionComplete notify = new TaskActionComplete();
+        CommRequestBitmapTask task = CommRequestBitmapTask.findInFlight(key);
+        if (null != task) {
+            task.addCompleteNotify(notify);
+            task.addEventListeners(getEventListeners());
+            attachScheduledTask(key);
+        } else {
+            task = new CommRequestBitmapTask();
+            task.setCache(_cache);
+            task.setBitmapPool(_bitmap_pool);
+            task.setDecodeOption(_target_width, _target_height, _decode_config);
+            task.addCompleteNotify(notify);
+            task.addEventListeners(getEventListeners());
+            task.registerInFlight(key);
+            task.setDeadline(calculateDeadline());
+            task.executeOnExecutor(getTaskExecutor(key, _url_str), _url_str);
+        }
+        _running_task = task;
+        _running_notify = notify;
+    }
+
+    @Override
+    protected boolean onCancel() {
+        if (null == _running_task) {
+            return false;
+        }
+        _running_task.removeCompleteNotify(_running_notify);
+        _running_task = null;
+        _running_notify = null;
+        return true;
     }
 }
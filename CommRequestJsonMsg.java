@@ -2,11 +2,17 @@ package webservice;
 
 import android.util.Log;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
+import webservice.task.CommExecutors;
+import webservice.task.CommHttpCall;
 import webservice.task.CommRequestMessageTask;
 
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
 /**
  * A Network Request that sends json format data to server and gets .
  * This class uses CommRequestMessageTask to send and receiver json format string, and
@@ -19,10 +25,17 @@ import webservice.task.CommRequestMessageTask;
  * 2. When call runRequest() method, this method converts data object to string using Gson,
  * creates CommRequestMessageTask object to execute action.
  *
- * 3. When get request complete, CommRequestMessageTask call TaskCompleteAction::onTaskComplete(...) method
- * and send necessary data.
+ * 3. CommRequestMessageTask passes response stream to JsonResponseHandler in worker thread. The handler decodes
+ * stream by CommCodec of response Content-Type, which uses shared TypeAdapter object of CommGson class.
+ * Default is JSON, and CommBaseStatus.setCodec() selects another format like CBOR.
+ *
+ * 4. When get request complete, CommRequestMessageTask call TaskCompleteAction::onResponseComplete(...) method
+ * and send decoded data.
+ *
+ * 5. Call runCompleteAction(boolean) when process completes.
  *
- * 4. Call runCompleteAction(boolean) when process completes.
+ * requestAsync() sends the request by CommHttpCall without AsyncTask and callback object, and returns
+ * CompletableFuture of decoded data.
  *
  * @param <SendType> The requesting type.
  * @param <ReturnType> The responding type.
@@ -32,25 +45,47 @@ public class CommRequestJsonMsg<ReturnType> extends CommBaseRequest {
 	private RequestJsonMsgCallback<ReturnType> _callback;
 	private TypeToken<ReturnType> _return_type_token;
 	private CommBaseStatus _comm_obj;
+	private CommRequestMessageTask _running_task = null;
+	private TaskCompleteAction _running_notify = null;
+	private CommJsonBatchDispatcher _batch_dispatcher = null;
+	private boolean _is_batch_running = false;
+
+	/**
+	 * Response handler. Convert response stream to return type object in worker thread, by codec of response
+	 * Content-Type, or codec of CommBaseStatus, or JSON using shared Gson library.
+	 */
+	class JsonResponseHandler implements CommHttpCall.IContentResponseHandler {
+
+		@Override
+		public Object onResponse(InputStream input_stream) throws Exception {
+			return onResponse(input_stream, null);
+		}
+
+		@Override
+		public Object onResponse(InputStream input_stream, String content_type) throws Exception {
+			CommCodec codec = CommCodec.find(content_type, _comm_obj.getCodec());
+			if (null == codec) {
+				codec = CommJsonCodec.INSTANCE;
+			}
+			return codec.decode(input_stream, _return_type_token);
+		}
+	}
 
 	/**
-	 * Callback object. Convert string to return type object using Gson library.
+	 * Callback object. Return converted object to user.
 	 */
-    class TaskCompleteAction implements CommRequestMessageTask.ITaskCompleteAction {
+    class TaskCompleteAction implements CommRequestMessageTask.IResponseCompleteAction {
 
         @Override
-        public void onTaskComplete(boolean isSuccess, String result) {
+        @SuppressWarnings("unchecked")
+        public void onResponseComplete(boolean isSuccess, Object data, String result) {
+            _running_task = null;
+            _running_notify = null;
             boolean is_convert_success = false;
             if (isSuccess) {
                 try {
-                    Log.i(this.getClass().getName(), "Return Str : \n" + result);
-                    ReturnType return_data = new Gson().getAdapter(_return_type_token).fromJson(result);
-                    _callback.onRequestDataSuccess(return_data);
+                    _callback.onRequestDataSuccess((ReturnType) data);
                     is_convert_success = true;
-                } catch (JsonSyntaxException e) {
-                    Log.w(this.getClass().getName(), "JsonSyntaxException: " + e.toString());
-                    e.printStackTrace();
-                    _callback.onRequestDataFailed(e.toString());
                 } catch (Exception e) {
                     Log.w(this.getClass().getName(), "Exception: " + e.toString());
                     e.printStackTrace();
@@ -102,11 +137,151 @@ public class CommRequestJsonMsg<ReturnType> extends CommBaseRequest {
 		this._comm_obj = comm_obj;
 	}
 
+	/**
+	 * Set batch dispatcher. Http/Post request is merged with other requests to the same URL. (Default is null)
+	 * @param dispatcher Dispatcher object.
+	 */
+	public void setBatchDispatcher(CommJsonBatchDispatcher dispatcher) {
+		_batch_dispatcher = dispatcher;
+	}
+
+	/**
+	 * Run request. If circuit breaker of host is open, request fails immediately.
+	 * If batch dispatcher is set, Http/Post request of data string, without codec, is sent by dispatcher.
+	 * If an identical request is running, this request waits for its result instead of sending another connection.
+	 */
 	@Override
 	public void runRequest() {
-		CommRequestMessageTask send_data_http = new CommRequestMessageTask();
-		send_data_http.addCompleteNotify(new TaskCompleteAction());
-		send_data_http.execute(_comm_obj);
+		if (isCancelled()) {
+			runCompleteAction(false);	// Cancelled before start, user callback is not called.
+			return;
+		}
+		if (null != _batch_dispatcher && _comm_obj.isHttpPost() && null == _comm_obj.getCodec()
+				&& null == _comm_obj.getPostData() && null == _comm_obj.getBodyWriter()) {
+			_is_batch_running = true;
+			_batch_dispatcher.enqueue(this);	// Dispatcher checks circuit breaker once for the batch.
+			return;
+		}
+		if (!isCallPermitted(_comm_obj.getRequestURL())) {
+			failRequest("Circuit breaker is open");
+			return;
+		}
+		runUnbatched();
+	}
+
+	@Override
+	protected void failRequest(String fail_msg) {
+		new TaskCompleteAction().onResponseComplete(false, null, fail_msg);
+	}
+
+	/**
+	 * Send request in default executor of CommExecutors. See requestAsync(Executor).
+	 * @return Future of decoded data.
+	 */
+	public CompletableFuture<ReturnType> requestAsync() {
+		return requestAsync(CommExecutors.getDefaultExecutor());
+	}
+
+	/**
+	 * Send request by CommHttpCall in executor, and decode response in the same thread. Callback object,
+	 * completion notifications, coalescing, batching, limiter and circuit breaker are not used.
+	 * Cancelling the future disconnects the running connection. (Android 7.0, API 24 or later)
+	 * @param executor Executor object.
+	 * @return Future of decoded data.
+	 */
+	public CompletableFuture<ReturnType> requestAsync(Executor executor) {
+		final CommHttpCall call = new CommHttpCall(_comm_obj);
+		call.setResponseHandler(new JsonResponseHandler());
+		call.setDeadline(calculateDeadline());
+		final CompletableFuture<ReturnType> future = call.executeAsync(executor).thenApply(
+				new Function<CommHttpCall.Response, ReturnType>() {
+					@Override
+					@SuppressWarnings("unchecked")
+					public ReturnType apply(CommHttpCall.Response response) {
+						return (ReturnType) response._data;
+					}
+				});
+		future.whenComplete(new BiConsumer<ReturnType, Throwable>() {
+			@Override
+			public void accept(ReturnType data, Throwable throwable) {
+				if (future.isCancelled()) {
+					call.cancel();	// Dependent future does not cancel its source.
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Send this request by its own connection.
+	 */
+	void runUnbatched() {
+		_is_batch_running = false;
+		String key = getCoalesceKey();
+		TaskCompleteAction notify = new TaskCompleteAction();
+		CommRequestMessageTask send_data_http = CommRequestMessageTask.findInFlight(key);
+		if (null != send_data_http) {
+			send_data_http.addResponseNotify(notify);
+			send_data_http.addEventListeners(getEventListeners());
+			attachScheduledTask(key);
+		} else {
+			send_data_http = new CommRequestMessageTask();
+			send_data_http.setResponseHandler(new JsonResponseHandler());
+			send_data_http.addResponseNotify(notify);
+			send_data_http.addEventListeners(getEventListeners());
+			send_data_http.registerInFlight(key);
+			send_data_http.setDeadline(calculateDeadline());
+			send_data_http.executeOnExecutor(getTaskExecutor(key, _comm_obj.getRequestURL()), _comm_obj);
+		}
+		_running_task = send_data_http;
+		_running_notify = notify;
+	}
+
+	@Override
+	protected boolean onCancel() {
+		if (_is_batch_running) {
+			_batch_dispatcher.remove(this);
+			_is_batch_running = false;
+			return true;
+		}
+		if (null == _running_task) {
+			return false;
+		}
+		_running_task.removeResponseNotify(_running_notify);
+		_running_task = null;
+		_running_notify = null;
+		return true;
+	}
+
+	/**
+	 * Called by CommJsonBatchDispatcher with decoded result of this request.
+	 * @param is_success Flag if connection and decoding is successful.
+	 * @param data Decoded object.
+	 * @param msg Error message.
+	 */
+	void onBatchComplete(boolean is_success, Object data, String msg) {
+		_is_batch_running = false;
+		new TaskCompleteAction().onResponseComplete(is_success, data, msg);
+	}
+
+	CommBaseStatus getStatus() {
+		return _comm_obj;
+	}
+
+	TypeToken<ReturnType> getReturnTypeToken() {
+		return _return_type_token;
+	}
+
+	/**
+	 * Get key to share in-flight connection. Responses are shared only by requests with the same return type.
+	 * @return Key string, or null if connection must not be shared.
+	 */
+	private String getCoalesceKey() {
+		String status_key = _comm_obj.getCoalesceKey();
+		if (null == status_key) {
+			return null;
+		}
+		return status_key + "|" + _return_type_token.toString();
 	}
 
 }
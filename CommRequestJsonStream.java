@@ -0,0 +1,347 @@
+package webservice;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import webservice.task.CommRequestMessageTask;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A Network Request that gets a large JSON array and delivers its elements in chunks while the response
+ * is parsing, so the whole array is never held in memory.
+ *
+ * Step:
+ * 1. Create class object with callback object, Gson TypeToken<> object of element type, and CommBaseStatus object.
+ *
+ * 2. When call runRequest() method, CommRequestMessageTask sends request and passes response stream to
+ * StreamResponseHandler in worker thread.
+ *
+ * 3. The handler reads elements of array one by one by JsonReader, and delivers every chunk of elements
+ * to RequestJsonStreamCallback::onRequestChunk(...) in main thread, or in worker thread directly.
+ * In main thread mode, worker waits if too many chunks are not delivered yet.
+ *
+ * 4. When array ends, RequestJsonStreamCallback::onRequestStreamComplete(...) is called in main thread.
+ * If onRequestChunk(...) throws exception, the stream stops and RequestJsonStreamCallback::onRequestDataFailed(...)
+ * is called instead.
+ *
+ * Delivered chunks cannot be taken back, so the request is sent once without retry policy, hedging and
+ * response cache of CommBaseStatus.
+ *
+ * 5. Call runCompleteAction(boolean) when process completes.
+ *
+ * @param <ElementType> The array element type.
+ */
+public class CommRequestJsonStream<ElementType> extends CommBaseRequest {
+
+	/**
+	 * Default element count of a chunk.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 100;
+	/**
+	 * Default maximum count of chunks waiting for delivery in main thread.
+	 */
+	public static final int DEFAULT_MAX_PENDING_CHUNKS = 2;
+
+	private RequestJsonStreamCallback<ElementType> _callback;
+	private TypeToken<ElementType> _element_type_token;
+	private CommBaseStatus _comm_obj;
+	private String _array_field = null;
+	private int _chunk_size = DEFAULT_CHUNK_SIZE;
+	private int _max_pending_chunks = DEFAULT_MAX_PENDING_CHUNKS;
+	private boolean _is_main_thread_delivery = true;
+	private CommRequestMessageTask _running_task = null;
+	private TaskCompleteAction _running_notify = null;
+	private Handler _handler = null;
+	private Semaphore _pending_chunks = null;
+	/**
+	 * A flag if stream is stopped by callback or cancel(). Written in main thread and read in worker thread.
+	 */
+	private volatile boolean _is_stopped = false;
+	/**
+	 * Count of elements passed to onRequestChunk(). Written in delivery thread.
+	 */
+	private volatile int _delivered_count = 0;
+	/**
+	 * Error message of exception thrown by onRequestChunk() in main thread.
+	 */
+	private String _chunk_error = null;
+
+	/**
+	 * Callback interface.
+	 * @param <ElementType> Array element type.
+	 */
+	public interface RequestJsonStreamCallback<ElementType> {
+		/**
+		 * Called for each chunk of elements in array order.
+		 * @param chunk Elements of chunk. (Owned by callback)
+		 * @return True to continue, or false to stop reading the rest of array.
+		 */
+		boolean onRequestChunk(List<ElementType> chunk);
+
+		/**
+		 * Called in main thread after all chunks are delivered, or the stream is stopped by onRequestChunk().
+		 * @param element_count Count of elements passed to onRequestChunk().
+		 */
+		void onRequestStreamComplete(int element_count);
+
+		/**
+		 * Call this method if process exists error. Some chunks may be delivered before.
+		 * @param fail_msg Error message.
+		 */
+		void onRequestDataFailed(String fail_msg);
+	}
+
+	/**
+	 * Response handler. Read array elements from response stream and deliver them in chunks in worker thread.
+	 */
+	class StreamResponseHandler implements CommRequestMessageTask.IResponseHandler {
+
+		@Override
+		public Object onResponse(InputStream input_stream) throws Exception {
+			JsonReader reader = new JsonReader(new InputStreamReader(input_stream, "UTF-8"));
+			TypeAdapter<ElementType> adapter = CommGson.getAdapter(_element_type_token);
+			if (null != _array_field) {
+				moveToField(reader, _array_field);
+			}
+
+			reader.beginArray();
+			List<ElementType> chunk = new ArrayList<>(_chunk_size);
+			while (!_is_stopped && reader.hasNext()) {
+				chunk.add(adapter.read(reader));
+				if (chunk.size() >= _chunk_size) {
+					deliverChunk(chunk);
+					chunk = new ArrayList<>(_chunk_size);
+				}
+			}
+			if (!_is_stopped && !chunk.isEmpty()) {
+				deliverChunk(chunk);
+			}
+			return null;
+		}
+
+		/**
+		 * Move reader to value of field in top level object.
+		 * @param reader JSON reader.
+		 * @param name Field name.
+		 * @throws IOException Reading error, or field is not found.
+		 */
+		private void moveToField(JsonReader reader, String name) throws IOException {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (name.equals(reader.nextName())) {
+					return;
+				}
+				reader.skipValue();
+			}
+			throw new IOException("Array field is not found: " + name);
+		}
+
+		/**
+		 * Deliver chunk to callback in worker thread, or post it to main thread.
+		 * @param chunk Elements of chunk.
+		 * @throws InterruptedException Task is cancelled while waiting.
+		 */
+		private void deliverChunk(List<ElementType> chunk) throws InterruptedException {
+			if (!_is_main_thread_delivery) {
+				// Exception fails the task.
+				boolean is_continued = _callback.onRequestChunk(chunk);
+				_delivered_count += chunk.size();
+				if (!is_continued) {
+					_is_stopped = true;
+				}
+				return;
+			}
+
+			_pending_chunks.acquire();	// Backpressure: wait for main thread to consume earlier chunks.
+			if (_is_stopped) {
+				return;
+			}
+			_handler.post(new ChunkDelivery(chunk, _pending_chunks));
+		}
+	}
+
+	/**
+	 * Deliver a chunk to callback in main thread.
+	 */
+	class ChunkDelivery implements Runnable {
+
+		private final List<ElementType> _chunk;
+		private final Semaphore _semaphore;
+
+		ChunkDelivery(List<ElementType> chunk, Semaphore semaphore) {
+			_chunk = chunk;
+			_semaphore = semaphore;
+		}
+
+		@Override
+		public void run() {
+			_semaphore.release();
+			if (_is_stopped || isCancelled()) {
+				return;
+			}
+			try {
+				boolean is_continued = _callback.onRequestChunk(_chunk);
+				_delivered_count += _chunk.size();
+				if (!is_continued) {
+					_is_stopped = true;
+				}
+			} catch (Exception e) {
+				Log.w(this.getClass().getName(), "Exception: " + e.toString());
+				e.printStackTrace();
+				_chunk_error = e.toString();
+				_is_stopped = true;
+			}
+		}
+	}
+
+	/**
+	 * Callback object. Chunks posted before completion are already delivered by main thread.
+	 */
+	class TaskCompleteAction implements CommRequestMessageTask.IResponseCompleteAction {
+
+		@Override
+		public void onResponseComplete(boolean isSuccess, Object data, String result) {
+			_running_task = null;
+			_running_notify = null;
+			boolean is_stream_success = false;
+			if (isSuccess && null != _chunk_error) {
+				try {
+					_callback.onRequestDataFailed(_chunk_error);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			} else if (isSuccess) {
+				try {
+					_callback.onRequestStreamComplete(_delivered_count);
+					is_stream_success = true;
+				} catch (Exception e) {
+					Log.w(this.getClass().getName(), "Exception: " + e.toString());
+					e.printStackTrace();
+					_callback.onRequestDataFailed(e.toString());
+				}
+			} else {
+				try {
+					_callback.onRequestDataFailed(result);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+
+			runCompleteAction(is_stream_success);	// must be run finally!
+		}
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param callback Callback object implemented RequestJsonStreamCallback<> interface
+	 * @param element_type_token Gson TypeToken object of array element type.
+	 * @param comm_obj Connection information object.
+	 */
+	public CommRequestJsonStream(
+			RequestJsonStreamCallback<ElementType> callback,
+			TypeToken<ElementType> element_type_token,
+			CommBaseStatus comm_obj) {
+
+		this._callback = callback;
+		this._element_type_token = element_type_token;
+		this._comm_obj = comm_obj;
+	}
+
+	/**
+	 * Set field name of array in top level object. (Default is null, response is array itself)
+	 * @param name Field name.
+	 */
+	public void setArrayField(String name) {
+		_array_field = name;
+	}
+
+	/**
+	 * Set element count of a chunk. (Default is DEFAULT_CHUNK_SIZE)
+	 * @param chunk_size Element count. (at least 1)
+	 */
+	public void setChunkSize(int chunk_size) {
+		_chunk_size = Math.max(chunk_size, 1);
+	}
+
+	/**
+	 * Set maximum count of chunks posted to main thread and not delivered yet. Worker thread stops reading
+	 * response until main thread delivers a chunk. (Default is DEFAULT_MAX_PENDING_CHUNKS)
+	 * @param max_pending_chunks Chunk count. (at least 1)
+	 */
+	public void setMaxPendingChunks(int max_pending_chunks) {
+		_max_pending_chunks = Math.max(max_pending_chunks, 1);
+	}
+
+	/**
+	 * Set thread of onRequestChunk(). If false, chunks are delivered in worker thread while response is
+	 * reading, and reading waits for callback to return. (Default is true, main thread)
+	 * @param is_main_thread_delivery True if chunks are delivered in main thread.
+	 */
+	public void setMainThreadDelivery(boolean is_main_thread_delivery) {
+		_is_main_thread_delivery = is_main_thread_delivery;
+	}
+
+	/**
+	 * Run request. Stream is never shared with other requests, and is sent once without retry policy, hedging
+	 * and response cache. If circuit breaker of host is open, request fails immediately.
+	 */
+	@Override
+	public void runRequest() {
+		if (isCancelled()) {
+			runCompleteAction(false);	// Cancelled before start, user callback is not called.
+			return;
+		}
+		String url_str = _comm_obj.getRequestURL();
+		if (!isCallPermitted(url_str)) {
+			failRequest("Circuit breaker is open");
+			return;
+		}
+		if (null == _handler) {
+			_handler = new Handler(Looper.getMainLooper());
+		}
+		_is_stopped = false;
+		_delivered_count = 0;
+		_chunk_error = null;
+		_pending_chunks = new Semaphore(_max_pending_chunks);
+
+		TaskCompleteAction notify = new TaskCompleteAction();
+		CommRequestMessageTask send_data_http = new CommRequestMessageTask();
+		send_data_http.setResponseHandler(new StreamResponseHandler());
+		send_data_http.setStreaming(true);
+		send_data_http.addResponseNotify(notify);
+		send_data_http.addEventListeners(getEventListeners());
+		send_data_http.setDeadline(calculateDeadline());
+		send_data_http.executeOnExecutor(getTaskExecutor(null, url_str), _comm_obj);
+		_running_task = send_data_http;
+		_running_notify = notify;
+	}
+
+	@Override
+	protected void failRequest(String fail_msg) {
+		new TaskCompleteAction().onResponseComplete(false, null, fail_msg);
+	}
+
+	@Override
+	protected boolean onCancel() {
+		_is_stopped = true;
+		if (null == _running_task) {
+			return false;
+		}
+		_running_task.removeResponseNotify(_running_notify);	// Worker waiting for delivery is interrupted.
+		_running_task = null;
+		_running_notify = null;
+		return true;
+	}
+
+}
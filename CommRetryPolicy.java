@@ -0,0 +1,226 @@
+package webservice;
+
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * CommRetryPolicy decides retry of CommRequestMessageTask set by CommBaseStatus.setRetryPolicy().
+ *
+ * 1. Failed attempt is retried up to max attempts, if IRetryPredicate accepts its status code or exception.
+ *    Request other than Http/Get is retried only for 408, 429 and 503 responses, which server did not process,
+ *    unless setRetryNonIdempotent(true) is called.
+ * 2. Delay before retry grows exponentially from base delay up to max delay, reduced by random jitter.
+ * 3. If hedging is enabled, Http/Get sends a second attempt when the first one has not responded within
+ *    the latency percentile of recent successful attempts. The first successful response is used.
+ *
+ * A policy object keeps latency samples, so requests to the same endpoint should share one policy object.
+ */
+public class CommRetryPolicy {
+
+	private static final int MAX_LATENCY_SAMPLES = 128;
+	private static final int MIN_HEDGE_SAMPLES = 20;
+
+	private int _max_attempts = 3;
+	private long _base_delay = 200;
+	private long _max_delay = 5000;
+	private double _jitter = 0.5;
+	private IRetryPredicate _predicate = DEFAULT_PREDICATE;
+	private IAttemptListener _attempt_listener = null;
+	private boolean _is_retrying_non_idempotent = false;
+	private boolean _is_hedging = false;
+	private double _hedge_percentile = 0.95;
+
+	private final long[] _latency_samples = new long[MAX_LATENCY_SAMPLES];
+	private int _sample_count = 0;
+	private int _sample_position = 0;
+	private final Random _random = new Random();
+
+	/**
+	 * Interface to decide if a failed attempt can be retried.
+	 */
+	public interface IRetryPredicate {
+		/**
+		 * @param status_code Http status code of error response, or -1 if no response.
+		 * @param exception Exception of failed attempt.
+		 * @return True if attempt can be retried.
+		 */
+		boolean isRetryable(int status_code, Exception exception);
+	}
+
+	/**
+	 * Interface to report each attempt. It is called in worker thread.
+	 */
+	public interface IAttemptListener {
+		/**
+		 * @param url Request URL string.
+		 * @param attempt Attempt number. (Start from 1)
+		 * @param is_hedged True if this is a hedged attempt.
+		 * @param duration Attempt time (millisecond).
+		 * @param status_code Http status code, or -1 if no response.
+		 * @param exception Exception if attempt failed, or null if successful.
+		 */
+		void onAttempt(String url, int attempt, boolean is_hedged, long duration, int status_code, Exception exception);
+	}
+
+	/**
+	 * Default predicate. Retry 408, 429 and 5xx responses, and I/O errors without response except malformed JSON.
+	 */
+	public static final IRetryPredicate DEFAULT_PREDICATE = new IRetryPredicate() {
+		@Override
+		public boolean isRetryable(int status_code, Exception exception) {
+			if (status_code >= 0) {
+				return 408 == status_code || 429 == status_code || status_code >= 500;
+			}
+			return exception instanceof IOException && !(exception instanceof MalformedJsonException);
+		}
+	};
+
+	/**
+	 * Set maximum attempts including the first attempt. (Default is 3)
+	 * @param max_attempts Maximum attempts.
+	 */
+	public void setMaxAttempts(int max_attempts) {
+		_max_attempts = Math.max(max_attempts, 1);
+	}
+
+	/**
+	 * @return Maximum attempts including the first attempt. Hedged attempts are not counted.
+	 */
+	public int getMaxAttempts() {
+		return _max_attempts;
+	}
+
+	/**
+	 * Set exponential backoff delay. (Default is 200 ms to 5000 ms)
+	 * @param base_delay Delay before the first retry (millisecond).
+	 * @param max_delay Maximum delay (millisecond).
+	 */
+	public void setBackoff(long base_delay, long max_delay) {
+		_base_delay = base_delay;
+		_max_delay = Math.max(base_delay, max_delay);
+	}
+
+	/**
+	 * Set jitter ratio. Delay is reduced by random ratio in [0, jitter). (Default is 0.5)
+	 * @param jitter Jitter ratio from 0 to 1.
+	 */
+	public void setJitter(double jitter) {
+		_jitter = Math.min(Math.max(jitter, 0), 1);
+	}
+
+	/**
+	 * Set retry predicate. (Default is DEFAULT_PREDICATE)
+	 * @param predicate Predicate object.
+	 */
+	public void setRetryPredicate(IRetryPredicate predicate) {
+		_predicate = (null == predicate) ? DEFAULT_PREDICATE : predicate;
+	}
+
+	/**
+	 * Set if request other than Http/Get is retried by predicate for any error, like I/O error after the body is
+	 * sent. Server must accept the same body twice. (Default is false)
+	 * @param is_retrying True to retry non-idempotent request.
+	 */
+	public void setRetryNonIdempotent(boolean is_retrying) {
+		_is_retrying_non_idempotent = is_retrying;
+	}
+
+	/**
+	 * Set attempt listener to report timing of each attempt.
+	 * @param listener Listener object.
+	 */
+	public void setAttemptListener(IAttemptListener listener) {
+		_attempt_listener = listener;
+	}
+
+	/**
+	 * Enable hedged attempt for Http/Get.
+	 * @param is_hedging True to enable hedging.
+	 * @param percentile Latency percentile (0 to 1) of recent successful attempts to send hedged attempt.
+	 */
+	public void setHedging(boolean is_hedging, double percentile) {
+		_is_hedging = is_hedging;
+		_hedge_percentile = Math.min(Math.max(percentile, 0), 1);
+	}
+
+	/**
+	 * @return True if hedged attempt is enabled. It is used only for Http/Get.
+	 */
+	public boolean isHedging() {
+		return _is_hedging;
+	}
+
+	/**
+	 * Check if failed attempt can be retried.
+	 * @param is_idempotent True if request is Http/Get.
+	 * @param status_code Http status code of error response, or -1 if no response.
+	 * @param exception Exception of failed attempt.
+	 * @return True if attempt can be retried.
+	 */
+	public boolean isRetryable(boolean is_idempotent, int status_code, Exception exception) {
+		if (!is_idempotent && !_is_retrying_non_idempotent
+				&& 408 != status_code && 429 != status_code && 503 != status_code) {
+			return false;
+		}
+		return _predicate.isRetryable(status_code, exception);
+	}
+
+	/**
+	 * Get delay before retry.
+	 * @param attempt Number of failed attempt. (Start from 1)
+	 * @return Delay (millisecond).
+	 */
+	public long getBackoffDelay(int attempt) {
+		long delay = _base_delay << Math.min(attempt - 1, 30);
+		if (delay <= 0 || delay > _max_delay) {
+			delay = _max_delay;
+		}
+		double jitter_ratio;
+		synchronized (_random) {
+			jitter_ratio = _random.nextDouble() * _jitter;
+		}
+		return (long) (delay * (1 - jitter_ratio));
+	}
+
+	/**
+	 * Get delay before hedged attempt.
+	 * @return Delay (millisecond), or -1 if hedging is disabled or samples are not enough.
+	 */
+	public synchronized long getHedgeDelay() {
+		if (!_is_hedging || _sample_count < MIN_HEDGE_SAMPLES) {
+			return -1;
+		}
+		long[] samples = Arrays.copyOf(_latency_samples, _sample_count);
+		Arrays.sort(samples);
+		int index = (int) Math.ceil(_hedge_percentile * samples.length) - 1;
+		return samples[Math.min(Math.max(index, 0), samples.length - 1)];
+	}
+
+	/**
+	 * Record attempt result. It is called by CommRequestMessageTask in worker thread.
+	 * @param url Request URL string.
+	 * @param attempt Attempt number.
+	 * @param is_hedged True if this is a hedged attempt.
+	 * @param duration Attempt time (millisecond).
+	 * @param status_code Http status code, or -1 if no response.
+	 * @param exception Exception if attempt failed, or null if successful.
+	 */
+	public void recordAttempt(String url, int attempt, boolean is_hedged, long duration, int status_code,
+			Exception exception) {
+		if (null == exception) {
+			synchronized (this) {
+				_latency_samples[_sample_position] = duration;
+				_sample_position = (_sample_position + 1) % MAX_LATENCY_SAMPLES;
+				_sample_count = Math.min(_sample_count + 1, MAX_LATENCY_SAMPLES);
+			}
+		}
+		IAttemptListener listener = _attempt_listener;
+		if (null != listener) {
+			listener.onAttempt(url, attempt, is_hedged, duration, status_code, exception);
+		}
+	}
+
+}
@@ -0,0 +1,941 @@
+package webservice;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.net.HttpURLConnection;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import webservice.task.CommExecutors;
+import webservice.task.CommHttpException;
+import webservice.task.CommHttpTransport;
+
+/**
+ * CommWriteBehindQueue sends fire-and-forget Http/Post requests, like telemetry, in background.
+ *
+ * 1. enqueue() encodes request and returns immediately. The record is appended to a journal file and synced
+ *    by the append thread of the queue, so no file I/O runs in the calling thread, and appending never waits
+ *    for sending.
+ * 2. The worker thread sends journal records in batches every flush interval, or as soon as a batch is full.
+ * 3. Failed sending is retried with backoff of CommRetryPolicy. Record with non-retryable error is dropped.
+ * 4. Offset of the first record not sent is saved to "journal.head" file after each batch. Sent records are
+ *    removed by rewriting the rest of journal only when they are at least as large as the rest, or by
+ *    truncating journal when all records are sent.
+ *
+ * Request body is streamed to journal and from journal, so a large body of CommBodyWriter, like a log bundle,
+ * is never held in memory.
+ *
+ * Each record has length and CRC32 header, so a record torn by crash, whose length exceeds the rest of the
+ * journal or whose CRC does not match, is detected and truncated when the journal is opened. Records are
+ * sent at least once; a record may be sent again if the process dies after sending and before the head
+ * offset is saved.
+ */
+public class CommWriteBehindQueue {
+
+	/**
+	 * Default record count of a flush batch.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 20;
+	/**
+	 * Default flush interval. (millisecond)
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL = 30000;
+
+	/**
+	 * Byte size of record header. (Payload length and CRC32)
+	 */
+	private static final int RECORD_HEADER_SIZE = 8;
+	/**
+	 * Minimum byte size of sent records removed by rewriting journal.
+	 */
+	private static final long COMPACT_MIN_SIZE = 64 * 1024;
+
+	private final File _journal_file;
+	/**
+	 * File of head offset and its CRC32.
+	 */
+	private final File _head_file;
+	private final long _max_size;
+	/**
+	 * Lock of journal file content. Appending and compaction hold it while they change the file.
+	 */
+	private final Object _file_lock = new Object();
+	/**
+	 * Lock of offsets and counts.
+	 */
+	private final Object _journal_lock = new Object();
+	/**
+	 * Offset of the first record not sent. Sent records before it wait for compaction.
+	 */
+	private long _head = 0;
+	/**
+	 * End offset of valid records in journal.
+	 */
+	private long _end = 0;
+	/**
+	 * Count of records not sent.
+	 */
+	private int _record_count = 0;
+	/**
+	 * Byte size of records accepted by enqueue() and not appended yet.
+	 */
+	private long _appending_size = 0;
+	private int _sent_count = 0;
+	private int _dropped_count = 0;
+	private volatile int _batch_size = DEFAULT_BATCH_SIZE;
+	private long _flush_interval = DEFAULT_FLUSH_INTERVAL;
+	private volatile CommRetryPolicy _retry_policy;
+	/**
+	 * Thread of appending. It runs only file I/O, so a record is synced soon after enqueue() even while
+	 * sending waits for network.
+	 */
+	private final ExecutorService _appender =
+			Executors.newSingleThreadExecutor(CommExecutors.newDaemonThreadFactory("CommWriteBehindQueue-append"));
+	/**
+	 * Worker thread of sending and compaction. It reads records before end offset, while appending writes
+	 * after it.
+	 */
+	private final ScheduledExecutorService _worker =
+			Executors.newSingleThreadScheduledExecutor(CommExecutors.newDaemonThreadFactory("CommWriteBehindQueue"));
+	private ScheduledFuture<?> _flush_future = null;
+	/**
+	 * False after stop(), so running flush ends after its current batch.
+	 */
+	private volatile boolean _is_started = false;
+
+	/**
+	 * Failure count of continuous flushes. (Worker thread only)
+	 */
+	private int _failure_count = 0;
+	/**
+	 * Time next flush is allowed after failure, of CommHttpTransport.currentTime() clock. (Worker thread only)
+	 */
+	private long _retry_time = 0;
+
+	/**
+	 * Flush action run in worker thread.
+	 */
+	private final Runnable _flush_action = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				flushBatches();
+			} catch (Exception e) {
+				// Exception must not stop scheduled flushes.
+				Log.w(CommWriteBehindQueue.class.getName(), "Flush failed: " + e.toString());
+			}
+		}
+	};
+
+	/**
+	 * A request record in journal.
+	 */
+	private static class Record {
+		String _url;
+		int _gzip_threshold;
+		/**
+		 * Content-Type of body, or empty string if not specified.
+		 */
+		String _content_type;
+		/**
+		 * Offset of body in journal.
+		 */
+		long _body_offset;
+		long _body_length;
+		/**
+		 * Byte size in journal including header.
+		 */
+		long _record_size;
+	}
+
+	/**
+	 * Output stream of record payload. It counts bytes, updates CRC32, and fails if journal becomes full.
+	 */
+	private static class PayloadOutputStream extends FilterOutputStream {
+		private final CRC32 _crc = new CRC32();
+		private final long _max_length;
+		private long _length = 0;
+
+		PayloadOutputStream(OutputStream output_stream, long max_length) {
+			super(output_stream);
+			_max_length = max_length;
+		}
+
+		@Override
+		public void write(int value) throws IOException {
+			checkLength(1);
+			out.write(value);
+			_crc.update(value);
+			++_length;
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			checkLength(length);
+			out.write(buffer, offset, length);
+			_crc.update(buffer, offset, length);
+			_length += length;
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();	// Journal file is closed by appender.
+		}
+
+		private void checkLength(int length) throws IOException {
+			if (_length + length > _max_length) {
+				throw new IOException("Journal is full");
+			}
+		}
+	}
+
+	/**
+	 * Sequential reader of journal records. Body is verified by CRC32 without being held in memory.
+	 */
+	private static class JournalReader {
+		private final CheckedInputStream _checked_stream;
+		private final DataInputStream _input_stream;
+		private final byte[] _buffer = new byte[8192];
+		private long _offset = 0;
+
+		/**
+		 * @param journal_file Journal file.
+		 * @param start_offset Offset of the first record read.
+		 * @throws IOException Reading error.
+		 */
+		JournalReader(File journal_file, long start_offset) throws IOException {
+			_checked_stream = new CheckedInputStream(
+					new BufferedInputStream(new FileInputStream(journal_file)), new CRC32());
+			_input_stream = new DataInputStream(_checked_stream);
+			try {
+				skipFully(_input_stream, start_offset);
+			} catch (IOException e) {
+				_input_stream.close();
+				throw e;
+			}
+			_offset = start_offset;
+		}
+
+		/**
+		 * Read and verify next record.
+		 * @param journal_size Byte size of valid journal.
+		 * @return Record, or null if end of journal, torn record or CRC mismatch.
+		 * @throws IOException Reading error.
+		 */
+		Record read(long journal_size) throws IOException {
+			long remaining_size = journal_size - _offset;
+			if (remaining_size < RECORD_HEADER_SIZE) {
+				return null;	// End of journal or torn header
+			}
+			Record record = new Record();
+			try {
+				int payload_length = _input_stream.readInt();
+				int payload_crc = _input_stream.readInt();
+				if (payload_length < 0 || payload_length > remaining_size - RECORD_HEADER_SIZE) {
+					return null;	// Torn record
+				}
+				_checked_stream.getChecksum().reset();
+				record._url = _input_stream.readUTF();
+				record._gzip_threshold = _input_stream.readInt();
+				record._content_type = _input_stream.readUTF();
+				long meta_length = getUTFLength(record._url) + 4 + getUTFLength(record._content_type);
+				record._body_length = payload_length - meta_length;
+				if (record._body_length < 0) {
+					return null;
+				}
+				long skip_length = record._body_length;
+				while (skip_length > 0) {
+					int count = _input_stream.read(_buffer, 0, (int) Math.min(skip_length, _buffer.length));
+					if (count < 0) {
+						return null;
+					}
+					skip_length -= count;
+				}
+				if ((int) _checked_stream.getChecksum().getValue() != payload_crc) {
+					return null;
+				}
+				record._body_offset = _offset + RECORD_HEADER_SIZE + meta_length;
+				record._record_size = RECORD_HEADER_SIZE + (long) payload_length;
+			} catch (EOFException | UTFDataFormatException e) {
+				return null;	// Torn or corrupted record
+			}
+			_offset += record._record_size;
+			return record;
+		}
+
+		void close() throws IOException {
+			_input_stream.close();
+		}
+	}
+
+	/**
+	 * Constructor. Journal is opened and records torn by crash are truncated.
+	 * @param journal_file Journal file. Head offset is saved to the same path with ".head" suffix.
+	 * @param max_size Maximum byte size of records not sent. Request is rejected if journal is full.
+	 * Journal file can be larger by sent records waiting for compaction.
+	 */
+	public CommWriteBehindQueue(File journal_file, long max_size) {
+		_journal_file = journal_file;
+		_head_file = new File(journal_file.getPath() + ".head");
+		_max_size = max_size;
+		_retry_policy = new CommRetryPolicy();
+		_retry_policy.setBackoff(1000, 5 * 60 * 1000);
+		recover();
+	}
+
+	/**
+	 * Set record count sent in a flush batch. Flush starts as soon as this count is queued.
+	 * @param batch_size Record count. (at least 1)
+	 */
+	public void setBatchSize(int batch_size) {
+		_batch_size = Math.max(batch_size, 1);
+	}
+
+	/**
+	 * Set flush interval. It takes effect on next start().
+	 * @param flush_interval Interval. (millisecond)
+	 */
+	public synchronized void setFlushInterval(long flush_interval) {
+		_flush_interval = Math.max(flush_interval, 1);
+	}
+
+	/**
+	 * Set retry policy. Its predicate decides if failed record is retried, and its backoff delays next flush.
+	 * Maximum attempts is not used, because records are retried until sent or dropped.
+	 * @param policy Retry policy.
+	 */
+	public void setRetryPolicy(CommRetryPolicy policy) {
+		if (null != policy) {
+			_retry_policy = policy;
+		}
+	}
+
+	/**
+	 * Start scheduled flushes.
+	 */
+	public synchronized void start() {
+		if (null != _flush_future) {
+			return;
+		}
+		_is_started = true;
+		_flush_future = _worker.scheduleWithFixedDelay(_flush_action, 0, _flush_interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop scheduled flushes. Running flush ends after its current batch. Records not sent are kept in journal,
+	 * and enqueued records are still appended.
+	 */
+	public synchronized void stop() {
+		if (null == _flush_future) {
+			return;
+		}
+		_is_started = false;
+		_flush_future.cancel(false);
+		_flush_future = null;
+	}
+
+	/**
+	 * Request worker thread to send records now, unless it is waiting for retry backoff. (Only if started)
+	 */
+	public synchronized void flush() {
+		if (null != _flush_future) {
+			_worker.execute(_flush_action);
+		}
+	}
+
+	/**
+	 * Append Http/Post request to journal in append thread. The append thread is a daemon thread, so a record
+	 * enqueued just before the process exits may be lost; it is durable once appended.
+	 * Body of CommBaseStatus.getBodyWriter() is written to journal by append thread, so the writer must be
+	 * usable from that thread and write the same body again when it is called later.
+	 * @param status Connection information object. (Http/Post only)
+	 * @return True if accepted, false if journal is full or encoding fails. If appending fails later,
+	 * the record is counted by getDroppedCount().
+	 */
+	public boolean enqueue(CommBaseStatus status) {
+		if (!status.isHttpPost()) {
+			throw new IllegalArgumentException("Write-behind request must be Http/Post");
+		}
+
+		byte[] meta;
+		CommBodyWriter writer;
+		try {
+			writer = status.getBodyWriter();
+			String content_type = status.getPostContentType(writer);
+			meta = encodeMeta(status.getRequestURL(), status.getGzipPostThreshold(),
+					(null == content_type) ? "" : content_type);
+			if (null == writer) {
+				writer = createBytesWriter(status.getPostBody());
+			}
+		} catch (IOException e) {
+			Log.w(getClass().getName(), e.toString());
+			return false;
+		}
+
+		// Size of unknown length body is checked while appending.
+		final long reserved_size = RECORD_HEADER_SIZE + meta.length + Math.max(writer.getContentLength(), 0);
+		synchronized (_journal_lock) {
+			if (_end - _head + _appending_size + reserved_size > _max_size) {
+				++_dropped_count;
+				return false;
+			}
+			_appending_size += reserved_size;
+		}
+		final byte[] append_meta = meta;
+		final CommBodyWriter append_writer = writer;
+		_appender.execute(new Runnable() {
+			@Override
+			public void run() {
+				append(append_meta, append_writer, reserved_size);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Append record to journal and sync it to storage. Header is written after payload, so a record torn by
+	 * crash has invalid length or CRC. (Append thread only)
+	 * @param meta Encoded meta data of record.
+	 * @param writer Body writer.
+	 * @param reserved_size Byte size reserved by enqueue().
+	 */
+	private void append(byte[] meta, CommBodyWriter writer, long reserved_size) {
+		boolean is_batch_full = false;
+		synchronized (_file_lock) {
+			long start_offset;
+			long max_length;
+			synchronized (_journal_lock) {
+				start_offset = _end;
+				max_length = _max_size - (_end - _head) - RECORD_HEADER_SIZE;
+			}
+			long record_size = 0;
+			try {
+				RandomAccessFile file = new RandomAccessFile(_journal_file, "rw");
+				try {
+					file.seek(start_offset);
+					file.writeInt(-1);	// Torn until header is written.
+					file.writeInt(0);
+					PayloadOutputStream payload_stream = new PayloadOutputStream(
+							new BufferedOutputStream(Channels.newOutputStream(file.getChannel()), 64 * 1024),
+							Math.max(Math.min(max_length, Integer.MAX_VALUE), 0));
+					payload_stream.write(meta);
+					writer.writeTo(payload_stream);
+					payload_stream.flush();
+					file.seek(start_offset);
+					file.writeInt((int) payload_stream._length);
+					file.writeInt((int) payload_stream._crc.getValue());
+					file.getFD().sync();
+					record_size = RECORD_HEADER_SIZE + payload_stream._length;
+				} finally {
+					file.close();
+				}
+			} catch (IOException e) {
+				Log.w(getClass().getName(), "Append failed: " + e.toString());
+			}
+
+			synchronized (_journal_lock) {
+				_appending_size -= reserved_size;
+				if (0 != record_size) {
+					_end += record_size;
+					++_record_count;
+					is_batch_full = (_record_count >= _batch_size);
+				} else {
+					++_dropped_count;
+				}
+			}
+			if (0 == record_size) {
+				truncate(start_offset);	// Drop partial record.
+				return;
+			}
+		}
+		if (is_batch_full) {
+			flush();
+		}
+	}
+
+	/**
+	 * @return Count of records in journal.
+	 */
+	public int getPendingCount() {
+		synchronized (_journal_lock) {
+			return _record_count;
+		}
+	}
+
+	/**
+	 * @return Byte size of records not sent in journal.
+	 */
+	public long getSize() {
+		synchronized (_journal_lock) {
+			return _end - _head;
+		}
+	}
+
+	/**
+	 * @return Count of records sent successfully.
+	 */
+	public int getSentCount() {
+		synchronized (_journal_lock) {
+			return _sent_count;
+		}
+	}
+
+	/**
+	 * @return Count of requests rejected by full journal, or records dropped by non-retryable error.
+	 */
+	public int getDroppedCount() {
+		synchronized (_journal_lock) {
+			return _dropped_count;
+		}
+	}
+
+	/**
+	 * Send batches until journal is empty, sending fails, or queue is stopped. (Worker thread only)
+	 */
+	private void flushBatches() {
+		if (CommHttpTransport.currentTime() < _retry_time) {
+			return;
+		}
+
+		while (_is_started) {
+			List<Record> batch = readBatch(_batch_size);
+			if (batch.isEmpty()) {
+				return;
+			}
+
+			long consumed_size = 0;
+			int consumed_count = 0;
+			int sent_count = 0;
+			boolean is_failed = false;
+			for (Record record : batch) {
+				int status_code = -1;
+				Exception exception = null;
+				try {
+					send(record);
+				} catch (CommHttpException e) {
+					status_code = e.getStatusCode();
+					exception = e;
+				} catch (IOException e) {
+					exception = e;
+				}
+
+				if (null == exception) {
+					++sent_count;
+				} else if (_retry_policy.isRetryable(true, status_code, exception)) {	// Records are sent at least once.
+					is_failed = true;
+					break;
+				} else {
+					Log.w(getClass().getName(), "Drop record of " + record._url + ": " + exception.toString());
+				}
+				consumed_size += record._record_size;
+				++consumed_count;
+			}
+
+			if (consumed_count > 0) {
+				consume(consumed_size, consumed_count, sent_count);
+			}
+			if (is_failed) {
+				++_failure_count;
+				_retry_time = CommHttpTransport.currentTime() + _retry_policy.getBackoffDelay(_failure_count);
+				return;
+			}
+			_failure_count = 0;
+			if (batch.size() < _batch_size) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Send a record.
+	 * @param record Record.
+	 * @throws IOException Connection error, or CommHttpException if server responds error.
+	 */
+	private void send(final Record record) throws IOException {
+		HttpURLConnection conn = CommHttpTransport.openConnection(record._url, CommHttpTransport.TIME_OUT_CONN,
+				CommHttpTransport.TIME_OUT_READ);
+		try {
+			if (!record._content_type.isEmpty()) {
+				conn.setRequestProperty("Content-Type", record._content_type);
+			}
+			CommBodyWriter writer = new CommBodyWriter() {
+				@Override
+				public void writeTo(OutputStream output_stream) throws IOException {
+					copyBody(record, output_stream);
+				}
+
+				@Override
+				public long getContentLength() {
+					return record._body_length;
+				}
+			};
+			boolean is_gzip = CommHttpTransport.prepareStreamingBody(conn, record._body_length, record._gzip_threshold);
+			conn.connect();
+			CommHttpTransport.writeStreamingBody(conn, writer, is_gzip);
+			CommHttpTransport.closeStream(CommHttpTransport.getResponseStream(conn));
+		} catch (CommHttpException e) {
+			throw e;
+		} catch (IOException e) {
+			conn.disconnect();	// Broken connection must not be reused.
+			throw e;
+		}
+	}
+
+	/**
+	 * Read records from head of journal. Records appended meanwhile are not read beyond current end.
+	 * @param max_count Maximum record count.
+	 * @return Records.
+	 */
+	private List<Record> readBatch(int max_count) {
+		List<Record> batch = new ArrayList<>();
+		long head;
+		long end;
+		synchronized (_journal_lock) {
+			head = _head;
+			end = _end;
+		}
+		if (head == end) {
+			return batch;
+		}
+
+		try {
+			JournalReader reader = new JournalReader(_journal_file, head);
+			try {
+				while (batch.size() < max_count) {
+					Record record = reader.read(end);
+					if (null == record) {
+						break;
+					}
+					batch.add(record);
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			Log.w(getClass().getName(), "Read failed: " + e.toString());
+		}
+		return batch;
+	}
+
+	/**
+	 * Move head over sent or dropped records, save it, and compact journal if needed. If head is not saved,
+	 * the records are sent again after restart. (Worker thread only)
+	 * @param consumed_size Byte size of consumed records.
+	 * @param consumed_count Count of consumed records.
+	 * @param sent_count Count of consumed records sent successfully.
+	 */
+	private void consume(long consumed_size, int consumed_count, int sent_count) {
+		long head;
+		synchronized (_journal_lock) {
+			_head += consumed_size;
+			_record_count -= consumed_count;
+			_sent_count += sent_count;
+			_dropped_count += consumed_count - sent_count;
+			head = _head;
+		}
+		writeHead(head);
+		compact();
+	}
+
+	/**
+	 * Remove sent records before head. Journal is truncated if all records are sent, and the rest is rewritten
+	 * to a temporary file and renamed over journal only if sent records are at least as large as the rest, so
+	 * each byte is rewritten a bounded number of times. (Worker thread only)
+	 */
+	private void compact() {
+		synchronized (_file_lock) {
+			long head;
+			long end;
+			synchronized (_journal_lock) {
+				head = _head;
+				end = _end;
+			}
+			if (0 == head || (head < end && (head < COMPACT_MIN_SIZE || head < end - head))) {
+				return;
+			}
+			// Head is reset first, so crash before journal is shortened sends sent records again and never
+			// skips a record.
+			if (!writeHead(0)) {
+				return;
+			}
+			File temp_file = new File(_journal_file.getPath() + ".tmp");
+			try {
+				if (head == end) {
+					RandomAccessFile file = new RandomAccessFile(_journal_file, "rw");
+					try {
+						file.setLength(0);
+						file.getFD().sync();
+					} finally {
+						file.close();
+					}
+				} else {
+					copyRange(head, end - head, temp_file);
+					if (!temp_file.renameTo(_journal_file)) {
+						throw new IOException("Rename failed: " + temp_file.getPath());
+					}
+				}
+			} catch (IOException e) {
+				// Journal is unchanged.
+				Log.w(getClass().getName(), "Compaction failed: " + e.toString());
+				temp_file.delete();
+				writeHead(head);
+				return;
+			}
+			synchronized (_journal_lock) {
+				_head -= head;
+				_end -= head;
+			}
+		}
+	}
+
+	/**
+	 * Copy a range of journal to a file and sync it.
+	 * @param offset Start offset in journal.
+	 * @param length Byte length.
+	 * @param file Destination file.
+	 * @throws IOException Reading or writing error.
+	 */
+	private void copyRange(long offset, long length, File file) throws IOException {
+		InputStream input_stream = new FileInputStream(_journal_file);
+		try {
+			FileOutputStream output_stream = new FileOutputStream(file);
+			try {
+				skipFully(input_stream, offset);
+				byte[] buffer = new byte[64 * 1024];
+				while (length > 0) {
+					int count = input_stream.read(buffer, 0, (int) Math.min(length, buffer.length));
+					if (count < 0) {
+						throw new EOFException("Journal is shorter than records");
+					}
+					output_stream.write(buffer, 0, count);
+					length -= count;
+				}
+				output_stream.flush();
+				output_stream.getFD().sync();
+			} finally {
+				output_stream.close();
+			}
+		} finally {
+			input_stream.close();
+		}
+	}
+
+	/**
+	 * Save head offset with CRC32 and sync it.
+	 * @param head Head offset.
+	 * @return True if saved.
+	 */
+	private boolean writeHead(long head) {
+		try {
+			RandomAccessFile file = new RandomAccessFile(_head_file, "rw");
+			try {
+				file.writeLong(head);
+				file.writeInt(getHeadCrc(head));
+				file.getFD().sync();
+			} finally {
+				file.close();
+			}
+			return true;
+		} catch (IOException e) {
+			Log.w(getClass().getName(), "Head write failed: " + e.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * Read saved head offset.
+	 * @return Head offset, or 0 if head file does not exist or is corrupted.
+	 */
+	private long readHead() {
+		if (!_head_file.exists()) {
+			return 0;
+		}
+		try {
+			DataInputStream input_stream = new DataInputStream(new FileInputStream(_head_file));
+			try {
+				long head = input_stream.readLong();
+				return (input_stream.readInt() == getHeadCrc(head)) ? head : 0;
+			} finally {
+				input_stream.close();
+			}
+		} catch (IOException e) {
+			return 0;	// Torn head, records are sent again.
+		}
+	}
+
+	private static int getHeadCrc(long head) {
+		CRC32 crc = new CRC32();
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			crc.update((int) (head >>> shift));
+		}
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Read head offset, scan journal from it, and truncate journal at first torn or corrupted record.
+	 */
+	private void recover() {
+		synchronized (_file_lock) {
+			long head = 0;
+			long valid_size = 0;
+			int valid_count = 0;
+			if (_journal_file.exists()) {
+				long file_size = _journal_file.length();
+				head = readHead();
+				if (head < 0 || head > file_size) {
+					head = 0;
+				}
+				valid_size = head;
+				try {
+					JournalReader reader = new JournalReader(_journal_file, head);
+					try {
+						Record record;
+						while (null != (record = reader.read(file_size))) {
+							valid_size += record._record_size;
+							++valid_count;
+						}
+					} finally {
+						reader.close();
+					}
+				} catch (IOException e) {
+					Log.w(getClass().getName(), "Journal is corrupted: " + e.toString());
+				}
+
+				if (file_size != valid_size) {
+					truncate(valid_size);
+				}
+			}
+			synchronized (_journal_lock) {
+				_head = head;
+				_end = valid_size;
+				_record_count = valid_count;
+			}
+		}
+	}
+
+	/**
+	 * Truncate journal. If it fails, the rest is overwritten by next record or truncated by recovery.
+	 * @param size Byte size of journal.
+	 */
+	private void truncate(long size) {
+		try {
+			RandomAccessFile file = new RandomAccessFile(_journal_file, "rw");
+			try {
+				file.setLength(size);
+			} finally {
+				file.close();
+			}
+		} catch (IOException e) {
+			Log.w(getClass().getName(), "Truncate failed: " + e.toString());
+		}
+	}
+
+	/**
+	 * Encode meta data of a record.
+	 * @param url Request URL string.
+	 * @param gzip_threshold Gzip threshold of request body.
+	 * @param content_type Content-Type of request body. (empty string if not specified)
+	 * @return Meta data.
+	 * @throws IOException Encoding error.
+	 */
+	private static byte[] encodeMeta(String url, int gzip_threshold, String content_type) throws IOException {
+		ByteArrayOutputStream meta_stream = new ByteArrayOutputStream(url.length() + content_type.length() + 16);
+		DataOutputStream meta_output = new DataOutputStream(meta_stream);
+		meta_output.writeUTF(url);
+		meta_output.writeInt(gzip_threshold);
+		meta_output.writeUTF(content_type);
+		meta_output.flush();
+		return meta_stream.toByteArray();
+	}
+
+	/**
+	 * Get byte length of string encoded by DataOutput.writeUTF().
+	 */
+	private static int getUTFLength(String text) {
+		int length = 2;
+		for (int i = 0; i < text.length(); ++i) {
+			char c = text.charAt(i);
+			if (c >= 0x0001 && c <= 0x007F) {
+				length += 1;
+			} else if (c > 0x07FF) {
+				length += 3;
+			} else {
+				length += 2;
+			}
+		}
+		return length;
+	}
+
+	private static CommBodyWriter createBytesWriter(final byte[] body) {
+		return new CommBodyWriter() {
+			@Override
+			public void writeTo(OutputStream output_stream) throws IOException {
+				output_stream.write(body);
+			}
+
+			@Override
+			public long getContentLength() {
+				return body.length;
+			}
+		};
+	}
+
+	/**
+	 * Copy body of a record from journal.
+	 * @param record Record read by readBatch().
+	 * @param output_stream Output stream.
+	 * @throws IOException Reading or writing error.
+	 */
+	private void copyBody(Record record, OutputStream output_stream) throws IOException {
+		InputStream input_stream = new FileInputStream(_journal_file);
+		try {
+			skipFully(input_stream, record._body_offset);
+			byte[] buffer = new byte[64 * 1024];
+			long remaining_length = record._body_length;
+			while (remaining_length > 0) {
+				int count = input_stream.read(buffer, 0, (int) Math.min(remaining_length, buffer.length));
+				if (count < 0) {
+					throw new EOFException("Journal is shorter than record");
+				}
+				output_stream.write(buffer, 0, count);
+				remaining_length -= count;
+			}
+		} finally {
+			input_stream.close();
+		}
+	}
+
+	private static void skipFully(InputStream input_stream, long size) throws IOException {
+		while (size > 0) {
+			long count = input_stream.skip(size);
+			if (count <= 0) {
+				throw new EOFException("Journal is shorter than consumed records");
+			}
+			size -= count;
+		}
+	}
+
+}
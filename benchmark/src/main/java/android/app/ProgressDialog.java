@@ -0,0 +1,40 @@
+package android.app;
+
+import android.content.Context;
+
+/**
+ * JVM stand-in of Android ProgressDialog for benchmarks. Nothing is shown.
+ */
+public class ProgressDialog {
+
+	private boolean _is_showing = false;
+
+	public ProgressDialog(Context context) {
+	}
+
+	public void setCancelable(boolean is_cancelable) {
+	}
+
+	public void setCanceledOnTouchOutside(boolean is_cancel) {
+	}
+
+	public void setMessage(CharSequence message) {
+	}
+
+	public final boolean requestWindowFeature(int feature_id) {
+		return true;
+	}
+
+	public void show() {
+		_is_showing = true;
+	}
+
+	public void dismiss() {
+		_is_showing = false;
+	}
+
+	public boolean isShowing() {
+		return _is_showing;
+	}
+
+}
@@ -0,0 +1,7 @@
+package android.content;
+
+/**
+ * JVM stand-in of Android Context for benchmarks.
+ */
+public abstract class Context {
+}
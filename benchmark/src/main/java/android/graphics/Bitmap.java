@@ -0,0 +1,114 @@
+package android.graphics;
+
+/**
+ * JVM stand-in of Android Bitmap for benchmarks. Pixels are kept as ARGB ints whatever the config is, while byte
+ * counts follow the config like Android, so cache and pool sizes behave the same.
+ */
+public final class Bitmap {
+
+	public enum Config {
+		ALPHA_8,
+		RGB_565,
+		ARGB_4444,
+		ARGB_8888,
+		RGBA_F16,
+		HARDWARE
+	}
+
+	private int _width;
+	private int _height;
+	private Config _config;
+	private int[] _pixels;
+	private final int _allocation_byte_count;
+	private final boolean _is_mutable;
+	private boolean _is_recycled = false;
+
+	Bitmap(int width, int height, Config config, boolean is_mutable) {
+		_width = width;
+		_height = height;
+		_config = config;
+		_pixels = new int[width * height];
+		_allocation_byte_count = width * height * getBytesPerPixel(config);
+		_is_mutable = is_mutable;
+	}
+
+	public static Bitmap createBitmap(int width, int height, Config config) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("width and height must be > 0");
+		}
+		return new Bitmap(width, height, config, true);
+	}
+
+	/**
+	 * Reuse memory of bitmap for new size and config.
+	 * @throws IllegalArgumentException Bitmap is immutable, or new size is larger than allocation.
+	 */
+	public void reconfigure(int width, int height, Config config) {
+		if (!_is_mutable) {
+			throw new IllegalStateException("only mutable bitmap may be reconfigured");
+		}
+		if (width <= 0 || height <= 0 || width * height * getBytesPerPixel(config) > _allocation_byte_count) {
+			throw new IllegalArgumentException("Bitmap not large enough to support new configuration");
+		}
+		_width = width;
+		_height = height;
+		_config = config;
+		if (_pixels.length < width * height) {
+			_pixels = new int[width * height];	// Smaller config fits allocation but not ARGB int array.
+		}
+	}
+
+	int[] getPixelArray() {
+		return _pixels;
+	}
+
+	public int getPixel(int x, int y) {
+		return _pixels[y * _width + x];
+	}
+
+	public int getWidth() {
+		return _width;
+	}
+
+	public int getHeight() {
+		return _height;
+	}
+
+	public Config getConfig() {
+		return _config;
+	}
+
+	public boolean isMutable() {
+		return _is_mutable;
+	}
+
+	public int getByteCount() {
+		return _width * _height * getBytesPerPixel(_config);
+	}
+
+	public int getAllocationByteCount() {
+		return _allocation_byte_count;
+	}
+
+	public void recycle() {
+		_is_recycled = true;
+	}
+
+	public boolean isRecycled() {
+		return _is_recycled;
+	}
+
+	private static int getBytesPerPixel(Config config) {
+		if (Config.ALPHA_8 == config) {
+			return 1;
+		}
+		if (Config.RGB_565 == config || Config.ARGB_4444 == config) {
+			return 2;
+		}
+		if (Config.RGBA_F16 == config) {
+			return 8;
+		}
+		return 4;
+	}
+
+}
@@ -0,0 +1,108 @@
+package android.graphics;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * JVM stand-in of Android BitmapFactory for benchmarks. Images are decoded by ImageIO, so absolute decode time
+ * differs from a device, but inJustDecodeBounds, inSampleSize and inBitmap behave like Android.
+ */
+public class BitmapFactory {
+
+	public static class Options {
+		public boolean inJustDecodeBounds;
+		public Bitmap.Config inPreferredConfig = Bitmap.Config.ARGB_8888;
+		public int inSampleSize;
+		public boolean inMutable;
+		public Bitmap inBitmap;
+		public int outWidth;
+		public int outHeight;
+	}
+
+	public static Bitmap decodeByteArray(byte[] data, int offset, int length) {
+		return decodeByteArray(data, offset, length, null);
+	}
+
+	public static Bitmap decodeByteArray(byte[] data, int offset, int length, Options options) {
+		return decodeStream(new ByteArrayInputStream(data, offset, length), null, options);
+	}
+
+	public static Bitmap decodeStream(InputStream input_stream) {
+		return decodeStream(input_stream, null, null);
+	}
+
+	/**
+	 * Decode image.
+	 * @return Bitmap, or null if image cannot be decoded or only bounds are decoded.
+	 * @throws IllegalArgumentException inBitmap cannot be reused for the image.
+	 */
+	public static Bitmap decodeStream(InputStream input_stream, Rect out_padding, Options options) {
+		if (null == options) {
+			options = new Options();
+		}
+		options.outWidth = -1;
+		options.outHeight = -1;
+		try {
+			ImageInputStream image_stream = ImageIO.createImageInputStream(input_stream);
+			if (null == image_stream) {
+				return null;
+			}
+			try {
+				Iterator<ImageReader> readers = ImageIO.getImageReaders(image_stream);
+				if (!readers.hasNext()) {
+					return null;
+				}
+				ImageReader reader = readers.next();
+				try {
+					reader.setInput(image_stream, true, true);
+					if (options.inJustDecodeBounds) {
+						options.outWidth = reader.getWidth(0);
+						options.outHeight = reader.getHeight(0);
+						return null;
+					}
+					int sample_size = Math.max(Integer.highestOneBit(Math.max(options.inSampleSize, 1)), 1);
+					ImageReadParam param = reader.getDefaultReadParam();
+					param.setSourceSubsampling(sample_size, sample_size, 0, 0);
+					BufferedImage image = reader.read(0, param);
+					return toBitmap(image, options);
+				} finally {
+					reader.dispose();
+				}
+			} finally {
+				image_stream.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static Bitmap toBitmap(BufferedImage image, Options options) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		Bitmap.Config config = (null == options.inPreferredConfig || Bitmap.Config.HARDWARE == options.inPreferredConfig)
+				? Bitmap.Config.ARGB_8888 : options.inPreferredConfig;
+		Bitmap bitmap;
+		if (null != options.inBitmap) {
+			if (!options.inBitmap.isMutable()) {
+				throw new IllegalArgumentException("Problem decoding into existing bitmap");
+			}
+			options.inBitmap.reconfigure(width, height, config);
+			bitmap = options.inBitmap;
+		} else {
+			bitmap = new Bitmap(width, height, config, options.inMutable);
+		}
+		image.getRGB(0, 0, width, height, bitmap.getPixelArray(), 0, width);
+		options.outWidth = width;
+		options.outHeight = height;
+		return bitmap;
+	}
+
+}
@@ -0,0 +1,23 @@
+package android.graphics;
+
+/**
+ * JVM stand-in of Android Rect for benchmarks.
+ */
+public final class Rect {
+
+	public int left;
+	public int top;
+	public int right;
+	public int bottom;
+
+	public Rect() {
+	}
+
+	public Rect(int left, int top, int right, int bottom) {
+		this.left = left;
+		this.top = top;
+		this.right = right;
+		this.bottom = bottom;
+	}
+
+}
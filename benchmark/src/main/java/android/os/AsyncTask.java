@@ -0,0 +1,214 @@
+package android.os;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JVM stand-in of Android AsyncTask for benchmarks. Executors follow Android 10: THREAD_POOL_EXECUTOR runs up to
+ * 20 tasks at the same time and queues the rest in a backup pool, and SERIAL_EXECUTOR runs tasks one by one on it.
+ * onPreExecute() runs in the calling thread, and onPostExecute(), onCancelled() and onProgressUpdate() run in
+ * main thread of Looper.
+ *
+ * @param <Params> Parameter type.
+ * @param <Progress> Progress type.
+ * @param <Result> Result type.
+ */
+public abstract class AsyncTask<Params, Progress, Result> {
+
+	public enum Status {
+		PENDING,
+		RUNNING,
+		FINISHED
+	}
+
+	private static final ThreadFactory _thread_factory = new ThreadFactory() {
+		private final AtomicInteger _count = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "AsyncTask #" + _count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private static final ThreadPoolExecutor _backup_executor = new ThreadPoolExecutor(5, 5, 3, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), _thread_factory);
+
+	static {
+		_backup_executor.allowCoreThreadTimeOut(true);
+	}
+
+	public static final Executor THREAD_POOL_EXECUTOR = new ThreadPoolExecutor(1, 20, 3, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), _thread_factory, new RejectedExecutionHandler() {
+				@Override
+				public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+					_backup_executor.execute(runnable);
+				}
+			});
+
+	public static final Executor SERIAL_EXECUTOR = new SerialExecutor();
+
+	private static final Handler _main_handler = new Handler(Looper.getMainLooper());
+
+	private final FutureTask<Result> _future;
+	private final AtomicBoolean _is_cancelled = new AtomicBoolean(false);
+	private final AtomicBoolean _is_invoked = new AtomicBoolean(false);
+	private volatile Status _status = Status.PENDING;
+	private Params[] _params;
+
+	/**
+	 * Run tasks one by one on THREAD_POOL_EXECUTOR.
+	 */
+	private static class SerialExecutor implements Executor {
+		private final ArrayDeque<Runnable> _tasks = new ArrayDeque<>();
+		private Runnable _active = null;
+
+		@Override
+		public synchronized void execute(final Runnable runnable) {
+			_tasks.offer(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						runnable.run();
+					} finally {
+						scheduleNext();
+					}
+				}
+			});
+			if (null == _active) {
+				scheduleNext();
+			}
+		}
+
+		private synchronized void scheduleNext() {
+			if (null != (_active = _tasks.poll())) {
+				THREAD_POOL_EXECUTOR.execute(_active);
+			}
+		}
+	}
+
+	public AsyncTask() {
+		_future = new FutureTask<Result>(new Callable<Result>() {
+			@Override
+			public Result call() throws Exception {
+				_is_invoked.set(true);
+				Result result = null;
+				try {
+					result = doInBackground(_params);
+				} catch (Throwable e) {
+					_is_cancelled.set(true);
+					throw e;
+				} finally {
+					postResult(result);
+				}
+				return result;
+			}
+		}) {
+			@Override
+			protected void done() {
+				if (!_is_invoked.get()) {
+					postResult(null);	// Cancelled before running.
+				}
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	protected abstract Result doInBackground(Params... params);
+
+	protected void onPreExecute() {
+	}
+
+	protected void onPostExecute(Result result) {
+	}
+
+	@SuppressWarnings("unchecked")
+	protected void onProgressUpdate(Progress... values) {
+	}
+
+	protected void onCancelled(Result result) {
+		onCancelled();
+	}
+
+	protected void onCancelled() {
+	}
+
+	@SafeVarargs
+	public final AsyncTask<Params, Progress, Result> execute(Params... params) {
+		return executeOnExecutor(SERIAL_EXECUTOR, params);
+	}
+
+	@SafeVarargs
+	@SuppressWarnings("varargs")	// Params are kept for doInBackground() only, like Android.
+	public final AsyncTask<Params, Progress, Result> executeOnExecutor(Executor executor, Params... params) {
+		if (Status.PENDING != _status) {
+			throw new IllegalStateException("Cannot execute task: the task is " + _status);
+		}
+		_status = Status.RUNNING;
+		onPreExecute();
+		_params = params;
+		executor.execute(_future);
+		return this;
+	}
+
+	public final boolean cancel(boolean may_interrupt_if_running) {
+		_is_cancelled.set(true);
+		return _future.cancel(may_interrupt_if_running);
+	}
+
+	public final boolean isCancelled() {
+		return _is_cancelled.get();
+	}
+
+	public final Status getStatus() {
+		return _status;
+	}
+
+	public final Result get() throws InterruptedException, ExecutionException {
+		return _future.get();
+	}
+
+	@SafeVarargs
+	protected final void publishProgress(final Progress... values) {
+		if (isCancelled()) {
+			return;
+		}
+		_main_handler.post(new Runnable() {
+			@Override
+			public void run() {
+				onProgressUpdate(values);
+			}
+		});
+	}
+
+	private void postResult(final Result result) {
+		_main_handler.post(new Runnable() {
+			@Override
+			public void run() {
+				finish(result);
+			}
+		});
+	}
+
+	private void finish(Result result) {
+		if (isCancelled()) {
+			onCancelled(result);
+		} else {
+			onPostExecute(result);
+		}
+		_status = Status.FINISHED;
+	}
+
+}
@@ -0,0 +1,38 @@
+package android.os;
+
+/**
+ * JVM stand-in of Android Handler for benchmarks. Runnables are run by the message queue of Looper.
+ */
+public class Handler {
+
+	private final Looper _looper;
+
+	public Handler() {
+		this(Looper.myLooper());
+	}
+
+	public Handler(Looper looper) {
+		if (null == looper) {
+			throw new RuntimeException("Can't create handler inside thread that has not called Looper.prepare()");
+		}
+		_looper = looper;
+	}
+
+	public final boolean post(Runnable runnable) {
+		return postDelayed(runnable, 0);
+	}
+
+	public final boolean postDelayed(Runnable runnable, long delay) {
+		_looper.enqueue(this, runnable, Looper.uptimeMillis() + Math.max(delay, 0));
+		return true;
+	}
+
+	public final void removeCallbacks(Runnable runnable) {
+		_looper.remove(this, runnable);
+	}
+
+	public final Looper getLooper() {
+		return _looper;
+	}
+
+}
@@ -0,0 +1,128 @@
+package android.os;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * JVM stand-in of Android Looper for benchmarks. Only main looper exists. It runs messages posted by Handler
+ * in one daemon thread named "main", in order of their time, like the main thread of Android application.
+ */
+public final class Looper {
+
+	private static final Looper _main_looper = new Looper("main");
+
+	private final PriorityQueue<Message> _queue = new PriorityQueue<>();
+	private final Thread _thread;
+	private long _sequence = 0;
+
+	/**
+	 * Queued runnable.
+	 */
+	private static class Message implements Comparable<Message> {
+		final Handler _handler;
+		final Runnable _runnable;
+		final long _when;
+		final long _sequence;
+
+		Message(Handler handler, Runnable runnable, long when, long sequence) {
+			_handler = handler;
+			_runnable = runnable;
+			_when = when;
+			_sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Message message) {
+			if (_when != message._when) {
+				return (_when < message._when) ? -1 : 1;
+			}
+			return (_sequence < message._sequence) ? -1 : ((_sequence == message._sequence) ? 0 : 1);
+		}
+	}
+
+	private Looper(String name) {
+		_thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, name);
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	public static Looper getMainLooper() {
+		return _main_looper;
+	}
+
+	/**
+	 * @return Main looper in main thread, or null in other threads.
+	 */
+	public static Looper myLooper() {
+		return _main_looper.isCurrentThread() ? _main_looper : null;
+	}
+
+	public Thread getThread() {
+		return _thread;
+	}
+
+	public boolean isCurrentThread() {
+		return Thread.currentThread() == _thread;
+	}
+
+	/**
+	 * @return Current time of message queue. (millisecond)
+	 */
+	static long uptimeMillis() {
+		return System.nanoTime() / 1000000;
+	}
+
+	synchronized void enqueue(Handler handler, Runnable runnable, long when) {
+		_queue.add(new Message(handler, runnable, when, _sequence++));
+		notifyAll();
+	}
+
+	synchronized void remove(Handler handler, Runnable runnable) {
+		Iterator<Message> iterator = _queue.iterator();
+		while (iterator.hasNext()) {
+			Message message = iterator.next();
+			if (message._handler == handler && message._runnable == runnable) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private synchronized Message next() throws InterruptedException {
+		while (true) {
+			Message message = _queue.peek();
+			if (null == message) {
+				wait();
+				continue;
+			}
+			long delay = message._when - uptimeMillis();
+			if (delay > 0) {
+				wait(delay);
+				continue;
+			}
+			return _queue.poll();
+		}
+	}
+
+	private void loop() {
+		while (true) {
+			Message message;
+			try {
+				message = next();
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				message._runnable.run();
+			} catch (Throwable e) {
+				// Android application crashes here; benchmark keeps main thread running and reports it.
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,48 @@
+package android.util;
+
+/**
+ * JVM stand-in of Android Log for benchmarks. Debug and info messages are dropped so they do not skew
+ * measurements; warnings and errors are printed to standard error.
+ */
+public final class Log {
+
+	private Log() {
+	}
+
+	public static int v(String tag, String msg) {
+		return 0;
+	}
+
+	public static int d(String tag, String msg) {
+		return 0;
+	}
+
+	public static int i(String tag, String msg) {
+		return 0;
+	}
+
+	public static int w(String tag, String msg) {
+		return print("W", tag, msg, null);
+	}
+
+	public static int w(String tag, String msg, Throwable tr) {
+		return print("W", tag, msg, tr);
+	}
+
+	public static int e(String tag, String msg) {
+		return print("E", tag, msg, null);
+	}
+
+	public static int e(String tag, String msg, Throwable tr) {
+		return print("E", tag, msg, tr);
+	}
+
+	private static int print(String level, String tag, String msg, Throwable tr) {
+		System.err.println(level + "/" + tag + ": " + msg);
+		if (null != tr) {
+			tr.printStackTrace();
+		}
+		return 0;
+	}
+
+}
@@ -0,0 +1,169 @@
+package android.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in of Android LruCache for benchmarks. It evicts least recently used entries by size of sizeOf().
+ *
+ * @param <K> Key type.
+ * @param <V> Value type.
+ */
+public class LruCache<K, V> {
+
+	private final LinkedHashMap<K, V> _map;
+	private int _size = 0;
+	private int _max_size;
+	private int _put_count = 0;
+	private int _eviction_count = 0;
+	private int _hit_count = 0;
+	private int _miss_count = 0;
+
+	public LruCache(int max_size) {
+		if (max_size <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		_max_size = max_size;
+		_map = new LinkedHashMap<>(0, 0.75f, true);
+	}
+
+	public final V get(K key) {
+		if (null == key) {
+			throw new NullPointerException("key == null");
+		}
+		synchronized (this) {
+			V value = _map.get(key);
+			if (null != value) {
+				++_hit_count;
+				return value;
+			}
+			++_miss_count;
+		}
+
+		V created = create(key);
+		if (null == created) {
+			return null;
+		}
+		V previous;
+		synchronized (this) {
+			previous = _map.put(key, created);
+			if (null != previous) {
+				_map.put(key, previous);	// Value put meanwhile wins.
+			} else {
+				_size += safeSizeOf(key, created);
+			}
+		}
+		if (null != previous) {
+			entryRemoved(false, key, created, previous);
+			return previous;
+		}
+		trimToSize(_max_size);
+		return created;
+	}
+
+	public final V put(K key, V value) {
+		if (null == key || null == value) {
+			throw new NullPointerException("key == null || value == null");
+		}
+		V previous;
+		synchronized (this) {
+			++_put_count;
+			_size += safeSizeOf(key, value);
+			previous = _map.put(key, value);
+			if (null != previous) {
+				_size -= safeSizeOf(key, previous);
+			}
+		}
+		if (null != previous) {
+			entryRemoved(false, key, previous, value);
+		}
+		trimToSize(_max_size);
+		return previous;
+	}
+
+	public final V remove(K key) {
+		if (null == key) {
+			throw new NullPointerException("key == null");
+		}
+		V previous;
+		synchronized (this) {
+			previous = _map.remove(key);
+			if (null != previous) {
+				_size -= safeSizeOf(key, previous);
+			}
+		}
+		if (null != previous) {
+			entryRemoved(false, key, previous, null);
+		}
+		return previous;
+	}
+
+	public void trimToSize(int max_size) {
+		while (true) {
+			K key;
+			V value;
+			synchronized (this) {
+				if (_size <= max_size || _map.isEmpty()) {
+					break;
+				}
+				Iterator<Map.Entry<K, V>> iterator = _map.entrySet().iterator();
+				Map.Entry<K, V> eldest = iterator.next();
+				key = eldest.getKey();
+				value = eldest.getValue();
+				iterator.remove();
+				_size -= safeSizeOf(key, value);
+				++_eviction_count;
+			}
+			entryRemoved(true, key, value, null);
+		}
+	}
+
+	public final void evictAll() {
+		trimToSize(-1);
+	}
+
+	protected void entryRemoved(boolean evicted, K key, V old_value, V new_value) {
+	}
+
+	protected V create(K key) {
+		return null;
+	}
+
+	protected int sizeOf(K key, V value) {
+		return 1;
+	}
+
+	private int safeSizeOf(K key, V value) {
+		int size = sizeOf(key, value);
+		if (size < 0) {
+			throw new IllegalStateException("Negative size: " + key + "=" + value);
+		}
+		return size;
+	}
+
+	public final synchronized int size() {
+		return _size;
+	}
+
+	public final synchronized int maxSize() {
+		return _max_size;
+	}
+
+	public final synchronized int hitCount() {
+		return _hit_count;
+	}
+
+	public final synchronized int missCount() {
+		return _miss_count;
+	}
+
+	public final synchronized int putCount() {
+		return _put_count;
+	}
+
+	public final synchronized int evictionCount() {
+		return _eviction_count;
+	}
+
+}
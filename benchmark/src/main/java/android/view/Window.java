@@ -0,0 +1,10 @@
+package android.view;
+
+/**
+ * JVM stand-in of Android Window for benchmarks.
+ */
+public abstract class Window {
+
+	public static final int FEATURE_NO_TITLE = 1;
+
+}
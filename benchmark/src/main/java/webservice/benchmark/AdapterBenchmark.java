@@ -0,0 +1,93 @@
+package webservice.benchmark;
+
+import com.google.gson.reflect.TypeToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import webservice.CommJsonAdapterFactory;
+import webservice.CommJsonCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON decode of the same array by adapter generated for CommJsonModel (BenchmarkModelItem) and by reflective
+ * adapter of Gson (BenchmarkItem), through CommJsonCodec and shared adapters of CommGson.
+ *
+ * 1. firstDecode: first decode in a new JVM, including adapter lookup and class loading. Each fork measures one
+ *    decode, so the score is average of forks.
+ * 2. decode: steady state decode after warmup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AdapterBenchmark {
+
+	private static final TypeToken<List<BenchmarkModelItem>> MODEL_LIST_TYPE =
+			new TypeToken<List<BenchmarkModelItem>>() {
+			};
+	private static final TypeToken<List<BenchmarkItem>> ITEM_LIST_TYPE = new TypeToken<List<BenchmarkItem>>() {
+	};
+
+	/**
+	 * Adapter of elements, "generated" or "reflective".
+	 */
+	@Param({ "generated", "reflective" })
+	public String adapter;
+
+	/**
+	 * Element count of decoded array.
+	 */
+	@Param({ "10", "1000" })
+	public int item_count;
+
+	private TypeToken<? extends List<?>> _type_token;
+	private byte[] _json;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		if ("generated".equals(adapter)) {
+			// Look up class file without loading it, so firstDecode still loads the adapter.
+			String adapter_path = CommJsonAdapterFactory.getAdapterName(BenchmarkModelItem.class).replace('.', '/')
+					+ ".class";
+			if (null == BenchmarkModelItem.class.getClassLoader().getResource(adapter_path)) {
+				throw new IllegalStateException("Adapter is not generated: " + adapter_path);
+			}
+			_type_token = MODEL_LIST_TYPE;
+		} else if ("reflective".equals(adapter)) {
+			_type_token = ITEM_LIST_TYPE;
+		} else {
+			throw new IllegalArgumentException("Unknown adapter: " + adapter);
+		}
+		_json = Payloads.createJson(item_count);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	@Fork(10)
+	public List<?> firstDecode() throws IOException {
+		return CommJsonCodec.INSTANCE.decode(new ByteArrayInputStream(_json), _type_token);
+	}
+
+	@Benchmark
+	public List<?> decode() throws IOException {
+		return CommJsonCodec.INSTANCE.decode(new ByteArrayInputStream(_json), _type_token);
+	}
+
+}
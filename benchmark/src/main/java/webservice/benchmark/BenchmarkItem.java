@@ -0,0 +1,15 @@
+package webservice.benchmark;
+
+import java.util.List;
+
+/**
+ * Response element of benchmarks. It is decoded by reflective adapter of Gson.
+ */
+public class BenchmarkItem {
+	long id;
+	String name;
+	double score;
+	boolean active;
+	int[] counts;
+	List<String> tags;
+}
@@ -0,0 +1,29 @@
+package webservice.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of benchmarks.jar. It runs JMH with the given options, and writes results as JSON to
+ * target/jmh-result.json unless "-rf" or "-rff" is given.
+ */
+public final class BenchmarkMain {
+
+	private BenchmarkMain() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<String> options = new ArrayList<>(Arrays.asList(args));
+		if (!options.contains("-rf")) {
+			options.add("-rf");
+			options.add("json");
+		}
+		if (!options.contains("-rff")) {
+			options.add("-rff");
+			options.add("target/jmh-result.json");
+		}
+		org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+	}
+
+}
@@ -0,0 +1,19 @@
+package webservice.benchmark;
+
+import webservice.CommJsonModel;
+
+import java.util.List;
+
+/**
+ * Response element of benchmarks with the same fields as BenchmarkItem. It is decoded by adapter generated by
+ * CommJsonModelProcessor.
+ */
+@CommJsonModel
+public class BenchmarkModelItem {
+	long id;
+	String name;
+	double score;
+	boolean active;
+	int[] counts;
+	List<String> tags;
+}
@@ -0,0 +1,102 @@
+package webservice.benchmark;
+
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import webservice.CommBitmapPool;
+import webservice.task.CommRequestBitmapTask;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Download and decode of one image by CommRequestBitmapTask. Full size decode without pool streams response to
+ * decoder; sampling to target size or pool downloads encoded data first, and decodes bounds and then pixels.
+ *
+ * BitmapFactory of benchmark decodes by ImageIO, so compare settings with each other rather than with a device.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BitmapDecodeBenchmark {
+
+	/**
+	 * Width and height of image.
+	 */
+	@Param({ "512", "2048" })
+	public int image_size;
+
+	@Param({ "png", "jpeg" })
+	public String format;
+
+	/**
+	 * Target width and height of decode option. (0 is full size)
+	 */
+	@Param({ "0", "256" })
+	public int target_size;
+
+	/**
+	 * True if decoded bitmap is returned to CommBitmapPool and reused.
+	 */
+	@Param({ "false", "true" })
+	public boolean is_pooled;
+
+	private StubServer _server;
+	private String _url;
+	private CommBitmapPool _pool;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		_server = StubServer.start();
+		_server.getImage(image_size, format);	// Encode before measurement.
+		_url = _server.getUrl("/image?size=" + image_size + "&format=" + format);
+		_pool = is_pooled ? new CommBitmapPool(64L * 1024 * 1024) : null;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		_server.stop();
+	}
+
+	@Benchmark
+	public Object decodeBitmap() throws Exception {
+		final MainThread.Completion completion = new MainThread.Completion();
+		MainThread.post(new Runnable() {
+			@Override
+			public void run() {
+				CommRequestBitmapTask task = new CommRequestBitmapTask();
+				task.setDecodeOption(target_size, target_size, null);
+				task.setBitmapPool(_pool);
+				task.addCompleteNotify(new CommRequestBitmapTask.ActionComplete() {
+					@Override
+					public void onGetBitmapComplete(boolean is_success, Bitmap bmp, String msg) {
+						completion.complete(is_success && null != bmp, bmp, msg);
+					}
+				});
+				task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, _url);
+			}
+		});
+		Bitmap bitmap = (Bitmap) completion.await();
+		if (null != _pool) {
+			_pool.put(bitmap);	// Bitmap is not used after measurement.
+		}
+		return bitmap.getWidth();
+	}
+
+}
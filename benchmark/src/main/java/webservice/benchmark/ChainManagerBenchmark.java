@@ -0,0 +1,123 @@
+package webservice.benchmark;
+
+import com.google.gson.reflect.TypeToken;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import webservice.CommChainManager;
+import webservice.CommRequestJsonMsg;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of CommChainManager in each MODE by request count. Every request gets a small JSON object from
+ * /slow after server delay, so the score shows how much network waiting of the chain overlaps.
+ * DAG chain is a binary tree: request i depends on request (i - 1) / 2.
+ *
+ * Primary score is chains per second, and "requests" counter is requests per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChainManagerBenchmark {
+
+	private static final TypeToken<BenchmarkItem> ITEM_TYPE = new TypeToken<BenchmarkItem>() {
+	};
+
+	@Param({ "SEQUENCE", "SEQUENCE_CONTINUE", "OVERALL", "DAG" })
+	public CommChainManager.MODE mode;
+
+	@Param({ "1", "10", "40" })
+	public int request_count;
+
+	/**
+	 * Response delay of server. (millisecond)
+	 */
+	@Param({ "5" })
+	public int server_delay;
+
+	private StubServer _server;
+	/**
+	 * Makes URLs unique, so identical requests are not coalesced.
+	 */
+	private final AtomicLong _sequence = new AtomicLong();
+
+	/**
+	 * Requests completed by chains.
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class RequestCounter {
+		public long requests;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		_server = StubServer.start();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		_server.stop();
+	}
+
+	@Benchmark
+	public Object runChain(RequestCounter counter) throws Exception {
+		final MainThread.Completion completion = new MainThread.Completion();
+		MainThread.post(new Runnable() {
+			@Override
+			public void run() {
+				CommChainManager chain = new CommChainManager();
+				chain.setMode(mode);
+				List<CommRequestJsonMsg<BenchmarkItem>> requests = new ArrayList<>(request_count);
+				for (int i = 0; i < request_count; ++i) {
+					CommRequestJsonMsg<BenchmarkItem> request = new CommRequestJsonMsg<>(
+							new CommRequestJsonMsg.RequestJsonMsgCallback<BenchmarkItem>() {
+								@Override
+								public void onRequestDataSuccess(BenchmarkItem return_data) {
+								}
+
+								@Override
+								public void onRequestDataFailed(String fail_msg) {
+								}
+							}, ITEM_TYPE,
+							_server.getStatus("/slow?delay=" + server_delay + "&n=" + _sequence.incrementAndGet()));
+					chain.addRequest(request);
+					if (CommChainManager.MODE.DAG == mode && i > 0) {
+						chain.addDependency(request, requests.get((i - 1) / 2), CommChainManager.EdgePolicy.REQUIRE_COMPLETE);
+					}
+					requests.add(request);
+				}
+				chain.addRequestChainCompleteNotify(new CommChainManager.OnRequestChainComplete() {
+					@Override
+					public void onRequestChainComplete(boolean is_success) {
+						completion.complete(is_success, null, "Chain failed");
+					}
+				});
+				chain.runRequestChain();
+			}
+		});
+		Object result = completion.await();
+		counter.requests += request_count;
+		return result;
+	}
+
+}
@@ -0,0 +1,140 @@
+package webservice.benchmark;
+
+import com.google.gson.reflect.TypeToken;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import webservice.CommBaseStatus;
+import webservice.CommCborCodec;
+import webservice.CommCodec;
+import webservice.CommJsonCodec;
+import webservice.CommRequestJsonMsg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Size and speed of CommJsonCodec and CommCborCodec on the same elements of Payloads.createItems().
+ *
+ * 1. encode: encode element list to bytes.
+ * 2. decode: decode encoded bytes to element list.
+ * 3. echoRequest: CommRequestJsonMsg.requestAsync() posts element list by codec to /echo and decodes response by
+ *    codec, without main thread.
+ * 4. encodedSize: single encode, and encodedSize:body_bytes / encodedSize:gzip_bytes are sizes of encoded body
+ *    and its gzip. (byte)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+	private static final TypeToken<List<BenchmarkItem>> ITEM_LIST_TYPE = new TypeToken<List<BenchmarkItem>>() {
+	};
+
+	/**
+	 * Codec name, "json" or "cbor".
+	 */
+	@Param({ "json", "cbor" })
+	public String codec;
+
+	/**
+	 * Element count of encoded array.
+	 */
+	@Param({ "10", "1000" })
+	public int item_count;
+
+	private CommCodec _codec;
+	private List<BenchmarkItem> _items;
+	private byte[] _encoded;
+	private StubServer _server;
+	private CommBaseStatus _status;
+
+	/**
+	 * Encoded sizes. They are set, not added, by the single invocation of each iteration.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class SizeCounter {
+		public long body_bytes;
+		public long gzip_bytes;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		if ("json".equals(codec)) {
+			_codec = CommJsonCodec.INSTANCE;
+		} else if ("cbor".equals(codec)) {
+			_codec = CommCborCodec.INSTANCE;
+		} else {
+			throw new IllegalArgumentException("Unknown codec: " + codec);
+		}
+		_items = Payloads.createItems(item_count);
+		_encoded = _codec.encode(_items);
+		_server = StubServer.start();
+		_status = new CommBaseStatus() {
+			@Override
+			public Object getPostData() {
+				return _items;
+			}
+		};
+		_status.setOriginalURL(_server.getUrl("/echo"));
+		_status.setCodec(_codec);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		_server.stop();
+	}
+
+	@Benchmark
+	public byte[] encode() throws IOException {
+		return _codec.encode(_items);
+	}
+
+	@Benchmark
+	public List<BenchmarkItem> decode() throws IOException {
+		return _codec.decode(new ByteArrayInputStream(_encoded), ITEM_LIST_TYPE);
+	}
+
+	@Benchmark
+	public Object echoRequest() throws Exception {
+		return new CommRequestJsonMsg<>(null, ITEM_LIST_TYPE, _status).requestAsync(MainThread.DIRECT_EXECUTOR).get();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	public byte[] encodedSize(SizeCounter counter) throws IOException {
+		byte[] body = _codec.encode(_items);
+		ByteArrayOutputStream byte_stream = new ByteArrayOutputStream(body.length);
+		GZIPOutputStream gzip_stream = new GZIPOutputStream(byte_stream);
+		try {
+			gzip_stream.write(body);
+		} finally {
+			gzip_stream.close();
+		}
+		counter.body_bytes = body.length;
+		counter.gzip_bytes = byte_stream.size();
+		return body;
+	}
+
+}
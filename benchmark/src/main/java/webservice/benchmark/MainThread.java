@@ -0,0 +1,75 @@
+package webservice.benchmark;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Run requests in main thread of Looper, like Android application, and wait for their completion in
+ * benchmark thread.
+ */
+final class MainThread {
+
+	private static final Handler _handler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Executor that runs command in the calling thread.
+	 */
+	static final Executor DIRECT_EXECUTOR = new Executor() {
+		@Override
+		public void execute(Runnable runnable) {
+			runnable.run();
+		}
+	};
+
+	private MainThread() {
+	}
+
+	/**
+	 * Post runnable to main thread.
+	 * @param runnable Runnable object.
+	 */
+	static void post(Runnable runnable) {
+		_handler.post(runnable);
+	}
+
+	/**
+	 * Result of one asynchronous operation. It is completed in main thread and waited in benchmark thread.
+	 */
+	static final class Completion {
+
+		private static final long TIME_OUT = 60;
+
+		private final CountDownLatch _latch = new CountDownLatch(1);
+		private volatile boolean _is_success = false;
+		private volatile Object _data = null;
+		private volatile String _msg = null;
+
+		void complete(boolean is_success, Object data, String msg) {
+			_is_success = is_success;
+			_data = data;
+			_msg = msg;
+			_latch.countDown();
+		}
+
+		/**
+		 * Wait for completion.
+		 * @return Data of complete().
+		 * @throws Exception Operation failed or timed out.
+		 */
+		Object await() throws Exception {
+			if (!_latch.await(TIME_OUT, TimeUnit.SECONDS)) {
+				throw new TimeoutException("Operation is not completed in " + TIME_OUT + " seconds");
+			}
+			if (!_is_success) {
+				throw new IllegalStateException("Operation failed: " + _msg);
+			}
+			return _data;
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+package webservice.benchmark;
+
+import android.os.AsyncTask;
+
+import com.google.gson.reflect.TypeToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import webservice.CommBaseStatus;
+import webservice.CommRequestJsonMsg;
+import webservice.task.CommRequestMessageTask;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response read and JSON decode of one Http/Get request by payload size.
+ *
+ * 1. messageTaskRead: CommRequestMessageTask reads response to string, with completion in main thread.
+ * 2. jsonMsgDecode: CommRequestJsonMsg reads and decodes response in worker thread, with callback in main thread.
+ * 3. jsonMsgRequestAsync: CommRequestJsonMsg.requestAsync() reads and decodes response in benchmark thread,
+ *    without main thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageTaskBenchmark {
+
+	private static final TypeToken<List<BenchmarkItem>> ITEM_LIST_TYPE = new TypeToken<List<BenchmarkItem>>() {
+	};
+
+	/**
+	 * Element count of response array.
+	 */
+	@Param({ "10", "100", "1000", "10000" })
+	public int item_count;
+
+	private StubServer _server;
+	private CommBaseStatus _status;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		_server = StubServer.start();
+		_status = _server.getStatus("/json?count=" + item_count);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		_server.stop();
+	}
+
+	@Benchmark
+	public Object messageTaskRead() throws Exception {
+		final MainThread.Completion completion = new MainThread.Completion();
+		MainThread.post(new Runnable() {
+			@Override
+			public void run() {
+				CommRequestMessageTask task = new CommRequestMessageTask();
+				task.addCompleteNotify(new CommRequestMessageTask.ITaskCompleteAction() {
+					@Override
+					public void onTaskComplete(boolean isSuccess, String result) {
+						completion.complete(isSuccess, result, result);
+					}
+				});
+				task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, _status);
+			}
+		});
+		return completion.await();
+	}
+
+	@Benchmark
+	public Object jsonMsgDecode() throws Exception {
+		final MainThread.Completion completion = new MainThread.Completion();
+		MainThread.post(new Runnable() {
+			@Override
+			public void run() {
+				CommRequestJsonMsg<List<BenchmarkItem>> request = new CommRequestJsonMsg<>(
+						new CommRequestJsonMsg.RequestJsonMsgCallback<List<BenchmarkItem>>() {
+							@Override
+							public void onRequestDataSuccess(List<BenchmarkItem> return_data) {
+								completion.complete(true, return_data, null);
+							}
+
+							@Override
+							public void onRequestDataFailed(String fail_msg) {
+								completion.complete(false, null, fail_msg);
+							}
+						}, ITEM_LIST_TYPE, _status);
+				request.setExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+				request.runRequest();
+			}
+		});
+		return completion.await();
+	}
+
+	@Benchmark
+	public Object jsonMsgRequestAsync() throws Exception {
+		return new CommRequestJsonMsg<>(null, ITEM_LIST_TYPE, _status).requestAsync(MainThread.DIRECT_EXECUTOR).get();
+	}
+
+}
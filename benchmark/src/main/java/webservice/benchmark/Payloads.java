@@ -0,0 +1,114 @@
+package webservice.benchmark;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Deterministic payloads of benchmarks. The same count or size always gives the same data.
+ */
+final class Payloads {
+
+	private Payloads() {
+	}
+
+	/**
+	 * Create response elements with numbers and short strings, like sync payloads.
+	 * @param count Element count.
+	 * @return Elements.
+	 */
+	static List<BenchmarkItem> createItems(int count) {
+		Random random = new Random(count);
+		List<BenchmarkItem> items = new ArrayList<>(count);
+		for (int i = 0; i < count; ++i) {
+			BenchmarkItem item = new BenchmarkItem();
+			item.id = 1000000L + i;
+			item.name = "item-" + Integer.toString(random.nextInt(1 << 20), 36);
+			item.score = Math.round(random.nextDouble() * 100000) / 100.0;
+			item.active = random.nextBoolean();
+			item.counts = new int[] { random.nextInt(100), random.nextInt(10000), random.nextInt(1000000) };
+			item.tags = Arrays.asList("t" + random.nextInt(10), "t" + random.nextInt(100));
+			items.add(item);
+		}
+		return items;
+	}
+
+	/**
+	 * Write JSON array of createItems(count) by JsonWriter, like reflective adapter of Gson does. No adapter is
+	 * created, so adapters of decoded types are still cold after it.
+	 * @param count Element count.
+	 * @return JSON array of createItems(count).
+	 */
+	static byte[] createJson(int count) throws IOException {
+		ByteArrayOutputStream output_stream = new ByteArrayOutputStream();
+		JsonWriter writer = new JsonWriter(new OutputStreamWriter(output_stream, "UTF-8"));
+		try {
+			writer.beginArray();
+			for (BenchmarkItem item : createItems(count)) {
+				writer.beginObject();
+				writer.name("id").value(item.id);
+				writer.name("name").value(item.name);
+				writer.name("score").value(item.score);
+				writer.name("active").value(item.active);
+				writer.name("counts").beginArray();
+				for (int value : item.counts) {
+					writer.value(value);
+				}
+				writer.endArray();
+				writer.name("tags").beginArray();
+				for (String tag : item.tags) {
+					writer.value(tag);
+				}
+				writer.endArray();
+				writer.endObject();
+			}
+			writer.endArray();
+		} finally {
+			writer.close();
+		}
+		return output_stream.toByteArray();
+	}
+
+	/**
+	 * Create square photo-like image with gradient and noise, so it does not compress to nothing.
+	 * @param size Width and height.
+	 * @param format ImageIO format name, like "png" or "jpeg".
+	 * @return Encoded image.
+	 */
+	static byte[] createImage(int size, String format) throws IOException {
+		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		try {
+			graphics.setPaint(new GradientPaint(0, 0, new Color(30, 90, 200), size, size, new Color(240, 180, 40)));
+			graphics.fillRect(0, 0, size, size);
+		} finally {
+			graphics.dispose();
+		}
+		Random random = new Random(size);
+		for (int y = 0; y < size; ++y) {
+			for (int x = 0; x < size; ++x) {
+				if (0 == random.nextInt(4)) {
+					image.setRGB(x, y, image.getRGB(x, y) ^ random.nextInt(0x202020));
+				}
+			}
+		}
+		ByteArrayOutputStream output_stream = new ByteArrayOutputStream();
+		if (!ImageIO.write(image, format, output_stream)) {
+			throw new IOException("No image writer: " + format);
+		}
+		return output_stream.toByteArray();
+	}
+
+}
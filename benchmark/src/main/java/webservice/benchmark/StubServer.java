@@ -0,0 +1,436 @@
+package webservice.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import webservice.CommBaseStatus;
+import webservice.CommCborCodec;
+import webservice.CommCodec;
+import webservice.CommJsonCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local Http server of benchmarks and tests, bound to loopback address at a free port.
+ *
+ * Paths:
+ * 1. GET /json?count=N returns JSON array of N BenchmarkItem elements.
+ * 2. GET /image?size=N&format=png|jpeg returns N x N image.
+ * 3. GET /slow?delay=MS returns one small JSON object after delay.
+ * 4. POST /echo returns request body with its Content-Type.
+ * 5. GET /cached?count=N&format=json|cbor&max_age=S returns N elements by codec with ETag and Cache-Control,
+ *    and 304 Not Modified to matching If-None-Match.
+ * 6. GET /file?size=N returns N bytes of getFile() with ETag, and supports single Range with If-Range.
+ * 7. GET or POST /flaky?key=K&fail=N&code=C&delay=MS returns status C to the first N requests of key K, and
+ *    then one small JSON object. The first request of key K is answered after delay.
+ *
+ * Payloads are generated once by Payloads and cached, so measurements do not include generation.
+ * Other query parameters are ignored, so requests can be made unique to avoid coalescing.
+ * Responses are counted by path for tests. (getRequestCount())
+ */
+public final class StubServer {
+
+	static {
+		// Small responses are otherwise delayed by Nagle's algorithm and delayed ACK, which hides real costs.
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final HttpServer _server;
+	private final ExecutorService _executor;
+	private final Map<String, byte[]> _payloads = new ConcurrentHashMap<>();
+	private final AtomicInteger _slow_running_count = new AtomicInteger();
+	private final AtomicInteger _slow_max_running_count = new AtomicInteger();
+	private final Map<String, AtomicInteger> _request_counts = new ConcurrentHashMap<>();
+	private final List<String> _file_ranges = new CopyOnWriteArrayList<>();
+	private final AtomicLong _file_break_length = new AtomicLong(-1);
+	private final Map<String, AtomicInteger> _flaky_counts = new ConcurrentHashMap<>();
+
+	private StubServer(HttpServer server, ExecutorService executor) {
+		_server = server;
+		_executor = executor;
+	}
+
+	/**
+	 * Start server.
+	 * @return Running server.
+	 * @throws IOException Binding error.
+	 */
+	public static StubServer start() throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 256);
+		ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "StubServer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		final StubServer stub_server = new StubServer(server, executor);
+		server.setExecutor(executor);
+		server.createContext("/json", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				int count = getIntParam(exchange, "count", 10);
+				stub_server.respond(exchange, "application/json", stub_server.getJson(count));
+			}
+		});
+		server.createContext("/image", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				int size = getIntParam(exchange, "size", 256);
+				String format = getParams(exchange).get("format");
+				format = (null == format) ? "png" : format;
+				stub_server.respond(exchange, "image/" + format, stub_server.getImage(size, format));
+			}
+		});
+		server.createContext("/slow", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				stub_server.onSlowStart();
+				try {
+					Thread.sleep(getIntParam(exchange, "delay", 100));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					stub_server._slow_running_count.decrementAndGet();
+				}
+				stub_server.respond(exchange, "application/json",
+						"{\"id\":1,\"name\":\"slow\",\"score\":1.5,\"active\":true}".getBytes("UTF-8"));
+			}
+		});
+		server.createContext("/cached", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				stub_server.respondCached(exchange, getIntParam(exchange, "count", 10),
+						"cbor".equals(getParams(exchange).get("format")) ? CommCborCodec.INSTANCE
+								: CommJsonCodec.INSTANCE, getIntParam(exchange, "max_age", 0));
+			}
+		});
+		server.createContext("/file", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				stub_server.respondFile(exchange, getIntParam(exchange, "size", 1024));
+			}
+		});
+		server.createContext("/flaky", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				stub_server.respondFlaky(exchange, getParams(exchange).get("key"), getIntParam(exchange, "fail", 0),
+						getIntParam(exchange, "code", 503), getIntParam(exchange, "delay", 0));
+			}
+		});
+		server.createContext("/echo", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String content_type = exchange.getRequestHeaders().getFirst("Content-Type");
+				stub_server.respond(exchange, (null == content_type) ? "application/octet-stream" : content_type,
+						readFully(exchange.getRequestBody()));
+			}
+		});
+		server.start();
+		return stub_server;
+	}
+
+	/**
+	 * Stop server and its threads.
+	 */
+	public void stop() {
+		_server.stop(0);
+		_executor.shutdownNow();
+	}
+
+	/**
+	 * @param path Path without query string, like "/echo".
+	 * @return Count of responses to path since last reset.
+	 */
+	public int getRequestCount(String path) {
+		AtomicInteger count = _request_counts.get(path);
+		return (null == count) ? 0 : count.get();
+	}
+
+	public void resetRequestCounts() {
+		_request_counts.clear();
+	}
+
+	/**
+	 * @return Range headers of /file requests since last reset. (empty string if no Range)
+	 */
+	public List<String> getFileRanges() {
+		return new ArrayList<>(_file_ranges);
+	}
+
+	public void resetFileRanges() {
+		_file_ranges.clear();
+	}
+
+	/**
+	 * Break connection of next /file response after length bytes of body, like a lost network.
+	 * @param length Byte count of body sent before connection is closed.
+	 */
+	public void breakNextFile(long length) {
+		_file_break_length.set(length);
+	}
+
+	/**
+	 * @return Maximum count of /slow requests running at the same time since last reset.
+	 */
+	public int getSlowMaxRunningCount() {
+		return _slow_max_running_count.get();
+	}
+
+	public void resetSlowMaxRunningCount() {
+		_slow_max_running_count.set(0);
+	}
+
+	private void onSlowStart() {
+		int running_count = _slow_running_count.incrementAndGet();
+		int max_running_count;
+		while (running_count > (max_running_count = _slow_max_running_count.get())) {
+			if (_slow_max_running_count.compareAndSet(max_running_count, running_count)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @param path Path with query string, like "/json?count=10".
+	 * @return URL string of server.
+	 */
+	public String getUrl(String path) {
+		return "http://127.0.0.1:" + _server.getAddress().getPort() + path;
+	}
+
+	/**
+	 * @param path Path with query string.
+	 * @return Http/Get connection setting of URL of server.
+	 */
+	public CommBaseStatus getStatus(String path) {
+		CommBaseStatus status = new CommBaseStatus() {
+		};
+		status.setOriginalURL(getUrl(path));
+		status.setHttpType(CommBaseStatus.CommType.HttpGet);
+		return status;
+	}
+
+	/**
+	 * @param count Element count.
+	 * @return Response body of /json.
+	 */
+	public byte[] getJson(int count) throws IOException {
+		String key = "json/" + count;
+		byte[] payload = _payloads.get(key);
+		if (null == payload) {
+			payload = Payloads.createJson(count);
+			_payloads.put(key, payload);
+		}
+		return payload;
+	}
+
+	/**
+	 * @param size Width and height.
+	 * @param format Image format.
+	 * @return Response body of /image.
+	 */
+	public byte[] getImage(int size, String format) throws IOException {
+		String key = "image/" + format + "/" + size;
+		byte[] payload = _payloads.get(key);
+		if (null == payload) {
+			payload = Payloads.createImage(size, format);
+			_payloads.put(key, payload);
+		}
+		return payload;
+	}
+
+	/**
+	 * @param size Byte count.
+	 * @return Response body of /file.
+	 */
+	public byte[] getFile(int size) {
+		String key = "file/" + size;
+		byte[] payload = _payloads.get(key);
+		if (null == payload) {
+			payload = new byte[size];
+			for (int i = 0; i < size; ++i) {
+				payload[i] = (byte) (i * 31 + i / 251);
+			}
+			_payloads.put(key, payload);
+		}
+		return payload;
+	}
+
+	private void respondFlaky(HttpExchange exchange, String key, int fail_count, int status_code, int delay)
+			throws IOException {
+		key = (null == key) ? "" : key;
+		AtomicInteger count = _flaky_counts.get(key);
+		if (null == count) {
+			AtomicInteger new_count = new AtomicInteger();
+			count = _flaky_counts.putIfAbsent(key, new_count);
+			if (null == count) {
+				count = new_count;
+			}
+		}
+		int index = count.getAndIncrement();
+		if (0 == index && delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (index >= fail_count) {
+			respond(exchange, "application/json",
+					"{\"id\":1,\"name\":\"flaky\",\"score\":1.5,\"active\":true}".getBytes("UTF-8"));
+			return;
+		}
+		try {
+			readFully(exchange.getRequestBody());
+			countRequest(exchange);
+			exchange.sendResponseHeaders(status_code, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void respondCached(HttpExchange exchange, int count, CommCodec codec, int max_age) throws IOException {
+		String key = "cached/" + codec.getContentType() + "/" + count;
+		byte[] body = _payloads.get(key);
+		if (null == body) {
+			body = codec.encode(Payloads.createItems(count));
+			_payloads.put(key, body);
+		}
+		String etag = "\"" + Integer.toHexString(key.hashCode()) + "\"";
+		exchange.getResponseHeaders().set("ETag", etag);
+		exchange.getResponseHeaders().set("Cache-Control", (max_age > 0) ? "max-age=" + max_age : "no-cache");
+		if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+			try {
+				readFully(exchange.getRequestBody());
+				countRequest(exchange);
+				exchange.sendResponseHeaders(304, -1);
+			} finally {
+				exchange.close();
+			}
+			return;
+		}
+		respond(exchange, codec.getContentType(), body);
+	}
+
+	private void respondFile(HttpExchange exchange, int size) throws IOException {
+		try {
+			readFully(exchange.getRequestBody());
+			countRequest(exchange);
+			byte[] body = getFile(size);
+			String etag = "\"file-" + size + "\"";
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			String if_range = exchange.getRequestHeaders().getFirst("If-Range");
+			_file_ranges.add((null == range) ? "" : range);
+			exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+			exchange.getResponseHeaders().set("ETag", etag);
+			exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+			int start = 0;
+			int end = size - 1;
+			int status_code = 200;
+			if (null != range && range.startsWith("bytes=") && (null == if_range || etag.equals(if_range))) {
+				String[] positions = range.substring(6).split("-", -1);
+				start = Integer.parseInt(positions[0]);
+				if (!positions[1].isEmpty()) {
+					end = Math.min(Integer.parseInt(positions[1]), size - 1);
+				}
+				if (start >= size) {
+					exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+					exchange.sendResponseHeaders(416, -1);
+					return;
+				}
+				exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+				status_code = 206;
+			}
+			int length = end + 1 - start;
+			exchange.sendResponseHeaders(status_code, (0 == length) ? -1 : length);
+			long break_length = _file_break_length.getAndSet(-1);
+			OutputStream output_stream = exchange.getResponseBody();
+			if (break_length >= 0 && break_length < length) {
+				output_stream.write(body, start, (int) break_length);
+				output_stream.flush();
+				return;	// Closing exchange with missing bytes closes connection.
+			}
+			output_stream.write(body, start, length);
+			output_stream.close();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void respond(HttpExchange exchange, String content_type, byte[] body) throws IOException {
+		try {
+			readFully(exchange.getRequestBody());
+			countRequest(exchange);
+			exchange.getResponseHeaders().set("Content-Type", content_type);
+			exchange.sendResponseHeaders(200, (0 == body.length) ? -1 : body.length);
+			OutputStream output_stream = exchange.getResponseBody();
+			output_stream.write(body);
+			output_stream.close();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void countRequest(HttpExchange exchange) {
+		String path = exchange.getRequestURI().getPath();
+		AtomicInteger count = _request_counts.get(path);
+		if (null == count) {
+			AtomicInteger new_count = new AtomicInteger();
+			count = _request_counts.putIfAbsent(path, new_count);
+			if (null == count) {
+				count = new_count;
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	private static byte[] readFully(InputStream input_stream) throws IOException {
+		ByteArrayOutputStream output_stream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = input_stream.read(buffer)) != -1) {
+			output_stream.write(buffer, 0, count);
+		}
+		return output_stream.toByteArray();
+	}
+
+	private static Map<String, String> getParams(HttpExchange exchange) {
+		Map<String, String> params = new HashMap<>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if (null == query) {
+			return params;
+		}
+		for (String pair : query.split("&")) {
+			int index = pair.indexOf('=');
+			if (index > 0) {
+				params.put(pair.substring(0, index), pair.substring(index + 1));
+			}
+		}
+		return params;
+	}
+
+	private static int getIntParam(HttpExchange exchange, String name, int default_value) {
+		String value = getParams(exchange).get(name);
+		return (null == value) ? default_value : Integer.parseInt(value);
+	}
+
+}
@@ -0,0 +1,115 @@
+package webservice.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import webservice.CommAdaptiveLimiter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * CommAdaptiveLimiter increases limit by 1 / limit per good sample, decreases it by backoff ratio at most once
+ * per limit samples, and keeps tasks over the limit queued.
+ */
+public class AdaptiveLimiterTest {
+
+	private static final String HOST = "host";
+	private static final long LATENCY = 10000000;
+
+	/**
+	 * Backing executor that keeps started tasks until the test runs them.
+	 */
+	private static class HoldingExecutor implements Executor {
+		final List<Runnable> _tasks = new ArrayList<>();
+
+		@Override
+		public void execute(Runnable runnable) {
+			_tasks.add(runnable);
+		}
+	}
+
+	@Test
+	public void limitIncreasesAdditively() {
+		CommAdaptiveLimiter limiter = new CommAdaptiveLimiter(4, 1, 6);
+		// 4 + 1 / 4 + 1 / 4.25 + ... reaches 5 by the fifth sample.
+		for (int i = 0; i < 5; ++i) {
+			assertEquals(4, limiter.getLimit(HOST));
+			limiter.onSample(HOST, LATENCY, false);
+		}
+		assertEquals(5, limiter.getLimit(HOST));
+		for (int i = 0; i < 100; ++i) {
+			limiter.onSample(HOST, LATENCY, false);
+		}
+		assertEquals(6, limiter.getLimit(HOST));
+	}
+
+	@Test
+	public void limitDecreasesOncePerRound() {
+		CommAdaptiveLimiter limiter = new CommAdaptiveLimiter(8, 1, 8);
+		for (int i = 0; i < 8; ++i) {
+			limiter.onSample(HOST, LATENCY, false);
+		}
+		assertEquals(8, limiter.getLimit(HOST));
+
+		// Latency over baseline by tolerance is congestion.
+		limiter.onSample(HOST, LATENCY * 3, false);
+		assertEquals(6, limiter.getLimit(HOST));
+		for (int i = 0; i < 5; ++i) {
+			limiter.onSample(HOST, -1, true);
+			assertEquals(6, limiter.getLimit(HOST));
+		}
+		limiter.onSample(HOST, -1, true);
+		assertEquals(4, limiter.getLimit(HOST));
+	}
+
+	@Test
+	public void limitKeepsMinimum() {
+		CommAdaptiveLimiter limiter = new CommAdaptiveLimiter(2, 2, 8);
+		for (int i = 0; i < 20; ++i) {
+			limiter.onSample(HOST, -1, true);
+		}
+		assertEquals(2, limiter.getLimit(HOST));
+	}
+
+	@Test
+	public void tasksOverLimitWait() {
+		CommAdaptiveLimiter limiter = new CommAdaptiveLimiter(2, 1, 8);
+		HoldingExecutor executor = new HoldingExecutor();
+		Executor limited = limiter.wrap(HOST, executor);
+		final List<Integer> finished = new ArrayList<>();
+		for (int i = 0; i < 4; ++i) {
+			final int index = i;
+			limited.execute(new Runnable() {
+				@Override
+				public void run() {
+					finished.add(index);
+				}
+			});
+		}
+		assertEquals(2, executor._tasks.size());
+		assertEquals(2, limiter.getRunningCount(HOST));
+		assertEquals(2, limiter.getQueueDepth(HOST));
+
+		executor._tasks.get(0).run();
+		assertEquals(3, executor._tasks.size());
+		assertEquals(2, limiter.getRunningCount(HOST));
+		assertEquals(1, limiter.getQueueDepth(HOST));
+
+		// Increased limit starts queued task.
+		for (int i = 0; i < 3; ++i) {
+			limiter.onSample(HOST, LATENCY, false);
+		}
+		assertEquals(3, limiter.getLimit(HOST));
+		assertEquals(4, executor._tasks.size());
+		assertEquals(0, limiter.getQueueDepth(HOST));
+
+		for (int i = 1; i < 4; ++i) {
+			executor._tasks.get(i).run();
+		}
+		assertEquals(0, limiter.getRunningCount(HOST));
+		assertEquals(4, finished.size());
+	}
+
+}
@@ -0,0 +1,109 @@
+package webservice.benchmark;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import org.junit.Test;
+import webservice.CommCborCodec;
+import webservice.CommJsonCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * CommCborCodec decodes what it encodes, integers keep every digit up to bignums, and decoder accepts
+ * indefinite length items and half floats.
+ */
+public class CborCodecTest {
+
+	private static final TypeToken<List<BenchmarkItem>> ITEM_LIST_TYPE = new TypeToken<List<BenchmarkItem>>() {
+	};
+	private static final TypeToken<List<BigInteger>> INTEGER_LIST_TYPE = new TypeToken<List<BigInteger>>() {
+	};
+	private static final TypeToken<List<Double>> DOUBLE_LIST_TYPE = new TypeToken<List<Double>>() {
+	};
+	private static final BigInteger TWO_64 = BigInteger.ONE.shiftLeft(64);
+
+	@Test
+	public void itemsRoundTrip() throws Exception {
+		List<BenchmarkItem> items = Payloads.createItems(100);
+		List<BenchmarkItem> decoded = decode(CommCborCodec.INSTANCE.encode(items), ITEM_LIST_TYPE);
+		assertArrayEquals(CommJsonCodec.INSTANCE.encode(items), CommJsonCodec.INSTANCE.encode(decoded));
+	}
+
+	@Test
+	public void integersRoundTrip() throws Exception {
+		List<BigInteger> values = Arrays.asList(BigInteger.ZERO, BigInteger.valueOf(23), BigInteger.valueOf(24),
+				BigInteger.valueOf(-24), BigInteger.valueOf(-25), BigInteger.valueOf(0xffffffffL),
+				BigInteger.valueOf(0x100000000L), BigInteger.valueOf(Long.MAX_VALUE),
+				BigInteger.valueOf(Long.MIN_VALUE), BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE),
+				TWO_64.subtract(BigInteger.ONE), TWO_64.negate(), TWO_64, TWO_64.negate().subtract(BigInteger.ONE),
+				BigInteger.ONE.shiftLeft(100).add(BigInteger.valueOf(12345)), BigInteger.ONE.shiftLeft(100).negate());
+		assertEquals(values, decode(CommCborCodec.INSTANCE.encode(values), INTEGER_LIST_TYPE));
+	}
+
+	@Test
+	public void integersOf64BitsUseFullArgument() throws Exception {
+		assertArrayEquals(bytes(0x81, 0x1b, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff),
+				encodeOne(TWO_64.subtract(BigInteger.ONE)));
+		assertArrayEquals(bytes(0x81, 0x3b, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff),
+				encodeOne(TWO_64.negate()));
+		assertArrayEquals(bytes(0x81, 0x1b, 0x80, 0, 0, 0, 0, 0, 0, 0),
+				encodeOne(BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE)));
+		assertArrayEquals(bytes(0x81, 0x3b, 0x7f, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff),
+				encodeOne(BigInteger.valueOf(Long.MIN_VALUE)));
+	}
+
+	@Test
+	public void largeIntegersAreBignums() throws Exception {
+		assertArrayEquals(bytes(0x81, 0xc2, 0x49, 0x01, 0, 0, 0, 0, 0, 0, 0, 0), encodeOne(TWO_64));
+		assertArrayEquals(bytes(0x81, 0xc3, 0x49, 0x01, 0, 0, 0, 0, 0, 0, 0, 0),
+				encodeOne(TWO_64.negate().subtract(BigInteger.ONE)));
+	}
+
+	@Test
+	public void lazilyParsedIntegersKeepDigits() throws Exception {
+		String json = "[18446744073709551615,-18446744073709551616,36893488147419103232]";
+		byte[] data = CommCborCodec.INSTANCE.encode(JsonParser.parseString(json));
+		assertEquals(Arrays.asList(TWO_64.subtract(BigInteger.ONE), TWO_64.negate(), TWO_64.shiftLeft(1)),
+				decode(data, INTEGER_LIST_TYPE));
+	}
+
+	@Test
+	public void floatsUseSmallestExactSize() throws Exception {
+		assertArrayEquals(bytes(0x81, 0xfa, 0x3f, 0xc0, 0, 0), encodeOne(1.5));
+		assertEquals(10, encodeOne(0.1).length);
+		List<Double> values = Arrays.asList(1.5, 0.1, -1e300, 3.0);
+		assertEquals(values, decode(CommCborCodec.INSTANCE.encode(values), DOUBLE_LIST_TYPE));
+	}
+
+	@Test
+	public void decodesIndefiniteItemsAndHalfFloats() throws Exception {
+		// [_ 1, 1.0 (half), -2.5 (half)]
+		byte[] data = bytes(0x9f, 0x01, 0xf9, 0x3c, 0x00, 0xf9, 0xc1, 0x00, 0xff);
+		assertEquals(Arrays.asList(1.0, 1.0, -2.5), decode(data, DOUBLE_LIST_TYPE));
+	}
+
+	private static byte[] encodeOne(Object value) throws IOException {
+		return CommCborCodec.INSTANCE.encode(Collections.singletonList(value));
+	}
+
+	private static <T> T decode(byte[] data, TypeToken<T> type_token) throws IOException {
+		return CommCborCodec.INSTANCE.decode(new ByteArrayInputStream(data), type_token);
+	}
+
+	private static byte[] bytes(int... values) {
+		byte[] data = new byte[values.length];
+		for (int i = 0; i < values.length; ++i) {
+			data[i] = (byte) values[i];
+		}
+		return data;
+	}
+
+}
@@ -0,0 +1,142 @@
+package webservice.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gson.reflect.TypeToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import webservice.CommChainManager;
+import webservice.CommRequestJsonMsg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * CommChainManager in DAG mode rejects cycles before any request runs, skips requests whose REQUIRE_SUCCESS
+ * prerequisite fails, also transitively, and runs REQUIRE_COMPLETE dependents after their prerequisite.
+ */
+public class ChainManagerDagTest {
+
+	private static final TypeToken<List<BenchmarkItem>> ITEM_LIST_TYPE = new TypeToken<List<BenchmarkItem>>() {
+	};
+
+	private StubServer _server;
+	/**
+	 * Callback results in completion order, like "name:ok" or "name:fail message".
+	 */
+	private final List<String> _results = Collections.synchronizedList(new ArrayList<String>());
+
+	@Before
+	public void setUp() throws Exception {
+		_server = StubServer.start();
+	}
+
+	@After
+	public void tearDown() {
+		_server.stop();
+	}
+
+	@Test
+	public void cycleIsRejectedBeforeRun() {
+		CommChainManager chain = new CommChainManager();
+		chain.setMode(CommChainManager.MODE.DAG);
+		CommRequestJsonMsg<List<BenchmarkItem>> a = createRequest("a", "/json?count=1");
+		CommRequestJsonMsg<List<BenchmarkItem>> b = createRequest("b", "/json?count=2");
+		CommRequestJsonMsg<List<BenchmarkItem>> c = createRequest("c", "/json?count=3");
+		chain.addRequest(a);
+		chain.addRequest(b);
+		chain.addRequest(c);
+		chain.addDependency(b, a);
+		chain.addDependency(c, b);
+		chain.addDependency(a, c, CommChainManager.EdgePolicy.REQUIRE_COMPLETE);
+		try {
+			chain.runRequestChain();
+			fail("Cycle must be rejected");
+		} catch (IllegalStateException e) {
+			assertEquals(0, _server.getRequestCount("/json"));
+		}
+	}
+
+	@Test
+	public void prerequisiteMustBeInChain() {
+		CommChainManager chain = new CommChainManager();
+		chain.setMode(CommChainManager.MODE.DAG);
+		CommRequestJsonMsg<List<BenchmarkItem>> a = createRequest("a", "/json?count=1");
+		chain.addRequest(a);
+		chain.addDependency(a, createRequest("b", "/json?count=2"));
+		try {
+			chain.runRequestChain();
+			fail("Prerequisite out of chain must be rejected");
+		} catch (IllegalStateException e) {
+			assertEquals(0, _server.getRequestCount("/json"));
+		}
+	}
+
+	@Test
+	public void failureBlocksRequiredDependents() throws Exception {
+		final MainThread.Completion completion = new MainThread.Completion();
+		MainThread.post(new Runnable() {
+			@Override
+			public void run() {
+				CommChainManager chain = new CommChainManager();
+				chain.setMode(CommChainManager.MODE.DAG);
+				CommRequestJsonMsg<List<BenchmarkItem>> failed = createRequest("failed", "/missing");
+				CommRequestJsonMsg<List<BenchmarkItem>> blocked = createRequest("blocked", "/json?count=1");
+				CommRequestJsonMsg<List<BenchmarkItem>> indirect = createRequest("indirect", "/json?count=2");
+				CommRequestJsonMsg<List<BenchmarkItem>> after = createRequest("after", "/json?count=3");
+				CommRequestJsonMsg<List<BenchmarkItem>> free = createRequest("free", "/json?count=4");
+				chain.addRequest(indirect);
+				chain.addRequest(blocked);
+				chain.addRequest(after);
+				chain.addRequest(failed);
+				chain.addRequest(free);
+				chain.addDependency(blocked, failed);
+				chain.addDependency(indirect, blocked);
+				chain.addDependency(after, failed, CommChainManager.EdgePolicy.REQUIRE_COMPLETE);
+				chain.addRequestChainCompleteNotify(new CommChainManager.OnRequestChainComplete() {
+					@Override
+					public void onRequestChainComplete(boolean is_success) {
+						completion.complete(true, is_success, null);
+					}
+				});
+				chain.runRequestChain();
+			}
+		});
+		assertFalse((Boolean) completion.await());
+
+		assertEquals(5, _results.size());
+		assertEquals(2, _server.getRequestCount("/json"));
+		List<String> failed_results = new ArrayList<>();
+		for (String result : _results) {
+			if (!result.endsWith(":ok")) {
+				failed_results.add(result);
+			}
+		}
+		assertEquals(Arrays.asList("blocked:Prerequisite request failed", "indirect:Prerequisite request failed"),
+				failed_results.subList(1, 3));
+		assertTrue(failed_results.get(0).startsWith("failed:"));
+		assertTrue(_results.indexOf("after:ok") > _results.indexOf(failed_results.get(0)));
+		assertTrue(_results.contains("free:ok"));
+	}
+
+	private CommRequestJsonMsg<List<BenchmarkItem>> createRequest(final String name, String path) {
+		return new CommRequestJsonMsg<>(new CommRequestJsonMsg.RequestJsonMsgCallback<List<BenchmarkItem>>() {
+			@Override
+			public void onRequestDataSuccess(List<BenchmarkItem> return_data) {
+				_results.add(name + ":ok");
+			}
+
+			@Override
+			public void onRequestDataFailed(String fail_msg) {
+				_results.add(name + ":" + fail_msg);
+			}
+		}, ITEM_LIST_TYPE, _server.getStatus(path));
+	}
+
+}
@@ -0,0 +1,104 @@
+package webservice.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.reflect.TypeToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import webservice.CommChainManager;
+import webservice.CommRequestJsonMsg;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CommChainManager runs at most setMaxInFlight() requests at the same time in OVERALL and DAG modes, so
+ * wall-clock time of a chain to a slow server scales with the limit.
+ */
+public class ChainManagerInFlightTest {
+
+	private static final int REQUEST_COUNT = 12;
+	/**
+	 * Response delay of server. (millisecond)
+	 */
+	private static final int SERVER_DELAY = 200;
+
+	private StubServer _server;
+	private int _sequence = 0;
+
+	@Before
+	public void setUp() throws Exception {
+		_server = StubServer.start();
+	}
+
+	@After
+	public void tearDown() {
+		_server.stop();
+	}
+
+	@Test
+	public void overallTimeScalesWithLimit() throws Exception {
+		checkTimeScalesWithLimit(CommChainManager.MODE.OVERALL);
+	}
+
+	@Test
+	public void dagTimeScalesWithLimit() throws Exception {
+		checkTimeScalesWithLimit(CommChainManager.MODE.DAG);
+	}
+
+	private void checkTimeScalesWithLimit(CommChainManager.MODE mode) throws Exception {
+		runChain(mode, REQUEST_COUNT);	// Warm up connections and classes.
+		for (int max_in_flight : new int[] { 1, 3, REQUEST_COUNT }) {
+			_server.resetSlowMaxRunningCount();
+			long elapsed_time = runChain(mode, max_in_flight);
+
+			int round_count = (REQUEST_COUNT + max_in_flight - 1) / max_in_flight;
+			long min_time = round_count * SERVER_DELAY;
+			String msg = mode + " max_in_flight=" + max_in_flight + " elapsed=" + elapsed_time + "ms";
+			assertEquals(msg, max_in_flight, _server.getSlowMaxRunningCount());
+			assertTrue(msg, elapsed_time >= min_time);
+			assertTrue(msg, elapsed_time < min_time + min_time / 2 + 500);
+		}
+	}
+
+	/**
+	 * Run chain of REQUEST_COUNT requests without dependencies to /slow.
+	 * @return Wall-clock time. (millisecond)
+	 */
+	private long runChain(final CommChainManager.MODE mode, final int max_in_flight) throws Exception {
+		final MainThread.Completion completion = new MainThread.Completion();
+		final long start_time = System.nanoTime();
+		MainThread.post(new Runnable() {
+			@Override
+			public void run() {
+				CommChainManager chain = new CommChainManager();
+				chain.setMode(mode);
+				chain.setMaxInFlight(max_in_flight);
+				for (int i = 0; i < REQUEST_COUNT; ++i) {
+					chain.addRequest(new CommRequestJsonMsg<>(
+							new CommRequestJsonMsg.RequestJsonMsgCallback<BenchmarkItem>() {
+								@Override
+								public void onRequestDataSuccess(BenchmarkItem return_data) {
+								}
+
+								@Override
+								public void onRequestDataFailed(String fail_msg) {
+								}
+							}, new TypeToken<BenchmarkItem>() {
+							}, _server.getStatus("/slow?delay=" + SERVER_DELAY + "&n=" + (++_sequence))));
+				}
+				chain.addRequestChainCompleteNotify(new CommChainManager.OnRequestChainComplete() {
+					@Override
+					public void onRequestChainComplete(boolean is_success) {
+						completion.complete(is_success, null, "Chain failed");
+					}
+				});
+				chain.runRequestChain();
+			}
+		});
+		completion.await();
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start_time);
+	}
+
+}
@@ -0,0 +1,118 @@
+package webservice.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import webservice.CommCircuitBreaker;
+
+/**
+ * CommCircuitBreaker opens by failure or slow call rate of window, probes after open duration, and closes only
+ * if all probes succeed.
+ */
+public class CircuitBreakerTest {
+
+	private static final String HOST = "host";
+	private static final long OPEN_DURATION = 100;
+
+	private CommCircuitBreaker _breaker;
+
+	@Before
+	public void setUp() {
+		_breaker = new CommCircuitBreaker();
+		_breaker.setWindow(4, 4);
+		_breaker.setFailureRateThreshold(0.5);
+		_breaker.setSlowCallRateThreshold(1.0, 1000);
+		_breaker.setOpenDuration(OPEN_DURATION);
+		_breaker.setProbeCount(2);
+	}
+
+	@Test
+	public void opensByFailureRate() {
+		_breaker.onResult(HOST, true, 0);
+		_breaker.onResult(HOST, true, 0);
+		_breaker.onResult(HOST, true, 0);
+		// Rate is not checked before minimum calls.
+		assertEquals(CommCircuitBreaker.State.CLOSED, _breaker.getState(HOST));
+		_breaker.onResult(HOST, false, 0);
+		assertEquals(CommCircuitBreaker.State.OPEN, _breaker.getState(HOST));
+		assertFalse(_breaker.tryAcquire(HOST));
+		assertEquals(CommCircuitBreaker.State.CLOSED, _breaker.getState("other"));
+		assertTrue(_breaker.tryAcquire("other"));
+	}
+
+	@Test
+	public void staysClosedBelowFailureRate() {
+		for (int i = 0; i < 10; ++i) {
+			_breaker.onResult(HOST, 0 == i % 4, 0);
+			assertEquals(CommCircuitBreaker.State.CLOSED, _breaker.getState(HOST));
+		}
+		assertTrue(_breaker.tryAcquire(HOST));
+	}
+
+	@Test
+	public void opensBySlowCallRate() {
+		for (int i = 0; i < 3; ++i) {
+			_breaker.onResult(HOST, false, 1000);
+		}
+		_breaker.onResult(HOST, false, 999);
+		assertEquals(CommCircuitBreaker.State.CLOSED, _breaker.getState(HOST));
+		for (int i = 0; i < 4; ++i) {
+			_breaker.onResult(HOST, false, 1000);
+		}
+		assertEquals(CommCircuitBreaker.State.OPEN, _breaker.getState(HOST));
+	}
+
+	@Test
+	public void closesWhenAllProbesSucceed() throws Exception {
+		open();
+		Thread.sleep(OPEN_DURATION + 20);
+		assertTrue(_breaker.tryAcquire(HOST));
+		assertEquals(CommCircuitBreaker.State.HALF_OPEN, _breaker.getState(HOST));
+		assertTrue(_breaker.tryAcquire(HOST));
+		assertFalse(_breaker.tryAcquire(HOST));
+
+		_breaker.onResult(HOST, false, 0);
+		assertEquals(CommCircuitBreaker.State.HALF_OPEN, _breaker.getState(HOST));
+		_breaker.onResult(HOST, false, 0);
+		assertEquals(CommCircuitBreaker.State.CLOSED, _breaker.getState(HOST));
+
+		// Window starts again after closing.
+		_breaker.onResult(HOST, true, 0);
+		_breaker.onResult(HOST, true, 0);
+		_breaker.onResult(HOST, true, 0);
+		assertEquals(CommCircuitBreaker.State.CLOSED, _breaker.getState(HOST));
+	}
+
+	@Test
+	public void reopensWhenProbeFails() throws Exception {
+		open();
+		Thread.sleep(OPEN_DURATION + 20);
+		assertTrue(_breaker.tryAcquire(HOST));
+		_breaker.onResult(HOST, true, 0);
+		assertEquals(CommCircuitBreaker.State.OPEN, _breaker.getState(HOST));
+		assertFalse(_breaker.tryAcquire(HOST));
+	}
+
+	@Test
+	public void lostProbesAreAllowedAgain() throws Exception {
+		open();
+		Thread.sleep(OPEN_DURATION + 20);
+		assertTrue(_breaker.tryAcquire(HOST));
+		assertTrue(_breaker.tryAcquire(HOST));
+		assertFalse(_breaker.tryAcquire(HOST));
+		Thread.sleep(OPEN_DURATION + 20);
+		assertTrue(_breaker.tryAcquire(HOST));
+		assertEquals(CommCircuitBreaker.State.HALF_OPEN, _breaker.getState(HOST));
+	}
+
+	private void open() {
+		for (int i = 0; i < 4; ++i) {
+			_breaker.onResult(HOST, true, 0);
+		}
+		assertEquals(CommCircuitBreaker.State.OPEN, _breaker.getState(HOST));
+	}
+
+}
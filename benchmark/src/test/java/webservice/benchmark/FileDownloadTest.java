@@ -0,0 +1,113 @@
+package webservice.benchmark;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+import android.os.AsyncTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import webservice.CommRequestDownloadFile;
+import webservice.task.CommFileDownload;
+import webservice.task.CommHttpTransport;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CommFileDownload resumes broken download by Range request, completes empty resource answered by 416, and
+ * fails by deadline.
+ */
+public class FileDownloadTest {
+
+	private static final int FILE_SIZE = 1024 * 1024;
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private StubServer _server;
+
+	@Before
+	public void setUp() throws Exception {
+		_server = StubServer.start();
+	}
+
+	@After
+	public void tearDown() {
+		_server.stop();
+	}
+
+	@Test
+	public void brokenDownloadResumesByRange() throws Exception {
+		File file = new File(_folder.getRoot(), "resume.bin");
+		String url = _server.getUrl("/file?size=" + FILE_SIZE);
+		_server.breakNextFile(FILE_SIZE / 3);
+		try {
+			new CommFileDownload(url, file).execute();
+			fail("Broken connection must fail download");
+		} catch (IOException e) {
+			// Partial data is kept.
+		}
+		assertFalse(file.exists());
+
+		new CommFileDownload(url, file).execute();
+		assertArrayEquals(_server.getFile(FILE_SIZE), Files.readAllBytes(file.toPath()));
+		assertFalse(new File(file.getPath() + ".part").exists());
+		assertFalse(new File(file.getPath() + ".meta").exists());
+
+		List<String> ranges = _server.getFileRanges();
+		assertEquals(2, ranges.size());
+		assertEquals("bytes=0-", ranges.get(0));
+		assertEquals("bytes=" + (FILE_SIZE / 3) + "-" + (FILE_SIZE - 1), ranges.get(1));
+	}
+
+	@Test
+	public void segmentsDownloadWholeFile() throws Exception {
+		File file = new File(_folder.getRoot(), "segments.bin");
+		CommFileDownload download = new CommFileDownload(_server.getUrl("/file?size=" + FILE_SIZE), file);
+		download.setSegmentCount(4, FILE_SIZE / 4);
+		download.execute();
+		assertArrayEquals(_server.getFile(FILE_SIZE), Files.readAllBytes(file.toPath()));
+		assertEquals(4, _server.getFileRanges().size());
+	}
+
+	@Test
+	public void emptyResourceIsCompleteFile() throws Exception {
+		File file = new File(_folder.getRoot(), "empty.bin");
+		new CommFileDownload(_server.getUrl("/file?size=0"), file).execute();
+		assertEquals(0, file.length());
+		assertEquals(Arrays.asList("bytes=0-"), _server.getFileRanges());
+		assertFalse(new File(file.getPath() + ".part").exists());
+		assertFalse(new File(file.getPath() + ".meta").exists());
+	}
+
+	@Test
+	public void exceededDeadlineFails() throws Exception {
+		File file = new File(_folder.getRoot(), "deadline.bin");
+		CommFileDownload download = new CommFileDownload(_server.getUrl("/file?size=" + FILE_SIZE), file);
+		download.setDeadline(CommHttpTransport.currentTime());
+		try {
+			download.execute();
+			fail("Exceeded deadline must fail download");
+		} catch (SocketTimeoutException e) {
+			assertEquals(0, _server.getFileRanges().size());
+		}
+	}
+
+	@Test
+	public void requestDoesNotUseSerialExecutor() {
+		CommRequestDownloadFile request = new CommRequestDownloadFile(_server.getUrl("/file"),
+				new File(_folder.getRoot(), "executor.bin"), null);
+		assertNotSame(AsyncTask.SERIAL_EXECUTOR, request.getExecutor());
+	}
+
+}
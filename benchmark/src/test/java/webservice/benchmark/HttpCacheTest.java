@@ -0,0 +1,117 @@
+package webservice.benchmark;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.google.gson.reflect.TypeToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import webservice.CommBaseStatus;
+import webservice.CommCborCodec;
+import webservice.CommCodec;
+import webservice.CommHttpCache;
+import webservice.CommJsonCodec;
+import webservice.CommRequestJsonMsg;
+
+import java.util.List;
+
+/**
+ * CommHttpCache serves fresh entries without connection, revalidates stale entries by ETag and 304, and replays
+ * stored body with its Content-Type. Entries and coalesce keys depend on Accept of codec.
+ */
+public class HttpCacheTest {
+
+	private static final TypeToken<List<BenchmarkItem>> ITEM_LIST_TYPE = new TypeToken<List<BenchmarkItem>>() {
+	};
+	private static final int ITEM_COUNT = 20;
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private StubServer _server;
+	private CommHttpCache _cache;
+
+	@Before
+	public void setUp() throws Exception {
+		_server = StubServer.start();
+		_cache = new CommHttpCache(_folder.newFolder("cache"), 1024 * 1024);
+	}
+
+	@After
+	public void tearDown() {
+		_server.stop();
+	}
+
+	@Test
+	public void staleEntryIsRevalidatedByETag() throws Exception {
+		String path = "/cached?count=" + ITEM_COUNT;
+		checkItems(request(path, null, CommBaseStatus.CachePolicy.ALWAYS_REVALIDATE));
+		checkItems(request(path, null, CommBaseStatus.CachePolicy.ALWAYS_REVALIDATE));
+		assertEquals(1, _cache.getMissCount());
+		assertEquals(1, _cache.getConditionalHitCount());
+		assertEquals(0, _cache.getHitCount());
+		assertEquals(2, _server.getRequestCount("/cached"));
+	}
+
+	@Test
+	public void freshEntryIsServedWithoutConnection() throws Exception {
+		String path = "/cached?count=" + ITEM_COUNT + "&max_age=60";
+		checkItems(request(path, null, CommBaseStatus.CachePolicy.USE_HEADERS));
+		checkItems(request(path, null, CommBaseStatus.CachePolicy.USE_HEADERS));
+		assertEquals(1, _cache.getMissCount());
+		assertEquals(1, _cache.getHitCount());
+		assertEquals(1, _server.getRequestCount("/cached"));
+	}
+
+	@Test
+	public void cachedBodyIsDecodedByItsContentType() throws Exception {
+		String fresh_path = "/cached?count=" + ITEM_COUNT + "&format=cbor&max_age=60";
+		checkItems(request(fresh_path, null, CommBaseStatus.CachePolicy.USE_HEADERS));
+		checkItems(request(fresh_path, null, CommBaseStatus.CachePolicy.USE_HEADERS));
+
+		String stale_path = "/cached?count=" + ITEM_COUNT + "&format=cbor";
+		checkItems(request(stale_path, null, CommBaseStatus.CachePolicy.ALWAYS_REVALIDATE));
+		checkItems(request(stale_path, null, CommBaseStatus.CachePolicy.ALWAYS_REVALIDATE));
+		assertEquals(1, _cache.getHitCount());
+		assertEquals(1, _cache.getConditionalHitCount());
+	}
+
+	@Test
+	public void entriesAreKeptByAcceptOfCodec() throws Exception {
+		String path = "/cached?count=" + ITEM_COUNT + "&max_age=60";
+		checkItems(request(path, null, CommBaseStatus.CachePolicy.USE_HEADERS));
+		checkItems(request(path, CommCborCodec.INSTANCE, CommBaseStatus.CachePolicy.USE_HEADERS));
+		assertEquals(2, _cache.getMissCount());
+		assertEquals(0, _cache.getHitCount());
+	}
+
+	@Test
+	public void coalesceKeyDependsOnAcceptOfCodec() {
+		String path = "/cached?count=" + ITEM_COUNT;
+		CommBaseStatus json_status = _server.getStatus(path);
+		CommBaseStatus cbor_status = _server.getStatus(path);
+		cbor_status.setCodec(CommCborCodec.INSTANCE);
+		CommBaseStatus other_cbor_status = _server.getStatus(path);
+		other_cbor_status.setCodec(CommCborCodec.INSTANCE);
+		assertNotEquals(json_status.getCoalesceKey(), cbor_status.getCoalesceKey());
+		assertEquals(cbor_status.getCoalesceKey(), other_cbor_status.getCoalesceKey());
+	}
+
+	private List<BenchmarkItem> request(String path, CommCodec codec, CommBaseStatus.CachePolicy policy)
+			throws Exception {
+		CommBaseStatus status = _server.getStatus(path);
+		status.setCodec(codec);
+		status.setResponseCache(_cache, policy);
+		return new CommRequestJsonMsg<>(null, ITEM_LIST_TYPE, status).requestAsync(MainThread.DIRECT_EXECUTOR).get();
+	}
+
+	private static void checkItems(List<BenchmarkItem> items) throws Exception {
+		assertArrayEquals(CommJsonCodec.INSTANCE.encode(Payloads.createItems(ITEM_COUNT)),
+				CommJsonCodec.INSTANCE.encode(items));
+	}
+
+}
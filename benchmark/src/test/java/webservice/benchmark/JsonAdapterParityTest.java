@@ -0,0 +1,56 @@
+package webservice.benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.gson.reflect.TypeToken;
+import org.junit.Test;
+import webservice.CommGson;
+import webservice.CommJsonAdapterFactory;
+import webservice.CommJsonCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Adapter generated for CommJsonModel (BenchmarkModelItem) decodes and encodes the same JSON as reflective
+ * adapter of Gson (BenchmarkItem), including nulls, missing and unknown fields, and lenient values.
+ */
+public class JsonAdapterParityTest {
+
+	private static final TypeToken<List<BenchmarkModelItem>> MODEL_LIST_TYPE =
+			new TypeToken<List<BenchmarkModelItem>>() {
+			};
+	private static final TypeToken<List<BenchmarkItem>> ITEM_LIST_TYPE = new TypeToken<List<BenchmarkItem>>() {
+	};
+
+	@Test
+	public void generatedAdapterIsUsed() {
+		assertEquals(CommJsonAdapterFactory.getAdapterName(BenchmarkModelItem.class),
+				CommGson.getAdapter(TypeToken.get(BenchmarkModelItem.class)).getClass().getName());
+	}
+
+	@Test
+	public void payloadDecodesTheSame() throws Exception {
+		checkParity(Payloads.createJson(100));
+	}
+
+	@Test
+	public void edgeValuesDecodeTheSame() throws Exception {
+		String json = "[{}, null,"
+				+ "{\"id\":null,\"name\":null,\"score\":null,\"active\":null,\"counts\":null,\"tags\":null},"
+				+ "{\"id\":\"7\",\"name\":12.5,\"score\":\"1e3\",\"active\":\"true\",\"counts\":[],\"tags\":[null]},"
+				+ "{\"name\":false,\"extra\":{\"a\":[1,{\"b\":null}]},\"active\":true,\"id\":-9007199254740993},"
+				+ "{\"name\":\"\\u00e9\\ud83d\\ude00\",\"score\":-0.0,\"counts\":[1,-2],\"tags\":[\"x\",\"\"]}]";
+		checkParity(json.getBytes("UTF-8"));
+	}
+
+	private static void checkParity(byte[] json) throws IOException {
+		List<BenchmarkModelItem> models = CommJsonCodec.INSTANCE.decode(new ByteArrayInputStream(json),
+				MODEL_LIST_TYPE);
+		List<BenchmarkItem> items = CommJsonCodec.INSTANCE.decode(new ByteArrayInputStream(json), ITEM_LIST_TYPE);
+		assertEquals(new String(CommJsonCodec.INSTANCE.encode(items), "UTF-8"),
+				new String(CommJsonCodec.INSTANCE.encode(models), "UTF-8"));
+	}
+
+}
@@ -0,0 +1,103 @@
+package webservice.benchmark;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.gson.reflect.TypeToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import webservice.CommBaseStatus;
+import webservice.CommBodyWriter;
+import webservice.CommParamEncoder;
+import webservice.CommRequestJsonMsg;
+import webservice.task.CommHttpCall;
+
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CommParamEncoder encodes like URLEncoder in UTF-8, and a call builds request URL and body writer of status
+ * only once.
+ */
+public class ParamEncoderTest {
+
+	private static final TypeToken<List<BenchmarkItem>> ITEM_LIST_TYPE = new TypeToken<List<BenchmarkItem>>() {
+	};
+
+	private StubServer _server;
+
+	@Before
+	public void setUp() throws Exception {
+		_server = StubServer.start();
+	}
+
+	@After
+	public void tearDown() {
+		_server.stop();
+	}
+
+	@Test
+	public void encodesLikeUrlEncoder() throws Exception {
+		StringBuilder ascii = new StringBuilder();
+		for (char c = 0; c < 0x80; ++c) {
+			ascii.append(c);
+		}
+		String[] values = { "", ascii.toString(), "a b+c&d=e", "éß߿", "ࠀ日本￿",
+				"😀 x", "\ud83d", "x\ude00y" };
+		for (String value : values) {
+			StringBuilder builder = new StringBuilder();
+			CommParamEncoder.encode(value, builder);
+			assertEquals(value, URLEncoder.encode(value, "UTF-8"), builder.toString());
+		}
+	}
+
+	@Test
+	public void parametersAreJoined() throws Exception {
+		CommParamEncoder params = new CommParamEncoder();
+		assertEquals("http://host/path", params.appendTo("http://host/path"));
+		params.add("q", "a b").add("n", 12L).add("on", true).add("skip", (String) null).add("r", 1.5);
+		assertEquals("q=a+b&n=12&on=true&r=1.5", params.toString());
+		assertEquals("http://host/path?q=a+b&n=12&on=true&r=1.5", params.appendTo("http://host/path"));
+		assertEquals("http://host/path?x=1&q=a+b&n=12&on=true&r=1.5", params.appendTo("http://host/path?x=1"));
+		assertArrayEquals(params.toString().getBytes("US-ASCII"), params.toBytes());
+		assertEquals(CommParamEncoder.FORM_CONTENT_TYPE, params.toBodyWriter().getContentType());
+	}
+
+	@Test
+	public void callBuildsUrlOnce() throws Exception {
+		final AtomicInteger build_count = new AtomicInteger();
+		CommBaseStatus status = new CommBaseStatus() {
+			@Override
+			protected void addQueryParams(CommParamEncoder params) {
+				build_count.incrementAndGet();
+				params.add("count", 3);
+			}
+		};
+		status.setOriginalURL(_server.getUrl("/json"));
+		status.setHttpType(CommBaseStatus.CommType.HttpGet);
+		List<BenchmarkItem> items = new CommRequestJsonMsg<>(null, ITEM_LIST_TYPE, status)
+				.requestAsync(MainThread.DIRECT_EXECUTOR).get();
+		assertEquals(3, items.size());
+		assertEquals(1, build_count.get());
+	}
+
+	@Test
+	public void callCreatesBodyWriterOnce() throws Exception {
+		final AtomicInteger writer_count = new AtomicInteger();
+		CommBaseStatus status = new CommBaseStatus() {
+			@Override
+			public CommBodyWriter getBodyWriter() {
+				writer_count.incrementAndGet();
+				return new CommParamEncoder().add("name", "value").toBodyWriter();
+			}
+		};
+		status.setOriginalURL(_server.getUrl("/echo"));
+		status.setHttpType(CommBaseStatus.CommType.HttpPost);
+		assertEquals(200, new CommHttpCall(status).execute()._status_code);
+		assertEquals(1, writer_count.get());
+		assertEquals(1, _server.getRequestCount("/echo"));
+	}
+
+}
@@ -0,0 +1,73 @@
+package webservice.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import webservice.CommBaseRequest;
+import webservice.CommPriorityScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * CommPriorityScheduler removes a queued task only if its Future is cancelled, and never a started one.
+ */
+public class PrioritySchedulerTest {
+
+	/**
+	 * Backing executor that keeps dispatched tasks without running them, so they stay running.
+	 */
+	private static class HoldingExecutor implements Executor {
+		final List<Runnable> _tasks = new ArrayList<>();
+
+		@Override
+		public void execute(Runnable runnable) {
+			_tasks.add(runnable);
+		}
+	}
+
+	@Test
+	public void cancelledQueuedTaskIsRemoved() {
+		HoldingExecutor executor = new HoldingExecutor();
+		CommPriorityScheduler scheduler = new CommPriorityScheduler(executor, 1);
+		FutureTask<Void> running_task = createTask();
+		CommPriorityScheduler.Ticket running = scheduler.execute(running_task, CommBaseRequest.Priority.VISIBLE, null);
+		FutureTask<Void> cancelled_task = createTask();
+		CommPriorityScheduler.Ticket cancelled = scheduler.execute(cancelled_task, CommBaseRequest.Priority.VISIBLE,
+				"cancelled");
+		CommPriorityScheduler.Ticket shared = scheduler.execute(createTask(), CommBaseRequest.Priority.VISIBLE,
+				"shared");
+		assertEquals(2, scheduler.getQueuedCount());
+
+		assertFalse(shared.removeIfCancelled());
+		assertFalse(cancelled.removeIfCancelled());
+		cancelled_task.cancel(true);
+		assertTrue(cancelled.removeIfCancelled());
+		assertFalse(cancelled.removeIfCancelled());
+		assertEquals(1, scheduler.getQueuedCount());
+		assertNull(scheduler.findQueued("cancelled"));
+
+		// Priority change of removed task does not queue it again.
+		cancelled.setPriority(CommBaseRequest.Priority.IMMEDIATE);
+		assertEquals(1, scheduler.getQueuedCount());
+		assertEquals(1, executor._tasks.size());
+
+		assertTrue(running.isStarted());
+		running_task.cancel(true);
+		assertFalse(running.removeIfCancelled());
+	}
+
+	private static FutureTask<Void> createTask() {
+		return new FutureTask<>(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}, null);
+	}
+
+}
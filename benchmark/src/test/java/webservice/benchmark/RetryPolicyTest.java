@@ -0,0 +1,136 @@
+package webservice.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import webservice.CommBaseStatus;
+import webservice.CommRetryPolicy;
+import webservice.task.CommHttpCall;
+import webservice.task.CommHttpException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * CommRetryPolicy delays retries by capped exponential backoff, CommHttpCall retries failed attempts up to
+ * max attempts, retries Http/Post only for responses server did not process, and hedges a slow Http/Get.
+ */
+public class RetryPolicyTest {
+
+	private StubServer _server;
+	/**
+	 * Attempts reported to listener, like "1:503" or "2:200" and "h" suffix for hedged attempt.
+	 */
+	private final List<String> _attempts = Collections.synchronizedList(new ArrayList<String>());
+
+	@Before
+	public void setUp() throws Exception {
+		_server = StubServer.start();
+	}
+
+	@After
+	public void tearDown() {
+		_server.stop();
+	}
+
+	@Test
+	public void backoffGrowsExponentiallyUpToMax() {
+		CommRetryPolicy policy = new CommRetryPolicy();
+		policy.setBackoff(100, 1000);
+		policy.setJitter(0);
+		assertEquals(100, policy.getBackoffDelay(1));
+		assertEquals(200, policy.getBackoffDelay(2));
+		assertEquals(800, policy.getBackoffDelay(4));
+		assertEquals(1000, policy.getBackoffDelay(5));
+		assertEquals(1000, policy.getBackoffDelay(100));
+
+		policy.setJitter(0.5);
+		for (int i = 0; i < 100; ++i) {
+			long delay = policy.getBackoffDelay(1);
+			assertTrue(String.valueOf(delay), delay >= 50 && delay <= 100);
+		}
+	}
+
+	@Test
+	public void failedAttemptsAreRetried() throws Exception {
+		CommBaseStatus status = _server.getStatus("/flaky?key=retry&fail=2");
+		status.setRetryPolicy(createPolicy(3));
+		assertEquals(200, new CommHttpCall(status).execute()._status_code);
+		assertEquals(Arrays.asList("1:503", "2:503", "3:200"), _attempts);
+		assertEquals(3, _server.getRequestCount("/flaky"));
+	}
+
+	@Test
+	public void retryStopsAtMaxAttempts() throws Exception {
+		CommBaseStatus status = _server.getStatus("/flaky?key=max&fail=5&code=500");
+		status.setRetryPolicy(createPolicy(2));
+		try {
+			new CommHttpCall(status).execute();
+			fail("Call must fail after max attempts");
+		} catch (CommHttpException e) {
+			assertEquals(500, e.getStatusCode());
+		}
+		assertEquals(Arrays.asList("1:500", "2:500"), _attempts);
+	}
+
+	@Test
+	public void postIsRetriedOnlyIfNotProcessed() throws Exception {
+		CommBaseStatus status = _server.getStatus("/flaky?key=post500&fail=1&code=500");
+		status.setHttpType(CommBaseStatus.CommType.HttpPost);
+		status.setRetryPolicy(createPolicy(3));
+		try {
+			new CommHttpCall(status).execute();
+			fail("Http/Post must not be retried after 500");
+		} catch (CommHttpException e) {
+			assertEquals(Arrays.asList("1:500"), _attempts);
+		}
+
+		_attempts.clear();
+		status = _server.getStatus("/flaky?key=post503&fail=1&code=503");
+		status.setHttpType(CommBaseStatus.CommType.HttpPost);
+		status.setRetryPolicy(createPolicy(3));
+		assertEquals(200, new CommHttpCall(status).execute()._status_code);
+		assertEquals(Arrays.asList("1:503", "2:200"), _attempts);
+	}
+
+	@Test
+	public void slowGetIsHedged() throws Exception {
+		String path = "/flaky?key=hedge&delay=5000";
+		CommRetryPolicy policy = createPolicy(1);
+		policy.setHedging(true, 0.5);
+		for (int i = 0; i < 20; ++i) {
+			policy.recordAttempt(_server.getUrl(path), 1, false, 50, 200, null);
+		}
+		_attempts.clear();
+		assertEquals(50, policy.getHedgeDelay());
+
+		CommBaseStatus status = _server.getStatus(path);
+		status.setRetryPolicy(policy);
+		long start_time = System.nanoTime();
+		assertEquals(200, new CommHttpCall(status).execute()._status_code);
+		long elapsed_time = (System.nanoTime() - start_time) / 1000000;
+		assertTrue(elapsed_time + "ms", elapsed_time < 2500);
+		assertEquals("1:200h", _attempts.get(0));
+	}
+
+	private CommRetryPolicy createPolicy(int max_attempts) {
+		CommRetryPolicy policy = new CommRetryPolicy();
+		policy.setMaxAttempts(max_attempts);
+		policy.setBackoff(10, 10);
+		policy.setAttemptListener(new CommRetryPolicy.IAttemptListener() {
+			@Override
+			public void onAttempt(String url, int attempt, boolean is_hedged, long duration, int status_code,
+					Exception exception) {
+				_attempts.add(attempt + ":" + status_code + (is_hedged ? "h" : ""));
+			}
+		});
+		return policy;
+	}
+
+}
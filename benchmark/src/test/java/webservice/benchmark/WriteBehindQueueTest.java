@@ -0,0 +1,174 @@
+package webservice.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import webservice.CommBaseStatus;
+import webservice.CommWriteBehindQueue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/**
+ * CommWriteBehindQueue truncates torn records when journal is opened, appends records while a flush waits
+ * for a slow server, and removes sent records from journal.
+ */
+public class WriteBehindQueueTest {
+
+	private static final long MAX_SIZE = 1 << 20;
+	private static final long WAIT_TIME = 10000;
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private StubServer _server;
+	private File _journal_file;
+
+	@Before
+	public void setUp() throws Exception {
+		_server = StubServer.start();
+		_journal_file = new File(_folder.getRoot(), "journal");
+	}
+
+	@After
+	public void tearDown() {
+		_server.stop();
+	}
+
+	@Test
+	public void tornRecordIsTruncatedOnOpen() throws Exception {
+		CommWriteBehindQueue queue = new CommWriteBehindQueue(_journal_file, MAX_SIZE);
+		for (int i = 0; i < 3; ++i) {
+			assertTrue(queue.enqueue(createStatus("/echo", "record " + i)));
+		}
+		waitForPendingCount(queue, 3);
+		long valid_length = _journal_file.length();
+
+		// Header of a record whose payload was not written completely.
+		RandomAccessFile file = new RandomAccessFile(_journal_file, "rw");
+		try {
+			file.seek(valid_length);
+			file.writeInt(1000);
+			file.writeInt(0);
+			file.write(new byte[100]);
+		} finally {
+			file.close();
+		}
+
+		CommWriteBehindQueue reopened_queue = new CommWriteBehindQueue(_journal_file, MAX_SIZE);
+		assertEquals(3, reopened_queue.getPendingCount());
+		assertEquals(valid_length, _journal_file.length());
+	}
+
+	@Test
+	public void corruptedRecordIsTruncatedOnOpen() throws Exception {
+		CommWriteBehindQueue queue = new CommWriteBehindQueue(_journal_file, MAX_SIZE);
+		assertTrue(queue.enqueue(createStatus("/echo", "first")));
+		waitForPendingCount(queue, 1);
+		long first_length = _journal_file.length();
+		assertTrue(queue.enqueue(createStatus("/echo", "second")));
+		waitForPendingCount(queue, 2);
+
+		RandomAccessFile file = new RandomAccessFile(_journal_file, "rw");
+		try {
+			file.seek(file.length() - 1);	// Last byte of second body.
+			int value = file.read();
+			file.seek(file.length() - 1);
+			file.write(value ^ 0xFF);
+		} finally {
+			file.close();
+		}
+
+		CommWriteBehindQueue reopened_queue = new CommWriteBehindQueue(_journal_file, MAX_SIZE);
+		assertEquals(1, reopened_queue.getPendingCount());
+		assertEquals(first_length, _journal_file.length());
+	}
+
+	@Test
+	public void appendDoesNotWaitForFlush() throws Exception {
+		CommWriteBehindQueue queue = new CommWriteBehindQueue(_journal_file, MAX_SIZE);
+		queue.setBatchSize(1);
+		queue.start();
+		assertTrue(queue.enqueue(createStatus("/slow?delay=3000", "slow")));
+		Thread.sleep(200);	// Flush is sending the slow record.
+
+		long start_time = System.nanoTime();
+		for (int i = 0; i < 5; ++i) {
+			assertTrue(queue.enqueue(createStatus("/echo", "record " + i)));
+		}
+		waitForPendingCount(queue, 6);
+		long elapsed_time = (System.nanoTime() - start_time) / 1000000;
+		assertTrue("elapsed=" + elapsed_time + "ms", elapsed_time < 2000);
+		assertEquals(6, new CommWriteBehindQueue(_journal_file, MAX_SIZE).getPendingCount());
+	}
+
+	@Test
+	public void sentRecordsAreRemoved() throws Exception {
+		CommWriteBehindQueue queue = new CommWriteBehindQueue(_journal_file, MAX_SIZE);
+		queue.setBatchSize(10);
+		for (int i = 0; i < 25; ++i) {
+			assertTrue(queue.enqueue(createStatus("/echo", "record " + i)));
+		}
+		waitForPendingCount(queue, 25);
+		queue.start();
+
+		long end_time = System.currentTimeMillis() + WAIT_TIME;
+		// Compaction runs after sent count is updated.
+		while ((queue.getSentCount() < 25 || _journal_file.length() > 0) && System.currentTimeMillis() < end_time) {
+			Thread.sleep(10);
+		}
+		assertEquals(25, queue.getSentCount());
+		assertEquals(0, queue.getPendingCount());
+		assertEquals(0, queue.getSize());
+		assertEquals(25, _server.getRequestCount("/echo"));
+		assertEquals(0, _journal_file.length());
+		assertEquals(0, new CommWriteBehindQueue(_journal_file, MAX_SIZE).getPendingCount());
+	}
+
+	@Test
+	public void sentRecordsAreNotSentAgainAfterReopen() throws Exception {
+		CommWriteBehindQueue queue = new CommWriteBehindQueue(_journal_file, MAX_SIZE);
+		queue.setBatchSize(2);
+		for (int i = 0; i < 2; ++i) {
+			assertTrue(queue.enqueue(createStatus("/echo", "record " + i)));
+		}
+		waitForPendingCount(queue, 2);
+		queue.start();
+		long end_time = System.currentTimeMillis() + WAIT_TIME;
+		while (queue.getSentCount() < 2 && System.currentTimeMillis() < end_time) {
+			Thread.sleep(10);
+		}
+		queue.stop();
+		assertTrue(queue.enqueue(createStatus("/echo", "not sent")));
+		waitForPendingCount(queue, 1);
+
+		// Sent records are kept in journal before head offset until compaction.
+		CommWriteBehindQueue reopened_queue = new CommWriteBehindQueue(_journal_file, MAX_SIZE);
+		assertEquals(1, reopened_queue.getPendingCount());
+	}
+
+	private CommBaseStatus createStatus(String path, final String body) {
+		CommBaseStatus status = new CommBaseStatus() {
+			@Override
+			public String getPostString() {
+				return body;
+			}
+		};
+		status.setOriginalURL(_server.getUrl(path));
+		return status;
+	}
+
+	private static void waitForPendingCount(CommWriteBehindQueue queue, int count) throws InterruptedException {
+		long end_time = System.currentTimeMillis() + WAIT_TIME;
+		while (queue.getPendingCount() < count && System.currentTimeMillis() < end_time) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, queue.getPendingCount());
+	}
+
+}
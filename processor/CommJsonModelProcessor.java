@@ -0,0 +1,467 @@
+package webservice.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+
+/**
+ * CommJsonModelProcessor generates a streaming Gson TypeAdapter for each class annotated by
+ * webservice.CommJsonModel. It runs in javac only, and is not packaged with the library.
+ *
+ * 1. Adapter "Name_CommJsonAdapter" is generated in the package of class, so it accesses non-private fields
+ *    and constructor directly.
+ * 2. Fields are serialized like reflective adapter of Gson: class fields first, then superclass fields,
+ *    static and transient fields are skipped, and @SerializedName value and alternate names are used.
+ * 3. Primitive and String fields are read and written by JsonReader / JsonWriter directly. Other fields use
+ *    Gson adapter of their type, created when it is used first.
+ */
+@SupportedAnnotationTypes(CommJsonModelProcessor.MODEL_ANNOTATION)
+public class CommJsonModelProcessor extends AbstractProcessor {
+
+	static final String MODEL_ANNOTATION = "webservice.CommJsonModel";
+
+	private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+	/**
+	 * Must be the same as CommJsonAdapterFactory.ADAPTER_SUFFIX.
+	 */
+	private static final String ADAPTER_SUFFIX = "_CommJsonAdapter";
+
+	/**
+	 * Invalid model class.
+	 */
+	private static class ModelException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		private final transient Element _element;
+
+		ModelException(Element element, String message) {
+			super(message);
+			_element = element;
+		}
+	}
+
+	/**
+	 * Serialized field of model class.
+	 */
+	private static class ModelField {
+		VariableElement _field;
+		/**
+		 * Expression of field on "value" variable.
+		 */
+		String _access;
+		String _json_name;
+		List<String> _read_names = new ArrayList<>();
+		TypeMirror _type;
+		/**
+		 * Index of adapter getter. (-1 if field is read and written directly)
+		 */
+		int _adapter_index = -1;
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round_env) {
+		for (TypeElement annotation : annotations) {
+			for (Element element : round_env.getElementsAnnotatedWith(annotation)) {
+				try {
+					if (ElementKind.CLASS != element.getKind()) {
+						throw new ModelException(element, "@CommJsonModel must annotate a class");
+					}
+					generate((TypeElement) element);
+				} catch (ModelException e) {
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e._element);
+				} catch (IOException e) {
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+							"Cannot write adapter: " + e.toString(), element);
+				}
+			}
+		}
+		return true;
+	}
+
+	private void generate(TypeElement type) throws ModelException, IOException {
+		checkModelClass(type);
+		List<ModelField> fields = collectFields(type);
+
+		Elements elements = processingEnv.getElementUtils();
+		String package_name = elements.getPackageOf(type).getQualifiedName().toString();
+		String binary_name = elements.getBinaryName(type).toString();
+		String adapter_name = binary_name.substring(package_name.isEmpty() ? 0 : package_name.length() + 1)
+				.replace('$', '_') + ADAPTER_SUFFIX;
+		String qualified_name = package_name.isEmpty() ? adapter_name : package_name + "." + adapter_name;
+
+		Writer writer = processingEnv.getFiler().createSourceFile(qualified_name, type).openWriter();
+		try {
+			writer.write(writeAdapter(package_name, adapter_name, type.getQualifiedName().toString(), fields));
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static void checkModelClass(TypeElement type) throws ModelException {
+		if (!type.getTypeParameters().isEmpty()) {
+			throw new ModelException(type, "@CommJsonModel class must not be generic");
+		}
+		if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+			throw new ModelException(type, "@CommJsonModel class must not be abstract");
+		}
+		for (Element element = type; element instanceof TypeElement; element = element.getEnclosingElement()) {
+			if (element.getModifiers().contains(Modifier.PRIVATE)) {
+				throw new ModelException(type, "@CommJsonModel class must not be private");
+			}
+			if (element.getEnclosingElement() instanceof TypeElement
+					&& !element.getModifiers().contains(Modifier.STATIC)) {
+				throw new ModelException(type, "Nested @CommJsonModel class must be static");
+			}
+		}
+		for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+				return;
+			}
+		}
+		throw new ModelException(type, "@CommJsonModel class needs a non-private no-argument constructor");
+	}
+
+	/**
+	 * Collect serialized fields in order of Gson reflective adapter.
+	 */
+	private List<ModelField> collectFields(TypeElement type) throws ModelException {
+		Elements elements = processingEnv.getElementUtils();
+		String package_name = elements.getPackageOf(type).getQualifiedName().toString();
+		List<ModelField> fields = new ArrayList<>();
+		Set<String> names = new HashSet<>();
+		int adapter_count = 0;
+
+		for (TypeElement current = type; null != current; current = getSuperclass(current)) {
+			boolean is_same_package = package_name.equals(
+					elements.getPackageOf(current).getQualifiedName().toString());
+			for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+				Set<Modifier> modifiers = field.getModifiers();
+				if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+					continue;
+				}
+				if (modifiers.contains(Modifier.PRIVATE) || !(is_same_package || modifiers.contains(Modifier.PUBLIC))) {
+					throw new ModelException(field, "@CommJsonModel field must be accessible from its package");
+				}
+				if (modifiers.contains(Modifier.FINAL)) {
+					throw new ModelException(field, "@CommJsonModel field must not be final");
+				}
+				if (containsTypeVariable(field.asType())) {
+					throw new ModelException(field, "@CommJsonModel field type must not use type variable");
+				}
+
+				ModelField model_field = new ModelField();
+				model_field._field = field;
+				model_field._type = field.asType();
+				String field_name = field.getSimpleName().toString();
+				model_field._access = (current == type)
+						? "value." + field_name
+						: "((" + current.getQualifiedName() + ") value)." + field_name;
+				model_field._json_name = field_name;
+				readSerializedName(model_field);
+				for (String name : model_field._read_names) {
+					if (!names.add(name)) {
+						throw new ModelException(field, "Duplicate JSON field name: " + name);
+					}
+				}
+				if (!isDirectType(model_field._type)) {
+					model_field._adapter_index = adapter_count++;
+				}
+				fields.add(model_field);
+			}
+		}
+		return fields;
+	}
+
+	private TypeElement getSuperclass(TypeElement type) {
+		TypeMirror superclass = type.getSuperclass();
+		if (TypeKind.DECLARED != superclass.getKind()) {
+			return null;
+		}
+		TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+		return "java.lang.Object".equals(element.getQualifiedName().toString()) ? null : element;
+	}
+
+	private static boolean containsTypeVariable(TypeMirror type) {
+		switch (type.getKind()) {
+			case TYPEVAR:
+				return true;
+			case ARRAY:
+				return containsTypeVariable(((ArrayType) type).getComponentType());
+			case DECLARED:
+				for (TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+					if (containsTypeVariable(argument)) {
+						return true;
+					}
+				}
+				return false;
+			case WILDCARD: {
+				WildcardType wildcard = (WildcardType) type;
+				return (null != wildcard.getExtendsBound() && containsTypeVariable(wildcard.getExtendsBound()))
+						|| (null != wildcard.getSuperBound() && containsTypeVariable(wildcard.getSuperBound()));
+			}
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Read @SerializedName. Name of serialization is value, and names of deserialization are value and alternate.
+	 */
+	@SuppressWarnings("unchecked")
+	private static void readSerializedName(ModelField model_field) {
+		List<String> alternates = new ArrayList<>();
+		for (AnnotationMirror mirror : model_field._field.getAnnotationMirrors()) {
+			TypeElement annotation = (TypeElement) mirror.getAnnotationType().asElement();
+			if (!SERIALIZED_NAME.equals(annotation.getQualifiedName().toString())) {
+				continue;
+			}
+			for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+					: mirror.getElementValues().entrySet()) {
+				String key = entry.getKey().getSimpleName().toString();
+				if ("value".equals(key)) {
+					model_field._json_name = (String) entry.getValue().getValue();
+				} else if ("alternate".equals(key)) {
+					for (AnnotationValue value : (List<? extends AnnotationValue>) entry.getValue().getValue()) {
+						alternates.add((String) value.getValue());
+					}
+				}
+			}
+		}
+		model_field._read_names.add(model_field._json_name);
+		model_field._read_names.addAll(alternates);
+	}
+
+	/**
+	 * @return True if field is read and written by JsonReader / JsonWriter without adapter.
+	 */
+	private static boolean isDirectType(TypeMirror type) {
+		return (type.getKind().isPrimitive() && TypeKind.CHAR != type.getKind()) || isString(type);
+	}
+
+	private static boolean isString(TypeMirror type) {
+		return TypeKind.DECLARED == type.getKind() && "java.lang.String".equals(
+				((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString());
+	}
+
+	private String writeAdapter(String package_name, String adapter_name, String model_name, List<ModelField> fields) {
+		StringBuilder code = new StringBuilder(4096);
+		code.append("// Generated by CommJsonModelProcessor. Do not edit.\n");
+		if (!package_name.isEmpty()) {
+			code.append("package ").append(package_name).append(";\n\n");
+		}
+		code.append("import com.google.gson.Gson;\n")
+				.append("import com.google.gson.TypeAdapter;\n")
+				.append("import com.google.gson.reflect.TypeToken;\n")
+				.append("import com.google.gson.stream.JsonReader;\n")
+				.append("import com.google.gson.stream.JsonToken;\n")
+				.append("import com.google.gson.stream.JsonWriter;\n\n")
+				.append("import java.io.IOException;\n\n");
+		code.append("public final class ").append(adapter_name)
+				.append(" extends TypeAdapter<").append(model_name).append("> {\n\n");
+		code.append("\tprivate final Gson _gson;\n");
+		for (ModelField field : fields) {
+			if (field._adapter_index >= 0) {
+				code.append("\tprivate TypeAdapter<").append(getAdapterType(field._type)).append("> _adapter_")
+						.append(field._adapter_index).append(";\n");
+			}
+		}
+
+		code.append("\n\tpublic ").append(adapter_name).append("(Gson gson) {\n")
+				.append("\t\t_gson = gson;\n")
+				.append("\t}\n");
+
+		for (ModelField field : fields) {
+			if (field._adapter_index >= 0) {
+				writeAdapterGetter(code, field);
+			}
+		}
+
+		code.append("\n\t@Override\n")
+				.append("\tpublic void write(JsonWriter out, ").append(model_name).append(" value) throws IOException {\n")
+				.append("\t\tif (null == value) {\n")
+				.append("\t\t\tout.nullValue();\n")
+				.append("\t\t\treturn;\n")
+				.append("\t\t}\n")
+				.append("\t\tout.beginObject();\n");
+		for (ModelField field : fields) {
+			code.append("\t\tout.name(").append(quote(field._json_name)).append(");\n");
+			code.append("\t\t").append(getWriteStatement(field)).append("\n");
+		}
+		code.append("\t\tout.endObject();\n")
+				.append("\t}\n");
+
+		code.append("\n\t@Override\n")
+				.append("\tpublic ").append(model_name).append(" read(JsonReader in) throws IOException {\n")
+				.append("\t\tif (JsonToken.NULL == in.peek()) {\n")
+				.append("\t\t\tin.nextNull();\n")
+				.append("\t\t\treturn null;\n")
+				.append("\t\t}\n")
+				.append("\t\t").append(model_name).append(" value = new ").append(model_name).append("();\n")
+				.append("\t\tin.beginObject();\n")
+				.append("\t\twhile (in.hasNext()) {\n")
+				.append("\t\t\tswitch (in.nextName()) {\n");
+		for (ModelField field : fields) {
+			for (String name : field._read_names) {
+				code.append("\t\t\t\tcase ").append(quote(name)).append(":\n");
+			}
+			writeReadStatements(code, field, "\t\t\t\t\t");
+			code.append("\t\t\t\t\tbreak;\n");
+		}
+		code.append("\t\t\t\tdefault:\n")
+				.append("\t\t\t\t\tin.skipValue();\n")
+				.append("\t\t\t}\n")
+				.append("\t\t}\n")
+				.append("\t\tin.endObject();\n")
+				.append("\t\treturn value;\n")
+				.append("\t}\n\n")
+				.append("}\n");
+		return code.toString();
+	}
+
+	/**
+	 * Write getter of field adapter. Adapter is created when it is used first, so recursive types are allowed.
+	 */
+	private void writeAdapterGetter(StringBuilder code, ModelField field) {
+		String adapter_type = getAdapterType(field._type);
+		String type_argument;
+		if (TypeKind.DECLARED == field._type.getKind() && !((DeclaredType) field._type).getTypeArguments().isEmpty()) {
+			type_argument = "new TypeToken<" + adapter_type + ">() {}";
+		} else {
+			type_argument = processingEnv.getTypeUtils().erasure(getBoxedType(field._type)) + ".class";
+		}
+		code.append("\n\tprivate TypeAdapter<").append(adapter_type).append("> adapter")
+				.append(field._adapter_index).append("() {\n")
+				.append("\t\tif (null == _adapter_").append(field._adapter_index).append(") {\n")
+				.append("\t\t\t_adapter_").append(field._adapter_index).append(" = _gson.getAdapter(")
+				.append(type_argument).append(");\n")
+				.append("\t\t}\n")
+				.append("\t\treturn _adapter_").append(field._adapter_index).append(";\n")
+				.append("\t}\n");
+	}
+
+	private TypeMirror getBoxedType(TypeMirror type) {
+		if (type.getKind().isPrimitive()) {
+			return processingEnv.getTypeUtils().boxedClass((PrimitiveType) type).asType();
+		}
+		return type;
+	}
+
+	private String getAdapterType(TypeMirror type) {
+		return getBoxedType(type).toString();
+	}
+
+	private static String getWriteStatement(ModelField field) {
+		switch (field._type.getKind()) {
+			case BOOLEAN:
+			case DOUBLE:
+			case LONG:
+				return "out.value(" + field._access + ");";
+			case INT:
+			case SHORT:
+			case BYTE:
+				return "out.value((long) " + field._access + ");";
+			case FLOAT:
+				return "out.value(Float.valueOf(" + field._access + "));";	// Written like Gson, without double error.
+			default:
+				if (isString(field._type)) {
+					return "out.value(" + field._access + ");";
+				}
+				return "adapter" + field._adapter_index + "().write(out, " + field._access + ");";
+		}
+	}
+
+	private static void writeReadStatements(StringBuilder code, ModelField field, String indent) {
+		String access = field._access;
+		if (isString(field._type)) {
+			code.append(indent).append("if (JsonToken.NULL == in.peek()) {\n")
+					.append(indent).append("\tin.nextNull();\n")
+					.append(indent).append("\t").append(access).append(" = null;\n")
+					.append(indent).append("} else if (JsonToken.BOOLEAN == in.peek()) {\n")
+					.append(indent).append("\t").append(access).append(" = Boolean.toString(in.nextBoolean());\n")
+					.append(indent).append("} else {\n")
+					.append(indent).append("\t").append(access).append(" = in.nextString();\n")
+					.append(indent).append("}\n");
+			return;
+		}
+		if (!field._type.getKind().isPrimitive()) {
+			code.append(indent).append(access).append(" = adapter").append(field._adapter_index).append("().read(in);\n");
+			return;
+		}
+		if (TypeKind.CHAR == field._type.getKind()) {
+			code.append(indent).append("{\n")
+					.append(indent).append("\tCharacter c = adapter").append(field._adapter_index).append("().read(in);\n")
+					.append(indent).append("\tif (null != c) {\n")
+					.append(indent).append("\t\t").append(access).append(" = c;\n")
+					.append(indent).append("\t}\n")
+					.append(indent).append("}\n");
+			return;
+		}
+
+		// JSON null keeps default value of primitive field, like Gson.
+		code.append(indent).append("if (JsonToken.NULL == in.peek()) {\n")
+				.append(indent).append("\tin.nextNull();\n");
+		if (TypeKind.BOOLEAN == field._type.getKind()) {
+			code.append(indent).append("} else if (JsonToken.STRING == in.peek()) {\n")
+					.append(indent).append("\t").append(access).append(" = Boolean.parseBoolean(in.nextString());\n");
+		}
+		code.append(indent).append("} else {\n")
+				.append(indent).append("\t").append(access).append(" = ").append(getReadExpression(field._type))
+				.append(";\n")
+				.append(indent).append("}\n");
+	}
+
+	private static String getReadExpression(TypeMirror type) {
+		switch (type.getKind()) {
+			case BOOLEAN:
+				return "in.nextBoolean()";
+			case INT:
+				return "in.nextInt()";
+			case LONG:
+				return "in.nextLong()";
+			case SHORT:
+				return "(short) in.nextInt()";
+			case BYTE:
+				return "(byte) in.nextInt()";
+			case FLOAT:
+				return "(float) in.nextDouble()";
+			default:
+				return "in.nextDouble()";
+		}
+	}
+
+	private String quote(String value) {
+		return processingEnv.getElementUtils().getConstantExpression(value);
+	}
+
+}
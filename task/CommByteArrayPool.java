@@ -0,0 +1,55 @@
+package webservice.task;
+
+import java.util.ArrayDeque;
+
+/**
+ * CommByteArrayPool keeps fixed size byte arrays used as scratch buffers for reading response streams,
+ * so reading a response does not allocate new buffers every time.
+ */
+final class CommByteArrayPool {
+
+	/**
+	 * Size of pooled array.
+	 */
+	static final int CHUNK_SIZE = 8192;
+
+	/**
+	 * Maximum count of arrays kept in pool.
+	 */
+	private static final int MAX_POOLED_COUNT = 32;
+
+	private static final ArrayDeque<byte[]> _chunks = new ArrayDeque<>();
+
+	private CommByteArrayPool() {
+	}
+
+	/**
+	 * Get array from pool, or allocate new one if pool is empty.
+	 * @return Array with CHUNK_SIZE length.
+	 */
+	static byte[] obtain() {
+		synchronized (_chunks) {
+			byte[] chunk = _chunks.pollFirst();
+			if (null != chunk) {
+				return chunk;
+			}
+		}
+		return new byte[CHUNK_SIZE];
+	}
+
+	/**
+	 * Put array back to pool. Array must not be used by caller after this method.
+	 * @param chunk Array from obtain().
+	 */
+	static void release(byte[] chunk) {
+		if (null == chunk || CHUNK_SIZE != chunk.length) {
+			return;
+		}
+		synchronized (_chunks) {
+			if (_chunks.size() < MAX_POOLED_COUNT) {
+				_chunks.addFirst(chunk);
+			}
+		}
+	}
+
+}
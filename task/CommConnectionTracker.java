@@ -0,0 +1,53 @@
+package webservice.task;
+
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * CommConnectionTracker keeps running connections of a task, so the task can abort blocking
+ * connect or read immediately when it is cancelled.
+ */
+class CommConnectionTracker {
+
+	private final Set<HttpURLConnection> _connections = new HashSet<>();
+	private boolean _is_aborted = false;
+
+	/**
+	 * Register running connection.
+	 * @param conn Connection object.
+	 * @throws InterruptedIOException If tracker is already aborted.
+	 */
+	synchronized void add(HttpURLConnection conn) throws InterruptedIOException {
+		if (_is_aborted) {
+			conn.disconnect();
+			throw new InterruptedIOException("Task is cancelled");
+		}
+		_connections.add(conn);
+	}
+
+	/**
+	 * Unregister connection.
+	 * @param conn Connection object.
+	 */
+	synchronized void remove(HttpURLConnection conn) {
+		_connections.remove(conn);
+	}
+
+	/**
+	 * Disconnect all running connections and reject new connections.
+	 */
+	void abortAll() {
+		List<HttpURLConnection> connections;
+		synchronized (this) {
+			_is_aborted = true;
+			connections = new ArrayList<>(_connections);
+			_connections.clear();
+		}
+		CommHttpTransport.abortConnections(connections);
+	}
+
+}
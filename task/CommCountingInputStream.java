@@ -0,0 +1,55 @@
+package webservice.task;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * CommCountingInputStream counts bytes read from wrapped stream.
+ */
+class CommCountingInputStream extends FilterInputStream {
+
+	private long _count = 0;
+
+	CommCountingInputStream(InputStream input_stream) {
+		super(input_stream);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int value = super.read();
+		if (value >= 0) {
+			++_count;
+		}
+		return value;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int count = super.read(buffer, offset, length);
+		if (count > 0) {
+			_count += count;
+		}
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long count = super.skip(n);
+		_count += count;
+		return count;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * @return Count of bytes read.
+	 */
+	long getCount() {
+		return _count;
+	}
+
+}
@@ -0,0 +1,37 @@
+package webservice.task;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * CommCountingOutputStream counts bytes written to wrapped stream.
+ */
+class CommCountingOutputStream extends FilterOutputStream {
+
+	private long _count = 0;
+
+	CommCountingOutputStream(OutputStream output_stream) {
+		super(output_stream);
+	}
+
+	@Override
+	public void write(int value) throws IOException {
+		out.write(value);
+		++_count;
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		out.write(buffer, offset, length);	// FilterOutputStream writes byte by byte.
+		_count += length;
+	}
+
+	/**
+	 * @return Count of bytes written.
+	 */
+	long getCount() {
+		return _count;
+	}
+
+}
@@ -0,0 +1,117 @@
+package webservice.task;
+
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CommDownloadFileTask extended from Android AsyncTask<> downloads response body to file by CommFileDownload,
+ * and reports progress and result in main thread by ActionComplete interface.
+ * Cancelled download keeps partial data, so next task of the same URL and file resumes it.
+ */
+public class CommDownloadFileTask extends AsyncTask<Void, Long, String> {
+
+	private final CommFileDownload _download;
+	private boolean _is_success = false;
+	private File _file = null;
+	private List<ActionComplete> _complete_notify = new ArrayList<>();
+
+	/**
+	 * Callback interface.
+	 */
+	public interface ActionComplete {
+		/**
+		 * Called in main thread while downloading.
+		 * @param downloaded_length Downloaded byte count, including resumed data.
+		 * @param total_length Total byte count. (negative if unknown)
+		 */
+		void onDownloadProgress(long downloaded_length, long total_length);
+
+		/**
+		 * @param is_success Running status. (true: success, false: failure)
+		 * @param file Downloaded file. (null if failure)
+		 * @param msg Error message string if failure.
+		 */
+		void onDownloadComplete(boolean is_success, File file, String msg);
+	}
+
+	/**
+	 * Constructor.
+	 * @param download Download object. Its progress listener is set by this task.
+	 */
+	public CommDownloadFileTask(CommFileDownload download) {
+		super();
+		_download = download;
+	}
+
+	/**
+	 * Register complete callback notify.
+	 * @param notify Notify object.
+	 */
+	public void addCompleteNotify(ActionComplete notify) {
+		_complete_notify.add(notify);
+	}
+
+	/**
+	 * Remove notify object. If no notify remains, the task is cancelled.
+	 * @param notify Notify object.
+	 */
+	public void removeCompleteNotify(ActionComplete notify) {
+		_complete_notify.remove(notify);
+		if (_complete_notify.isEmpty()) {
+			abort();
+		}
+	}
+
+	/**
+	 * Cancel task and disconnect running connections immediately. (Main thread only)
+	 */
+	public void abort() {
+		cancel(true);
+		_download.cancel();
+	}
+
+	/**
+	 * @param params Not used.
+	 * @return Error message, or null if successful.
+	 */
+	@Override
+	protected String doInBackground(Void... params) {
+		_is_success = false;
+		_download.setProgressListener(new CommFileDownload.IProgressListener() {
+			@Override
+			public void onProgress(long downloaded_length, long total_length) {
+				publishProgress(downloaded_length, total_length);
+			}
+		});
+		try {
+			_file = _download.execute();
+			_is_success = true;
+			return null;
+		} catch (Exception e) {
+			e.printStackTrace();
+			Log.w(this.getClass().getName(), "Exception: " + e.toString());
+			return e.toString();
+		}
+	}
+
+	@Override
+	protected void onProgressUpdate(Long... values) {
+		super.onProgressUpdate(values);
+		for (ActionComplete notify : _complete_notify) {
+			notify.onDownloadProgress(values[0], values[1]);
+		}
+	}
+
+	@Override
+	protected void onPostExecute(String msg) {
+		super.onPostExecute(msg);
+		for (ActionComplete notify : _complete_notify) {
+			notify.onDownloadComplete(_is_success, _file, msg);
+		}
+	}
+
+}
@@ -0,0 +1,109 @@
+package webservice.task;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CommExecutors provides executors of CommHttpCall that do not depend on Android.
+ *
+ * On a JVM with virtual threads (Java 21 or later), default executor starts a virtual thread per call,
+ * so blocking connections do not occupy platform threads. Otherwise it is a cached thread pool of daemon threads.
+ */
+public final class CommExecutors {
+
+	private static ExecutorService _default_executor = null;
+	private static ExecutorService _hedge_executor = null;
+	private static Boolean _is_virtual_thread_available = null;
+
+	private CommExecutors() {
+	}
+
+	/**
+	 * @return Default executor of CommHttpCall.executeAsync().
+	 */
+	public static synchronized ExecutorService getDefaultExecutor() {
+		if (null == _default_executor) {
+			_default_executor = createExecutor();
+		}
+		return _default_executor;
+	}
+
+	/**
+	 * @return Executor of hedged attempts.
+	 */
+	static synchronized ExecutorService getHedgeExecutor() {
+		if (null == _hedge_executor) {
+			_hedge_executor = createExecutor();
+		}
+		return _hedge_executor;
+	}
+
+	/**
+	 * @return True if default executor uses virtual threads.
+	 */
+	public static synchronized boolean isVirtualThreadAvailable() {
+		if (null == _is_virtual_thread_available) {
+			_is_virtual_thread_available = null != getVirtualThreadFactory();
+		}
+		return _is_virtual_thread_available;
+	}
+
+	/**
+	 * Create virtual thread per task executor if available, or cached thread pool.
+	 * @return Executor object.
+	 */
+	private static ExecutorService createExecutor() {
+		Method factory = getVirtualThreadFactory();
+		if (null != factory) {
+			try {
+				return (ExecutorService) factory.invoke(null);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		return newDaemonCachedThreadPool("CommExecutors");
+	}
+
+	/**
+	 * Create cached thread pool of daemon threads, so idle threads do not keep JVM process running.
+	 * @param name Prefix of thread names.
+	 * @return Executor object.
+	 */
+	static ExecutorService newDaemonCachedThreadPool(String name) {
+		return Executors.newCachedThreadPool(newDaemonThreadFactory(name));
+	}
+
+	/**
+	 * Create factory of daemon threads, so idle threads do not keep JVM process running.
+	 * @param name Prefix of thread names.
+	 * @return Thread factory.
+	 */
+	public static ThreadFactory newDaemonThreadFactory(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger _count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + _count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Get Executors.newVirtualThreadPerTaskExecutor() by reflection, so this class runs on Java 8 and Android.
+	 * @return Method object, or null if not available.
+	 */
+	private static Method getVirtualThreadFactory() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,649 @@
+package webservice.task;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+
+/**
+ * CommFileDownload streams a response body to file in the calling thread, without holding it in memory.
+ * It has no dependency on Android, and CommDownloadFileTask is an AsyncTask adapter of it.
+ *
+ * 1. Data is written to "file.part" through FileChannel from a direct buffer, and moved to file when complete.
+ * 2. Progress is saved to "file.meta" periodically and when download fails or is cancelled. Next download
+ *    of the same URL and file resumes by Range request with If-Range of ETag or Last-Modified. If the
+ *    resource has changed, server answers whole body and download restarts.
+ * 3. If server supports Range and body is large enough, download is split into byte-range segments that
+ *    are downloaded by parallel connections.
+ */
+public class CommFileDownload {
+
+	/**
+	 * Default size of direct buffer of each connection.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+	/**
+	 * Default minimum size of a parallel segment.
+	 */
+	public static final long DEFAULT_MIN_SEGMENT_SIZE = 4L * 1024 * 1024;
+
+	/**
+	 * Data size downloaded between progress saves.
+	 */
+	private static final long CHECKPOINT_SIZE = 8L * 1024 * 1024;
+	/**
+	 * Minimum interval of progress reports. (millisecond)
+	 */
+	private static final long PROGRESS_INTERVAL = 100;
+	private static final int META_VERSION = 1;
+
+	private final String _url;
+	private final File _file;
+	private final File _part_file;
+	private final File _meta_file;
+	private int _segment_count = 1;
+	private long _min_segment_size = DEFAULT_MIN_SEGMENT_SIZE;
+	private int _buffer_size = DEFAULT_BUFFER_SIZE;
+	private Executor _segment_executor = null;
+	private IProgressListener _progress_listener = null;
+	private long _deadline = 0;
+	private final CommConnectionTracker _connections = new CommConnectionTracker();
+	private volatile boolean _is_cancelled = false;
+
+	// Transfer state. Guarded by this object while segments are running.
+	private FileChannel _channel = null;
+	private String _validator = "";
+	private long _total_length = -1;
+	private Segment[] _segments = null;
+	private long _checkpoint_bytes = 0;
+	private long _last_progress_time = 0;
+
+	/**
+	 * Progress listener. It is called in downloading thread.
+	 */
+	public interface IProgressListener {
+		/**
+		 * @param downloaded_length Downloaded byte count, including resumed data.
+		 * @param total_length Total byte count. (negative if unknown)
+		 */
+		void onProgress(long downloaded_length, long total_length);
+	}
+
+	/**
+	 * Byte range of body downloaded by one connection.
+	 */
+	private static class Segment {
+		final long _start;
+		/**
+		 * Last byte position. (inclusive, negative if length is unknown)
+		 */
+		long _end;
+		long _downloaded = 0;
+
+		Segment(long start, long end) {
+			_start = start;
+			_end = end;
+		}
+
+		long getPosition() {
+			return _start + _downloaded;
+		}
+
+		boolean isComplete() {
+			return _end >= 0 && getPosition() > _end;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * @param url URL string.
+	 * @param file Destination file. Partial data and progress are kept next to it.
+	 */
+	public CommFileDownload(String url, File file) {
+		_url = url;
+		_file = file;
+		_part_file = getPartFile(file);
+		_meta_file = getMetaFile(file);
+	}
+
+	/**
+	 * Set maximum count of parallel segments. (Default is 1, no split)
+	 * @param segment_count Segment count.
+	 * @param min_segment_size Minimum byte count of a segment. (DEFAULT_MIN_SEGMENT_SIZE)
+	 */
+	public void setSegmentCount(int segment_count, long min_segment_size) {
+		_segment_count = Math.max(segment_count, 1);
+		_min_segment_size = Math.max(min_segment_size, 1);
+	}
+
+	/**
+	 * Set executor of segments except the first one, which runs in the calling thread.
+	 * (Default is CommExecutors.getDefaultExecutor())
+	 * @param executor Executor object.
+	 */
+	public void setSegmentExecutor(Executor executor) {
+		_segment_executor = executor;
+	}
+
+	/**
+	 * Set size of direct buffer of each connection. (Default is DEFAULT_BUFFER_SIZE)
+	 * @param buffer_size Byte count.
+	 */
+	public void setBufferSize(int buffer_size) {
+		_buffer_size = Math.max(buffer_size, 8192);
+	}
+
+	/**
+	 * Set deadline of download. Connection timeouts are limited by remaining time, and download fails when
+	 * deadline is exceeded. Partial data is kept for resuming.
+	 * @param deadline Deadline of CommHttpTransport.currentTime() clock. (0 is no deadline)
+	 */
+	public void setDeadline(long deadline) {
+		_deadline = deadline;
+	}
+
+	/**
+	 * Set progress listener.
+	 * @param listener Listener object. (nullable)
+	 */
+	public void setProgressListener(IProgressListener listener) {
+		_progress_listener = listener;
+	}
+
+	/**
+	 * Cancel download. Running connections are disconnected, and partial data is kept for resuming. (Any thread)
+	 */
+	public void cancel() {
+		_is_cancelled = true;
+		_connections.abortAll();
+	}
+
+	/**
+	 * Delete partial data and progress of file, so next download starts from the beginning.
+	 * @param file Destination file.
+	 */
+	public static void deletePartial(File file) {
+		getPartFile(file).delete();
+		getMetaFile(file).delete();
+	}
+
+	private static File getPartFile(File file) {
+		return new File(file.getPath() + ".part");
+	}
+
+	private static File getMetaFile(File file) {
+		return new File(file.getPath() + ".meta");
+	}
+
+	/**
+	 * Download file in the calling thread.
+	 * @return Destination file.
+	 * @throws Exception Connection, file or response error. Partial data is kept unless it is invalid.
+	 */
+	public File execute() throws Exception {
+		File directory = _file.getAbsoluteFile().getParentFile();
+		if (null != directory && !directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Cannot create directory: " + directory);
+		}
+
+		boolean is_resuming = loadMeta();
+		RandomAccessFile part_file = new RandomAccessFile(_part_file, "rw");
+		try {
+			_channel = part_file.getChannel();
+			if (!is_resuming) {
+				_channel.truncate(0);
+				_meta_file.delete();
+			}
+			if (!is_resuming || !isComplete()) {
+				transfer(is_resuming);
+			}
+			if (_total_length >= 0) {
+				_channel.truncate(_total_length);
+			}
+			_channel.force(true);
+		} finally {
+			part_file.close();
+		}
+
+		_file.delete();
+		if (!_part_file.renameTo(_file)) {
+			throw new IOException("Cannot rename " + _part_file + " to " + _file);
+		}
+		_meta_file.delete();
+		reportProgress(true);
+		return _file;
+	}
+
+	/**
+	 * Send the first request, decide segments from its response, and download all segments.
+	 * @param is_resuming True if progress is loaded.
+	 */
+	private void transfer(boolean is_resuming) throws Exception {
+		Segment first = is_resuming ? getFirstIncomplete() : null;
+		HttpURLConnection conn = (null == first)
+				? openRange(0, -1, null)
+				: openRange(first.getPosition(), first._end, _validator);
+		try {
+			int status_code = conn.getResponseCode();
+			if (HttpURLConnection.HTTP_PARTIAL == status_code) {
+				long[] range = parseContentRange(conn.getHeaderField("Content-Range"));
+				if (null == first) {
+					_validator = getValidator(conn);
+					createSegments((null == range) ? -1 : range[2]);
+					first = _segments[0];
+				}
+				if (null == range || range[0] != first.getPosition()) {
+					throw new IOException("Unexpected Content-Range: " + conn.getHeaderField("Content-Range"));
+				}
+			} else if (HttpURLConnection.HTTP_OK == status_code) {
+				// Range is not supported, or resource has changed since partial download.
+				_validator = getValidator(conn);
+				_total_length = parseLength(conn.getHeaderField("Content-Length"));
+				_segments = new Segment[] {new Segment(0, _total_length - 1)};
+				_channel.truncate(0);
+				first = _segments[0];
+			} else if (416 == status_code && is_resuming) {
+				// Requested range is not satisfiable, partial data is invalid.
+				_connections.remove(conn);
+				conn.disconnect();
+				conn = null;
+				_channel.truncate(0);
+				transfer(false);
+				return;
+			} else if (416 == status_code && 0 == parseUnsatisfiedLength(conn.getHeaderField("Content-Range"))) {
+				// "bytes=0-" of empty resource is not satisfiable, and the file is complete with no data.
+				_connections.remove(conn);
+				conn.disconnect();
+				conn = null;
+				_validator = "";
+				_total_length = 0;
+				_segments = new Segment[0];
+				return;
+			} else {
+				CommHttpTransport.getResponseStream(conn);	// Throws CommHttpException of error response.
+				throw new IOException("Unexpected response: " + status_code);
+			}
+		} catch (Exception e) {
+			if (null != conn) {
+				_connections.remove(conn);
+				conn.disconnect();
+			}
+			throw e;
+		}
+
+		saveMeta();
+		downloadSegments(first, conn);
+	}
+
+	/**
+	 * Download the first segment by connection in the calling thread, and other segments in segment executor.
+	 */
+	private void downloadSegments(Segment first, HttpURLConnection first_conn) throws Exception {
+		Executor executor = (null == _segment_executor) ? CommExecutors.getDefaultExecutor() : _segment_executor;
+		CompletionService<Void> service = new ExecutorCompletionService<>(executor);
+		int running_count = 0;
+		for (final Segment segment : _segments) {
+			if (segment == first || segment.isComplete()) {
+				continue;
+			}
+			service.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					try {
+						downloadSegment(segment);
+					} catch (Exception e) {
+						_connections.abortAll();	// Stop other segments.
+						throw e;
+					}
+					return null;
+				}
+			});
+			++running_count;
+		}
+
+		Exception last_exception = null;
+		try {
+			readSegment(first, first_conn);
+		} catch (Exception e) {
+			_connections.abortAll();
+			last_exception = e;
+		}
+		for (int i = 0; i < running_count; ++i) {
+			try {
+				service.take().get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (null == last_exception || last_exception instanceof InterruptedIOException) {
+					last_exception = (cause instanceof Exception) ? (Exception) cause : e;
+				}
+			}
+		}
+
+		synchronized (this) {
+			saveMeta();
+		}
+		if (null != last_exception) {
+			throw _is_cancelled ? new InterruptedIOException("Download is cancelled") : last_exception;
+		}
+		if (!isComplete()) {
+			throw new IOException("Download is not complete");
+		}
+	}
+
+	/**
+	 * Download one segment by a new connection.
+	 */
+	private void downloadSegment(Segment segment) throws Exception {
+		HttpURLConnection conn = openRange(segment.getPosition(), segment._end, _validator);
+		try {
+			int status_code = conn.getResponseCode();
+			if (HttpURLConnection.HTTP_PARTIAL != status_code) {
+				CommHttpTransport.getResponseStream(conn);
+				throw new IOException("Range is not satisfied: " + status_code);	// Resource has changed.
+			}
+			long[] range = parseContentRange(conn.getHeaderField("Content-Range"));
+			if (null == range || range[0] != segment.getPosition()) {
+				throw new IOException("Unexpected Content-Range: " + conn.getHeaderField("Content-Range"));
+			}
+		} catch (Exception e) {
+			_connections.remove(conn);
+			conn.disconnect();
+			throw e;
+		}
+		readSegment(segment, conn);
+	}
+
+	/**
+	 * Read response body of segment to file. Connection is disconnected finally.
+	 */
+	private void readSegment(Segment segment, HttpURLConnection conn) throws IOException {
+		InputStream input_stream = null;
+		try {
+			input_stream = conn.getInputStream();
+			ReadableByteChannel source = Channels.newChannel(input_stream);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(_buffer_size);
+			while (!segment.isComplete()) {
+				if (_is_cancelled) {
+					throw new InterruptedIOException("Download is cancelled");
+				}
+				if (CommHttpTransport.getRemainingTime(_deadline) <= 0) {
+					throw new SocketTimeoutException("Deadline exceeded");
+				}
+				buffer.clear();
+				if (segment._end >= 0) {
+					long remaining = segment._end + 1 - segment.getPosition();
+					if (remaining < buffer.capacity()) {
+						buffer.limit((int) remaining);
+					}
+				}
+				int count = source.read(buffer);
+				if (count < 0) {
+					if (segment._end < 0) {
+						onLengthFound(segment);
+						break;
+					}
+					throw new EOFException("Connection is closed at " + segment.getPosition());
+				}
+				buffer.flip();
+				long position = segment.getPosition();
+				while (buffer.hasRemaining()) {
+					position += _channel.write(buffer, position);
+				}
+				onSegmentData(segment, count);
+			}
+		} finally {
+			_connections.remove(conn);
+			if (null != input_stream) {
+				try {
+					input_stream.close();
+				} catch (IOException e) {
+					// Ignore, connection is disconnected.
+				}
+			}
+			conn.disconnect();	// Open range may have remaining data, do not drain it.
+		}
+	}
+
+	/**
+	 * Open connection of byte range without gzip, so range positions are positions of file.
+	 * @param start First byte position.
+	 * @param end Last byte position. (inclusive, negative for end of body)
+	 * @param validator If-Range validator. (null or empty if not resuming)
+	 */
+	private HttpURLConnection openRange(long start, long end, String validator) throws IOException {
+		HttpURLConnection conn = CommHttpTransport.openConnection(_url, CommHttpTransport.TIME_OUT_CONN,
+				CommHttpTransport.TIME_OUT_READ, _deadline);
+		conn.setRequestProperty("Accept-Encoding", "identity");
+		conn.setRequestProperty("Range", "bytes=" + start + "-" + ((end >= 0) ? String.valueOf(end) : ""));
+		if (null != validator && !validator.isEmpty()) {
+			conn.setRequestProperty("If-Range", validator);
+		}
+		_connections.add(conn);
+		return conn;
+	}
+
+	/**
+	 * Split body into segments. Body is not split if length or validator is unknown.
+	 * @param total_length Total byte count. (negative if unknown)
+	 */
+	private void createSegments(long total_length) {
+		_total_length = total_length;
+		int count = 1;
+		if (total_length > 0 && !_validator.isEmpty()) {
+			count = (int) Math.max(Math.min(_segment_count, total_length / _min_segment_size), 1);
+		}
+		_segments = new Segment[count];
+		long segment_size = (total_length > 0) ? (total_length + count - 1) / count : 0;
+		for (int i = 0; i < count; ++i) {
+			long start = i * segment_size;
+			long end = (total_length < 0) ? -1 : Math.min(start + segment_size, total_length) - 1;
+			_segments[i] = new Segment(start, end);
+		}
+	}
+
+	private synchronized void onSegmentData(Segment segment, int count) throws IOException {
+		segment._downloaded += count;
+		_checkpoint_bytes += count;
+		if (_checkpoint_bytes >= CHECKPOINT_SIZE) {
+			_checkpoint_bytes = 0;
+			_channel.force(false);	// Saved progress must not be ahead of data.
+			saveMeta();
+		}
+		reportProgress(false);
+	}
+
+	private synchronized void onLengthFound(Segment segment) {
+		segment._end = segment.getPosition() - 1;
+		_total_length = segment.getPosition();
+	}
+
+	private void reportProgress(boolean is_final) {
+		IProgressListener listener = _progress_listener;
+		if (null == listener) {
+			return;
+		}
+		long now = CommHttpTransport.currentTime();
+		if (!is_final && now - _last_progress_time < PROGRESS_INTERVAL) {
+			return;
+		}
+		_last_progress_time = now;
+		listener.onProgress(getDownloadedLength(), _total_length);
+	}
+
+	private long getDownloadedLength() {
+		long length = 0;
+		if (null != _segments) {
+			for (Segment segment : _segments) {
+				length += segment._downloaded;
+			}
+		}
+		return length;
+	}
+
+	private boolean isComplete() {
+		return null == getFirstIncomplete();
+	}
+
+	private Segment getFirstIncomplete() {
+		for (Segment segment : _segments) {
+			if (!segment.isComplete()) {
+				return segment;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Load progress of previous download.
+	 * @return True if download can resume.
+	 */
+	private boolean loadMeta() {
+		if (!_meta_file.exists() || !_part_file.exists()) {
+			return false;
+		}
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new FileInputStream(_meta_file));
+			if (META_VERSION != input.readInt() || !_url.equals(input.readUTF())) {
+				return false;
+			}
+			_validator = input.readUTF();
+			_total_length = input.readLong();
+			_segments = new Segment[input.readInt()];
+			for (int i = 0; i < _segments.length; ++i) {
+				_segments[i] = new Segment(input.readLong(), input.readLong());
+				_segments[i]._downloaded = input.readLong();
+			}
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (null != input) {
+				try {
+					input.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		// Data without validator or length cannot be checked by If-Range.
+		return !_validator.isEmpty() && _total_length >= 0 && _segments.length > 0;
+	}
+
+	/**
+	 * Save progress to temporary file and rename it, so meta file is never broken. Must be called with lock
+	 * while segments are running.
+	 */
+	private void saveMeta() throws IOException {
+		if (null == _segments) {
+			return;
+		}
+		File temp_file = new File(_meta_file.getPath() + ".tmp");
+		FileOutputStream file_stream = new FileOutputStream(temp_file);
+		try {
+			DataOutputStream output = new DataOutputStream(file_stream);
+			output.writeInt(META_VERSION);
+			output.writeUTF(_url);
+			output.writeUTF(_validator);
+			output.writeLong(_total_length);
+			output.writeInt(_segments.length);
+			for (Segment segment : _segments) {
+				output.writeLong(segment._start);
+				output.writeLong(segment._end);
+				output.writeLong(segment._downloaded);
+			}
+			output.flush();
+			file_stream.getFD().sync();
+		} finally {
+			file_stream.close();
+		}
+		if (!temp_file.renameTo(_meta_file)) {
+			_meta_file.delete();
+			if (!temp_file.renameTo(_meta_file)) {
+				throw new IOException("Cannot rename " + temp_file + " to " + _meta_file);
+			}
+		}
+	}
+
+	/**
+	 * Get strong validator for If-Range. Weak ETag cannot be used by If-Range.
+	 * @return ETag or Last-Modified, or empty string.
+	 */
+	private static String getValidator(HttpURLConnection conn) {
+		String etag = conn.getHeaderField("ETag");
+		if (null != etag && !etag.startsWith("W/")) {
+			return etag;
+		}
+		String last_modified = conn.getHeaderField("Last-Modified");
+		return (null == last_modified) ? "" : last_modified;
+	}
+
+	/**
+	 * Parse "bytes start-end/total".
+	 * @return {start, end, total} (total is -1 if unknown), or null if invalid.
+	 */
+	static long[] parseContentRange(String content_range) {
+		if (null == content_range || !content_range.trim().startsWith("bytes ")) {
+			return null;
+		}
+		try {
+			String value = content_range.trim().substring(6).trim();
+			int dash = value.indexOf('-');
+			int slash = value.indexOf('/');
+			if (dash < 0 || slash < dash) {
+				return null;
+			}
+			String total = value.substring(slash + 1).trim();
+			return new long[] {
+					Long.parseLong(value.substring(0, dash).trim()),
+					Long.parseLong(value.substring(dash + 1, slash).trim()),
+					"*".equals(total) ? -1 : Long.parseLong(total)};
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Parse total length in Content-Range of 416 response. (unsatisfied-range, "bytes *&#47;total")
+	 * @return Total byte count, or -1 if invalid.
+	 */
+	static long parseUnsatisfiedLength(String content_range) {
+		if (null == content_range) {
+			return -1;
+		}
+		String value = content_range.trim();
+		if (!value.startsWith("bytes ")) {
+			return -1;
+		}
+		value = value.substring(6).trim();
+		return value.startsWith("*/") ? parseLength(value.substring(2)) : -1;
+	}
+
+	private static long parseLength(String content_length) {
+		if (null == content_length) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(content_length.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+}
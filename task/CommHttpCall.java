@@ -0,0 +1,676 @@
+package webservice.task;
+
+import webservice.CommBaseStatus;
+import webservice.CommBodyWriter;
+import webservice.CommCallTiming;
+import webservice.CommCodec;
+import webservice.CommHttpCache;
+import webservice.CommRetryPolicy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+
+/**
+ * CommHttpCall sends one request described by CommBaseStatus in the calling thread. It has no dependency
+ * on Android, so it runs on the JVM as well, and CommRequestMessageTask is an AsyncTask adapter of it.
+ *
+ * 1. Response is served from CommHttpCache, or validated by conditional request, if cache is set.
+ * 2. Attempts are retried or hedged by CommRetryPolicy if it is set.
+ * 3. Response stream is passed to IResponseHandler, or read to CommResponseBody and data string.
+ * 4. cancel() disconnects running connections immediately and stops retrying.
+ *
+ * executeAsync() runs the call in an executor, like CommExecutors.getDefaultExecutor(), and returns
+ * CompletableFuture. (Android 7.0, API 24 or later)
+ */
+public class CommHttpCall {
+
+	private static final Logger _logger = Logger.getLogger(CommHttpCall.class.getName());
+
+	private final CommBaseStatus _status;
+	private IResponseHandler _response_handler = null;
+	private long _deadline = 0;
+	/**
+	 * Request URL of the running call, built once by execute().
+	 */
+	private String _url_str = null;
+	private volatile boolean _is_tracing = false;
+	private boolean _is_streaming = false;
+	private final CommConnectionTracker _connections = new CommConnectionTracker();
+	private final List<CommConnectionTracker> _hedge_connections = new ArrayList<>();
+	private volatile boolean _is_cancelled = false;
+	private int _attempt_count = 0;
+	private volatile CommCallTiming _last_timing = null;
+
+	/**
+	 * Response stream handler. It is called in the calling thread.
+	 */
+	public interface IResponseHandler {
+		/**
+		 * @param input_stream Response data stream. (Closed by call after this method returns)
+		 * @return Result object of Response.
+		 * @throws Exception Any exception makes the call failure.
+		 */
+		Object onResponse(InputStream input_stream) throws Exception;
+	}
+
+	/**
+	 * Response stream handler that also receives response Content-Type, like decoders selecting CommCodec.
+	 */
+	public interface IContentResponseHandler extends IResponseHandler {
+		/**
+		 * @param input_stream Response data stream. (Closed by call after this method returns)
+		 * @param content_type Content-Type of response. (null if unknown)
+		 * @return Result object of Response.
+		 * @throws Exception Any exception makes the call failure.
+		 */
+		Object onResponse(InputStream input_stream, String content_type) throws Exception;
+	}
+
+	/**
+	 * Call result.
+	 */
+	public static class Response {
+		/**
+		 * Data string if no handler, or empty string.
+		 */
+		public String _msg = "";
+		/**
+		 * Result object created by IResponseHandler, or CommResponseBody if no handler.
+		 */
+		public Object _data = null;
+		/**
+		 * Http status code of response.
+		 */
+		public int _status_code;
+		/**
+		 * Timing record. (null if not tracing)
+		 */
+		public CommCallTiming _timing = null;
+		/**
+		 * True if response is served from fresh cache entry without connection.
+		 */
+		public boolean _is_cached = false;
+	}
+
+	/**
+	 * Constructor.
+	 * @param status Connection information object.
+	 */
+	public CommHttpCall(CommBaseStatus status) {
+		_status = status;
+	}
+
+	/**
+	 * Set response stream handler. (Default is null, response is read to CommResponseBody)
+	 * @param handler Handler object.
+	 */
+	public void setResponseHandler(IResponseHandler handler) {
+		_response_handler = handler;
+	}
+
+	/**
+	 * Set deadline of call. Connection timeouts and retries are limited by remaining time.
+	 * @param deadline Deadline of CommHttpTransport.currentTime() clock. (0 is no deadline)
+	 */
+	public void setDeadline(long deadline) {
+		_deadline = deadline;
+	}
+
+	/**
+	 * Set if timing of attempts is recorded to Response._timing. It can be set while running, and takes effect
+	 * from the next attempt.
+	 * @param is_tracing True if timing is recorded.
+	 */
+	public void setTracing(boolean is_tracing) {
+		_is_tracing = is_tracing;
+	}
+
+	/**
+	 * Set if response handler delivers data while reading response. Streaming call runs only one attempt
+	 * without retry policy, hedging and response cache, so delivered data is never repeated or interleaved.
+	 * @param is_streaming True if handler streams response.
+	 */
+	public void setStreaming(boolean is_streaming) {
+		_is_streaming = is_streaming;
+	}
+
+	/**
+	 * Cancel call. Running connections are disconnected, and no more attempt is started. (Any thread)
+	 */
+	public void cancel() {
+		_is_cancelled = true;
+		_connections.abortAll();
+		synchronized (_hedge_connections) {
+			for (CommConnectionTracker connections : _hedge_connections) {
+				connections.abortAll();
+			}
+		}
+		synchronized (this) {
+			notifyAll();	// Wake retry backoff.
+		}
+	}
+
+	/**
+	 * @return True if cancel() is called.
+	 */
+	public boolean isCancelled() {
+		return _is_cancelled;
+	}
+
+	/**
+	 * @return Count of attempts started.
+	 */
+	public synchronized int getAttemptCount() {
+		return _attempt_count;
+	}
+
+	/**
+	 * @return Timing of the last attempt, or null if not tracing.
+	 */
+	public CommCallTiming getLastTiming() {
+		return _last_timing;
+	}
+
+	/**
+	 * Run call in executor. Cancelling the future cancels the call.
+	 * @param executor Executor object.
+	 * @return Future of response.
+	 */
+	public CompletableFuture<Response> executeAsync(Executor executor) {
+		final CompletableFuture<Response> future = new CompletableFuture<>();
+		future.whenComplete(new BiConsumer<Response, Throwable>() {
+			@Override
+			public void accept(Response response, Throwable throwable) {
+				if (future.isCancelled()) {
+					cancel();
+				}
+			}
+		});
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (future.isDone()) {
+					return;
+				}
+				try {
+					future.complete(execute());
+				} catch (Exception e) {
+					future.completeExceptionally(e);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Run call in the calling thread.
+	 * @return Response.
+	 * @throws Exception Connection, response or handler error of the last attempt.
+	 */
+	public Response execute() throws Exception {
+		_url_str = _status.getRequestURL();	// Default getRequestURL() encodes query every time.
+		CommRetryPolicy policy = _is_streaming ? null : _status.getRetryPolicy();
+		if (null != policy) {
+			return performWithRetry(policy);
+		}
+		CommCallTiming timing = createTiming();
+		try {
+			return performRequest(_connections, timing);
+		} finally {
+			_last_timing = timing;
+		}
+	}
+
+	/**
+	 * Run attempts until success or retry policy stops.
+	 * @param policy Retry policy.
+	 * @return Response.
+	 * @throws Exception Error of the last attempt.
+	 */
+	private Response performWithRetry(CommRetryPolicy policy) throws Exception {
+		boolean is_hedging = policy.isHedging() && _status.isHttpGet();
+		for (int attempt = 1; ; ++attempt) {
+			try {
+				return is_hedging ? performHedgedAttempt(policy, attempt) : performSingleAttempt(policy, attempt);
+			} catch (Exception e) {
+				if (attempt >= policy.getMaxAttempts() || _is_cancelled
+						|| !policy.isRetryable(_status.isHttpGet(), getStatusCode(e), e)) {
+					throw e;
+				}
+				long delay = policy.getBackoffDelay(attempt);
+				if (delay >= CommHttpTransport.getRemainingTime(_deadline)) {
+					throw e;
+				}
+				_logger.info("Retry attempt " + (attempt + 1) + " after " + delay + " ms");
+				waitBackoff(delay);
+			}
+		}
+	}
+
+	/**
+	 * Wait before retry. Waiting ends early if call is cancelled.
+	 * @param delay Delay (millisecond).
+	 * @throws InterruptedException Thread is interrupted.
+	 * @throws InterruptedIOException Call is cancelled.
+	 */
+	private synchronized void waitBackoff(long delay) throws InterruptedException, InterruptedIOException {
+		long end_time = CommHttpTransport.currentTime() + delay;
+		long remaining_time = delay;
+		while (!_is_cancelled && remaining_time > 0) {
+			wait(remaining_time);
+			remaining_time = end_time - CommHttpTransport.currentTime();
+		}
+		if (_is_cancelled) {
+			throw new InterruptedIOException("Call is cancelled");
+		}
+	}
+
+	/**
+	 * Run one attempt in the calling thread.
+	 * @param policy Retry policy.
+	 * @param attempt Attempt number.
+	 * @return Response.
+	 * @throws Exception Attempt error.
+	 */
+	private Response performSingleAttempt(CommRetryPolicy policy, int attempt) throws Exception {
+		CommCallTiming timing = createTiming();
+		try {
+			return performAttempt(policy, attempt, false, _connections, timing);
+		} finally {
+			_last_timing = timing;
+		}
+	}
+
+	/**
+	 * Run one attempt and record its timing to retry policy. Fresh cache hit is not recorded, so it does not
+	 * shorten hedge delay.
+	 * @param policy Retry policy.
+	 * @param attempt Attempt number.
+	 * @param is_hedged True if this is a hedged attempt.
+	 * @param connections Tracker of attempt connection.
+	 * @param timing Timing record of attempt. (nullable)
+	 * @return Response.
+	 * @throws Exception Attempt error.
+	 */
+	private Response performAttempt(CommRetryPolicy policy, int attempt, boolean is_hedged,
+			CommConnectionTracker connections, CommCallTiming timing) throws Exception {
+		long start_time = System.nanoTime();
+		try {
+			Response response = performRequest(connections, timing);
+			if (!response._is_cached) {
+				policy.recordAttempt(_url_str, attempt, is_hedged,
+						(System.nanoTime() - start_time) / 1000000, response._status_code, null);
+			}
+			return response;
+		} catch (Exception e) {
+			policy.recordAttempt(_url_str, attempt, is_hedged,
+					(System.nanoTime() - start_time) / 1000000, getStatusCode(e), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Run one attempt in hedge executor, and send a hedged attempt if the first one is slower than hedge delay.
+	 * The first successful result is returned, and connection of the other attempt is disconnected, because
+	 * interrupting its thread does not stop blocking read. (JDK HttpURLConnection may still drain a short rest
+	 * of keep-alive response, up to http.KeepAlive.remainingData, in background to reuse the connection)
+	 * @param policy Retry policy.
+	 * @param attempt Attempt number.
+	 * @return Response.
+	 * @throws Exception Error if all attempts failed.
+	 */
+	private Response performHedgedAttempt(CommRetryPolicy policy, int attempt) throws Exception {
+		long hedge_delay = policy.getHedgeDelay();
+		if (hedge_delay < 0) {
+			return performSingleAttempt(policy, attempt);
+		}
+
+		CompletionService<Response> service = new ExecutorCompletionService<>(CommExecutors.getHedgeExecutor());
+		List<AttemptCallable> attempts = new ArrayList<>(2);
+		List<Future<Response>> futures = new ArrayList<>(2);
+		try {
+			attempts.add(new AttemptCallable(policy, attempt, false));
+			futures.add(service.submit(attempts.get(0)));
+			Future<Response> done = service.poll(hedge_delay, TimeUnit.MILLISECONDS);
+			if (null == done) {
+				_logger.info("Hedged attempt after " + hedge_delay + " ms");
+				attempts.add(new AttemptCallable(policy, attempt, true));
+				futures.add(service.submit(attempts.get(1)));
+			}
+
+			Exception last_exception = null;
+			for (int i = 0; i < futures.size(); ++i) {
+				if (null == done) {
+					done = service.take();
+				}
+				AttemptCallable done_attempt = attempts.get(futures.indexOf(done));
+				_last_timing = done_attempt._timing;
+				try {
+					return done.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					last_exception = (cause instanceof Exception) ? (Exception) cause : e;
+				}
+				done = null;
+			}
+			throw last_exception;
+		} finally {
+			for (int i = 0; i < attempts.size(); ++i) {
+				futures.get(i).cancel(true);
+				attempts.get(i).abort();
+			}
+		}
+	}
+
+	/**
+	 * Attempt running in hedge executor. It has its own connection tracker and timing record, so the losing
+	 * attempt can be disconnected without touching the other one.
+	 */
+	private class AttemptCallable implements Callable<Response> {
+
+		private final CommRetryPolicy _policy;
+		private final int _attempt;
+		private final boolean _is_hedged;
+		private final CommConnectionTracker _attempt_connections = new CommConnectionTracker();
+		private final CommCallTiming _timing = createTiming();
+
+		AttemptCallable(CommRetryPolicy policy, int attempt, boolean is_hedged) {
+			_policy = policy;
+			_attempt = attempt;
+			_is_hedged = is_hedged;
+			synchronized (_hedge_connections) {
+				_hedge_connections.add(_attempt_connections);
+			}
+			if (_is_cancelled) {
+				_attempt_connections.abortAll();
+			}
+		}
+
+		@Override
+		public Response call() throws Exception {
+			return performAttempt(_policy, _attempt, _is_hedged, _attempt_connections, _timing);
+		}
+
+		/**
+		 * Disconnect running connection of attempt. Completed attempt has no connection.
+		 */
+		void abort() {
+			synchronized (_hedge_connections) {
+				_hedge_connections.remove(_attempt_connections);
+			}
+			_attempt_connections.abortAll();
+		}
+	}
+
+	/**
+	 * Get Http status code of exception.
+	 * @param e Exception object.
+	 * @return Http status code, or -1 if exception is not an error response.
+	 */
+	static int getStatusCode(Exception e) {
+		return (e instanceof CommHttpException) ? ((CommHttpException) e).getStatusCode() : -1;
+	}
+
+	/**
+	 * @return New timing record of attempt, or null if not tracing.
+	 */
+	private CommCallTiming createTiming() {
+		return _is_tracing ? new CommCallTiming(CommCallTiming.Kind.MESSAGE, _url_str) : null;
+	}
+
+	/**
+	 * Send request once. Response may be served from cache.
+	 * @param connections Tracker of connection of this attempt.
+	 * @param timing Timing record of this attempt. (nullable)
+	 * @return Response.
+	 * @throws Exception Connection, response or handler error.
+	 */
+	private Response performRequest(CommConnectionTracker connections, CommCallTiming timing) throws Exception {
+		Response response = new Response();
+		HttpURLConnection conn_url = null;
+		String url_str = _url_str;
+		response._timing = timing;
+		synchronized (this) {
+			++_attempt_count;
+		}
+		try {
+			CommHttpCache cache = (_status.isHttpGet() && !_is_streaming) ? _status.getResponseCache() : null;
+			String cache_key = (null == cache) ? null : getCacheKey(url_str);
+			CommHttpCache.Entry cache_entry = (null == cache) ? null : cache.get(cache_key);
+
+			if (null != cache_entry && CommBaseStatus.CachePolicy.USE_HEADERS == _status.getCachePolicy()
+					&& cache_entry.isFresh()) {
+				_logger.fine("URL (cached) : " + url_str);
+				cache.recordHit();
+				response._status_code = HttpURLConnection.HTTP_OK;
+				response._is_cached = true;
+				if (null != timing) {
+					timing._is_cached = true;
+				}
+				handleBody(new CommResponseBody(cache_entry._body, cache_entry._body.length), cache_entry._content_type,
+						response);
+				return response;
+			}
+
+			_logger.fine("URL : " + url_str);
+			conn_url = CommHttpTransport.openConnection(url_str, CommHttpTransport.TIME_OUT_CONN,
+					CommHttpTransport.TIME_OUT_READ, _deadline);
+			connections.add(conn_url);
+			CommCodec codec = _status.getCodec();
+			if (null != codec) {
+				conn_url.setRequestProperty("Accept", codec.getAcceptString());
+			}
+
+			if (null != cache_entry) {
+				// Conditional request for stale entry
+				if (null != cache_entry._etag) {
+					conn_url.setRequestProperty("If-None-Match", cache_entry._etag);
+				}
+				if (null != cache_entry._last_modified) {
+					conn_url.setRequestProperty("If-Modified-Since", cache_entry._last_modified);
+				}
+			}
+
+			CommBodyWriter body_writer = _status.isHttpPost() ? _status.getBodyWriter() : null;
+			String content_type = _status.isHttpPost() ? _status.getPostContentType(body_writer) : null;
+			if (null != content_type) {
+				conn_url.setRequestProperty("Content-Type", content_type);
+			}
+			if (null != body_writer) {
+				_logger.fine("POST DATA : streaming " + body_writer.getContentLength() + " bytes");
+				boolean is_gzip = CommHttpTransport.prepareStreamingBody(conn_url, body_writer.getContentLength(),
+						_status.getGzipPostThreshold());
+				connect(conn_url, timing);
+				long write_start_time = System.nanoTime();
+				long bytes_sent = CommHttpTransport.writeStreamingBody(conn_url, body_writer, is_gzip);
+				if (null != timing) {
+					timing._write_time = System.nanoTime() - write_start_time;
+					timing._bytes_sent = bytes_sent;
+				}
+			} else if (_status.isHttpPost()) {
+				byte[] post_body = _status.getPostBody();
+				_logger.fine("POST DATA : " + post_body.length + " bytes");
+				byte[] body = CommHttpTransport.prepareBody(conn_url, post_body, _status.getGzipPostThreshold());
+				connect(conn_url, timing);
+				long write_start_time = System.nanoTime();
+				CommHttpTransport.writePreparedBody(conn_url, body);
+				if (null != timing) {
+					timing._write_time = System.nanoTime() - write_start_time;
+					timing._bytes_sent = body.length;
+				}
+			} else {
+				conn_url.setDoOutput(false);
+				connect(conn_url, timing);
+			}
+
+			long response_start_time = System.nanoTime();
+			response._status_code = conn_url.getResponseCode();
+			if (null != timing) {
+				timing._status_code = response._status_code;
+				timing._first_byte_time = System.nanoTime() - response_start_time;
+			}
+			if (null == cache) {
+				readResponse(CommHttpTransport.getResponseStream(conn_url), conn_url.getContentLength(),
+						conn_url.getContentType(), response);
+			} else if (null != cache_entry && HttpURLConnection.HTTP_NOT_MODIFIED == response._status_code) {
+				cache.recordConditionalHit();
+				CommHttpCache.updateEntry(cache_entry, conn_url);
+				cache.put(cache_key, cache_entry);
+				CommHttpTransport.closeStream(conn_url.getInputStream());
+				handleBody(new CommResponseBody(cache_entry._body, cache_entry._body.length), cache_entry._content_type,
+						response);
+			} else {
+				cache.recordMiss();
+				CommResponseBody body = readBody(CommHttpTransport.getResponseStream(conn_url),
+						conn_url.getContentLength(), timing);
+				CommHttpCache.Entry new_entry = CommHttpCache.createEntry(conn_url, body.toByteArray());
+				if (null != new_entry) {
+					cache.put(cache_key, new_entry);
+				} else {
+					cache.remove(cache_key);
+				}
+				handleBody(body, conn_url.getContentType(), response);
+			}
+			return response;
+		} catch (Exception e) {
+			if (null != conn_url) {
+				conn_url.disconnect();	// Broken connection must not be reused.
+			}
+			throw e;
+		} finally {
+			if (null != conn_url) {
+				connections.remove(conn_url);
+			}
+		}
+	}
+
+	/**
+	 * Get key of response cache. Response of codec depends on Accept, so Accept of codec is a part of key.
+	 * @param url_str Request URL string.
+	 * @return Cache key.
+	 */
+	private String getCacheKey(String url_str) {
+		CommCodec codec = _status.getCodec();
+		return (null == codec) ? url_str : url_str + "\nAccept: " + codec.getAcceptString();
+	}
+
+	/**
+	 * Connect server and record connect time.
+	 * @param conn_url Connection object.
+	 * @param timing Timing record. (nullable)
+	 * @throws IOException Connection error.
+	 */
+	private static void connect(HttpURLConnection conn_url, CommCallTiming timing) throws IOException {
+		long connect_start_time = System.nanoTime();
+		conn_url.connect();
+		if (null != timing) {
+			timing._connect_time = System.nanoTime() - connect_start_time;
+		}
+	}
+
+	/**
+	 * Pass response stream to handler, or read it to response body.
+	 * @param input_stream Response stream. (Closed by this method)
+	 * @param size_hint Expected byte count from Content-Length. (negative if unknown)
+	 * @param content_type Content-Type of response. (nullable)
+	 * @param response Response.
+	 * @throws Exception Reading or handler error.
+	 */
+	private void readResponse(InputStream input_stream, int size_hint, String content_type, Response response)
+			throws Exception {
+		if (null == _response_handler) {
+			handleBody(readBody(input_stream, size_hint, response._timing), content_type, response);
+			return;
+		}
+
+		// Pass input stream to handler directly
+		CommCallTiming timing = response._timing;
+		CommCountingInputStream counting_stream = null;
+		if (null != timing) {
+			counting_stream = new CommCountingInputStream(input_stream);
+			input_stream = counting_stream;
+		}
+		long start_time = System.nanoTime();
+		try {
+			response._data = callHandler(input_stream, content_type);
+		} finally {
+			CommHttpTransport.closeStream(input_stream);
+		}
+		if (null != timing) {
+			timing._decode_time = System.nanoTime() - start_time;
+			timing._bytes_received = counting_stream.getCount();
+		}
+	}
+
+	/**
+	 * Pass response body already in memory to handler, or convert it to data string.
+	 * @param body Response body.
+	 * @param content_type Content-Type of response. (nullable)
+	 * @param response Response.
+	 * @throws Exception Handler error.
+	 */
+	private void handleBody(CommResponseBody body, String content_type, Response response) throws Exception {
+		long start_time = System.nanoTime();
+		if (null != _response_handler) {
+			response._data = callHandler(body.openStream(), content_type);
+		} else {
+			response._data = body;
+			response._msg = body.toString();
+		}
+		if (null != response._timing) {
+			response._timing._decode_time = System.nanoTime() - start_time;
+		}
+	}
+
+	/**
+	 * Pass response stream to handler, with Content-Type if handler receives it.
+	 * @param input_stream Response stream.
+	 * @param content_type Content-Type of response. (nullable)
+	 * @return Handler result.
+	 * @throws Exception Handler error.
+	 */
+	private Object callHandler(InputStream input_stream, String content_type) throws Exception {
+		if (_response_handler instanceof IContentResponseHandler) {
+			return ((IContentResponseHandler) _response_handler).onResponse(input_stream, content_type);
+		}
+		return _response_handler.onResponse(input_stream);
+	}
+
+	/**
+	 * Read all data of stream.
+	 * @param input_stream Input stream. (Closed by this method)
+	 * @param size_hint Expected byte count from Content-Length. (negative if unknown)
+	 * @param timing Timing record. (nullable)
+	 * @return Response body.
+	 * @throws IOException Reading error.
+	 */
+	private static CommResponseBody readBody(InputStream input_stream, int size_hint, CommCallTiming timing)
+			throws IOException {
+		long start_time = System.nanoTime();
+		try {
+			CommResponseBody body = CommResponseBody.read(input_stream, size_hint);
+			if (null != timing) {
+				timing._read_time = System.nanoTime() - start_time;
+				timing._bytes_received = body.length();
+			}
+			return body;
+		} finally {
+			CommHttpTransport.closeStream(input_stream);
+		}
+	}
+
+}
@@ -0,0 +1,31 @@
+package webservice.task;
+
+import java.io.IOException;
+
+/**
+ * CommHttpException is thrown when server responds an error status code (400 or above).
+ */
+public class CommHttpException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int _status_code;
+
+	/**
+	 * Constructor.
+	 * @param status_code Http status code.
+	 * @param msg Response message.
+	 */
+	public CommHttpException(int status_code, String msg) {
+		super("HTTP " + status_code + ((null == msg) ? "" : " " + msg));
+		_status_code = status_code;
+	}
+
+	/**
+	 * @return Http status code.
+	 */
+	public int getStatusCode() {
+		return _status_code;
+	}
+
+}
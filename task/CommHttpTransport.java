@@ -0,0 +1,291 @@
+package webservice.task;
+
+import webservice.CommBodyWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * CommHttpTransport contains connection helpers shared by tasks.
+ *
+ * 1. Connections are not disconnected after success, so HttpURLConnection can keep them alive and reuse them.
+ *    Response stream must be read to the end and closed by closeStream().
+ * 2. Responses are requested with gzip encoding and decoded transparently.
+ * 3. Request body can be compressed by gzip when its size reaches a threshold.
+ * 4. Timeouts are limited by request deadline, which is a time of currentTime() clock.
+ */
+public final class CommHttpTransport {
+
+	/**
+	 * Default connect timeout (millisecond).
+	 */
+	public static final int TIME_OUT_CONN = 5000;
+	/**
+	 * Default read timeout (millisecond).
+	 */
+	public static final int TIME_OUT_READ = 10000;
+
+	/**
+	 * Executor to disconnect aborted connections.
+	 */
+	private static final ExecutorService _abort_executor =
+			CommExecutors.newDaemonCachedThreadPool("CommHttpTransport-abort");
+
+	/**
+	 * Maximum byte count skipped to drain unread response before closing stream.
+	 */
+	private static final int MAX_DRAIN_SIZE = 64 * 1024;
+
+	private CommHttpTransport() {}
+
+	/**
+	 * Set http.keepAlive and http.maxConnections system properties. They are process-wide settings of the
+	 * platform connection cache, not a pool of this library: every HttpURLConnection in the process is affected,
+	 * http.maxConnections limits idle keep-alive connections kept per destination (not running connections),
+	 * and the properties are read only once, so this method must be called before the first connection is opened.
+	 * @param max_idle_connections Maximum idle connections kept per destination.
+	 */
+	public static void setProcessKeepAliveConnections(int max_idle_connections) {
+		System.setProperty("http.keepAlive", "true");
+		System.setProperty("http.maxConnections", String.valueOf(max_idle_connections));
+	}
+
+	/**
+	 * Get current time of deadline clock. It is monotonic and not affected by system time change.
+	 * @return Current time (millisecond).
+	 */
+	public static long currentTime() {
+		return System.nanoTime() / 1000000;
+	}
+
+	/**
+	 * Get remaining time before deadline.
+	 * @param deadline Deadline of currentTime() clock. (0 is no deadline)
+	 * @return Remaining time (millisecond), or Long.MAX_VALUE if no deadline.
+	 */
+	public static long getRemainingTime(long deadline) {
+		return (deadline <= 0) ? Long.MAX_VALUE : deadline - currentTime();
+	}
+
+	/**
+	 * Open connection that accepts gzip response. Timeouts are limited by remaining time before deadline.
+	 * @param url_str URL string.
+	 * @param conn_timeout Connect timeout (millisecond, 0 is infinite).
+	 * @param read_timeout Read timeout (millisecond, 0 is infinite).
+	 * @param deadline Deadline of currentTime() clock. (0 is no deadline)
+	 * @return Connection object.
+	 * @throws IOException Connection error, or SocketTimeoutException if deadline is exceeded.
+	 */
+	public static HttpURLConnection openConnection(String url_str, int conn_timeout, int read_timeout, long deadline)
+			throws IOException {
+		long remaining_time = getRemainingTime(deadline);
+		if (remaining_time <= 0) {
+			throw new SocketTimeoutException("Deadline exceeded");
+		}
+		return openConnection(url_str, limitTimeout(conn_timeout, remaining_time),
+				limitTimeout(read_timeout, remaining_time));
+	}
+
+	/**
+	 * Open connection that accepts gzip response.
+	 * @param url_str URL string.
+	 * @param conn_timeout Connect timeout (millisecond, 0 is infinite).
+	 * @param read_timeout Read timeout (millisecond, 0 is infinite).
+	 * @return Connection object.
+	 * @throws IOException Connection error.
+	 */
+	public static HttpURLConnection openConnection(String url_str, int conn_timeout, int read_timeout) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection)new URL(url_str).openConnection();
+		conn.setConnectTimeout(conn_timeout);
+		conn.setReadTimeout(read_timeout);
+		conn.setRequestProperty("Accept-Encoding", "gzip");
+		return conn;
+	}
+
+	/**
+	 * Write request body. Body is compressed by gzip if gzip_threshold is not negative and body size reaches it.
+	 * @param conn Connection object.
+	 * @param body Request body.
+	 * @param gzip_threshold Minimum body size to compress. (negative is never)
+	 * @throws IOException Connection error.
+	 */
+	public static void writeBody(HttpURLConnection conn, byte[] body, int gzip_threshold) throws IOException {
+		writePreparedBody(conn, prepareBody(conn, body, gzip_threshold));
+	}
+
+	/**
+	 * Compress request body if needed and set streaming mode. It must be called before connection is connected.
+	 * @param conn Connection object.
+	 * @param body Request body.
+	 * @param gzip_threshold Minimum body size to compress. (negative is never)
+	 * @return Body to be written by writePreparedBody().
+	 * @throws IOException Compressing error.
+	 */
+	public static byte[] prepareBody(HttpURLConnection conn, byte[] body, int gzip_threshold) throws IOException {
+		if (gzip_threshold >= 0 && body.length >= gzip_threshold) {
+			body = gzip(body);
+			conn.setRequestProperty("Content-Encoding", "gzip");
+		}
+		conn.setDoInput(true);
+		conn.setDoOutput(true);
+		conn.setFixedLengthStreamingMode(body.length);
+		return body;
+	}
+
+	/**
+	 * Write request body prepared by prepareBody().
+	 * @param conn Connection object.
+	 * @param body Prepared request body.
+	 * @throws IOException Connection error.
+	 */
+	public static void writePreparedBody(HttpURLConnection conn, byte[] body) throws IOException {
+		OutputStream os = conn.getOutputStream();
+		try {
+			os.write(body);
+			os.flush();
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Set streaming mode of request body written by body writer. It must be called before connection is connected.
+	 * Body of known length is sent in fixed-length mode, and others in chunked mode. Body is compressed by gzip if
+	 * gzip_threshold is not negative and body length reaches it or is unknown, then it is sent in chunked mode.
+	 * @param conn Connection object.
+	 * @param content_length Body length, or -1 if unknown.
+	 * @param gzip_threshold Minimum body size to compress. (negative is never)
+	 * @return True if body must be compressed by writeStreamingBody().
+	 */
+	public static boolean prepareStreamingBody(HttpURLConnection conn, long content_length, int gzip_threshold) {
+		boolean is_gzip = gzip_threshold >= 0 && (content_length < 0 || content_length >= gzip_threshold);
+		conn.setDoInput(true);
+		conn.setDoOutput(true);
+		if (is_gzip) {
+			conn.setRequestProperty("Content-Encoding", "gzip");
+			conn.setChunkedStreamingMode(0);
+		} else if (content_length >= 0) {
+			conn.setFixedLengthStreamingMode(content_length);
+		} else {
+			conn.setChunkedStreamingMode(0);
+		}
+		return is_gzip;
+	}
+
+	/**
+	 * Write request body by body writer directly to connection stream.
+	 * @param conn Connection object prepared by prepareStreamingBody().
+	 * @param writer Body writer.
+	 * @param is_gzip Return value of prepareStreamingBody().
+	 * @return Byte count sent to connection.
+	 * @throws IOException Connection error or writing error.
+	 */
+	public static long writeStreamingBody(HttpURLConnection conn, CommBodyWriter writer, boolean is_gzip)
+			throws IOException {
+		CommCountingOutputStream counting_stream = new CommCountingOutputStream(conn.getOutputStream());
+		OutputStream os = is_gzip ? new GZIPOutputStream(counting_stream, 8192) : counting_stream;
+		try {
+			writer.writeTo(os);
+			os.flush();
+		} finally {
+			os.close();
+		}
+		return counting_stream.getCount();
+	}
+
+	/**
+	 * Get response stream. Gzip response is decoded.
+	 * @param conn Connection object.
+	 * @return Response stream.
+	 * @throws IOException Connection error or error response.
+	 */
+	public static InputStream getResponseStream(HttpURLConnection conn) throws IOException {
+		int status_code = conn.getResponseCode();
+		if (status_code >= HttpURLConnection.HTTP_BAD_REQUEST) {
+			closeStream(conn.getErrorStream());
+			throw new CommHttpException(status_code, conn.getResponseMessage());
+		}
+		InputStream input_stream = conn.getInputStream();
+		if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+			input_stream = new GZIPInputStream(input_stream);
+		}
+		return input_stream;
+	}
+
+	/**
+	 * Read remaining data and close stream, so the connection can be reused.
+	 * @param input_stream Response stream.
+	 */
+	public static void closeStream(InputStream input_stream) {
+		if (null == input_stream) {
+			return;
+		}
+		try {
+			byte[] buffer = new byte[4096];
+			int drain_size = 0;
+			int count;
+			while (drain_size < MAX_DRAIN_SIZE && (count = input_stream.read(buffer)) != -1) {
+				drain_size += count;
+			}
+		} catch (IOException e) {
+			// Connection is not reusable, but nothing to do.
+		}
+		try {
+			input_stream.close();
+		} catch (IOException e) {
+			// Ignore
+		}
+	}
+
+	/**
+	 * Disconnect connections in worker thread. Closing TLS connection may send data, so it is not done in main thread.
+	 * @param connections Connection objects.
+	 */
+	public static void abortConnections(final Collection<HttpURLConnection> connections) {
+		if (connections.isEmpty()) {
+			return;
+		}
+		_abort_executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				for (HttpURLConnection conn : connections) {
+					conn.disconnect();
+				}
+			}
+		});
+	}
+
+	private static int limitTimeout(int timeout, long remaining_time) {
+		if (0 != timeout && timeout <= remaining_time) {
+			return timeout;
+		}
+		return (int) Math.min(remaining_time, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Compress data by gzip.
+	 * @param data Data bytes.
+	 * @return Compressed data.
+	 * @throws IOException Compressing error.
+	 */
+	static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream byte_stream = new ByteArrayOutputStream(Math.max(data.length / 4, 64));
+		GZIPOutputStream gzip_stream = new GZIPOutputStream(byte_stream);
+		try {
+			gzip_stream.write(data);
+		} finally {
+			gzip_stream.close();
+		}
+		return byte_stream.toByteArray();
+	}
+
+}
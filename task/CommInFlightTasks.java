@@ -0,0 +1,47 @@
+package webservice.task;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CommInFlightTasks keeps running tasks by key, so identical requests can attach their notify to
+ * the running task instead of starting another connection.
+ *
+ * Tasks are registered, found and removed in main thread only, so no synchronization is needed.
+ *
+ * @param <TaskType> Task type.
+ */
+class CommInFlightTasks<TaskType> {
+
+	private final Map<String, TaskType> _tasks = new HashMap<>();
+
+	/**
+	 * Find running task of key.
+	 * @param key Task key.
+	 * @return Running task, or null if not found.
+	 */
+	TaskType get(String key) {
+		return (null == key) ? null : _tasks.get(key);
+	}
+
+	/**
+	 * Register running task.
+	 * @param key Task key.
+	 * @param task Task object.
+	 */
+	void put(String key, TaskType task) {
+		_tasks.put(key, task);
+	}
+
+	/**
+	 * Remove task if the registered task of key is the same object.
+	 * @param key Task key.
+	 * @param task Task object.
+	 */
+	void remove(String key, TaskType task) {
+		if (null != key && _tasks.get(key) == task) {
+			_tasks.remove(key);
+		}
+	}
+
+}
@@ -5,8 +5,16 @@ import android.graphics.BitmapFactory;
 import android.os.AsyncTask;
 import android.util.Log;
 
+import webservice.CommBitmapCache;
+import webservice.CommBitmapPool;
+import webservice.CommCallTiming;
+import webservice.CommRequestEventListener;
+import webservice.CommRequestEvents;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -28,6 +36,30 @@ public class CommRequestBitmapTask extends AsyncTask<String, Void, RequestBitmap
 
     private boolean _is_success = false;
     private List<ActionComplete> _complete_notify = new ArrayList<>();
+    private CommBitmapCache _cache = null;
+    private CommBitmapPool _bitmap_pool = null;
+    private int _target_width = 0;
+    private int _target_height = 0;
+    private Bitmap.Config _decode_config = Bitmap.Config.ARGB_8888;
+    private boolean _is_encoded_only = false;
+    private String _in_flight_key = null;
+    private long _deadline = 0;
+    private final CommConnectionTracker _connections = new CommConnectionTracker();
+    private List<CommRequestEventListener> _event_listeners = new ArrayList<>();
+    private long _execute_time = 0;
+    /**
+     * True if timing is recorded, set when a listener is enabled before the task starts running.
+     */
+    private volatile boolean _is_tracing = false;
+    /**
+     * Timing record, or null if no listener is enabled when the task starts running.
+     */
+    private CommCallTiming _timing = null;
+
+    /**
+     * Running tasks shared by coalesce key.
+     */
+    private static final CommInFlightTasks<CommRequestBitmapTask> _in_flight_tasks = new CommInFlightTasks<>();
 
     /**
      * Callback interface.
@@ -60,9 +92,128 @@ public class CommRequestBitmapTask extends AsyncTask<String, Void, RequestBitmap
         _complete_notify.add(notify);
     }
 
+    /**
+     * Remove notify object. If no notify remains, the task is cancelled.
+     *
+     * @param notify Notify object.
+     */
+    public void removeCompleteNotify(ActionComplete notify) {
+        _complete_notify.remove(notify);
+        if (_complete_notify.isEmpty()) {
+            abort();
+        }
+    }
+
+    /**
+     * Cancel task and disconnect running connection immediately. (Main thread only)
+     */
+    public void abort() {
+        _in_flight_tasks.remove(_in_flight_key, this);
+        cancel(true);
+        _connections.abortAll();
+    }
+
+    /**
+     * Set deadline of task. Connection timeouts are limited by remaining time.
+     *
+     * @param deadline Deadline of CommHttpTransport.currentTime() clock. (0 is no deadline)
+     */
+    public void setDeadline(long deadline) {
+        _deadline = deadline;
+    }
+
+    /**
+     * Find running task registered by registerInFlight(). (Main thread only)
+     *
+     * @param key Coalesce key.
+     * @return Running task, or null if not found.
+     */
+    public static CommRequestBitmapTask findInFlight(String key) {
+        return _in_flight_tasks.get(key);
+    }
+
+    /**
+     * Register this task as running task of key, so identical requests can share it. (Main thread only)
+     *
+     * @param key Coalesce key.
+     */
+    public void registerInFlight(String key) {
+        if (null == key) {
+            return;
+        }
+        _in_flight_key = key;
+        _in_flight_tasks.put(key, this);
+    }
+
+    /**
+     * Set bitmap cache. Encoded data is read from or written to disk tier,
+     * and decoded bitmap is put to memory tier.
+     *
+     * @param cache Cache object. (null if cache is not used)
+     */
+    public void setCache(CommBitmapCache cache) {
+        _cache = cache;
+    }
+
+    /**
+     * @return Bitmap cache set by setCache(), or null.
+     */
+    public CommBitmapCache getCache() {
+        return _cache;
+    }
+
+    /**
+     * Set decoding option. If target size is set, image is downsampled by inSampleSize
+     * to the smallest size not less than target size.
+     *
+     * @param target_width Target width. (0 if image is decoded at full size)
+     * @param target_height Target height. (0 if image is decoded at full size)
+     * @param config Decoding config. (null is ARGB_8888)
+     */
+    public void setDecodeOption(int target_width, int target_height, Bitmap.Config config) {
+        _target_width = target_width;
+        _target_height = target_height;
+        _decode_config = (null == config) ? Bitmap.Config.ARGB_8888 : config;
+    }
+
+    /**
+     * Set encoded only mode. Encoded data is downloaded to disk tier of cache without decoding, and
+     * notify is called with null bitmap. Cache with disk tier must be set.
+     *
+     * @param is_encoded_only True if image is not decoded.
+     */
+    public void setEncodedOnly(boolean is_encoded_only) {
+        _is_encoded_only = is_encoded_only;
+    }
+
+    /**
+     * Set bitmap pool. Decoded bitmap reuses memory of pooled bitmap by inBitmap.
+     *
+     * @param pool Bitmap pool. (null if pool is not used)
+     */
+    public void setBitmapPool(CommBitmapPool pool) {
+        _bitmap_pool = pool;
+    }
+
+    /**
+     * Add timing event listeners of request. A listener already added, like a limiter shared by coalesced
+     * requests, is not added again, so it receives one event per connection. Listeners added after the task
+     * starts running receive no event of it. (Main thread only)
+     *
+     * @param listeners Listener list. (nullable)
+     */
+    public void addEventListeners(List<CommRequestEventListener> listeners) {
+        CommRequestEvents.addAbsent(_event_listeners, listeners);
+        if (AsyncTask.Status.PENDING != getStatus() && CommRequestEvents.isEnabled(_event_listeners)) {
+            _is_tracing = true;    // Queued task records timing if it has not started yet.
+        }
+    }
+
     @Override
     protected void onPreExecute() {
         super.onPreExecute();
+        _execute_time = System.nanoTime();
+        _is_tracing = CommRequestEvents.isEnabled(_event_listeners);
     }
 
     /**
@@ -77,12 +228,73 @@ public class CommRequestBitmapTask extends AsyncTask<String, Void, RequestBitmap
         data._msg = "";
         _is_success = false;
 
+        if (_is_tracing) {
+            _timing = new CommCallTiming(CommCallTiming.Kind.BITMAP, params[0]);
+            _timing._queue_time = System.nanoTime() - _execute_time;
+        }
+
         try {
-            URL url = new URL(params[0]);
-            HttpURLConnection conn = (HttpURLConnection)url.openConnection();
-            conn.connect();
-            data._bitmap = BitmapFactory.decodeStream(conn.getInputStream());
-            conn.disconnect();
+            String url_str = params[0];
+            if (_is_encoded_only) {
+                if (_cache.hasEncoded(url_str)) {
+                    if (null != _timing) {
+                        _timing._is_cached = true;
+                    }
+                } else {
+                    _cache.putEncoded(url_str, downloadBytes(url_str));
+                }
+                _is_success = true;
+                return data;
+            }
+
+            boolean is_disk_cache = (null != _cache && _cache.hasDiskCache());
+            if (is_disk_cache || isSampling() || null != _bitmap_pool) {
+                // Bounds pass needs encoded data twice, so data is downloaded to memory first.
+                byte[] encoded = is_disk_cache ? _cache.getEncoded(url_str) : null;
+                boolean is_disk_hit = (null != encoded);
+                if (!is_disk_hit) {
+                    encoded = downloadBytes(url_str);
+                } else if (null != _timing) {
+                    _timing._is_cached = true;
+                }
+                long decode_start_time = System.nanoTime();
+                data._bitmap = decodeBitmap(encoded);
+                if (null != _timing) {
+                    _timing._decode_time = System.nanoTime() - decode_start_time;
+                }
+                if (is_disk_cache && !is_disk_hit && null != data._bitmap) {
+                    _cache.putEncoded(url_str, encoded);
+                }
+            } else {
+                HttpURLConnection conn = openConnection(url_str);
+                try {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inPreferredConfig = _decode_config;
+                    InputStream input_stream = getResponseStream(conn);
+                    CommCountingInputStream counting_stream = null;
+                    if (null != _timing) {
+                        counting_stream = new CommCountingInputStream(input_stream);
+                        input_stream = counting_stream;
+                    }
+                    long decode_start_time = System.nanoTime();
+                    data._bitmap = BitmapFactory.decodeStream(input_stream, null, options);
+                    CommHttpTransport.closeStream(input_stream);
+                    if (null != _timing) {
+                        _timing._decode_time = System.nanoTime() - decode_start_time;
+                        _timing._bytes_received = counting_stream.getCount();
+                    }
+                } catch (IOException e) {
+                    conn.disconnect();  // Broken connection must not be reused.
+                    throw e;
+                } finally {
+                    _connections.remove(conn);
+                }
+            }
+
+            if (null != _cache && null != data._bitmap) {
+                _cache.putBitmap(CommBitmapCache.getMemoryKey(url_str, _target_width, _target_height, _decode_config),
+                        data._bitmap);
+            }
             _is_success = true;
         } catch (Exception e) {
             Log.w(this.getClass().getName(), e.toString());
@@ -92,6 +304,139 @@ public class CommRequestBitmapTask extends AsyncTask<String, Void, RequestBitmap
         return data;
     }
 
+    /**
+     * @return True if target size is set.
+     */
+    private boolean isSampling() {
+        return _target_width > 0 && _target_height > 0;
+    }
+
+    /**
+     * Decode encoded data with target size and bitmap pool.
+     *
+     * @param encoded Encoded data.
+     * @return Bitmap object, or null if data cannot be decoded.
+     */
+    private Bitmap decodeBitmap(byte[] encoded) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(encoded, 0, encoded.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = _decode_config;
+        options.inSampleSize = isSampling()
+                ? calculateInSampleSize(options.outWidth, options.outHeight, _target_width, _target_height)
+                : 1;
+        if (null != _bitmap_pool) {
+            int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+            int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+            options.inMutable = true;
+            options.inBitmap = _bitmap_pool.get(width, height, _decode_config);
+        }
+
+        try {
+            return BitmapFactory.decodeByteArray(encoded, 0, encoded.length, options);
+        } catch (IllegalArgumentException e) {
+            // Pooled bitmap cannot be reused for this image.
+            if (null == options.inBitmap) {
+                throw e;
+            }
+            Log.w(this.getClass().getName(), "Cannot reuse bitmap: " + e.toString());
+            _bitmap_pool.put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(encoded, 0, encoded.length, options);
+        }
+    }
+
+    /**
+     * Calculate the largest power of 2 sample size that keeps both sides not less than target size.
+     *
+     * @param width Image width.
+     * @param height Image height.
+     * @param target_width Target width.
+     * @param target_height Target height.
+     * @return Sample size.
+     */
+    static int calculateInSampleSize(int width, int height, int target_width, int target_height) {
+        int sample_size = 1;
+        while ((width / (sample_size * 2)) >= target_width && (height / (sample_size * 2)) >= target_height) {
+            sample_size *= 2;
+        }
+        return sample_size;
+    }
+
+    /**
+     * Download encoded data from URL.
+     *
+     * @param url_str URL string.
+     * @return Encoded data.
+     * @throws IOException Connection error.
+     */
+    private byte[] downloadBytes(String url_str) throws IOException {
+        HttpURLConnection conn = openConnection(url_str);
+        try {
+            InputStream input_stream = getResponseStream(conn);
+            long read_start_time = System.nanoTime();
+            ByteArrayOutputStream output_stream = new ByteArrayOutputStream(Math.max(conn.getContentLength(), 8192));
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input_stream.read(buffer)) != -1) {
+                output_stream.write(buffer, 0, count);
+            }
+            CommHttpTransport.closeStream(input_stream);
+            if (null != _timing) {
+                _timing._read_time = System.nanoTime() - read_start_time;
+                _timing._bytes_received = output_stream.size();
+            }
+            return output_stream.toByteArray();
+        } catch (IOException e) {
+            conn.disconnect();  // Broken connection must not be reused.
+            throw e;
+        } finally {
+            _connections.remove(conn);
+        }
+    }
+
+    /**
+     * Get response stream and record time to first byte.
+     *
+     * @param conn Connection object.
+     * @return Response stream.
+     * @throws IOException Connection error.
+     */
+    private InputStream getResponseStream(HttpURLConnection conn) throws IOException {
+        long start_time = System.nanoTime();
+        InputStream input_stream = CommHttpTransport.getResponseStream(conn);
+        if (null != _timing) {
+            _timing._first_byte_time = System.nanoTime() - start_time;
+            _timing._status_code = conn.getResponseCode();
+        }
+        return input_stream;
+    }
+
+    /**
+     * Open connection with default timeouts limited by deadline, and track it for abort().
+     *
+     * @param url_str URL string.
+     * @return Connection object.
+     * @throws IOException Connection error.
+     */
+    private HttpURLConnection openConnection(String url_str) throws IOException {
+        HttpURLConnection conn = CommHttpTransport.openConnection(url_str, CommHttpTransport.TIME_OUT_CONN,
+                CommHttpTransport.TIME_OUT_READ, _deadline);
+        _connections.add(conn);
+        return conn;
+    }
+
+    @Override
+    protected void onCancelled(RequestBitmapData data) {
+        super.onCancelled(data);
+        _in_flight_tasks.remove(_in_flight_key, this);
+    }
+
     /**
      * Call all registered notify.
      *
@@ -100,9 +445,19 @@ public class CommRequestBitmapTask extends AsyncTask<String, Void, RequestBitmap
     @Override
     protected void onPostExecute(RequestBitmapData data) {
         super.onPostExecute(data);
+        _in_flight_tasks.remove(_in_flight_key, this);
+        long callback_start_time = System.nanoTime();
         for (ActionComplete notify : _complete_notify) {
             notify.onGetBitmapComplete(_is_success, data._bitmap, data._msg);
         }
+
+        if (null != _timing && CommRequestEvents.isEnabled(_event_listeners)) {
+            long end_time = System.nanoTime();
+            _timing._is_success = _is_success;
+            _timing._callback_time = end_time - callback_start_time;
+            _timing._total_time = end_time - _execute_time;
+            CommRequestEvents.dispatchCallEnd(_timing, _event_listeners);
+        }
     }
 
 }
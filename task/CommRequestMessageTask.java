@@ -4,30 +4,71 @@ import android.os.AsyncTask;
 import android.util.Log;
 
 import webservice.CommBaseStatus;
+import webservice.CommCallTiming;
+import webservice.CommRequestEventListener;
+import webservice.CommRequestEvents;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Encapsulation Result data for CommRequestMessageTask
+ */
+class RequestMessageData {
+	/**
+	 * Result data string or error message string.
+	 */
+	public String _msg;
+	/**
+	 * Result object created by IResponseHandler, or CommResponseBody if no handler.
+	 */
+	public Object _data;
+	/**
+	 * Http status code of response.
+	 */
+	public int _status_code;
+	/**
+	 * Timing record. (null if no event listener)
+	 */
+	public CommCallTiming _timing;
+}
+
 /**
  * CommRequestMessageTask extended from Android AsyncTask<> requests a message string to server
  * and responds string message. We use abstract class CommBaseStatus to implement connection setting
  * like url, http get/post, and sending string. When sending message completion, we call all register
  * interface ITaskCompleteAction to return data.
+ *
+ * If IResponseHandler is set, the response stream is passed to handler in the worker thread instead of
+ * converting to string, and the handler result is returned by IResponseCompleteAction interface.
+ *
+ * The request itself is sent by CommHttpCall, which does not depend on Android.
  */
-public class CommRequestMessageTask extends AsyncTask<CommBaseStatus, Void, String> {
+public class CommRequestMessageTask extends AsyncTask<CommBaseStatus, Void, RequestMessageData> {
 
 	private boolean _comm_success = false;
 	private List<ITaskCompleteAction> _complete_notify = new ArrayList<>();
-	private static final int TIME_OUT_CONN = 5000;
-	private static final int TIME_OUT_READ = 10000;
+	private List<IResponseCompleteAction> _response_notify = new ArrayList<>();
+	private CommHttpCall.IResponseHandler _response_handler = null;
+	private boolean _is_streaming = false;
+	private String _in_flight_key = null;
+
+	/**
+	 * Running tasks shared by coalesce key.
+	 */
+	private static final CommInFlightTasks<CommRequestMessageTask> _in_flight_tasks = new CommInFlightTasks<>();
+	private long _deadline = 0;
+	private List<CommRequestEventListener> _event_listeners = new ArrayList<>();
+	private long _execute_time = 0;
+	/**
+	 * True if timing is recorded, set when a listener is enabled at start or added while running.
+	 */
+	private volatile boolean _is_tracing = false;
+	/**
+	 * Running call, set in worker thread and cancelled by abort() in main thread.
+	 */
+	private volatile CommHttpCall _call = null;
+	private volatile boolean _is_aborted = false;
 
 	/**
 	 * Completion callback interface.
@@ -40,6 +81,24 @@ public class CommRequestMessageTask extends AsyncTask<CommBaseStatus, Void, Stri
 		void onTaskComplete(boolean isSuccess, String result);
 	}
 
+	/**
+	 * Response stream handler. It is called in worker thread, and its result is passed to IResponseCompleteAction.
+	 */
+	public interface IResponseHandler extends CommHttpCall.IResponseHandler {
+	}
+
+	/**
+	 * Completion callback interface with handler result object.
+	 */
+	public interface IResponseCompleteAction {
+		/**
+		 * @param isSuccess Running status. (true: success, false: failure)
+		 * @param data Result object of IResponseHandler, or CommResponseBody if no handler. (null if failure)
+		 * @param msg Error message string if failure.
+		 */
+		void onResponseComplete(boolean isSuccess, Object data, String msg);
+	}
+
 	/**
 	 * Constructor.
 	 */
@@ -47,63 +106,141 @@ public class CommRequestMessageTask extends AsyncTask<CommBaseStatus, Void, Stri
 		super();
 	}
 
+	/**
+	 * Find running task registered by registerInFlight(). (Main thread only)
+	 * @param key Coalesce key.
+	 * @return Running task, or null if not found.
+	 */
+	public static CommRequestMessageTask findInFlight(String key) {
+		return _in_flight_tasks.get(key);
+	}
+
+	/**
+	 * Register this task as running task of key, so identical requests can share it. (Main thread only)
+	 * @param key Coalesce key.
+	 */
+	public void registerInFlight(String key) {
+		if (null == key) {
+			return;
+		}
+		_in_flight_key = key;
+		_in_flight_tasks.put(key, this);
+	}
+
+	/**
+	 * Add timing event listeners of request. A listener already added, like a limiter shared by coalesced
+	 * requests, is not added again, so it receives one event per connection. Timing is recorded only while a
+	 * listener is enabled, so listeners added while running receive event if the next attempt starts after
+	 * it. (Main thread only)
+	 * @param listeners Listener list. (nullable)
+	 */
+	public void addEventListeners(List<CommRequestEventListener> listeners) {
+		CommRequestEvents.addAbsent(_event_listeners, listeners);
+		if (!_is_tracing && AsyncTask.Status.PENDING != getStatus()) {
+			startTracing();
+		}
+	}
+
+	/**
+	 * Record timing of next attempts if a listener is enabled.
+	 */
+	private void startTracing() {
+		if (!CommRequestEvents.isEnabled(_event_listeners)) {
+			return;
+		}
+		_is_tracing = true;
+		CommHttpCall call = _call;
+		if (null != call) {
+			call.setTracing(true);
+		}
+	}
+
 	@Override
 	protected void onPreExecute() {
 		super.onPreExecute();
+		_execute_time = System.nanoTime();
+		startTracing();
+	}
+
+	/**
+	 * Set deadline of task. Connection timeouts and retries are limited by remaining time.
+	 * @param deadline Deadline of CommHttpTransport.currentTime() clock. (0 is no deadline)
+	 */
+	public void setDeadline(long deadline) {
+		_deadline = deadline;
+	}
+
+	/**
+	 * Cancel task and disconnect running connections immediately. (Main thread only)
+	 */
+	public void abort() {
+		_in_flight_tasks.remove(_in_flight_key, this);
+		_is_aborted = true;
+		cancel(true);
+		CommHttpCall call = _call;
+		if (null != call) {
+			call.cancel();
+		}
+	}
+
+	/**
+	 * Set response stream handler. If handler is set, data string of ITaskCompleteAction is empty.
+	 * @param handler Handler object.
+	 */
+	public void setResponseHandler(CommHttpCall.IResponseHandler handler) {
+		_response_handler = handler;
+	}
+
+	/**
+	 * Set if response handler delivers data while reading response. Streaming task has no retry, hedging
+	 * and response cache. (See CommHttpCall.setStreaming())
+	 * @param is_streaming True if handler streams response.
+	 */
+	public void setStreaming(boolean is_streaming) {
+		_is_streaming = is_streaming;
 	}
 
 	/**
 	 * @param data Connection information object.
-	 * @return Data string (successful) or error message (failure).
+	 * @return Data string or handler result (successful), or error message (failure).
 	 */
 	@Override
-	protected String doInBackground(CommBaseStatus... data) {
-		String res_str = "";
+	protected RequestMessageData doInBackground(CommBaseStatus... data) {
+		RequestMessageData res_data = new RequestMessageData();
 		_comm_success = false;
+		long start_time = System.nanoTime();
+		CommHttpCall call = new CommHttpCall(data[0]);
+		call.setResponseHandler(_response_handler);
+		call.setStreaming(_is_streaming);
+		call.setDeadline(_deadline);
+		_call = call;
+		if (_is_tracing) {
+			call.setTracing(true);	// Read after _call is set, so startTracing() in main thread is not missed.
+		}
 		try {
-			
-			CommBaseStatus comm_data = data[0];
-			
-			Log.i(this.getClass().getName(), "URL : " + comm_data.getRequestURL());
-			URL url = new URL(comm_data.getRequestURL());
-			HttpURLConnection conn_url = (HttpURLConnection)url.openConnection();
-			conn_url.setConnectTimeout(TIME_OUT_CONN);
-			conn_url.setReadTimeout(TIME_OUT_READ);
-			
-			if (comm_data.isHttpPost()) {
-				conn_url.setDoInput(true);
-				conn_url.setDoOutput(true);
-				OutputStream os = conn_url.getOutputStream();
-				BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
-				Log.i(this.getClass().getName(), "POST DATA : " + comm_data.getPostString());
-				writer.write(comm_data.getPostString());
-				writer.flush();
-				writer.close();
-				os.close();
-			} else {
-				conn_url.setDoOutput(false);
-			}
-
-			// Get input stream and convert to data string
-			InputStream input_stream = conn_url.getInputStream();
-			BufferedReader reader = new BufferedReader(new InputStreamReader(input_stream, "UTF-8"));
-			StringBuilder builder = new StringBuilder();
-			String line = "";
-			while ((line = reader.readLine()) != null) {
-				builder.append(line);
+			if (_is_aborted) {
+				call.cancel();	// Aborted before call is set.
 			}
-			res_str = builder.toString();
-			reader.close();
-			
-			conn_url.disconnect();
+			CommHttpCall.Response response = call.execute();
+			res_data._msg = response._msg;
+			res_data._data = response._data;
+			res_data._status_code = response._status_code;
+			res_data._timing = response._timing;
 			_comm_success = true;
 		} catch (Exception e) {
 			e.printStackTrace();
-			res_str = e.toString();
+			res_data._msg = e.toString();
+			res_data._data = null;
+			res_data._timing = call.getLastTiming();
 			Log.w(this.getClass().getName(), "Exception: Exception:\n" + e.toString());
 		}
-		
-		return res_str;
+
+		if (null != res_data._timing) {
+			res_data._timing._is_success = _comm_success;
+			res_data._timing._attempt_count = call.getAttemptCount();
+			res_data._timing._queue_time = start_time - _execute_time;
+		}
+		return res_data;
 	}
 
 	/**
@@ -116,13 +253,67 @@ public class CommRequestMessageTask extends AsyncTask<CommBaseStatus, Void, Stri
 		}
 		_complete_notify.add(notify);
 	}
+
+	/**
+	 * Add notify object to call back list with handler result.
+	 * @param notify Notify object implemented with IResponseCompleteAction interface.
+	 */
+	public void addResponseNotify(IResponseCompleteAction notify) {
+		if (null == _response_notify) {
+			_response_notify = new ArrayList<>();
+		}
+		_response_notify.add(notify);
+	}
 	
+	/**
+	 * Remove notify object from call back list. If no notify remains, the task is cancelled.
+	 * @param notify Notify object implemented with ITaskCompleteAction interface.
+	 */
+	public void removeCompleteNotify(ITaskCompleteAction notify) {
+		_complete_notify.remove(notify);
+		cancelIfNoNotify();
+	}
+
+	/**
+	 * Remove notify object from call back list. If no notify remains, the task is cancelled.
+	 * @param notify Notify object implemented with IResponseCompleteAction interface.
+	 */
+	public void removeResponseNotify(IResponseCompleteAction notify) {
+		_response_notify.remove(notify);
+		cancelIfNoNotify();
+	}
+
+	private void cancelIfNoNotify() {
+		if (_complete_notify.isEmpty() && _response_notify.isEmpty()) {
+			abort();
+		}
+	}
+
 	@Override
-	protected void onPostExecute(String result) {
+	protected void onCancelled(RequestMessageData result) {
+		super.onCancelled(result);
+		_in_flight_tasks.remove(_in_flight_key, this);
+	}
+
+	@Override
+	protected void onPostExecute(RequestMessageData result) {
 		super.onPostExecute(result);
+		_in_flight_tasks.remove(_in_flight_key, this);
+		long callback_start_time = System.nanoTime();
 		// Call all notify list.
 		for (ITaskCompleteAction notify : _complete_notify) {
-			notify.onTaskComplete(_comm_success, result);
+			notify.onTaskComplete(_comm_success, result._msg);
+		}
+		for (IResponseCompleteAction notify : _response_notify) {
+			notify.onResponseComplete(_comm_success, result._data, result._msg);
+		}
+
+		CommCallTiming timing = result._timing;
+		if (null != timing && CommRequestEvents.isEnabled(_event_listeners)) {
+			long end_time = System.nanoTime();
+			timing._callback_time = end_time - callback_start_time;
+			timing._total_time = end_time - _execute_time;
+			CommRequestEvents.dispatchCallEnd(timing, _event_listeners);
 		}
 	}
 
@@ -0,0 +1,177 @@
+package webservice.task;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CommResponseBody holds whole response data read by CommHttpCall.
+ *
+ * Response is read into a single array presized from Content-Length when it is known, or into pooled
+ * chunks which are joined once at the end. Callers can consume raw bytes by getBytes() and length(),
+ * or UTF-8 text by getCharSequence() or toString(), which decode the data in one pass.
+ */
+public final class CommResponseBody {
+
+	/**
+	 * Maximum array size allocated from Content-Length before any data is read.
+	 */
+	private static final int MAX_PRESIZE = 4 * 1024 * 1024;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Response handler returning CommResponseBody, for IResponseCompleteAction users need raw bytes only.
+	 */
+	public static final CommHttpCall.IResponseHandler HANDLER = new CommHttpCall.IResponseHandler() {
+		@Override
+		public Object onResponse(InputStream input_stream) throws Exception {
+			return read(input_stream, -1);
+		}
+	};
+
+	private final byte[] _data;
+	private final int _length;
+	private CharBuffer _chars = null;
+
+	/**
+	 * Constructor.
+	 * @param data Data array. (Not copied)
+	 * @param length Valid byte count from start of array.
+	 */
+	public CommResponseBody(byte[] data, int length) {
+		_data = data;
+		_length = length;
+	}
+
+	/**
+	 * Read all data of stream. Stream is not closed.
+	 * @param input_stream Input stream.
+	 * @param size_hint Expected byte count, like Content-Length. (negative if unknown)
+	 * @return Response body.
+	 * @throws IOException Reading error.
+	 */
+	public static CommResponseBody read(InputStream input_stream, int size_hint) throws IOException {
+		byte[] data = null;
+		int length = 0;
+		int extra_byte = -1;
+		if (size_hint > 0) {
+			data = new byte[Math.min(size_hint, MAX_PRESIZE)];
+			int count;
+			while (length < data.length && (count = input_stream.read(data, length, data.length - length)) != -1) {
+				length += count;
+			}
+			if (length < data.length || (extra_byte = input_stream.read()) < 0) {
+				return new CommResponseBody(data, length);
+			}
+			// Body is longer than hint. (Like gzip encoded body) Continue reading by chunks.
+		}
+
+		List<byte[]> chunks = new ArrayList<>();
+		try {
+			byte[] chunk = CommByteArrayPool.obtain();
+			chunks.add(chunk);
+			int tail_length = 0;
+			if (extra_byte >= 0) {
+				chunk[tail_length++] = (byte) extra_byte;
+			}
+			while (true) {
+				if (tail_length == chunk.length) {
+					chunk = CommByteArrayPool.obtain();
+					chunks.add(chunk);
+					tail_length = 0;
+				}
+				int count = input_stream.read(chunk, tail_length, chunk.length - tail_length);
+				if (count == -1) {
+					break;
+				}
+				tail_length += count;
+			}
+
+			long total_length = (long) length + (long) (chunks.size() - 1) * CommByteArrayPool.CHUNK_SIZE + tail_length;
+			if (total_length > Integer.MAX_VALUE) {
+				throw new IOException("Response body is too large");
+			}
+			byte[] result = new byte[(int) total_length];
+			if (null != data) {
+				System.arraycopy(data, 0, result, 0, length);
+			}
+			int offset = length;
+			for (int i = 0; i < chunks.size(); ++i) {
+				int count = (i == chunks.size() - 1) ? tail_length : CommByteArrayPool.CHUNK_SIZE;
+				System.arraycopy(chunks.get(i), 0, result, offset, count);
+				offset += count;
+			}
+			return new CommResponseBody(result, result.length);
+		} finally {
+			for (byte[] chunk : chunks) {
+				CommByteArrayPool.release(chunk);
+			}
+		}
+	}
+
+	/**
+	 * Get backing array. Only first length() bytes are valid, and array must not be modified.
+	 * @return Data array.
+	 */
+	public byte[] getBytes() {
+		return _data;
+	}
+
+	/**
+	 * @return Valid byte count.
+	 */
+	public int length() {
+		return _length;
+	}
+
+	/**
+	 * Get data as array with exact length. Array is copied only if backing array is longer than data.
+	 * @return Data array.
+	 */
+	public byte[] toByteArray() {
+		if (_data.length == _length) {
+			return _data;
+		}
+		byte[] result = new byte[_length];
+		System.arraycopy(_data, 0, result, 0, _length);
+		return result;
+	}
+
+	/**
+	 * Open stream to read data without copy.
+	 * @return Input stream.
+	 */
+	public InputStream openStream() {
+		return new ByteArrayInputStream(_data, 0, _length);
+	}
+
+	/**
+	 * Get UTF-8 decoded text view of data. Text is decoded once and kept.
+	 * @return Read only text.
+	 */
+	public synchronized CharSequence getCharSequence() {
+		if (null == _chars) {
+			_chars = UTF_8.decode(ByteBuffer.wrap(_data, 0, _length));
+		}
+		return _chars.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Get UTF-8 decoded text of data.
+	 * @return Text string.
+	 */
+	@Override
+	public synchronized String toString() {
+		if (null != _chars) {
+			return _chars.toString();
+		}
+		return new String(_data, 0, _length, UTF_8);
+	}
+
+}